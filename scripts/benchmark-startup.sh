@@ -0,0 +1,45 @@
+#!/bin/sh
+# Measures the cost of rotating a single map per invocation, the way scripts call the tool: the plain jar, the jar
+# with its AppCDS archive, and the native image, each for whichever have been built. Prints the average wall-clock
+# time per invocation.
+#
+# Usage: scripts/benchmark-startup.sh <map file> [runs]
+set -e
+cd "$(dirname "$0")/.."
+
+if [ $# -lt 1 ]; then
+	echo "Usage: scripts/benchmark-startup.sh <map file> [runs]" >&2
+	exit 2
+fi
+
+map=$1
+runs=${2:-20}
+output=$(mktemp -d)
+trap 'rm -rf "$output"' EXIT
+
+# Runs a command the given number of times, printing the average time per run
+measure()
+{
+	name=$1
+	shift
+	"$@" rotate 90 "$output" "$map" > /dev/null		# Warm the file cache
+	start=$(date +%s%N)
+	i=0
+	while [ $i -lt "$runs" ]; do
+		"$@" rotate 90 "$output" "$map" > /dev/null
+		i=$((i + 1))
+	done
+	end=$(date +%s%N)
+	printf "%-24s%8d ms\n" "$name" $(((end - start) / runs / 1000000))
+}
+
+[ -f build/maprotator.jar ] || scripts/build-cli.sh
+
+measure "jar" java -jar build/maprotator.jar
+measure "jar (C1 only)" java -XX:TieredStopAtLevel=1 -jar build/maprotator.jar
+if [ -f build/maprotator.jsa ]; then
+	measure "jar + AppCDS" java -XX:SharedArchiveFile=build/maprotator.jsa -XX:TieredStopAtLevel=1 -jar build/maprotator.jar
+fi
+if [ -x build/maprotator ]; then
+	measure "native image" build/maprotator
+fi
@@ -0,0 +1,21 @@
+#!/bin/sh
+# Builds an AppCDS archive of the classes the tool loads (build/maprotator.jsa), from a training run that rotates
+# every map in a sample folder. The archive must be rebuilt whenever the jar is. Needs JDK 13 or later.
+#
+# Usage: scripts/build-appcds.sh <sample map folder>
+set -e
+cd "$(dirname "$0")/.."
+
+if [ $# -lt 1 ]; then
+	echo "Usage: scripts/build-appcds.sh <sample map folder>" >&2
+	exit 2
+fi
+
+[ -f build/maprotator.jar ] || scripts/build-cli.sh
+
+training=$(mktemp -d)
+trap 'rm -rf "$training"' EXIT
+
+rm -f build/maprotator.jsa
+java -XX:ArchiveClassesAtExit=build/maprotator.jsa -jar build/maprotator.jar rotate 90 "$training" "$1"/*.lmu > /dev/null
+echo "Built build/maprotator.jsa"
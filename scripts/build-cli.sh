@@ -0,0 +1,11 @@
+#!/bin/sh
+# Compiles the tool and packages it as build/maprotator.jar, run with: java -jar build/maprotator.jar <command> ...
+set -e
+cd "$(dirname "$0")/.."
+
+rm -rf build/classes
+mkdir -p build/classes
+javac -encoding UTF-8 -d build/classes $(find src -name '*.java')
+cp -R src/META-INF build/classes/
+jar --create --file build/maprotator.jar --main-class maprotator.MapRotator -C build/classes .
+echo "Built build/maprotator.jar"
@@ -0,0 +1,25 @@
+#!/bin/sh
+# Builds a GraalVM native image of the tool (build/maprotator). The reflection and resource configuration is
+# recorded by the native-image agent during a training run that rotates every map in a sample folder, so commands
+# the training run doesn't exercise (render, in particular, which needs AWT) may need a run of their own added here.
+# Needs GraalVM's native-image on the path.
+#
+# Usage: scripts/build-native.sh <sample map folder>
+set -e
+cd "$(dirname "$0")/.."
+
+if [ $# -lt 1 ]; then
+	echo "Usage: scripts/build-native.sh <sample map folder>" >&2
+	exit 2
+fi
+
+[ -f build/maprotator.jar ] || scripts/build-cli.sh
+
+training=$(mktemp -d)
+trap 'rm -rf "$training"' EXIT
+
+rm -rf build/native-config
+java -agentlib:native-image-agent=config-output-dir=build/native-config -jar build/maprotator.jar \
+	rotate 90 "$training" "$1"/*.lmu > /dev/null
+native-image -jar build/maprotator.jar -H:ConfigurationFileDirectories=build/native-config -o build/maprotator
+echo "Built build/maprotator"
@@ -0,0 +1,15 @@
+#!/bin/sh
+# Compiles the sources with the property and fuzz tests in test/, and runs each test. A test fails by throwing, which
+# stops the script with a non-zero status. The seed is printed by each test, so a failure can be reproduced.
+#
+# Usage: scripts/run-tests.sh [seed] [iterations]
+set -e
+cd "$(dirname "$0")/.."
+
+rm -rf build/test-classes
+mkdir -p build/test-classes
+javac -encoding UTF-8 -d build/test-classes $(find src test -name '*.java')
+
+for test in VLQTest ObjectListTest MapFuzzTest; do
+	java -cp build/test-classes "maprotator.$test" "$@"
+done
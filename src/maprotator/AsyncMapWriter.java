@@ -0,0 +1,266 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * AsyncMapWriter.java
+ * 
+ * Writes serialized maps to disk on dedicated I/O threads, so rotation and serialization can carry on while earlier
+ * results are still being written. Finished maps are handed off through a bounded queue; when the queue is full,
+ * submitting blocks until an I/O thread catches up, which keeps memory use in check when the disk is the bottleneck.
+ * 
+ * Every file is written to a temporary file in the destination folder, forced to disk, and then renamed over the
+ * destination, so a crashed batch never leaves a truncated .lmu file behind. The temporary file is created with the
+ * same default permissions as any other new file, so the umask applies to the result as usual.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class AsyncMapWriter implements AutoCloseable
+{
+	private static final WriteJob POISON = new WriteJob(null, null);	// Tells an I/O thread to stop
+	
+	private BlockingQueue<WriteJob> queue;	// Maps waiting to be written
+	private Thread[] ioThreads;				// Threads writing maps to disk
+	private volatile boolean closed;		// Whether the writer has stopped accepting maps
+	private ReadWriteLock closing;			// Held for reading while a map is queued, and for writing while closing
+	
+	/**
+	 * A serialized map waiting to be written.
+	 */
+	private static class WriteJob
+	{
+		Path destination;				// Path of the file to write
+		ByteBuffer[] buffers;			// The file's contents, in order
+		CompletableFuture<Path> result;	// Completed once the file has been written
+		
+		/**
+		 * @param destination	Path of the file to write
+		 * @param buffers		The file's contents, in order
+		 */
+		WriteJob(Path destination, ByteBuffer[] buffers)
+		{
+			this.destination = destination;
+			this.buffers = buffers;
+			result = new CompletableFuture<Path>();
+		}
+	}
+	
+	/**
+	 * Creates a writer with a single I/O thread.
+	 * 
+	 * @param queueCapacity	Maximum number of maps waiting to be written before submit() blocks
+	 */
+	public AsyncMapWriter(int queueCapacity)
+	{
+		this(queueCapacity, 1);
+	}
+	
+	/**
+	 * Creates a writer.
+	 * 
+	 * @param queueCapacity	Maximum number of maps waiting to be written before submit() blocks
+	 * @param threads		Number of I/O threads
+	 */
+	public AsyncMapWriter(int queueCapacity, int threads)
+	{
+		queue = new ArrayBlockingQueue<WriteJob>(queueCapacity);
+		ioThreads = new Thread[threads];
+		closing = new ReentrantReadWriteLock();
+		
+		for (int i = 0; i < threads; i++)
+		{
+			ioThreads[i] = new Thread(this::drain, "map-writer-" + i);
+			ioThreads[i].setDaemon(true);
+			ioThreads[i].start();
+		}
+	}
+	
+	/**
+	 * Queues a file to be written, blocking while the queue is full. The buffers must not be modified until the
+	 * returned future completes.
+	 * 
+	 * @param destination	Path of the file to write
+	 * @param buffers		The file's contents, in order
+	 * @return	A future completed with the destination once the file is in place, or exceptionally if it can't be written
+	 * @throws IllegalStateException	If the writer has been closed
+	 */
+	public CompletableFuture<Path> submit(Path destination, ByteBuffer... buffers)
+	{
+		// Closing waits for maps being queued, so none can land behind the I/O threads' signal to stop
+		closing.readLock().lock();
+		try
+		{
+			if (closed)
+				throw new IllegalStateException("Writer is closed");
+			
+			WriteJob job = new WriteJob(destination, buffers);
+			try
+			{
+				queue.put(job);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				job.result.completeExceptionally(e);
+			}
+			
+			return job.result;
+		}
+		finally
+		{
+			closing.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Queues a file to be written, blocking while the queue is full.
+	 * 
+	 * @param destination	Path of the file to write
+	 * @param data			The file's contents
+	 * @return	A future completed with the destination once the file is in place, or exceptionally if it can't be written
+	 */
+	public CompletableFuture<Path> submit(Path destination, byte[] data)
+	{
+		return submit(destination, ByteBuffer.wrap(data));
+	}
+	
+	/**
+	 * Takes jobs off the queue and writes them until told to stop. Run by each I/O thread.
+	 */
+	private void drain()
+	{
+		while (true)
+		{
+			WriteJob job;
+			try
+			{
+				job = queue.take();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			
+			if (job == POISON)
+				return;
+			
+			try
+			{
+				writeAtomically(job.destination, job.buffers);
+				job.result.complete(job.destination);
+			}
+			catch (IOException | RuntimeException e)
+			{
+				job.result.completeExceptionally(e);
+			}
+		}
+	}
+	
+	/**
+	 * Stops accepting maps and waits for every queued map to be written.
+	 */
+	@Override
+	public void close()
+	{
+		closing.writeLock().lock();
+		try
+		{
+			if (closed)
+				return;
+			
+			closed = true;
+		}
+		finally
+		{
+			closing.writeLock().unlock();
+		}
+		
+		try
+		{
+			for (int i = 0; i < ioThreads.length; i++)
+				queue.put(POISON);
+			
+			for (Thread thread : ioThreads)
+				thread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Writes a file by gathering the given buffers into a temporary file beside the destination, forcing it to disk,
+	 * and renaming it over the destination.
+	 * 
+	 * @param destination	Path of the file to write
+	 * @param buffers		The file's contents, in order
+	 * @throws IOException	If the file can't be written, in which case the destination is left untouched
+	 */
+	public static void writeAtomically(Path destination, ByteBuffer... buffers) throws IOException
+	{
+		// Files.createTempFile would restrict the file to its owner, and the rename would carry that over
+		Path folder = destination.toAbsolutePath().getParent();
+		Path temporary;
+		FileChannel file;
+		while (true)
+		{
+			temporary = folder.resolve(destination.getFileName() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+			try
+			{
+				file = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				break;
+			}
+			catch (FileAlreadyExistsException e)
+			{
+				// Another writer's file; pick another name
+			}
+		}
+		
+		try
+		{
+			long total = 0;
+			for (ByteBuffer buffer : buffers)
+				total += buffer.remaining();
+			
+			PhaseTimer timer = PhaseTimer.start(MapPhase.WRITE);
+			try (FileChannel channel = file)
+			{
+				long written = 0;
+				while (written < total)
+					written += channel.write(buffers);
+				
+				channel.force(true);
+			}
+			timer.end(destination.getFileName().toString(), total);
+			
+			try
+			{
+				Files.move(temporary, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(temporary);
+		}
+	}
+}
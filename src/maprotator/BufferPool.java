@@ -0,0 +1,65 @@
+package maprotator;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BufferPool.java
+ * 
+ * A thread-safe pool of reusable byte arrays, used to hold the raw contents of map files while they're parsed so that
+ * loading many maps doesn't allocate a fresh input array for each one. Buffers grow to fit the largest file they've
+ * been asked to hold, and at most a fixed number of idle buffers are retained.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class BufferPool
+{
+	private ConcurrentLinkedQueue<byte[]> idle;	// Buffers available for reuse
+	private AtomicInteger idleCount;			// Number of buffers in the idle queue
+	private int capacity;						// Maximum number of idle buffers to retain
+	
+	/**
+	 * Creates an empty pool.
+	 * 
+	 * @param capacity	Maximum number of idle buffers to retain
+	 */
+	public BufferPool(int capacity)
+	{
+		this.capacity = capacity;
+		idle = new ConcurrentLinkedQueue<byte[]>();
+		idleCount = new AtomicInteger();
+	}
+	
+	/**
+	 * Takes a buffer out of the pool, allocating a new one if no idle buffer is large enough.
+	 * 
+	 * @param minimumSize	The minimum length of the buffer
+	 * @return	A buffer at least as long as the given size
+	 */
+	public byte[] acquire(int minimumSize)
+	{
+		byte[] buffer = idle.poll();
+		if (buffer == null)
+			return new byte[minimumSize];
+		
+		idleCount.decrementAndGet();
+		if (buffer.length < minimumSize)
+			return new byte[Math.max(minimumSize, buffer.length + buffer.length / 2)];
+		
+		return buffer;
+	}
+	
+	/**
+	 * Returns a buffer to the pool for reuse. The caller must not touch the buffer afterward.
+	 * 
+	 * @param buffer	The buffer to return
+	 */
+	public void release(byte[] buffer)
+	{
+		if (idleCount.incrementAndGet() <= capacity)
+			idle.offer(buffer);
+		else
+			idleCount.decrementAndGet();
+	}
+}
@@ -0,0 +1,332 @@
+package maprotator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+
+/**
+ * ChipsetAtlas.java
+ *
+ * Every tile a chipset can draw, cut out of the chipset image and composed ahead of time, so a renderer only has to
+ * copy 16x16 blocks of pixels. A chipset image is 480x256 pixels, laid out in 16x16 chips:
+ *
+ *     Columns 0-2, rows 0-3		Water tile 1 (coast pieces, first animation frame in column 0)
+ *     Columns 3-5, rows 0-3		Water tile 2
+ *     Columns 0-2, rows 4-7		Water fill: shallow water in rows 4-5, deep water in rows 6-7
+ *     Columns 3-5, rows 4-7		Animated tiles 1-3 (one per column, first frame in row 4)
+ *     Columns 0-5, rows 8-15		Autotiles 1-4, each a 3x4 block
+ *     Columns 6-11, rows 0-15		Autotiles 5-12, each a 3x4 block
+ *     Columns 12-17, rows 0-15		Simple tiles 1-96
+ *     Columns 18-23, rows 0-7		Simple tiles 97-144
+ *     Columns 18-23, rows 8-15		Upper layer tiles 1-48
+ *     Columns 24-29, rows 0-15		Upper layer tiles 49-144
+ *
+ * Autotiles are composed a quarter (8x8 pixels) at a time from their block, according to their connections offset
+ * (see the README): each quarter is a corner, edge, inner corner or fill piece depending on whether the tile connects
+ * in the two directions and the diagonal that quarter faces. Water is composed the same way from its coast pieces,
+ * with the quarters that don't meet land filled with shallow or deep water; where the subtile offset blocks a
+ * connection with deep water, the fill is taken from the transition row instead. The water compositions are close to
+ * what RPG Maker draws, but aren't guaranteed to match it pixel for pixel.
+ *
+ * Atlases loaded from disk are cached by path, so each chipset image is decoded only once.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class ChipsetAtlas
+{
+	public static final int TILE_SIZE = 16;			// Width and height of a tile (in pixels)
+	public static final int CHIPSET_WIDTH = 480;	// Width of a chipset image (in pixels)
+	public static final int CHIPSET_HEIGHT = 256;	// Height of a chipset image (in pixels)
+	public static final int MAX_TILE = 10143;		// Largest tile value (the last upper layer tile)
+
+	private static final int N = 0x01, E = 0x02, S = 0x04, W = 0x08;		// Orthogonal connection bits
+	private static final int NE = 0x10, SE = 0x20, SW = 0x40, NW = 0x80;	// Diagonal connection bits
+	private static final int[] CONNECTIONS = connectionTable();				// Directions connected, by connections offset
+	private static final int[] SUBTILE_OFFSETS = { 0, 50, 100, 150, 200, 250, 400, 500, 600, 750 };		// Water subtile offsets
+	private static final int[] DEEP_SIDES = { 0, W | N, N | E, W | N | E, W | S, W | N | S, E | S, N | E | S, E | S | W, W | N | E | S };	// Sides blocked by deep water, by subtile offset
+
+	private static final ConcurrentHashMap<Path, ChipsetAtlas> cache = new ConcurrentHashMap<Path, ChipsetAtlas>();	// Atlases loaded so far, by path
+
+	private int[] chipset;	// The chipset's pixels, as ARGB in row-major order
+	private int[][] tiles;	// The pixels of each tile, by tile value (null for values that aren't tiles)
+
+	/**
+	 * Returns the atlas for a chipset image, decoding the image the first time it's asked for.
+	 *
+	 * @param path	Path of the chipset image (PNG or BMP)
+	 * @return	The chipset's atlas
+	 * @throws IOException	If the image can't be read
+	 * @throws IllegalArgumentException	If the image isn't 480x256
+	 */
+	public static ChipsetAtlas load(Path path) throws IOException
+	{
+		try
+		{
+			return cache.computeIfAbsent(path.toAbsolutePath().normalize(), key ->
+			{
+				try
+				{
+					BufferedImage image = ImageIO.read(key.toFile());
+					if (image == null)
+						throw new IOException("Unsupported image format: " + key);
+
+					return new ChipsetAtlas(image);
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Forgets every atlas loaded from disk, so changed chipset images are read again.
+	 */
+	public static void clearCache()
+	{
+		cache.clear();
+	}
+
+	/**
+	 * Cuts and composes every tile of a chipset image. In paletted images, the first palette entry is transparent.
+	 *
+	 * @param image	The chipset image
+	 * @throws IllegalArgumentException	If the image isn't 480x256
+	 */
+	public ChipsetAtlas(BufferedImage image)
+	{
+		if (image.getWidth() != CHIPSET_WIDTH || image.getHeight() != CHIPSET_HEIGHT)
+			throw new IllegalArgumentException("Chipset image is " + image.getWidth() + "x" + image.getHeight() + " rather than "
+												+ CHIPSET_WIDTH + "x" + CHIPSET_HEIGHT);
+
+		chipset = image.getRGB(0, 0, CHIPSET_WIDTH, CHIPSET_HEIGHT, null, 0, CHIPSET_WIDTH);
+		if (image.getColorModel() instanceof IndexColorModel)
+		{
+			int transparent = ((IndexColorModel) image.getColorModel()).getRGB(0);
+			for (int i = 0; i < chipset.length; i++)
+				if (chipset[i] == transparent)
+					chipset[i] = 0;
+		}
+
+		tiles = new int[MAX_TILE + 1][];
+
+		// Water
+		for (int type = 0; type < 3; type++)
+			for (int s = 0; s < SUBTILE_OFFSETS.length; s++)
+				for (int connections = 0; connections < CONNECTIONS.length; connections++)
+					tiles[1000 * type + SUBTILE_OFFSETS[s] + connections] = water(type, DEEP_SIDES[s], CONNECTIONS[connections]);
+
+		// Animated tiles
+		for (int i = 0; i < 3; i++)
+			tiles[3000 + 50 * i] = chip(3 + i, 4);
+
+		// Autotiles
+		for (int i = 0; i < 12; i++)
+		{
+			int blockX = i < 4 ? 3 * (i % 2) : 6 + 3 * (i % 2);
+			int blockY = i < 4 ? 8 + 4 * (i / 2) : 4 * ((i - 4) / 2);
+			for (int connections = 0; connections < CONNECTIONS.length; connections++)
+				tiles[4000 + 50 * i + connections] = connections == CONNECTIONS.length - 1 ? chip(blockX, blockY)
+														: autotile(blockX, blockY, CONNECTIONS[connections]);
+		}
+
+		// Simple tiles and upper layer tiles
+		for (int i = 0; i < 144; i++)
+		{
+			tiles[5000 + i] = i < 96 ? chip(12 + i % 6, i / 6) : chip(18 + i % 6, (i - 96) / 6);
+			tiles[10000 + i] = i < 48 ? chip(18 + i % 6, 8 + i / 6) : chip(24 + (i - 48) % 6, (i - 48) / 6);
+		}
+	}
+
+	/**
+	 * @param value	A tile value, as stored in a map's tile layers
+	 * @return	The tile's 16x16 pixels as ARGB in row-major order (not a copy), or null if the value isn't a tile
+	 */
+	public int[] getTile(int value)
+	{
+		return value >= 0 && value <= MAX_TILE ? tiles[value] : null;
+	}
+
+	/**
+	 * @param chipX	Column of a chip in the chipset
+	 * @param chipY	Row of the chip
+	 * @return	A copy of the chip's pixels
+	 */
+	private int[] chip(int chipX, int chipY)
+	{
+		int[] tile = new int[TILE_SIZE * TILE_SIZE];
+		for (int y = 0; y < TILE_SIZE; y++)
+			System.arraycopy(chipset, (chipY * TILE_SIZE + y) * CHIPSET_WIDTH + chipX * TILE_SIZE, tile, y * TILE_SIZE, TILE_SIZE);
+
+		return tile;
+	}
+
+	/**
+	 * Composes an autotile (other than the unconnected one, which is drawn as the first chip of its block).
+	 *
+	 * @param blockX		Column of the autotile's block in the chipset
+	 * @param blockY		Row of the autotile's block
+	 * @param connections	Directions the tile connects in
+	 * @return	The tile's pixels
+	 */
+	private int[] autotile(int blockX, int blockY, int connections)
+	{
+		int[] tile = new int[TILE_SIZE * TILE_SIZE];
+		for (int quarter = 0; quarter < 4; quarter++)
+		{
+			int qx = quarter % 2;
+			int qy = quarter / 2;
+			boolean vertical = (connections & (qy == 0 ? N : S)) != 0;
+			boolean horizontal = (connections & (qx == 0 ? W : E)) != 0;
+			boolean diagonal = (connections & diagonalOf(qx, qy)) != 0;
+
+			// Pick the chip the quarter comes from: the inner corner chip, or a chip of the 3x3 square below it
+			int chipX, chipY;
+			if (vertical && horizontal && !diagonal)
+			{
+				chipX = 2;
+				chipY = 0;
+			}
+			else
+			{
+				chipX = horizontal ? 1 : 2 * qx;
+				chipY = vertical ? 2 : 1 + 2 * qy;
+			}
+
+			copyQuarter(tile, qx, qy, blockX + chipX, blockY + chipY);
+		}
+
+		return tile;
+	}
+
+	/**
+	 * Composes a water tile.
+	 *
+	 * @param type			0 or 1 for the shallow water tiles, 2 for deep water
+	 * @param deepSides		Sides on which connections are blocked by deep water
+	 * @param connections	Directions the tile connects in (i.e., isn't blocked by land)
+	 * @return	The tile's pixels
+	 */
+	private int[] water(int type, int deepSides, int connections)
+	{
+		int coastX = type == 1 ? 3 : 0;
+		int fillY = type == 2 ? 6 : 4;
+
+		int[] tile = new int[TILE_SIZE * TILE_SIZE];
+		for (int quarter = 0; quarter < 4; quarter++)
+		{
+			int qx = quarter % 2;
+			int qy = quarter / 2;
+			int vertical = qy == 0 ? N : S;
+			int horizontal = qx == 0 ? W : E;
+			boolean verticalOpen = (connections & vertical) != 0;
+			boolean horizontalOpen = (connections & horizontal) != 0;
+			boolean diagonalOpen = (connections & diagonalOf(qx, qy)) != 0;
+
+			// Coast pieces: outer corner, vertical coast, horizontal coast and inner corner, one per row
+			if (!verticalOpen && !horizontalOpen)
+				copyQuarter(tile, qx, qy, coastX, 0);
+			else if (!horizontalOpen)
+				copyQuarter(tile, qx, qy, coastX, 1);
+			else if (!verticalOpen)
+				copyQuarter(tile, qx, qy, coastX, 2);
+			else if (!diagonalOpen)
+				copyQuarter(tile, qx, qy, coastX, 3);
+			else
+				copyQuarter(tile, qx, qy, 0, fillY + ((deepSides & (vertical | horizontal)) != 0 ? 1 : 0));
+		}
+
+		return tile;
+	}
+
+	/**
+	 * Copies one quarter of a chip into the same quarter of a tile.
+	 *
+	 * @param tile	The tile's pixels
+	 * @param qx	0 for a left quarter, 1 for a right one
+	 * @param qy	0 for a top quarter, 1 for a bottom one
+	 * @param chipX	Column of the chip in the chipset
+	 * @param chipY	Row of the chip
+	 */
+	private void copyQuarter(int[] tile, int qx, int qy, int chipX, int chipY)
+	{
+		int half = TILE_SIZE / 2;
+		for (int y = 0; y < half; y++)
+			System.arraycopy(chipset, (chipY * TILE_SIZE + qy * half + y) * CHIPSET_WIDTH + chipX * TILE_SIZE + qx * half,
+								tile, (qy * half + y) * TILE_SIZE + qx * half, half);
+	}
+
+	/**
+	 * @param qx	0 for a left quarter, 1 for a right one
+	 * @param qy	0 for a top quarter, 1 for a bottom one
+	 * @return	The diagonal connection bit the quarter faces
+	 */
+	private static int diagonalOf(int qx, int qy)
+	{
+		return qy == 0 ? (qx == 0 ? NW : NE) : (qx == 0 ? SW : SE);
+	}
+
+	/**
+	 * Builds the table of directions connected for each connections offset (see the table in the README). Offsets
+	 * 0x00-0x0F connect on every side, with each bit blocking a diagonal; the next groups of four block one side and
+	 * two bits' worth of the diagonals left; and so on down to 0x2E, which connects nowhere.
+	 *
+	 * @return	The directions connected, by connections offset
+	 */
+	private static int[] connectionTable()
+	{
+		int[] table = new int[47];
+		int all = N | E | S | W;
+
+		for (int i = 0; i < 16; i++)
+			table[i] = all | blocked(i, new int[] { NW, NE, SE, SW }, NE | SE | SW | NW);
+
+		int[][] sides = { { W, NE, SE }, { N, SE, SW }, { E, SW, NW }, { S, NW, NE } };
+		for (int side = 0; side < 4; side++)
+			for (int i = 0; i < 4; i++)
+				table[0x10 + 4 * side + i] = (all & ~sides[side][0]) | blocked(i, new int[] { sides[side][1], sides[side][2] },
+																					sides[side][1] | sides[side][2]);
+
+		table[0x20] = N | S;
+		table[0x21] = E | W;
+
+		int[][] corners = { { E | S, SE }, { S | W, SW }, { W | N, NW }, { N | E, NE } };
+		for (int corner = 0; corner < 4; corner++)
+		{
+			table[0x22 + 2 * corner] = corners[corner][0] | corners[corner][1];
+			table[0x23 + 2 * corner] = corners[corner][0];
+		}
+
+		table[0x2A] = S;
+		table[0x2B] = E;
+		table[0x2C] = N;
+		table[0x2D] = W;
+		table[0x2E] = 0;
+		return table;
+	}
+
+	/**
+	 * @param bits		Bits of a connections offset, each blocking one diagonal
+	 * @param diagonals	The diagonal blocked by each bit, lowest bit first
+	 * @param open		The diagonals that could connect
+	 * @return	The diagonals left connected
+	 */
+	private static int blocked(int bits, int[] diagonals, int open)
+	{
+		for (int i = 0; i < diagonals.length; i++)
+			if ((bits & (1 << i)) != 0)
+				open &= ~diagonals[i];
+
+		return open;
+	}
+}
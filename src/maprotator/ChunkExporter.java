@@ -0,0 +1,86 @@
+package maprotator;
+
+/**
+ * ChunkExporter.java
+ * 
+ * Cuts the rotated tile layers of a map into fixed-size chunks and hands each chunk to a listener as soon as it is
+ * computed, without rebuilding or rotating the map itself. Tiles are read through RotatedLayerViews over the map's
+ * tile layers, so memory use is bounded by the size of a single chunk no matter how large the map is.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class ChunkExporter
+{
+	public static final int DEFAULT_CHUNK_SIZE = 32;	// Default width and height (in tiles) of a chunk
+	
+	private RMMap map;			// The map to export
+	private int chunkSize;		// Width and height (in tiles) of a chunk
+	
+	/**
+	 * Creates an exporter for the given map using the default chunk size.
+	 * 
+	 * @param map	The map to export
+	 */
+	public ChunkExporter(RMMap map)
+	{
+		this(map, DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Creates an exporter for the given map.
+	 * 
+	 * @param map		The map to export
+	 * @param chunkSize	Width and height (in tiles) of a chunk
+	 */
+	public ChunkExporter(RMMap map, int chunkSize)
+	{
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		
+		this.map = map;
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * Exports the chunks of every rotation of the map, one rotation after another.
+	 * 
+	 * @param listener	The listener to receive each chunk
+	 */
+	public void exportAll(ChunkListener listener)
+	{
+		for (Rotation rotation : Rotation.values())
+			export(rotation, listener);
+	}
+	
+	/**
+	 * Exports the chunks of the map as it would appear after the given rotation, in row-major order of chunks.
+	 * 
+	 * @param rotation	The amount to rotate the map (clockwise)
+	 * @param listener	The listener to receive each chunk
+	 */
+	public void export(Rotation rotation, ChunkListener listener)
+	{
+		RotatedLayerView lowerLayer = new RotatedLayerView(map, 0x47, rotation);
+		RotatedLayerView upperLayer = new RotatedLayerView(map, 0x48, rotation);
+		int rotatedWidth = lowerLayer.getWidth();
+		int rotatedHeight = lowerLayer.getHeight();
+		
+		for (int chunkY = 0; chunkY * chunkSize < rotatedHeight; chunkY++)
+			for (int chunkX = 0; chunkX * chunkSize < rotatedWidth; chunkX++)
+			{
+				int x = chunkX * chunkSize;
+				int y = chunkY * chunkSize;
+				TileChunk chunk = new TileChunk(rotation, chunkX, chunkY, x, y,
+												Math.min(chunkSize, rotatedWidth - x), Math.min(chunkSize, rotatedHeight - y));
+				
+				for (int row = 0; row < chunk.getHeight(); row++)
+				{
+					lowerLayer.copyRow(x, y + row, chunk.getWidth(), chunk.getLowerTiles(), row * chunk.getWidth());
+					upperLayer.copyRow(x, y + row, chunk.getWidth(), chunk.getUpperTiles(), row * chunk.getWidth());
+				}
+				
+				listener.chunkReady(chunk);
+			}
+	}
+}
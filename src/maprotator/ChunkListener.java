@@ -0,0 +1,20 @@
+package maprotator;
+
+/**
+ * ChunkListener.java
+ * 
+ * Receives the chunks produced by a ChunkExporter, one at a time, as soon as each chunk has been computed.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public interface ChunkListener
+{
+	/**
+	 * Called once for each chunk of each exported rotation, in row-major order of chunks within a rotation.
+	 * The chunk is not reused by the exporter afterward, so the listener is free to hold on to it.
+	 * 
+	 * @param chunk	The newly computed chunk
+	 */
+	void chunkReady(TileChunk chunk);
+}
@@ -1,5 +1,7 @@
 package maprotator;
 
+import java.util.Arrays;
+
 /**
  * DataItem.java
  * 
@@ -16,6 +18,7 @@ public class DataItem
 	private int dataIndex;		// Index at which data begins
 	private byte[] content;		// Representation of complete data item (inc. metadata) as an array of bytes
 	private RMObject parent;	// Reference to parent object
+	private int contentHash;	// Cached hash of the content array, or 0 if not yet computed
 	
 	/**
 	 * Creates a new DataItem by extracting an ID, size integer, and data from a source byte array, 
@@ -24,13 +27,34 @@ public class DataItem
 	 * @param source	Source byte array to copy data from
 	 * @param index		Index of the source array to begin reading from
 	 * @param parent	Reference to the parent object to which this items belongs
+	 * @throws IllegalArgumentException	If the item's declared size runs past the end of the source array
 	 */
 	public DataItem(byte[] source, int index, RMObject parent)
 	{
-		VLQ contentLength = VLQ.extractVlq(source, index + 1);
-		dataSize = contentLength.toInteger();
-		dataIndex = 1 + contentLength.size();
-		content = new byte[1 + contentLength.size() + dataSize];
+		this(source, index, source.length, parent);
+	}
+	
+	/**
+	 * Creates a new DataItem by extracting an ID, size integer, and data from the part of a source byte array that
+	 * ends at the given index, so that an array holding more than the item's object (a reused buffer, say) is never
+	 * read past the object's end.
+	 * 
+	 * @param source	Source byte array to copy data from
+	 * @param index		Index of the source array to begin reading from
+	 * @param end		Index of the source array at which its data ends
+	 * @param parent	Reference to the parent object to which this items belongs
+	 * @throws IllegalArgumentException	If the item's declared size runs past the end of the data
+	 */
+	public DataItem(byte[] source, int index, int end, RMObject parent)
+	{
+		dataSize = VLQ.readInt(source, index + 1, end);
+		dataIndex = 1 + VLQ.length(source, index + 1, end);
+		
+		if (dataSize < 0 || dataSize > end - index - dataIndex)
+			throw new IllegalArgumentException(String.format("Item 0x%02X at index %d declares %d bytes of data, but only %d remain", 
+																source[index], index, dataSize, end - index - dataIndex));
+		
+		content = new byte[dataIndex + dataSize];
 		RMTools.copyData(source, index, content, 0, content.length);
 		id = content[0];
 		
@@ -144,6 +168,41 @@ public class DataItem
 		return content;
 	}
 
+	/**
+	 * @return	A hash of the entire item, computed once and cached (the content array is never modified)
+	 */
+	public int contentHash()
+	{
+		int hash = contentHash;
+		if (hash == 0)
+		{
+			hash = Arrays.hashCode(content);
+			if (hash == 0)
+				hash = 1;
+			
+			contentHash = hash;
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * Checks whether another item holds exactly the same ID and data. Items of different lengths or hashes are
+	 * rejected without comparing their bytes.
+	 * 
+	 * @param other	The item to compare to
+	 * @return	true if both items have identical content
+	 */
+	public boolean sameContent(DataItem other)
+	{
+		if (other == this)
+			return true;
+		if (other == null || other.content.length != content.length || other.contentHash() != contentHash())
+			return false;
+		
+		return Arrays.equals(content, other.content);
+	}
+	
 	/**
 	 * @return	ID of DataItem in its parent object (as integer)
 	 */
@@ -160,6 +219,14 @@ public class DataItem
 		return dataSize; 
 	}
 	
+	/**
+	 * @return	Index in the content array at which the item's data begins
+	 */
+	public int getDataIndex()
+	{
+		return dataIndex;
+	}
+	
 	/**
 	 * @return	A copy of the portion of the content array representing the item's data, as a byte array
 	 */
@@ -177,8 +244,7 @@ public class DataItem
 	 */
 	public int getDataAsInteger()
 	{
-		VLQ result = VLQ.extractVlq(content, dataIndex);
-		return result.toInteger();
+		return VLQ.readInt(content, dataIndex);
 	}
 	
 	/**
@@ -186,15 +252,12 @@ public class DataItem
 	 */
 	public String getDataAsString()
 	{
-		char[] result = new char[getDataSize()];
-		for (int i = 0; i < result.length; i++)
-			result[i] = (char) content[dataIndex + i];
-		
-		return new String(getData());
+		return new String(content, dataIndex, dataSize, ItemSchema.CHARSET);
 	}
 	
 	/**
 	 * @return The array of RMObjects constituting this item's data - assuming it actually represents an array of objects.
+	 * @throws IllegalArgumentException	If the data can't be parsed as an array of objects
 	 */
 	public RMObject[] getDataAsArray()
 	{
@@ -202,6 +265,12 @@ public class DataItem
 		int arrayLength = arrayLengthVLQ.toInteger();
 		
 		int index = dataIndex + arrayLengthVLQ.size();
+		
+		// Every object takes at least two bytes (its header and end-of-object byte)
+		if (arrayLength < 0 || arrayLength > (content.length - index) / 2)
+			throw new IllegalArgumentException("Item 0x" + String.format("%02X", id) + " declares " + arrayLength + " objects in " 
+												+ (content.length - index) + " bytes");
+		
 		RMObject[] objects = new RMObject[arrayLength];
 		
 //		RMObject.printHexData(content);
@@ -213,15 +282,11 @@ public class DataItem
 			index += objects[i].size();
 		}
 		
-		if (index == content.length)
-		{
-			System.out.println("Successfully parsed " + arrayLength + " objects from " + parent.getName() + "/Item 0x"  + String.format("%02X", id));
-		}
-		else
+		if (index != content.length)
 		{
 			System.err.println("Failed to parse " + arrayLength + " objects from " + parent.getName() + "/Item 0x"  + String.format("%02X", id));
 			System.err.println("Index: " + index + " / Content length: " + content.length);
-			System.exit(1);
+			throw new IllegalArgumentException("Object list in item 0x" + String.format("%02X", id) + " doesn't match its declared size");
 		}
 		
 		return objects;
@@ -0,0 +1,224 @@
+package maprotator;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * EventIndex.java
+ *
+ * A uniform grid over the tiles of a map that buckets its events by position, so that the events at or near a given
+ * location can be found without scanning (and decoding the position of) every event on the map. Each cell of the grid
+ * covers a square block of tiles; a rectangle query only visits the cells overlapping the rectangle.
+ *
+ * The index caches each event's position when the event is added. RMEvent notifies the index it belongs to whenever its
+ * position changes, and RMMap discards its index whenever the map is rotated, resized, or its event layer is reparsed.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class EventIndex
+{
+	public static final int DEFAULT_CELL_SIZE = 16;	// Width and height (in tiles) of each grid cell
+
+	private int cellSize;								// Width and height (in tiles) of each grid cell
+	private int columns;								// Number of cells per row of the grid
+	private int rows;									// Number of cells per column of the grid
+	private ArrayList<Entry>[] cells;					// Entries bucketed by cell, in row-major order
+	private IdentityHashMap<RMEvent, Entry> entries;	// Entry for each indexed event
+
+	/**
+	 * An indexed event along with the position it was last filed under.
+	 */
+	private static class Entry
+	{
+		RMEvent event;	// The indexed event
+		int x;			// X-position the event was filed under
+		int y;			// Y-position the event was filed under
+		int cell;		// Index of the cell holding this entry
+	}
+
+	/**
+	 * Creates an empty index covering a map of the given dimensions.
+	 *
+	 * @param width		Width of the indexed map (in tiles)
+	 * @param height	Height of the indexed map (in tiles)
+	 * @param cellSize	Width and height (in tiles) of each grid cell
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public EventIndex(int width, int height, int cellSize)
+	{
+		if (cellSize < 1)
+			throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+
+		this.cellSize = cellSize;
+		columns = Math.max(1, (width + cellSize - 1) / cellSize);
+		rows = Math.max(1, (height + cellSize - 1) / cellSize);
+		cells = new ArrayList[columns * rows];
+		entries = new IdentityHashMap<RMEvent, Entry>();
+	}
+
+	/**
+	 * Builds an index over the given events, covering a map of the given dimensions.
+	 *
+	 * @param events	The events to index
+	 * @param width		Width of the indexed map (in tiles)
+	 * @param height	Height of the indexed map (in tiles)
+	 */
+	public EventIndex(RMEvent[] events, int width, int height)
+	{
+		this(width, height, DEFAULT_CELL_SIZE);
+
+		for (RMEvent event : events)
+			add(event);
+	}
+
+	/**
+	 * Adds an event to the index under its current position.
+	 *
+	 * @param event	The event to add
+	 */
+	public void add(RMEvent event)
+	{
+		Entry entry = new Entry();
+		entry.event = event;
+		entries.put(event, entry);
+		file(entry);
+		event.setIndex(this);
+	}
+
+	/**
+	 * Removes an event from the index.
+	 *
+	 * @param event	The event to remove
+	 */
+	public void remove(RMEvent event)
+	{
+		Entry entry = entries.remove(event);
+		if (entry != null)
+		{
+			cells[entry.cell].remove(entry);
+			event.setIndex(null);
+		}
+	}
+
+	/**
+	 * Moves an event to the cell matching its current position. Called by RMEvent whenever its position changes.
+	 *
+	 * @param event	The event that has moved
+	 */
+	protected void relocate(RMEvent event)
+	{
+		Entry entry = entries.get(event);
+		if (entry == null)
+			return;
+
+		cells[entry.cell].remove(entry);
+		file(entry);
+	}
+
+	/**
+	 * Detaches every indexed event from this index, after which the index should be discarded.
+	 */
+	protected void detach()
+	{
+		for (RMEvent event : entries.keySet())
+			event.setIndex(null);
+
+		entries.clear();
+	}
+
+	/**
+	 * @param x	X-position to look up
+	 * @param y	Y-position to look up
+	 * @return	The list of events positioned at the given tile
+	 */
+	public List<RMEvent> eventsAt(int x, int y)
+	{
+		return eventsIn(x, y, 1, 1);
+	}
+
+	/**
+	 * Finds every event positioned within the given rectangle. Only the cells overlapping the rectangle are visited.
+	 *
+	 * @param x			X-position of the rectangle's upper left corner
+	 * @param y			Y-position of the rectangle's upper left corner
+	 * @param width		Width of the rectangle (in tiles)
+	 * @param height	Height of the rectangle (in tiles)
+	 * @return	The list of events positioned within the rectangle
+	 */
+	public List<RMEvent> eventsIn(int x, int y, int width, int height)
+	{
+		List<RMEvent> result = new ArrayList<RMEvent>();
+		if (width <= 0 || height <= 0)
+			return result;
+
+		int firstColumn = clamp(Math.floorDiv(x, cellSize), columns);
+		int lastColumn = clamp(Math.floorDiv(x + width - 1, cellSize), columns);
+		int firstRow = clamp(Math.floorDiv(y, cellSize), rows);
+		int lastRow = clamp(Math.floorDiv(y + height - 1, cellSize), rows);
+
+		for (int row = firstRow; row <= lastRow; row++)
+			for (int column = firstColumn; column <= lastColumn; column++)
+			{
+				ArrayList<Entry> cell = cells[row * columns + column];
+				if (cell == null)
+					continue;
+
+				for (Entry entry : cell)
+					if (entry.x >= x && entry.x < x + width && entry.y >= y && entry.y < y + height)
+						result.add(entry.event);
+			}
+
+		return result;
+	}
+
+	/**
+	 * Finds every event within the given (Chebyshev) distance of a tile.
+	 *
+	 * @param x			X-position of the center tile
+	 * @param y			Y-position of the center tile
+	 * @param radius	Maximum horizontal and vertical distance from the center tile
+	 * @return	The list of events near the given tile
+	 */
+	public List<RMEvent> eventsNear(int x, int y, int radius)
+	{
+		return eventsIn(x - radius, y - radius, 2 * radius + 1, 2 * radius + 1);
+	}
+
+	/**
+	 * @return	The number of events in this index
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Reads an entry's position from its event and files the entry under the matching cell. Events lying outside the
+	 * map's bounds are filed under the nearest edge cell.
+	 *
+	 * @param entry	The entry to file
+	 */
+	private void file(Entry entry)
+	{
+		entry.x = entry.event.getXPos();
+		entry.y = entry.event.getYPos();
+		entry.cell = clamp(entry.y / cellSize, rows) * columns + clamp(entry.x / cellSize, columns);
+
+		if (cells[entry.cell] == null)
+			cells[entry.cell] = new ArrayList<Entry>();
+
+		cells[entry.cell].add(entry);
+	}
+
+	/**
+	 * @param value	A cell coordinate
+	 * @param limit	Number of cells along that axis
+	 * @return	The coordinate clamped to the range [0, limit)
+	 */
+	private static int clamp(int value, int limit)
+	{
+		return Math.max(0, Math.min(limit - 1, value));
+	}
+}
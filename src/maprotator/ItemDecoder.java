@@ -0,0 +1,453 @@
+package maprotator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * ItemDecoder.java
+ *
+ * Decodes RPG Maker objects into TypedObjects in a single pass over their bytes, using an ItemSchema to decide how to
+ * read each item: integers are read straight out of their VLQs, strings are decoded from Shift-JIS, tile layers are
+ * read into short arrays, and object lists are decoded recursively. Nothing is copied into DataItems along the way.
+ *
+ * An item is kept as raw bytes rather than decoded if the schema doesn't know its ID, or if re-encoding its decoded
+ * value wouldn't give back the same bytes (a string that isn't valid Shift-JIS, for instance). Items must appear in
+ * ascending order of ID, each at most once, as RPG Maker writes them: an object whose items don't is rejected, and an
+ * object list holding one is kept as raw bytes. So encode reproduces exactly any object that decodes.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class ItemDecoder
+{
+	private byte[] data;	// The bytes being decoded
+	private int position;	// Read position in the data
+
+	/**
+	 * Decodes the map given as the first argument and prints its declared items.
+	 *
+	 * @param args	Path of the map to decode
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: ItemDecoder <map file>");
+			System.exit(2);
+		}
+
+		byte[] input = Files.readAllBytes(Paths.get(args[0]));
+		TypedObject map = decodeMap(input);
+
+		for (ItemSchema.Field field : ItemSchema.MAP.getFields())
+		{
+			String value;
+			switch (field.getType())
+			{
+				case INTEGER:
+				case BOOLEAN:
+					value = Integer.toString(map.getInt(field.getID()));
+					break;
+				case STRING:
+					value = map.getString(field.getID());
+					break;
+				case TILES:
+					value = map.getTiles(field.getID()) == null ? null : map.getTiles(field.getID()).length + " tiles";
+					break;
+				case OBJECT_LIST:
+					value = map.getObjects(field.getID()).size() + " objects";
+					break;
+				default:
+					value = map.getRaw(field.getID()) == null ? null : map.getRaw(field.getID()).length + " bytes";
+					break;
+			}
+
+			System.out.println(String.format("[0x%02X] %s: %s", field.getID(), field.getName(), value));
+		}
+
+		System.out.println("Re-encodes identically: " + Arrays.equals(input, encodeMap(map)));
+	}
+
+	/**
+	 * Decodes the contents of a .lmu file.
+	 *
+	 * @param data	The contents of the file
+	 * @return	The decoded map
+	 * @throws IllegalArgumentException	If the data isn't a well-formed map, or its items aren't in ascending order of ID
+	 */
+	public static TypedObject decodeMap(byte[] data)
+	{
+		ItemDecoder decoder = new ItemDecoder(data, 0);
+
+		// The map's header is a length-prefixed string rather than an ID
+		int headerSize = decoder.readInt();
+		if (headerSize < 0 || headerSize > data.length - decoder.position)
+			throw new IllegalArgumentException("Map header declares " + headerSize + " bytes, but only " + (data.length - decoder.position) + " remain");
+
+		byte[] header = Arrays.copyOfRange(data, 0, decoder.position + headerSize);
+		decoder.position = header.length;
+
+		return decoder.readBody(ItemSchema.MAP, header, data.length);
+	}
+
+	/**
+	 * Decodes a single object (an event or page, for instance) whose header is its ID.
+	 *
+	 * @param data		Array holding the object
+	 * @param index		Index at which the object begins
+	 * @param schema	Schema of the object
+	 * @return	The decoded object
+	 * @throws IllegalArgumentException	If the data isn't a well-formed object, or its items aren't in ascending order of ID
+	 */
+	public static TypedObject decode(byte[] data, int index, ItemSchema schema)
+	{
+		ItemDecoder decoder = new ItemDecoder(data, index);
+		return decoder.readObject(schema, data.length);
+	}
+
+	/**
+	 * Encodes a decoded map as the contents of a .lmu file.
+	 *
+	 * @param map	The map
+	 * @return	The encoded map
+	 */
+	public static byte[] encodeMap(TypedObject map)
+	{
+		return encode(map);
+	}
+
+	/**
+	 * Encodes a decoded object, writing its items in ascending order of ID (as RPG Maker does).
+	 *
+	 * @param object	The object
+	 * @return	The encoded object, header and end-of-object byte included
+	 */
+	public static byte[] encode(TypedObject object)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeObject(out, object);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param data		The bytes to decode
+	 * @param position	Index at which to start decoding
+	 */
+	private ItemDecoder(byte[] data, int position)
+	{
+		this.data = data;
+		this.position = position;
+	}
+
+	/**
+	 * Reads an object whose header is its ID.
+	 *
+	 * @param schema	Schema of the object
+	 * @param end		Index the object mustn't run past
+	 * @return	The decoded object
+	 */
+	private TypedObject readObject(ItemSchema schema, int end)
+	{
+		int start = position;
+		position += VLQ.length(data, position);
+		return readBody(schema, Arrays.copyOfRange(data, start, position), end);
+	}
+
+	/**
+	 * Reads an object's items, up to and including its end-of-object byte.
+	 *
+	 * @param schema	Schema of the object
+	 * @param header	The object's header, already read
+	 * @param end		Index the object mustn't run past
+	 * @return	The decoded object
+	 * @throws IllegalArgumentException	If the object is malformed, or an item's ID isn't greater than the one before it
+	 */
+	private TypedObject readBody(ItemSchema schema, byte[] header, int end)
+	{
+		TypedObject object = new TypedObject(schema, header);
+		int lastID = 0;
+
+		while (true)
+		{
+			if (position >= end)
+				throw new IllegalArgumentException("Object data ended without an end-of-object byte");
+
+			int id = readInt();
+			if (id == 0)
+				return object;
+
+			// encode writes items in ascending order of ID, so it couldn't give back any other order or a repeated ID
+			if (id <= lastID)
+				throw new IllegalArgumentException(String.format("Item 0x%02X of %s follows item 0x%02X", id, schema.getName(), lastID));
+			lastID = id;
+
+			int size = readInt();
+			if (size < 0 || size > end - position)
+				throw new IllegalArgumentException(String.format("Item 0x%02X at index %d declares %d bytes of data, but only %d remain",
+																	id, position, size, end - position));
+
+			int itemEnd = position + size;
+			ItemSchema.Field field = schema.getField(id);
+
+			if (field == null)
+				object.unknownItems.put(id, Arrays.copyOfRange(data, position, itemEnd));
+			else
+			{
+				int slot = field.getSlot();
+				object.present[slot] = true;
+				if (!readValue(object, field, itemEnd))
+					object.raw[slot] = Arrays.copyOfRange(data, position, itemEnd);
+			}
+
+			position = itemEnd;
+		}
+	}
+
+	/**
+	 * Decodes an item's content into its slot of an object.
+	 *
+	 * @param object	The object being decoded
+	 * @param field		The declared item
+	 * @param itemEnd	Index at which the item's content ends
+	 * @return	false if the item should be kept as raw bytes instead
+	 */
+	private boolean readValue(TypedObject object, ItemSchema.Field field, int itemEnd)
+	{
+		int slot = field.getSlot();
+		int size = itemEnd - position;
+
+		switch (field.getType())
+		{
+			case INTEGER:
+			case BOOLEAN:
+			{
+				if (size == 0 || size > VLQ.MAX_LENGTH || (data[itemEnd - 1] & 0x80) != 0)
+					return false;
+
+				int value = VLQ.readInt(data, position);
+				if (VLQ.length(data, position) != size || vlqSize(value) != size)
+					return false;
+
+				object.values[slot] = value;
+				return true;
+			}
+
+			case STRING:
+			{
+				try
+				{
+					String text = ItemSchema.CHARSET.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+										.onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(data, position, size)).toString();
+
+					// A few characters have more than one encoding; keep those strings as they were written
+					byte[] encoded = text.getBytes(ItemSchema.CHARSET);
+					if (!Arrays.equals(encoded, 0, encoded.length, data, position, itemEnd))
+						return false;
+
+					object.objects[slot] = text;
+					return true;
+				}
+				catch (CharacterCodingException e)
+				{
+					return false;
+				}
+			}
+
+			case TILES:
+			{
+				if (size % 2 != 0)
+					return false;
+
+				short[] tiles = new short[size / 2];
+				for (int i = 0; i < tiles.length; i++)
+					tiles[i] = (short) ((data[position + 2 * i] & 0xFF) | (data[position + 2 * i + 1] << 8));
+
+				object.objects[slot] = tiles;
+				return true;
+			}
+
+			case OBJECT_LIST:
+			{
+				int start = position;
+				try
+				{
+					int count = readInt();
+
+					// Every object takes at least two bytes (its header and end-of-object byte)
+					if (count < 0 || count > (itemEnd - position) / 2)
+						return false;
+
+					List<TypedObject> list = new ArrayList<TypedObject>(count);
+					for (int i = 0; i < count; i++)
+						list.add(readObject(field.getElementSchema(), itemEnd));
+
+					if (position != itemEnd)
+						return false;
+
+					object.objects[slot] = list;
+					return true;
+				}
+				catch (IllegalArgumentException e)
+				{
+					return false;
+				}
+				finally
+				{
+					position = start;
+				}
+			}
+
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return	The next VLQ of the data
+	 */
+	private int readInt()
+	{
+		int value = VLQ.readInt(data, position);
+		position += VLQ.length(data, position);
+		return value;
+	}
+
+	/**
+	 * Writes an object: its header, its items in ascending order of ID, and its end-of-object byte.
+	 *
+	 * @param out		Stream to write to
+	 * @param object	The object
+	 */
+	private static void writeObject(ByteArrayOutputStream out, TypedObject object)
+	{
+		out.write(object.header, 0, object.header.length);
+
+		// Merge declared and unknown items by ID
+		TreeMap<Integer, ItemSchema.Field> declared = new TreeMap<Integer, ItemSchema.Field>();
+		for (ItemSchema.Field field : object.getSchema().getFields())
+			if (object.present[field.getSlot()])
+				declared.put(field.getID(), field);
+
+		Iterator<Entry<Integer, byte[]>> unknown = object.unknownItems.entrySet().iterator();
+		Entry<Integer, byte[]> nextUnknown = unknown.hasNext() ? unknown.next() : null;
+
+		for (ItemSchema.Field field : declared.values())
+		{
+			while (nextUnknown != null && nextUnknown.getKey() < field.getID())
+			{
+				writeItem(out, nextUnknown.getKey(), nextUnknown.getValue());
+				nextUnknown = unknown.hasNext() ? unknown.next() : null;
+			}
+
+			writeItem(out, field.getID(), encodeValue(object, field));
+		}
+
+		while (nextUnknown != null)
+		{
+			writeItem(out, nextUnknown.getKey(), nextUnknown.getValue());
+			nextUnknown = unknown.hasNext() ? unknown.next() : null;
+		}
+
+		out.write(0);
+	}
+
+	/**
+	 * @param object	A decoded object
+	 * @param field		A declared item present in the object
+	 * @return	The item's content
+	 */
+	@SuppressWarnings("unchecked")
+	private static byte[] encodeValue(TypedObject object, ItemSchema.Field field)
+	{
+		int slot = field.getSlot();
+		if (object.raw[slot] != null)
+			return object.raw[slot];
+
+		switch (field.getType())
+		{
+			case INTEGER:
+			case BOOLEAN:
+			{
+				ByteArrayOutputStream out = new ByteArrayOutputStream(VLQ.MAX_LENGTH);
+				writeInt(out, object.values[slot]);
+				return out.toByteArray();
+			}
+
+			case STRING:
+				return ((String) object.objects[slot]).getBytes(ItemSchema.CHARSET);
+
+			case TILES:
+			{
+				short[] tiles = (short[]) object.objects[slot];
+				byte[] result = new byte[2 * tiles.length];
+				for (int i = 0; i < tiles.length; i++)
+				{
+					result[2 * i] = (byte) tiles[i];
+					result[2 * i + 1] = (byte) (tiles[i] >> 8);
+				}
+
+				return result;
+			}
+
+			case OBJECT_LIST:
+			{
+				List<TypedObject> list = (List<TypedObject>) object.objects[slot];
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				writeInt(out, list.size());
+				for (TypedObject element : list)
+					writeObject(out, element);
+
+				return out.toByteArray();
+			}
+
+			default:
+				throw new IllegalStateException("No content for item 0x" + Integer.toHexString(field.getID()));
+		}
+	}
+
+	/**
+	 * Writes an item: its ID, the size of its content, and its content.
+	 */
+	private static void writeItem(ByteArrayOutputStream out, int id, byte[] content)
+	{
+		writeInt(out, id);
+		writeInt(out, content.length);
+		out.write(content, 0, content.length);
+	}
+
+	/**
+	 * Writes an integer as a VLQ. Negative values are written as their unsigned 32-bit equivalents (5 bytes), as
+	 * RPG Maker writes them.
+	 *
+	 * @param out	Stream to write to
+	 * @param value	The integer to write
+	 */
+	private static void writeInt(ByteArrayOutputStream out, int value)
+	{
+		for (int shift = 7 * (vlqSize(value) - 1); shift > 0; shift -= 7)
+			out.write(0x80 | ((value >>> shift) & 0x7F));
+
+		out.write(value & 0x7F);
+	}
+
+	/**
+	 * @param value	An integer
+	 * @return	Number of bytes RPG Maker uses to write the integer as a VLQ
+	 */
+	private static int vlqSize(int value)
+	{
+		int bits = 32 - Integer.numberOfLeadingZeros(value);
+		return Math.max(1, (bits + 6) / 7);
+	}
+}
@@ -0,0 +1,211 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ItemInterner.java
+ *
+ * Shares identical DataItems between the maps of a project. Across a project, many event pages are byte-for-byte the
+ * same (the same NPC with the same charset and script, placed on map after map), and each would otherwise hold its
+ * own copy of every item. Interning a map replaces each of its event and page items with the first item seen with
+ * identical content, so the duplicate items can be collected.
+ *
+ * That doesn't remove every copy of an event's bytes. Each map keeps its event layer (0x51) as read, and each event
+ * keeps its page data (0x05) unless an identical one was seen first, and both hold the serialized events and pages in
+ * full. The interner reports the bytes freed separately from the bytes those event layers still hold.
+ *
+ * Items are looked up by their cached content hash and length before their bytes are compared. Sharing items is safe
+ * because DataItems are never modified once created; editing an interned map replaces its items, as always, and leaves
+ * every other map alone. The interner holds on to every distinct item it has seen, so it should live only as long as
+ * the maps loaded through it.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class ItemInterner
+{
+	private ConcurrentHashMap<Key, DataItem> items;	// The first item seen with each distinct content
+	private AtomicLong itemsSeen;					// Number of items interned
+	private AtomicLong itemsShared;					// Number of items replaced by an earlier identical item
+	private AtomicLong bytesSaved;					// Total size of the items replaced
+	private AtomicLong eventLayerBytes;				// Total size of the event layers of the maps interned
+
+	/**
+	 * Looks up items by content rather than identity.
+	 */
+	private static class Key
+	{
+		DataItem item;	// The item
+
+		/**
+		 * @param item	The item
+		 */
+		Key(DataItem item)
+		{
+			this.item = item;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return item.contentHash();
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			return other instanceof Key && item.sameContent(((Key) other).item);
+		}
+	}
+
+	/**
+	 * Loads every map in the folder given as the first argument through an interner, and reports how much was shared.
+	 *
+	 * @param args	Path of the map folder
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: ItemInterner <map folder>");
+			System.exit(2);
+		}
+
+		ItemInterner interner = new ItemInterner();
+		try (MapLoader loader = new MapLoader())
+		{
+			loader.setInterner(interner);
+			List<RMMap> maps = loader.loadAll(Paths.get(args[0])).join();
+
+			System.out.println("Loaded " + maps.size() + " maps: " + interner.getItemsShared() + " of " + interner.getItemsSeen()
+								+ " event and page items shared, " + interner.getBytesSaved() + " bytes of duplicate items freed ("
+								+ interner.getEventLayerBytes() + " bytes still held by the maps' event layers)");
+		}
+	}
+
+	/**
+	 * Creates an empty interner.
+	 */
+	public ItemInterner()
+	{
+		items = new ConcurrentHashMap<Key, DataItem>();
+		itemsSeen = new AtomicLong();
+		itemsShared = new AtomicLong();
+		bytesSaved = new AtomicLong();
+		eventLayerBytes = new AtomicLong();
+	}
+
+	/**
+	 * Returns the first item seen with the same ID and data as the given one, or the item itself if it's the first.
+	 * May be called from several threads at once.
+	 *
+	 * @param item	The item to intern
+	 * @return	The shared item
+	 */
+	public DataItem intern(DataItem item)
+	{
+		itemsSeen.incrementAndGet();
+
+		DataItem shared = items.putIfAbsent(new Key(item), item);
+		if (shared == null || shared == item)
+			return item;
+
+		itemsShared.incrementAndGet();
+		bytesSaved.addAndGet(item.itemSize());
+		return shared;
+	}
+
+	/**
+	 * Interns the items of every event and event page of a map. The map's own items aren't interned: its tile layers
+	 * and event layer are particular to the map, and its other items are too small to be worth sharing. The event
+	 * layer still holds a serialized copy of every event, shared or not.
+	 *
+	 * @param map	The map, which mustn't be in use by other threads
+	 */
+	public void intern(RMMap map)
+	{
+		List<RMEvent> events = map.getEvents();
+		if (events == null)
+			return;
+
+		eventLayerBytes.addAndGet(map.dataItems.get(0x51).itemSize());
+		for (RMEvent event : events)
+		{
+			internItems(event);
+			for (RMEventPage page : event.getPages())
+				internItems(page);
+		}
+	}
+
+	/**
+	 * Replaces each of an object's items with its shared copy.
+	 *
+	 * @param object	The object
+	 */
+	private void internItems(RMBaseObject object)
+	{
+		Iterator<Entry<Integer, DataItem>> itr = object.iterator();
+		while (itr.hasNext())
+		{
+			Entry<Integer, DataItem> entry = itr.next();
+			DataItem shared = intern(entry.getValue());
+			if (shared != entry.getValue())
+				entry.setValue(shared);
+		}
+	}
+
+	/**
+	 * @return	Number of distinct items held
+	 */
+	public int size()
+	{
+		return items.size();
+	}
+
+	/**
+	 * @return	Number of items interned
+	 */
+	public long getItemsSeen()
+	{
+		return itemsSeen.get();
+	}
+
+	/**
+	 * @return	Number of items replaced by an earlier identical item
+	 */
+	public long getItemsShared()
+	{
+		return itemsShared.get();
+	}
+
+	/**
+	 * @return	Total size (in bytes) of the items replaced by an earlier identical item, which are freed once nothing
+	 * 			else refers to them. Copies of the same bytes held by event layers and unshared page data aren't included.
+	 */
+	public long getBytesSaved()
+	{
+		return bytesSaved.get();
+	}
+
+	/**
+	 * @return	Total size (in bytes) of the event layers of the maps interned, which interning doesn't shrink
+	 */
+	public long getEventLayerBytes()
+	{
+		return eventLayerBytes.get();
+	}
+
+	/**
+	 * Forgets every item seen so far. Maps already interned keep sharing the items they were given.
+	 */
+	public void clear()
+	{
+		items.clear();
+	}
+}
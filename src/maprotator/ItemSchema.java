@@ -0,0 +1,255 @@
+package maprotator;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * ItemSchema.java
+ *
+ * Declares the data items known to appear in one kind of RPG Maker object: each item's ID, its name, how its content is
+ * structured and the value RPG Maker assumes when the item is left out. Schemas are declared below for maps, events
+ * and event pages, following the tables in the README; IDs whose content hasn't been worked out are declared as RAW.
+ * ItemDecoder uses the schemas to decode objects straight into TypedObjects, and the RM object classes take their item
+ * labels from them.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class ItemSchema
+{
+	public static final Charset CHARSET = Charset.forName("windows-31j");	// Text encoding (the Windows variant of Shift-JIS)
+
+	public static final ItemSchema PAGE = new ItemSchema("Event page")
+		.raw(0x02, "Conditions")
+		.string(0x15, "Charset name")
+		.integer(0x16, "Charset selection index", 0)
+		.integer(0x17, "Facing", RMEventPage.DEFAULT_FACING)
+		.raw(0x19, "Undetermined")
+		.raw(0x1F, "Undetermined")
+		.raw(0x20, "Undetermined")
+		.raw(0x21, "Undetermined")
+		.raw(0x22, "Undetermined")
+		.raw(0x23, "Undetermined")
+		.raw(0x24, "Undetermined")
+		.raw(0x29, "Undetermined")
+		.integer(0x33, "Script length", 0)
+		.raw(0x34, "Script data");
+
+	public static final ItemSchema EVENT = new ItemSchema("Event")
+		.string(0x01, "Event name")
+		.integer(0x02, "X position", 0)
+		.integer(0x03, "Y position", 0)
+		.list(0x05, "Page data", PAGE);
+
+	public static final ItemSchema MAP = new ItemSchema("Map")
+		.integer(0x01, "Chipset", 1)
+		.integer(0x02, "Map width", 20)
+		.integer(0x03, "Map height", 15)
+		.integer(0x0B, "Scroll type", 0)
+		.bool(0x1F, "Parallax background enabled")
+		.string(0x20, "Parallax background selection")
+		.bool(0x21, "Parallax background horizontal loop")
+		.bool(0x22, "Parallax background vertical loop")
+		.bool(0x23, "Parallax background horizontal scroll enabled")
+		.integer(0x24, "Parallax background horizontal scroll speed", 0)
+		.bool(0x25, "Parallax background vertical scroll enabled")
+		.integer(0x26, "Parallax background vertical scroll speed", 0)
+		.tiles(0x47, "Lower layer data")
+		.tiles(0x48, "Upper layer data")
+		.list(0x51, "Event layer data", EVENT)
+		.integer(0x5B, "Save count", 0);
+
+	private String name;			// Name of the kind of object
+	private List<Field> fields;		// Declared items, in the order declared
+	private Field[] fieldsByID;		// Declared items, indexed by ID
+
+	/**
+	 * A single declared item.
+	 */
+	public static class Field
+	{
+		private int id;				// ID of the item
+		private String name;		// Name of the item
+		private ItemType type;		// Structure of the item's content
+		private int defaultValue;	// Value assumed when an INTEGER or BOOLEAN item is left out
+		private ItemSchema element;	// Schema of each object, for an OBJECT_LIST item
+		private int slot;			// Index of the item among its schema's fields
+
+		/**
+		 * @return	ID of the item
+		 */
+		public int getID()
+		{
+			return id;
+		}
+
+		/**
+		 * @return	Name of the item
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return	Structure of the item's content
+		 */
+		public ItemType getType()
+		{
+			return type;
+		}
+
+		/**
+		 * @return	Value assumed when an INTEGER or BOOLEAN item is left out
+		 */
+		public int getDefaultValue()
+		{
+			return defaultValue;
+		}
+
+		/**
+		 * @return	Schema of each object in an OBJECT_LIST item, or null for other types
+		 */
+		public ItemSchema getElementSchema()
+		{
+			return element;
+		}
+
+		/**
+		 * @return	Index of the item among its schema's fields
+		 */
+		public int getSlot()
+		{
+			return slot;
+		}
+	}
+
+	/**
+	 * Creates an empty schema.
+	 *
+	 * @param name	Name of the kind of object
+	 */
+	private ItemSchema(String name)
+	{
+		this.name = name;
+		fields = new ArrayList<Field>();
+		fieldsByID = new Field[0];
+	}
+
+	/**
+	 * Declares an item.
+	 *
+	 * @return	This schema
+	 */
+	private ItemSchema declare(int id, String name, ItemType type, int defaultValue, ItemSchema element)
+	{
+		Field field = new Field();
+		field.id = id;
+		field.name = name;
+		field.type = type;
+		field.defaultValue = defaultValue;
+		field.element = element;
+		field.slot = fields.size();
+		fields.add(field);
+
+		if (id >= fieldsByID.length)
+		{
+			Field[] grown = new Field[id + 1];
+			System.arraycopy(fieldsByID, 0, grown, 0, fieldsByID.length);
+			fieldsByID = grown;
+		}
+
+		fieldsByID[id] = field;
+		return this;
+	}
+
+	/**
+	 * Declares an INTEGER item.
+	 *
+	 * @return	This schema
+	 */
+	private ItemSchema integer(int id, String name, int defaultValue) { return declare(id, name, ItemType.INTEGER, defaultValue, null); }
+
+	/**
+	 * Declares a BOOLEAN item, false when left out.
+	 *
+	 * @return	This schema
+	 */
+	private ItemSchema bool(int id, String name) { return declare(id, name, ItemType.BOOLEAN, 0, null); }
+
+	/**
+	 * Declares a STRING item.
+	 *
+	 * @return	This schema
+	 */
+	private ItemSchema string(int id, String name) { return declare(id, name, ItemType.STRING, 0, null); }
+
+	/**
+	 * Declares a TILES item.
+	 *
+	 * @return	This schema
+	 */
+	private ItemSchema tiles(int id, String name) { return declare(id, name, ItemType.TILES, 0, null); }
+
+	/**
+	 * Declares an OBJECT_LIST item whose objects follow the given schema.
+	 *
+	 * @return	This schema
+	 */
+	private ItemSchema list(int id, String name, ItemSchema element) { return declare(id, name, ItemType.OBJECT_LIST, 0, element); }
+
+	/**
+	 * Declares a RAW item.
+	 *
+	 * @return	This schema
+	 */
+	private ItemSchema raw(int id, String name) { return declare(id, name, ItemType.RAW, 0, null); }
+
+	/**
+	 * @return	Name of the kind of object
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @param id	An item ID
+	 * @return	The declared item with that ID, or null if the ID is unknown
+	 */
+	public Field getField(int id)
+	{
+		return id >= 0 && id < fieldsByID.length ? fieldsByID[id] : null;
+	}
+
+	/**
+	 * @return	Number of declared items
+	 */
+	public int getFieldCount()
+	{
+		return fields.size();
+	}
+
+	/**
+	 * @return	The declared items, in the order declared
+	 */
+	public List<Field> getFields()
+	{
+		return Collections.unmodifiableList(fields);
+	}
+
+	/**
+	 * @return	A new map from each declared ID to its name
+	 */
+	public TreeMap<Integer, String> getLabels()
+	{
+		TreeMap<Integer, String> labels = new TreeMap<Integer, String>();
+		for (Field field : fields)
+			labels.put(field.id, field.name);
+
+		return labels;
+	}
+}
@@ -0,0 +1,19 @@
+package maprotator;
+
+/**
+ * ItemType.java
+ * Enumerated list of the ways the content of a data item can be structured, as used by ItemSchema to decode items.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+
+enum ItemType
+{
+	INTEGER,		// A single VLQ
+	BOOLEAN,		// A single VLQ holding 0 or 1
+	STRING,			// Shift-JIS text, with no length or terminator beyond the item's own size
+	TILES,			// An array of 2-byte little-endian integers
+	OBJECT_LIST,	// A VLQ count followed by that many objects
+	RAW;			// Content whose structure isn't known, kept as bytes
+}
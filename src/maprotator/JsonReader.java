@@ -0,0 +1,344 @@
+package maprotator;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * JsonReader.java
+ *
+ * Reads a JSON document one token at a time, so that documents can be parsed without building them in memory. The
+ * caller walks the document in order: beginObject, then nextName and a value for each member while hasNext, then
+ * endObject; arrays work the same way without names. Values the caller isn't interested in can be skipped.
+ * Only integer numbers are supported, which is all MapExporter writes.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+class JsonReader
+{
+	private static final int BUFFER_SIZE = 1 << 16;		// Number of characters read from the source at a time
+
+	private Reader in;				// The source of the document
+	private char[] buffer;			// Characters read from the source
+	private int position;			// Index in the buffer of the next character
+	private int limit;				// Number of characters in the buffer
+	private boolean[] first;		// Whether each open container has yet to read an element, by depth
+	private int depth;				// Number of containers open
+	private boolean afterName;		// Whether a member's name has been read, but not its value
+
+	/**
+	 * @param in	The source of the document
+	 */
+	JsonReader(Reader in)
+	{
+		this.in = in;
+		buffer = new char[BUFFER_SIZE];
+		first = new boolean[16];
+	}
+
+	/**
+	 * Reads the beginning of an object.
+	 *
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If the next value isn't an object
+	 */
+	void beginObject() throws IOException
+	{
+		beginValue();
+		expect('{');
+		push();
+	}
+
+	/**
+	 * Reads the end of an object.
+	 *
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If the object has more members
+	 */
+	void endObject() throws IOException
+	{
+		expect('}');
+		depth--;
+	}
+
+	/**
+	 * Reads the beginning of an array.
+	 *
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If the next value isn't an array
+	 */
+	void beginArray() throws IOException
+	{
+		beginValue();
+		expect('[');
+		push();
+	}
+
+	/**
+	 * Reads the end of an array.
+	 *
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If the array has more elements
+	 */
+	void endArray() throws IOException
+	{
+		expect(']');
+		depth--;
+	}
+
+	/**
+	 * @return	Whether the current object or array has another member or element
+	 * @throws IOException	If the source fails
+	 */
+	boolean hasNext() throws IOException
+	{
+		int c = peek();
+		return c != '}' && c != ']' && c != -1;
+	}
+
+	/**
+	 * @return	The name of the next member of the current object
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If the next token isn't a name
+	 */
+	String nextName() throws IOException
+	{
+		beginValue();
+		String name = readString();
+		expect(':');
+		afterName = true;
+		return name;
+	}
+
+	/**
+	 * @return	The next value, which must be a string
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If the next value isn't a string
+	 */
+	String nextString() throws IOException
+	{
+		beginValue();
+		return readString();
+	}
+
+	/**
+	 * @return	The next value, which must be an integer
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If the next value isn't an integer, or doesn't fit in an int
+	 */
+	int nextInt() throws IOException
+	{
+		beginValue();
+		peek();
+
+		boolean negative = position < limit && buffer[position] == '-';
+		if (negative)
+			position++;
+
+		long value = 0;
+		int digits = 0;
+		while ((position < limit || fill()) && buffer[position] >= '0' && buffer[position] <= '9')
+		{
+			value = 10 * value + (buffer[position++] - '0');
+			if (++digits > 10)
+				break;
+		}
+
+		if (digits == 0 || value > Integer.MAX_VALUE + (negative ? 1L : 0L))
+			throw new IllegalArgumentException("Expected an integer");
+
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Skips over the next value, whatever it is.
+	 *
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If the value is malformed
+	 */
+	void skipValue() throws IOException
+	{
+		int c = peek();
+		if (c == '"')
+			nextString();
+		else if (c == '{' || c == '[')
+		{
+			boolean object = c == '{';
+			if (object)
+				beginObject();
+			else
+				beginArray();
+
+			while (hasNext())
+			{
+				if (object)
+					nextName();
+				skipValue();
+			}
+
+			if (object)
+				endObject();
+			else
+				endArray();
+		}
+		else
+		{
+			// Numbers and literals
+			beginValue();
+			int length = 0;
+			while ((position < limit || fill()) && ",:]} \t\r\n".indexOf(buffer[position]) < 0)
+			{
+				position++;
+				length++;
+			}
+
+			if (length == 0)
+				throw new IllegalArgumentException("Expected a value");
+		}
+	}
+
+	/**
+	 * Reads the comma before an element, unless it's the first in its container or the value of a member.
+	 *
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If there's no comma where there should be one
+	 */
+	private void beginValue() throws IOException
+	{
+		if (afterName)
+			afterName = false;
+		else if (depth > 0)
+		{
+			if (!first[depth])
+				expect(',');
+			first[depth] = false;
+		}
+	}
+
+	/**
+	 * Opens a container.
+	 */
+	private void push()
+	{
+		if (++depth == first.length)
+		{
+			boolean[] deeper = new boolean[2 * first.length];
+			System.arraycopy(first, 0, deeper, 0, first.length);
+			first = deeper;
+		}
+
+		first[depth] = true;
+	}
+
+	/**
+	 * Reads a quoted string, decoding its escapes.
+	 *
+	 * @return	The string
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If there's no string, or it isn't terminated
+	 */
+	private String readString() throws IOException
+	{
+		expect('"');
+		StringBuilder text = new StringBuilder();
+
+		while (true)
+		{
+			char c = next();
+			if (c == '"')
+				return text.toString();
+
+			if (c != '\\')
+			{
+				text.append(c);
+				continue;
+			}
+
+			c = next();
+			switch (c)
+			{
+				case 'b':	text.append('\b'); break;
+				case 'f':	text.append('\f'); break;
+				case 'n':	text.append('\n'); break;
+				case 'r':	text.append('\r'); break;
+				case 't':	text.append('\t'); break;
+
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; i++)
+					{
+						int digit = Character.digit(next(), 16);
+						if (digit < 0)
+							throw new IllegalArgumentException("Malformed \\u escape");
+						code = 16 * code + digit;
+					}
+					text.append((char) code);
+					break;
+
+				default:
+					text.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Reads a character, which must be the given one, skipping whitespace before it.
+	 *
+	 * @param expected	The character expected
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	If a different character (or the end of the document) is found
+	 */
+	private void expect(char expected) throws IOException
+	{
+		int c = peek();
+		if (c != expected)
+			throw new IllegalArgumentException("Expected '" + expected + "', but found "
+												+ (c == -1 ? "end of document" : "'" + (char) c + "'"));
+		position++;
+	}
+
+	/**
+	 * Skips whitespace.
+	 *
+	 * @return	The next character after it, without consuming it, or -1 at the end of the document
+	 * @throws IOException	If the source fails
+	 */
+	private int peek() throws IOException
+	{
+		while (position < limit || fill())
+		{
+			char c = buffer[position];
+			if (c != ' ' && c != '\t' && c != '\r' && c != '\n')
+				return c;
+			position++;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return	The next character, whitespace or not
+	 * @throws IOException	If the source fails
+	 * @throws IllegalArgumentException	At the end of the document
+	 */
+	private char next() throws IOException
+	{
+		if (position == limit && !fill())
+			throw new IllegalArgumentException("Document ended inside a string");
+
+		return buffer[position++];
+	}
+
+	/**
+	 * Refills the buffer from the source, once the buffer has been read.
+	 *
+	 * @return	Whether any characters were read
+	 * @throws IOException	If the source fails
+	 */
+	private boolean fill() throws IOException
+	{
+		position = 0;
+		limit = Math.max(0, in.read(buffer, 0, buffer.length));
+		return limit > 0;
+	}
+}
@@ -0,0 +1,74 @@
+package maprotator;
+
+/**
+ * LayerHash.java
+ *
+ * Hashes a map's tile layers in a way that can be built up one tile at a time, in any order. Each tile contributes a
+ * mixed 64-bit value derived from its position and its lower and upper layer values, and the contributions are
+ * summed, so rotateMap can hash the rotated layers as it writes each tile to its destination instead of making a
+ * second pass over the result. Two maps with the same dimensions and identical tile layers always hash the same.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class LayerHash
+{
+	/**
+	 * @param index	Index of the tile in its layers
+	 * @param lower	The tile's lower layer value
+	 * @param upper	The tile's upper layer value
+	 * @return	The tile's contribution to the hash of its layers
+	 */
+	public static long tile(int index, int lower, int upper)
+	{
+		return mix(((long) index << 32) | ((long) lower << 16) | upper);
+	}
+
+	/**
+	 * @param sum		The sum of every tile's contribution
+	 * @param width		Width of the map
+	 * @param height	Height of the map
+	 * @return	The hash of the layers
+	 */
+	public static long finish(long sum, int width, int height)
+	{
+		return mix(sum ^ mix(((long) width << 32) | height));
+	}
+
+	/**
+	 * Hashes a map's tile layers in a single pass.
+	 *
+	 * @param lowerLayer	The map's lower layer (0x47)
+	 * @param upperLayer	The map's upper layer (0x48)
+	 * @param width			Width of the map
+	 * @param height		Height of the map
+	 * @return	The hash of the layers
+	 */
+	public static long of(DataItem lowerLayer, DataItem upperLayer, int width, int height)
+	{
+		byte[] lower = lowerLayer.byteArray();
+		byte[] upper = upperLayer.byteArray();
+		int lowerStart = lowerLayer.getDataIndex();
+		int upperStart = upperLayer.getDataIndex();
+
+		long sum = 0;
+		for (int i = 0; i < width * height; i++)
+			sum += tile(i, (lower[lowerStart + 2 * i] & 0xFF) + ((lower[lowerStart + 2 * i + 1] & 0xFF) << 8),
+						(upper[upperStart + 2 * i] & 0xFF) + ((upper[upperStart + 2 * i + 1] & 0xFF) << 8));
+
+		return finish(sum, width, height);
+	}
+
+	/**
+	 * Scrambles the bits of a value (the finalizer of the SplitMix64 generator).
+	 *
+	 * @param value	The value to scramble
+	 * @return	The scrambled value
+	 */
+	private static long mix(long value)
+	{
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+}
@@ -0,0 +1,109 @@
+package maprotator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MapAnalyzer.java
+ *
+ * Gathers TileStatistics over every map in a project. Each worker thread takes maps off a shared counter, counts them
+ * into its own TileStatistics, and the workers' counters are merged once all the maps have been counted, so the
+ * threads never contend over the histograms.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapAnalyzer
+{
+	/**
+	 * Analyzes every map in the folder given as the first argument and prints a report.
+	 *
+	 * @param args	Path of the folder to analyze, optionally followed by a thread count
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: MapAnalyzer <map folder> [threads]");
+			System.exit(2);
+		}
+
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		analyze(Paths.get(args[0]), threads).printReport(System.out, 10);
+	}
+
+	/**
+	 * Analyzes every .lmu file in a folder in parallel.
+	 *
+	 * @param folder	The folder to analyze
+	 * @param threads	Number of worker threads
+	 * @return	The merged statistics of every map
+	 * @throws IOException	If the folder can't be listed
+	 */
+	public static TileStatistics analyze(Path folder, int threads) throws IOException
+	{
+		List<Path> paths = MapLoader.listMaps(folder);
+		AtomicInteger next = new AtomicInteger();
+
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<CompletableFuture<TileStatistics>> futures = new ArrayList<CompletableFuture<TileStatistics>>();
+			for (int i = 0; i < threads; i++)
+				futures.add(CompletableFuture.supplyAsync(() ->
+				{
+					TileStatistics statistics = new TileStatistics();
+					for (int index = next.getAndIncrement(); index < paths.size(); index = next.getAndIncrement())
+						analyze(paths.get(index), statistics);
+
+					return statistics;
+				}, workers));
+
+			TileStatistics result = new TileStatistics();
+			for (CompletableFuture<TileStatistics> future : futures)
+				result.merge(future.join());
+
+			return result;
+		}
+		finally
+		{
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * Counts a single map, recording it as a failure if it can't be parsed or its layers are malformed.
+	 *
+	 * @param path			Path of the map's file
+	 * @param statistics	The counters to add the map to
+	 */
+	private static void analyze(Path path, TileStatistics statistics)
+	{
+		String name = path.getFileName().toString();
+		try
+		{
+			RMMap map = new RMMap(path.toString(), Files.readAllBytes(path));
+			if (map.getEvents() == null)
+				statistics.addFailure(name, "failed validation");
+			else
+				statistics.addMap(map);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		catch (RuntimeException e)
+		{
+			statistics.addFailure(name, e.toString());
+		}
+	}
+}
@@ -0,0 +1,324 @@
+package maprotator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+
+/**
+ * MapDiff.java
+ *
+ * Compares two versions of a map and produces a MapPatch that turns the first into the second. The comparison is
+ * structural: top-level items are compared by ID, the tile layers by rectangular blocks of tiles, and the event layer
+ * event by event (by event ID), so a small edit produces a patch of roughly the same size as the edit.
+ *
+ * Every comparison starts with DataItem.sameContent, which rejects items of different lengths or hashes before
+ * comparing any bytes; identical tile layers and event layers are skipped as a whole without looking inside them.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapDiff
+{
+	public static final int BLOCK_SIZE = 8;	// Width and height (in tiles) of the blocks tile layers are compared in
+
+	private ByteArrayOutputStream out;	// The patch being written
+
+	/**
+	 * Writes a patch turning the map given as the first argument into the map given as the second.
+	 *
+	 * @param args	Path of the original map, path of the edited map, and path of the patch to write
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 3)
+		{
+			System.err.println("Usage: MapDiff <original map> <edited map> <patch file>");
+			System.exit(2);
+		}
+
+		RMMap source = new RMMap(args[0], Files.readAllBytes(Paths.get(args[0])));
+		RMMap target = new RMMap(args[1], Files.readAllBytes(Paths.get(args[1])));
+
+		MapPatch patch = diff(source, target);
+		Path destination = Paths.get(args[2]);
+		AsyncMapWriter.writeAtomically(destination, ByteBuffer.wrap(patch.toByteArray()));
+		System.out.println("Wrote " + patch.size() + " byte patch to " + destination);
+	}
+
+	/**
+	 * Computes the patch that turns one map into another, comparing the events of both maps as they are now. Neither
+	 * map is modified.
+	 *
+	 * @param source	The original map
+	 * @param target	The edited map
+	 * @return	The patch
+	 */
+	public static MapPatch diff(RMMap source, RMMap target)
+	{
+		MapDiff diff = new MapDiff();
+		diff.writeHeader(source, target);
+		diff.diffItems(source, target);
+		diff.diffLayers(source, target);
+		diff.diffEvents(source, target);
+		diff.out.write(MapPatch.OP_END);
+
+		return new MapPatch(diff.out.toByteArray());
+	}
+
+	/**
+	 * Creates an empty patch.
+	 */
+	private MapDiff()
+	{
+		out = new ByteArrayOutputStream();
+	}
+
+	/**
+	 * Writes the patch header, including the content hashes the patch expects before and after it's applied.
+	 *
+	 * @param source	The original map
+	 * @param target	The edited map
+	 */
+	private void writeHeader(RMMap source, RMMap target)
+	{
+		out.write(MapPatch.MAGIC, 0, MapPatch.MAGIC.length);
+		out.write(MapPatch.VERSION);
+		writeLong(MapPatch.contentHash(source.header, source.dataItems.values()));
+		writeLong(MapPatch.contentHash(target.header, target.dataItems.values()));
+
+		if (!Arrays.equals(source.header, target.header))
+		{
+			out.write(MapPatch.OP_HEADER);
+			writeBytes(target.header);
+		}
+	}
+
+	/**
+	 * Compares every top-level item other than the event layer. The tile layers are left to diffLayers unless the
+	 * map's dimensions have changed, in which case they're replaced outright.
+	 *
+	 * @param source	The original map
+	 * @param target	The edited map
+	 */
+	private void diffItems(RMMap source, RMMap target)
+	{
+		boolean resized = source.getMapWidth() != target.getMapWidth() || source.getMapHeight() != target.getMapHeight();
+
+		TreeSet<Integer> ids = new TreeSet<Integer>(source.dataItems.keySet());
+		ids.addAll(target.dataItems.keySet());
+
+		for (int id : ids)
+		{
+			if (id == 0x51 || (!resized && (id == 0x47 || id == 0x48)))
+				continue;
+
+			DataItem original = source.dataItems.get(id);
+			DataItem edited = target.dataItems.get(id);
+
+			if (edited == null)
+			{
+				out.write(MapPatch.OP_REMOVE_ITEM);
+				writeInt(id);
+			}
+			else if (!edited.sameContent(original))
+			{
+				out.write(MapPatch.OP_PUT_ITEM);
+				writeInt(id);
+				writeInt(edited.getDataSize());
+				out.write(edited.byteArray(), edited.getDataIndex(), edited.getDataSize());
+			}
+		}
+	}
+
+	/**
+	 * Compares the tile layers of two maps of the same dimensions block by block, and writes a rectangle of tiles for
+	 * each horizontal run of blocks that differ.
+	 *
+	 * @param source	The original map
+	 * @param target	The edited map
+	 */
+	private void diffLayers(RMMap source, RMMap target)
+	{
+		int width = target.getMapWidth();
+		int height = target.getMapHeight();
+		if (source.getMapWidth() != width || source.getMapHeight() != height)
+			return;
+
+		source.checkTileLayers(width, height);
+		target.checkTileLayers(width, height);
+
+		for (int id : new int[] { 0x47, 0x48 })
+		{
+			DataItem original = source.dataItems.get(id);
+			DataItem edited = target.dataItems.get(id);
+			if (edited.sameContent(original))
+				continue;
+
+			byte[] before = original.byteArray();
+			byte[] after = edited.byteArray();
+			int beforeStart = original.getDataIndex();
+			int afterStart = edited.getDataIndex();
+
+			for (int blockY = 0; blockY < height; blockY += BLOCK_SIZE)
+			{
+				int blockHeight = Math.min(BLOCK_SIZE, height - blockY);
+				int runStart = -1;
+
+				for (int blockX = 0; blockX < width + BLOCK_SIZE; blockX += BLOCK_SIZE)
+				{
+					boolean changed = blockX < width && blockDiffers(before, beforeStart, after, afterStart, width,
+																	blockX, blockY, Math.min(BLOCK_SIZE, width - blockX), blockHeight);
+
+					if (changed && runStart < 0)
+						runStart = blockX;
+					else if (!changed && runStart >= 0)
+					{
+						writeTiles(id, after, afterStart, width, runStart, blockY, Math.min(blockX, width) - runStart, blockHeight);
+						runStart = -1;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return	Whether any tile in the given block differs between the two layers
+	 */
+	private static boolean blockDiffers(byte[] before, int beforeStart, byte[] after, int afterStart, int width,
+										int x, int y, int blockWidth, int blockHeight)
+	{
+		for (int row = y; row < y + blockHeight; row++)
+		{
+			int offset = 2 * (row * width + x);
+			if (!Arrays.equals(before, beforeStart + offset, beforeStart + offset + 2 * blockWidth,
+										after, afterStart + offset, afterStart + offset + 2 * blockWidth))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Writes a rectangle of tiles from the edited layer.
+	 *
+	 * @param id		ID of the layer
+	 * @param layer		Content array of the edited layer
+	 * @param start		Index in the content array at which tile data begins
+	 * @param width		Width of the map
+	 * @param x			X-position of the rectangle
+	 * @param y			Y-position of the rectangle
+	 * @param w			Width of the rectangle
+	 * @param h			Height of the rectangle
+	 */
+	private void writeTiles(int id, byte[] layer, int start, int width, int x, int y, int w, int h)
+	{
+		out.write(MapPatch.OP_TILES);
+		writeInt(id);
+		writeInt(x);
+		writeInt(y);
+		writeInt(w);
+		writeInt(h);
+
+		for (int row = y; row < y + h; row++)
+			out.write(layer, start + 2 * (row * width + x), 2 * w);
+	}
+
+	/**
+	 * Compares the event layers event by event, matching events by ID.
+	 *
+	 * @param source	The original map
+	 * @param target	The edited map
+	 */
+	private void diffEvents(RMMap source, RMMap target)
+	{
+		RMObject[] sourceEvents = source.currentEvents();
+		RMObject[] targetEvents = target.currentEvents();
+		if (new DataItem(0x51, targetEvents, null).sameContent(new DataItem(0x51, sourceEvents, null)))
+			return;
+
+		HashMap<Integer, RMObject> originals = new HashMap<Integer, RMObject>();
+		for (RMObject event : sourceEvents)
+			originals.put(VLQ.arrayToInt(event.header), event);
+
+		for (RMObject event : targetEvents)
+		{
+			int id = VLQ.arrayToInt(event.header);
+			RMObject original = originals.remove(id);
+
+			if (original == null || !sameItems(original, event))
+			{
+				out.write(MapPatch.OP_PUT_EVENT);
+				writeInt(id);
+				writeBytes(event.toArray());
+			}
+		}
+
+		for (int id : new TreeSet<Integer>(originals.keySet()))
+		{
+			out.write(MapPatch.OP_REMOVE_EVENT);
+			writeInt(id);
+		}
+
+		// Event order
+		out.write(MapPatch.OP_EVENT_ORDER);
+		writeInt(targetEvents.length);
+		for (RMObject event : targetEvents)
+			writeInt(VLQ.arrayToInt(event.header));
+	}
+
+	/**
+	 * @param a	An object
+	 * @param b	Another object
+	 * @return	Whether both objects have the same items with identical content
+	 */
+	private static boolean sameItems(RMBaseObject a, RMBaseObject b)
+	{
+		if (a.dataItems.size() != b.dataItems.size())
+			return false;
+
+		Iterator<Entry<Integer, DataItem>> itr = a.dataItems.entrySet().iterator();
+		while (itr.hasNext())
+		{
+			Entry<Integer, DataItem> entry = itr.next();
+			if (!entry.getValue().sameContent(b.dataItems.get(entry.getKey())))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param value	A non-negative integer to write as a VLQ
+	 */
+	private void writeInt(int value)
+	{
+		byte[] vlq = VLQ.parseInteger(value);
+		out.write(vlq, 0, vlq.length);
+	}
+
+	/**
+	 * @param value	A 64-bit value to write as 8 bytes, most significant first
+	 */
+	private void writeLong(long value)
+	{
+		for (int shift = 56; shift >= 0; shift -= 8)
+			out.write((int) (value >>> shift));
+	}
+
+	/**
+	 * @param bytes	An array to write, preceded by its length
+	 */
+	private void writeBytes(byte[] bytes)
+	{
+		writeInt(bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,327 @@
+package maprotator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * MapExporter.java
+ *
+ * Writes a map's tile layers (0x47 and 0x48) and events (0x51) as JSON or as a Tiled TMX map, for tools that don't
+ * read .lmu files. The document is streamed to a buffered writer as it's generated: tiles are formatted a row at a
+ * time straight from the layers' DataItems, and events one at a time, so nothing the size of the document is ever
+ * built in memory. MapImporter reads both formats back into a map.
+ *
+ * Both formats hold the same things:
+ *
+ *     Width and height		The map's dimensions, in tiles
+ *     Items				The content of every other map item (chipset, parallax settings, and so on), base64-encoded
+ *     Lower and upper		The tile layers, one row per line; in TMX, each tile's value plus 1 (Tiled's gid, where
+ *     						0 means no tile)
+ *     Events				Each event's ID, name and position, with the whole event (pages and all) base64-encoded
+ *
+ * In TMX, items are properties of the map named by their ID (e.g., "0x01"), and events are 16x16 objects of the
+ * "Events" object group, positioned in pixels, with the encoded event as their "data" property. The tileset has no
+ * image, since the chipset's file name is kept in the database rather than the map.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapExporter
+{
+	private static final int BUFFER_SIZE = 1 << 16;		// Size of the buffer put in front of unbuffered writers
+
+	private RMMap map;		// The map to export
+	private int width;		// Width of the map
+	private int height;		// Height of the map
+	private char[] line;	// Characters of the row being formatted
+
+	/**
+	 * Exports a map to the format given by the output file's extension (.json or .tmx).
+	 *
+	 * @param args	Path of the map, and path of the output file
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: MapExporter <map file> <output file (.json or .tmx)>");
+			System.exit(2);
+		}
+
+		Path source = Paths.get(args[0]);
+		RMMap map = new RMMap(source.toString(), Files.readAllBytes(source));
+		if (map.getEvents() == null)
+			throw new IllegalArgumentException(source.getFileName() + " failed validation");
+
+		MapExporter exporter = new MapExporter(map);
+		try (Writer out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8))
+		{
+			if (args[1].toLowerCase().endsWith(".tmx"))
+				exporter.writeTmx(out);
+			else
+				exporter.writeJson(out);
+		}
+
+		System.out.println("Exported " + map.getName() + " to " + args[1]);
+	}
+
+	/**
+	 * Creates an exporter for a map.
+	 *
+	 * @param map	The map to export
+	 * @throws IllegalArgumentException	If the map failed validation, or its tile layers don't match its dimensions
+	 */
+	public MapExporter(RMMap map)
+	{
+		if (map.getEvents() == null)
+			throw new IllegalArgumentException(map.getName() + " failed validation");
+
+		this.map = map;
+		width = map.getMapWidth();
+		height = map.getMapHeight();
+		map.checkTileLayers(width, height);
+	}
+
+	/**
+	 * Writes the map as JSON. The writer is flushed, but not closed.
+	 *
+	 * @param writer	The writer to write to
+	 * @throws IOException	If the writer fails
+	 */
+	public void writeJson(Writer writer) throws IOException
+	{
+		BufferedWriter out = buffer(writer);
+
+		out.write("{\n\t\"width\": " + width + ",\n\t\"height\": " + height + ",\n\t\"items\": {");
+		String separator = "\n";
+		for (Iterator<Entry<Integer, DataItem>> itr = map.iterator(); itr.hasNext();)
+		{
+			DataItem item = itr.next().getValue();
+			if (isExported(item.getID()))
+				continue;
+
+			out.write(separator + "\t\t\"" + itemName(item.getID()) + "\": \"" + encode(item) + "\"");
+			separator = ",\n";
+		}
+		out.write("\n\t},\n");
+
+		for (int layerID : new int[] { 0x47, 0x48 })
+		{
+			out.write(layerID == 0x47 ? "\t\"lower\": [\n" : "\t\"upper\": [\n");
+			for (int y = 0; y < height; y++)
+			{
+				out.write("\t\t[");
+				writeRow(out, layerID, y, 0);
+				out.write(y < height - 1 ? "],\n" : "]\n");
+			}
+			out.write("\t],\n");
+		}
+
+		out.write("\t\"events\": [");
+		separator = "\n";
+		for (RMEvent event : map.getEvents())
+		{
+			out.write(separator + "\t\t{ \"id\": " + event.getID() + ", \"name\": ");
+			writeJsonString(out, eventName(event));
+			out.write(", \"x\": " + event.getXPos() + ", \"y\": " + event.getYPos() + ", \"data\": \""
+						+ Base64.getEncoder().encodeToString(event.toArray()) + "\" }");
+			separator = ",\n";
+		}
+		out.write("\n\t]\n}\n");
+		out.flush();
+	}
+
+	/**
+	 * Writes the map as a Tiled TMX map, with the layers in CSV. The writer is flushed, but not closed.
+	 *
+	 * @param writer	The writer to write to
+	 * @throws IOException	If the writer fails
+	 */
+	public void writeTmx(Writer writer) throws IOException
+	{
+		BufferedWriter out = buffer(writer);
+		int tileSize = ChipsetAtlas.TILE_SIZE;
+
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<map version=\"1.10\" orientation=\"orthogonal\" renderorder=\"right-down\" width=\"" + width + "\" height=\""
+					+ height + "\" tilewidth=\"" + tileSize + "\" tileheight=\"" + tileSize + "\" infinite=\"0\">\n");
+
+		out.write(" <properties>\n");
+		for (Iterator<Entry<Integer, DataItem>> itr = map.iterator(); itr.hasNext();)
+		{
+			DataItem item = itr.next().getValue();
+			if (!isExported(item.getID()))
+				out.write("  <property name=\"" + itemName(item.getID()) + "\" value=\"" + encode(item) + "\"/>\n");
+		}
+		out.write(" </properties>\n");
+
+		out.write(" <tileset firstgid=\"1\" name=\"Chipset\" tilewidth=\"" + tileSize + "\" tileheight=\"" + tileSize
+					+ "\" tilecount=\"" + (ChipsetAtlas.MAX_TILE + 1) + "\" columns=\"0\"/>\n");
+
+		int layer = 1;
+		for (int layerID : new int[] { 0x47, 0x48 })
+		{
+			out.write(" <layer id=\"" + layer++ + "\" name=\"" + (layerID == 0x47 ? "Lower" : "Upper") + "\" width=\"" + width
+						+ "\" height=\"" + height + "\">\n  <data encoding=\"csv\">\n");
+			for (int y = 0; y < height; y++)
+			{
+				writeRow(out, layerID, y, 1);
+				out.write(y < height - 1 ? ",\n" : "\n");
+			}
+			out.write("  </data>\n </layer>\n");
+		}
+
+		out.write(" <objectgroup id=\"" + layer + "\" name=\"Events\">\n");
+		for (RMEvent event : map.getEvents())
+		{
+			out.write("  <object id=\"" + event.getID() + "\" name=\"");
+			writeXmlString(out, eventName(event));
+			out.write("\" x=\"" + event.getXPos() * tileSize + "\" y=\"" + event.getYPos() * tileSize + "\" width=\"" + tileSize
+						+ "\" height=\"" + tileSize + "\">\n   <properties>\n    <property name=\"data\" value=\""
+						+ Base64.getEncoder().encodeToString(event.toArray()) + "\"/>\n   </properties>\n  </object>\n");
+		}
+		out.write(" </objectgroup>\n</map>\n");
+		out.flush();
+	}
+
+	/**
+	 * @param id	ID of a map item
+	 * @return	Whether the item is written as tiles or events, rather than as an encoded item
+	 */
+	static boolean isExported(int id)
+	{
+		return id == 0x47 || id == 0x48 || id == 0x51;
+	}
+
+	/**
+	 * @param id	ID of a map item
+	 * @return	The name the item is written under (e.g., "0x01")
+	 */
+	static String itemName(int id)
+	{
+		return String.format("0x%02X", id);
+	}
+
+	/**
+	 * Formats a row of a tile layer as comma-separated values, and writes it in one go.
+	 *
+	 * @param out		The writer to write to
+	 * @param layerID	ID of the layer (0x47 or 0x48)
+	 * @param y			Index of the row
+	 * @param offset	Amount added to each tile's value
+	 * @throws IOException	If the writer fails
+	 */
+	private void writeRow(BufferedWriter out, int layerID, int y, int offset) throws IOException
+	{
+		if (line == null)
+			line = new char[6 * width];
+
+		DataItem layer = map.dataItems.get(layerID);
+		byte[] content = layer.byteArray();
+		int index = layer.getDataIndex() + 2 * y * width;
+		int length = 0;
+
+		for (int x = 0; x < width; x++, index += 2)
+		{
+			if (x > 0)
+				line[length++] = ',';
+
+			int value = (content[index] & 0xFF) + ((content[index + 1] & 0xFF) << 8) + offset;
+			int digits = value < 10 ? 1 : value < 100 ? 2 : value < 1000 ? 3 : value < 10000 ? 4 : 5;
+			for (int i = length + digits - 1; i >= length; i--, value /= 10)
+				line[i] = (char) ('0' + value % 10);
+			length += digits;
+		}
+
+		out.write(line, 0, length);
+	}
+
+	/**
+	 * @param event	An event
+	 * @return	The event's name (item 0x01), or an empty string if it has none
+	 */
+	private static String eventName(RMEvent event)
+	{
+		DataItem name = event.dataItems.get(0x01);
+		return name == null ? "" : name.getDataAsString();
+	}
+
+	/**
+	 * @param item	A DataItem
+	 * @return	The item's data, base64-encoded
+	 */
+	private static String encode(DataItem item)
+	{
+		byte[] data = new byte[item.getDataSize()];
+		System.arraycopy(item.byteArray(), item.getDataIndex(), data, 0, data.length);
+		return Base64.getEncoder().encodeToString(data);
+	}
+
+	/**
+	 * @param writer	A writer
+	 * @return	The writer itself, if it's buffered; otherwise a buffer in front of it
+	 */
+	private static BufferedWriter buffer(Writer writer)
+	{
+		return writer instanceof BufferedWriter ? (BufferedWriter) writer : new BufferedWriter(writer, BUFFER_SIZE);
+	}
+
+	/**
+	 * Writes text as a quoted JSON string.
+	 *
+	 * @param out	The writer to write to
+	 * @param text	The text to write
+	 * @throws IOException	If the writer fails
+	 */
+	private static void writeJsonString(BufferedWriter out, String text) throws IOException
+	{
+		out.write('"');
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\')
+				out.write("\\" + c);
+			else if (c < 0x20)
+				out.write(String.format("\\u%04X", (int) c));
+			else
+				out.write(c);
+		}
+		out.write('"');
+	}
+
+	/**
+	 * Writes text escaped for use in an XML attribute. Control characters XML doesn't allow are left out.
+	 *
+	 * @param out	The writer to write to
+	 * @param text	The text to write
+	 * @throws IOException	If the writer fails
+	 */
+	private static void writeXmlString(BufferedWriter out, String text) throws IOException
+	{
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			switch (c)
+			{
+				case '&':	out.write("&amp;"); break;
+				case '<':	out.write("&lt;"); break;
+				case '>':	out.write("&gt;"); break;
+				case '"':	out.write("&quot;"); break;
+
+				default:
+					if (c == '\t' || c == '\n' || c == '\r')
+						out.write("&#" + (int) c + ";");
+					else if (c >= 0x20)
+						out.write(c);
+			}
+		}
+	}
+}
@@ -0,0 +1,590 @@
+package maprotator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * MapHistory.java
+ *
+ * Records edits to a map so they can be undone and redone. An edit is recorded as the DataItems it replaced, together
+ * with the items that replaced them, and the rectangles of tiles it changed; everything else stays shared with the
+ * map. Since DataItems are never modified once created, undoing or redoing an edit only puts references back, so it
+ * takes time (and the edit takes memory) in proportion to the size of the change rather than the size of the map.
+ *
+ * Tile edits are made to a working copy of each tile layer instead of replacing the layer's DataItem on every edit.
+ * The working copies are written back to the map (one copy of each edited layer) by getMap, and before any edit that
+ * replaces whole items, so while a history is in use the map should be read through getMap and only changed through
+ * the history.
+ *
+ * The memory held by recorded edits is capped at a budget; once it's exceeded, the oldest edits are forgotten.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapHistory
+{
+	public static final long DEFAULT_BUDGET = 64L << 20;		// Default cap on memory held by recorded edits (in bytes)
+	private static final int CHANGE_OVERHEAD = 48;				// Estimated bookkeeping per recorded change (in bytes)
+	private static final int[] LAYER_IDS = { 0x47, 0x48 };		// IDs of the lower and upper tile layers
+	private static final int[] BLANK_TILES = { 5000, 10000 };	// First chip of each layer, which fills resized areas
+
+	private RMMap map;					// The map being edited
+	private long budget;				// Cap on memory held by recorded edits (in bytes)
+	private long memoryUsed;			// Estimated memory held by recorded edits (in bytes)
+	private ArrayDeque<Edit> undoStack;	// Edits that can be undone, oldest first
+	private ArrayDeque<Edit> redoStack;	// Edits that can be redone, most recently undone first
+	private byte[][] workingLayers;		// Working copies of the lower and upper layers, where made
+	private DataItem[] workingBase;		// Layer items the working copies were made from
+	private boolean[] dirty;			// Whether each working copy has edits the map doesn't have yet
+
+	/**
+	 * A DataItem of the map, an event or a page that an edit replaced, added or removed.
+	 */
+	private static class ItemChange
+	{
+		RMBaseObject owner;	// Object holding the item
+		int id;				// ID of the item
+		DataItem before;	// Item before the edit, or null if the edit added it
+		DataItem after;		// Item after the edit, or null if the edit removed it
+	}
+
+	/**
+	 * A rectangle of tiles that an edit changed in one tile layer.
+	 */
+	private static class TileChange
+	{
+		int layer;		// Index of the layer in LAYER_IDS
+		int x;			// X-position of the rectangle
+		int y;			// Y-position of the rectangle
+		int w;			// Width of the rectangle
+		int h;			// Height of the rectangle
+		byte[] before;	// Tile values before the edit, 2 bytes per tile in row-major order
+		byte[] after;	// Tile values after the edit, 2 bytes per tile in row-major order
+	}
+
+	/**
+	 * A single undoable step.
+	 */
+	private static class Edit
+	{
+		String name;			// Description of the edit
+		List<ItemChange> items;	// Items the edit changed
+		List<TileChange> tiles;	// Tiles the edit changed
+		long size;				// Estimated memory held by the edit (in bytes)
+	}
+
+	/**
+	 * Starts recording edits to a map, with the default memory budget.
+	 *
+	 * @param map	The map to edit
+	 */
+	public MapHistory(RMMap map)
+	{
+		this(map, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Starts recording edits to a map.
+	 *
+	 * @param map		The map to edit
+	 * @param budget	Cap on memory held by recorded edits (in bytes)
+	 */
+	public MapHistory(RMMap map, long budget)
+	{
+		this.map = map;
+		this.budget = budget;
+		undoStack = new ArrayDeque<Edit>();
+		redoStack = new ArrayDeque<Edit>();
+		workingLayers = new byte[LAYER_IDS.length][];
+		workingBase = new DataItem[LAYER_IDS.length];
+		dirty = new boolean[LAYER_IDS.length];
+	}
+
+	/**
+	 * Writes any pending tile edits back to the map, and returns it.
+	 *
+	 * @return	The map, with every edit made so far
+	 */
+	public RMMap getMap()
+	{
+		flush();
+		return map;
+	}
+
+	/**
+	 * Rotates the map 90 degrees clockwise.
+	 */
+	public void rotateClockwise() { rotate(Rotation.ROT_90); }
+
+	/**
+	 * Rotates the map 180 degrees.
+	 */
+	public void rotate180() { rotate(Rotation.ROT_180); }
+
+	/**
+	 * Rotates the map 270 degrees clockwise (90 degrees counterclockwise).
+	 */
+	public void rotateCounterclockwise() { rotate(Rotation.ROT_270); }
+
+	/**
+	 * Rotates the map. Rotation changes every tile and event, so the edit records the map's tile layers, its event
+	 * layer and the position and facing items of every event.
+	 *
+	 * @param rotation	The amount to rotate the map (clockwise)
+	 * @throws IllegalArgumentException	If the tile layers don't match the map's dimensions
+	 */
+	protected void rotate(Rotation rotation)
+	{
+		List<RMBaseObject> owners = new ArrayList<RMBaseObject>();
+		owners.add(map);
+		for (RMEvent event : map.getEvents())
+		{
+			owners.add(event);
+			for (RMEventPage page : event.getPages())
+				owners.add(page);
+		}
+
+		record("Rotate " + (90 * rotation.ordinal()), owners, () -> map.rotateMap(rotation));
+	}
+
+	/**
+	 * Changes the map's dimensions. Both tile layers are reflowed to the new width: tiles inside both the old and the
+	 * new bounds keep their positions, and new rows and columns are filled with the first chip of their layer. Events
+	 * keep their positions, even if they fall outside the new bounds.
+	 *
+	 * @param width		New width of the map
+	 * @param height	New height of the map
+	 * @throws IllegalArgumentException	If either dimension is less than 1, or the tile layers don't match the map's
+	 * 									current dimensions
+	 */
+	public void resize(int width, int height)
+	{
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("Can't resize a map to " + width + "x" + height);
+
+		List<RMBaseObject> owners = new ArrayList<RMBaseObject>();
+		owners.add(map);
+
+		record("Resize to " + width + "x" + height, owners, () ->
+		{
+			int oldWidth = map.getMapWidth();
+			int oldHeight = map.getMapHeight();
+			map.checkTileLayers(oldWidth, oldHeight);
+
+			for (int layer = 0; layer < LAYER_IDS.length; layer++)
+			{
+				byte[] tiles = map.dataItems.get(LAYER_IDS[layer]).getData();
+				byte[] resized = new byte[2 * width * height];
+				for (int i = 0; i < resized.length; i += 2)
+				{
+					resized[i] = (byte) BLANK_TILES[layer];
+					resized[i + 1] = (byte) (BLANK_TILES[layer] >> 8);
+				}
+
+				int columns = Math.min(width, oldWidth);
+				for (int row = 0; row < Math.min(height, oldHeight); row++)
+					System.arraycopy(tiles, 2 * row * oldWidth, resized, 2 * row * width, 2 * columns);
+
+				map.dataItems.put(LAYER_IDS[layer], new DataItem(LAYER_IDS[layer], resized, map));
+			}
+
+			map.resize(width, height);
+		});
+	}
+
+	/**
+	 * Moves one of the map's events. The map's event layer is rebuilt as part of the edit, so undoing it puts back the
+	 * event layer as well as the event's position items.
+	 *
+	 * @param event	The event to move
+	 * @param x		New X-position of the event
+	 * @param y		New Y-position of the event
+	 */
+	public void moveEvent(RMEvent event, int x, int y)
+	{
+		List<RMBaseObject> owners = new ArrayList<RMBaseObject>();
+		owners.add(map);
+		owners.add(event);
+
+		record("Move " + event.getName(), owners, () ->
+		{
+			event.setXPos(x);
+			event.setYPos(y);
+			map.updateEvents();
+		});
+	}
+
+	/**
+	 * Sets a single tile.
+	 *
+	 * @param layerID	ID of the layer (0x47 for the lower layer, 0x48 for the upper layer)
+	 * @param x			X-position of the tile
+	 * @param y			Y-position of the tile
+	 * @param value		New value of the tile
+	 * @throws IllegalArgumentException	If the layer ID or position is invalid
+	 */
+	public void setTile(int layerID, int x, int y, int value)
+	{
+		setTiles(layerID, x, y, 1, 1, new short[] { (short) value });
+	}
+
+	/**
+	 * Sets a rectangle of tiles.
+	 *
+	 * @param layerID	ID of the layer (0x47 for the lower layer, 0x48 for the upper layer)
+	 * @param x			X-position of the rectangle
+	 * @param y			Y-position of the rectangle
+	 * @param w			Width of the rectangle
+	 * @param h			Height of the rectangle
+	 * @param tiles		New values of the tiles, in row-major order
+	 * @throws IllegalArgumentException	If the layer ID is invalid, or the rectangle doesn't fit the map
+	 */
+	public void setTiles(int layerID, int x, int y, int w, int h, short[] tiles)
+	{
+		int layer = layerIndex(layerID);
+		if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > map.getMapWidth() || y + h > map.getMapHeight())
+			throw new IllegalArgumentException(String.format("Tile rectangle doesn't fit layer 0x%02X", layerID));
+		if (tiles.length < w * h)
+			throw new IllegalArgumentException("Expected " + (w * h) + " tiles, but got " + tiles.length);
+
+		TileChange change = new TileChange();
+		change.layer = layer;
+		change.x = x;
+		change.y = y;
+		change.w = w;
+		change.h = h;
+		change.before = readTiles(layer, x, y, w, h);
+		change.after = new byte[2 * w * h];
+
+		for (int i = 0; i < w * h; i++)
+		{
+			change.after[2 * i] = (byte) tiles[i];
+			change.after[2 * i + 1] = (byte) (tiles[i] >> 8);
+		}
+
+		writeTiles(layer, x, y, w, h, change.after);
+
+		Edit edit = new Edit();
+		edit.name = "Set " + (w * h) + (w * h == 1 ? " tile" : " tiles");
+		edit.items = new ArrayList<ItemChange>();
+		edit.tiles = new ArrayList<TileChange>();
+		edit.tiles.add(change);
+		edit.size = CHANGE_OVERHEAD + 2L * change.after.length;
+		push(edit);
+	}
+
+	/**
+	 * Undoes the most recent edit that hasn't been undone.
+	 *
+	 * @return	false if there was nothing to undo
+	 */
+	public boolean undo()
+	{
+		if (undoStack.isEmpty())
+			return false;
+
+		Edit edit = undoStack.removeLast();
+		apply(edit, false);
+		redoStack.addFirst(edit);
+		return true;
+	}
+
+	/**
+	 * Redoes the most recently undone edit.
+	 *
+	 * @return	false if there was nothing to redo
+	 */
+	public boolean redo()
+	{
+		if (redoStack.isEmpty())
+			return false;
+
+		Edit edit = redoStack.removeFirst();
+		apply(edit, true);
+		undoStack.addLast(edit);
+		return true;
+	}
+
+	/**
+	 * @return	Whether there's an edit to undo
+	 */
+	public boolean canUndo()
+	{
+		return !undoStack.isEmpty();
+	}
+
+	/**
+	 * @return	Whether there's an edit to redo
+	 */
+	public boolean canRedo()
+	{
+		return !redoStack.isEmpty();
+	}
+
+	/**
+	 * @return	Description of the edit undo would undo, or null if there is none
+	 */
+	public String getUndoName()
+	{
+		return undoStack.isEmpty() ? null : undoStack.getLast().name;
+	}
+
+	/**
+	 * @return	Description of the edit redo would redo, or null if there is none
+	 */
+	public String getRedoName()
+	{
+		return redoStack.isEmpty() ? null : redoStack.getFirst().name;
+	}
+
+	/**
+	 * @return	Number of edits that can be undone
+	 */
+	public int getUndoCount()
+	{
+		return undoStack.size();
+	}
+
+	/**
+	 * @return	Number of edits that can be redone
+	 */
+	public int getRedoCount()
+	{
+		return redoStack.size();
+	}
+
+	/**
+	 * @return	Estimated memory held by recorded edits (in bytes)
+	 */
+	public long getMemoryUsed()
+	{
+		return memoryUsed;
+	}
+
+	/**
+	 * @return	Cap on memory held by recorded edits (in bytes)
+	 */
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Changes the memory budget, forgetting the oldest edits if they no longer fit.
+	 *
+	 * @param budget	New cap on memory held by recorded edits (in bytes)
+	 */
+	public void setBudget(long budget)
+	{
+		this.budget = budget;
+		trim();
+	}
+
+	/**
+	 * Forgets every recorded edit, leaving the map as it is.
+	 */
+	public void clear()
+	{
+		undoStack.clear();
+		redoStack.clear();
+		memoryUsed = 0;
+	}
+
+	/**
+	 * Performs an edit that replaces items, and records the items it replaced in the given objects. Only references
+	 * to the objects' items are taken, so the cost is in proportion to the number of items the objects hold.
+	 *
+	 * @param name		Description of the edit
+	 * @param owners	Every object whose items the edit may change
+	 * @param action	The edit
+	 */
+	private void record(String name, List<RMBaseObject> owners, Runnable action)
+	{
+		flush();
+
+		List<TreeMap<Integer, DataItem>> snapshots = new ArrayList<TreeMap<Integer, DataItem>>(owners.size());
+		for (RMBaseObject owner : owners)
+			snapshots.add(new TreeMap<Integer, DataItem>(owner.dataItems));
+
+		action.run();
+
+		Edit edit = new Edit();
+		edit.name = name;
+		edit.items = new ArrayList<ItemChange>();
+		edit.tiles = new ArrayList<TileChange>();
+
+		for (int i = 0; i < owners.size(); i++)
+		{
+			RMBaseObject owner = owners.get(i);
+			TreeMap<Integer, DataItem> before = snapshots.get(i);
+
+			TreeSet<Integer> ids = new TreeSet<Integer>(before.keySet());
+			ids.addAll(owner.dataItems.keySet());
+
+			for (int id : ids)
+			{
+				DataItem original = before.get(id);
+				DataItem edited = owner.dataItems.get(id);
+
+				// Items are replaced rather than modified, so an unchanged reference means an unchanged item
+				if (original == edited)
+					continue;
+
+				ItemChange change = new ItemChange();
+				change.owner = owner;
+				change.id = id;
+				change.before = original;
+				change.after = edited;
+				edit.items.add(change);
+
+				// Both items are counted, since either may be held only by this edit
+				edit.size += CHANGE_OVERHEAD + (original == null ? 0 : original.itemSize()) + (edited == null ? 0 : edited.itemSize());
+			}
+		}
+
+		push(edit);
+	}
+
+	/**
+	 * Adds a newly made edit to the history, dropping any edits that had been undone.
+	 *
+	 * @param edit	The edit
+	 */
+	private void push(Edit edit)
+	{
+		Iterator<Edit> itr = redoStack.iterator();
+		while (itr.hasNext())
+			memoryUsed -= itr.next().size;
+		redoStack.clear();
+
+		undoStack.addLast(edit);
+		memoryUsed += edit.size;
+		trim();
+	}
+
+	/**
+	 * Forgets the oldest edits (then the edits furthest from being redone) until the history fits its budget.
+	 */
+	private void trim()
+	{
+		while (memoryUsed > budget && !undoStack.isEmpty())
+			memoryUsed -= undoStack.removeFirst().size;
+
+		while (memoryUsed > budget && !redoStack.isEmpty())
+			memoryUsed -= redoStack.removeLast().size;
+	}
+
+	/**
+	 * Undoes or redoes an edit.
+	 *
+	 * @param edit		The edit
+	 * @param forward	true to redo the edit, false to undo it
+	 */
+	private void apply(Edit edit, boolean forward)
+	{
+		for (ItemChange change : edit.items)
+		{
+			DataItem item = forward ? change.after : change.before;
+			if (item == null)
+				change.owner.dataItems.remove(change.id);
+			else
+				change.owner.dataItems.put(change.id, item);
+		}
+
+		if (!edit.items.isEmpty())
+			map.invalidateEventIndex();
+
+		for (int i = 0; i < edit.tiles.size(); i++)
+		{
+			TileChange change = edit.tiles.get(forward ? i : edit.tiles.size() - 1 - i);
+			writeTiles(change.layer, change.x, change.y, change.w, change.h, forward ? change.after : change.before);
+		}
+	}
+
+	/**
+	 * Returns the working copy of a tile layer, making it first if the map's layer item has been replaced since (or
+	 * the copy hasn't been made yet).
+	 *
+	 * @param layer	Index of the layer in LAYER_IDS
+	 * @return	The working copy of the layer
+	 */
+	private byte[] workingLayer(int layer)
+	{
+		DataItem item = map.dataItems.get(LAYER_IDS[layer]);
+		if (workingLayers[layer] == null || item != workingBase[layer])
+		{
+			map.checkTileLayers(map.getMapWidth(), map.getMapHeight());
+			workingLayers[layer] = item.getData();
+			workingBase[layer] = item;
+			dirty[layer] = false;
+		}
+
+		return workingLayers[layer];
+	}
+
+	/**
+	 * Writes any working copies with pending edits back to the map.
+	 */
+	private void flush()
+	{
+		for (int layer = 0; layer < LAYER_IDS.length; layer++)
+		{
+			if (!dirty[layer] || map.dataItems.get(LAYER_IDS[layer]) != workingBase[layer])
+				continue;
+
+			DataItem item = new DataItem(LAYER_IDS[layer], workingLayers[layer], map);
+			map.dataItems.put(LAYER_IDS[layer], item);
+			workingBase[layer] = item;
+			dirty[layer] = false;
+		}
+	}
+
+	/**
+	 * @return	The tiles of a rectangle of a layer's working copy, 2 bytes per tile in row-major order
+	 */
+	private byte[] readTiles(int layer, int x, int y, int w, int h)
+	{
+		byte[] tiles = workingLayer(layer);
+		int width = map.getMapWidth();
+		byte[] result = new byte[2 * w * h];
+
+		for (int row = 0; row < h; row++)
+			System.arraycopy(tiles, 2 * ((y + row) * width + x), result, 2 * row * w, 2 * w);
+
+		return result;
+	}
+
+	/**
+	 * Writes tiles into a rectangle of a layer's working copy.
+	 *
+	 * @param values	The tiles to write, 2 bytes per tile in row-major order
+	 */
+	private void writeTiles(int layer, int x, int y, int w, int h, byte[] values)
+	{
+		byte[] tiles = workingLayer(layer);
+		int width = map.getMapWidth();
+
+		for (int row = 0; row < h; row++)
+			System.arraycopy(values, 2 * row * w, tiles, 2 * ((y + row) * width + x), 2 * w);
+
+		dirty[layer] = true;
+	}
+
+	/**
+	 * @param layerID	ID of a tile layer
+	 * @return	Index of the layer in LAYER_IDS
+	 * @throws IllegalArgumentException	If the ID isn't a tile layer's
+	 */
+	private static int layerIndex(int layerID)
+	{
+		for (int i = 0; i < LAYER_IDS.length; i++)
+			if (LAYER_IDS[i] == layerID)
+				return i;
+
+		throw new IllegalArgumentException(String.format("0x%02X isn't a tile layer", layerID));
+	}
+}
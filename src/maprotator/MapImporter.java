@@ -0,0 +1,529 @@
+package maprotator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.TreeMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * MapImporter.java
+ *
+ * Reads a map back from the JSON or TMX written by MapExporter (see there for the formats). Documents are parsed as
+ * they're read, with JsonReader and a StAX reader, and tiles are packed into the layers' bytes as they arrive. The
+ * map is then built the way one read from a file would be: a DataItem for each item, the tile layers and the event
+ * layer (from the events, each rebuilt as an RMObject and then an RMEvent), assembled behind the map header and
+ * parsed into an RMMap, so anything that doesn't make a valid map is rejected before it's saved.
+ *
+ * An event's ID and position are taken from the document, and everything else from its encoded data, so events can
+ * be moved (or renumbered) in other tools. Events are written in order of ID, whatever order the document lists them
+ * in; two events with the same ID, or an event outside the map, are rejected. In TMX, positions are rounded to the
+ * nearest tile, and empty tiles (gid 0) are imported as the first chip of their layer (5000 on the lower layer, 10000
+ * on the upper); flip flags are ignored.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapImporter
+{
+	private static final byte[] MAP_HEADER = "\nLcfMapUnit".getBytes(StandardCharsets.US_ASCII);	// Header of every map
+	private static final int BLANK_LOWER = 5000;		// Lower tile imported for an empty TMX tile
+	private static final int BLANK_UPPER = 10000;		// Upper tile imported for an empty TMX tile
+	private static final long GID_MASK = 0x1FFFFFFFL;	// Bits of a TMX gid that aren't flip flags
+
+	private TreeMap<Integer, DataItem> items;	// Map items other than the layers and events, by ID
+	private int width;							// Width of the map, or -1 if not yet read
+	private int height;							// Height of the map, or -1 if not yet read
+	private Layer lower;						// Lower layer tiles read so far
+	private Layer upper;						// Upper layer tiles read so far
+	private TreeMap<Integer, RMEvent> events;	// Events read so far, by ID
+
+	/**
+	 * A tile layer's content, packed as it's read.
+	 */
+	private static class Layer
+	{
+		byte[] data = new byte[1024];	// Tile values, two bytes each (little-endian)
+		int size;						// Number of bytes used
+
+		/**
+		 * @param value	The next tile's value
+		 * @throws IllegalArgumentException	If the value doesn't fit in two bytes
+		 */
+		void add(int value)
+		{
+			if (value < 0 || value > 0xFFFF)
+				throw new IllegalArgumentException("Tile value out of range: " + value);
+
+			if (size + 2 > data.length)
+			{
+				byte[] larger = new byte[2 * data.length];
+				System.arraycopy(data, 0, larger, 0, size);
+				data = larger;
+			}
+
+			data[size++] = (byte) value;
+			data[size++] = (byte) (value >> 8);
+		}
+	}
+
+	/**
+	 * Imports a map from a .json or .tmx file and saves it as a .lmu file.
+	 *
+	 * @param args	Path of the file to import, and path of the map to write
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: MapImporter <input file (.json or .tmx)> <output map>");
+			System.exit(2);
+		}
+
+		Path destination = Paths.get(args[1]);
+		RMMap map = importFile(Paths.get(args[0]), destination.toString());
+		AsyncMapWriter.writeAtomically(destination, map.toBuffers());
+		System.out.println("Imported " + args[0] + " to " + destination);
+	}
+
+	/**
+	 * Reads a map from a file, in the format given by its extension (.tmx, or else JSON).
+	 *
+	 * @param source	Path of the file to read
+	 * @param path		Path to give the map
+	 * @return	The map
+	 * @throws IOException	If the file can't be read
+	 * @throws IllegalArgumentException	If the file is malformed, or doesn't describe a valid map
+	 */
+	public static RMMap importFile(Path source, String path) throws IOException
+	{
+		try (Reader in = Files.newBufferedReader(source, StandardCharsets.UTF_8))
+		{
+			if (source.getFileName().toString().toLowerCase().endsWith(".tmx"))
+				return readTmx(in, path);
+			else
+				return readJson(in, path);
+		}
+	}
+
+	/**
+	 * Reads a map from JSON.
+	 *
+	 * @param in	The JSON document
+	 * @param path	Path to give the map
+	 * @return	The map
+	 * @throws IOException	If the document can't be read
+	 * @throws IllegalArgumentException	If the document is malformed, or doesn't describe a valid map
+	 */
+	public static RMMap readJson(Reader in, String path) throws IOException
+	{
+		MapImporter importer = new MapImporter();
+		JsonReader json = new JsonReader(in);
+
+		json.beginObject();
+		while (json.hasNext())
+		{
+			switch (json.nextName())
+			{
+				case "width":
+					importer.width = json.nextInt();
+					break;
+
+				case "height":
+					importer.height = json.nextInt();
+					break;
+
+				case "items":
+					json.beginObject();
+					while (json.hasNext())
+					{
+						String name = json.nextName();
+						importer.addItem(name, json.nextString());
+					}
+					json.endObject();
+					break;
+
+				case "lower":
+					readJsonLayer(json, importer.lower, importer.width);
+					break;
+
+				case "upper":
+					readJsonLayer(json, importer.upper, importer.width);
+					break;
+
+				case "events":
+					json.beginArray();
+					while (json.hasNext())
+						readJsonEvent(json, importer);
+					json.endArray();
+					break;
+
+				default:
+					json.skipValue();
+			}
+		}
+		json.endObject();
+
+		return importer.build(path);
+	}
+
+	/**
+	 * Reads a map from TMX, as written by MapExporter.
+	 *
+	 * @param in	The TMX document
+	 * @param path	Path to give the map
+	 * @return	The map
+	 * @throws IOException	If the document can't be read
+	 * @throws IllegalArgumentException	If the document is malformed, or doesn't describe a valid map
+	 */
+	public static RMMap readTmx(Reader in, String path) throws IOException
+	{
+		MapImporter importer = new MapImporter();
+
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		try
+		{
+			XMLStreamReader xml = factory.createXMLStreamReader(in);
+			ArrayDeque<String> elements = new ArrayDeque<String>();		// Open elements, innermost first
+			Layer layer = null;
+			int eventID = 0;
+			double eventX = 0, eventY = 0;
+			String eventData = null;
+
+			while (xml.hasNext())
+			{
+				int type = xml.next();
+				if (type == XMLStreamConstants.END_ELEMENT)
+				{
+					if (elements.pop().equals("object"))
+					{
+						if (eventData == null)
+							throw new IllegalArgumentException("Event " + eventID + " has no data");
+
+						// A position is always given, so a negative one is outside the map rather than left out
+						int x = (int) Math.round(eventX / ChipsetAtlas.TILE_SIZE);
+						int y = (int) Math.round(eventY / ChipsetAtlas.TILE_SIZE);
+						if (x < 0 || y < 0)
+							throw new IllegalArgumentException("Event " + eventID + " is outside the map at (" + x + ", " + y + ")");
+
+						importer.addEvent(eventID, x, y, eventData);
+					}
+					continue;
+				}
+				else if (type != XMLStreamConstants.START_ELEMENT)
+					continue;
+
+				String element = xml.getLocalName();
+				String parent = elements.isEmpty() ? "" : elements.peek();
+				switch (element)
+				{
+					case "map":
+						importer.width = Integer.parseInt(attribute(xml, "width"));
+						importer.height = Integer.parseInt(attribute(xml, "height"));
+						break;
+
+					case "property":
+						// Properties of the map named by ID are items; the data property of an object is an event
+						if (elements.size() == 2 && attribute(xml, "name").startsWith("0x"))
+							importer.addItem(attribute(xml, "name"), attribute(xml, "value"));
+						else if (elements.contains("object") && "data".equals(xml.getAttributeValue(null, "name")))
+							eventData = attribute(xml, "value");
+						break;
+
+					case "layer":
+						String name = attribute(xml, "name");
+						layer = name.equals("Lower") ? importer.lower : name.equals("Upper") ? importer.upper : null;
+						break;
+
+					case "data":
+						if (parent.equals("layer") && layer != null)
+						{
+							if (!"csv".equals(xml.getAttributeValue(null, "encoding")))
+								throw new IllegalArgumentException("Only CSV layer data can be imported");
+
+							readCsv(xml, layer, layer == importer.lower ? BLANK_LOWER : BLANK_UPPER);
+							layer = null;
+							continue;		// readCsv consumes the end of the element
+						}
+						break;
+
+					case "object":
+						eventID = Integer.parseInt(attribute(xml, "id"));
+						eventX = Double.parseDouble(attribute(xml, "x"));
+						eventY = Double.parseDouble(attribute(xml, "y"));
+						eventData = null;
+						break;
+				}
+
+				elements.push(element);
+			}
+
+			xml.close();
+		}
+		catch (XMLStreamException e)
+		{
+			throw new IllegalArgumentException("Malformed TMX: " + e.getMessage(), e);
+		}
+
+		return importer.build(path);
+	}
+
+	/**
+	 * Creates an importer with nothing read yet.
+	 */
+	private MapImporter()
+	{
+		items = new TreeMap<Integer, DataItem>();
+		width = -1;
+		height = -1;
+		lower = new Layer();
+		upper = new Layer();
+		events = new TreeMap<Integer, RMEvent>();
+	}
+
+	/**
+	 * Adds an encoded map item. Items written as tiles or events are ignored.
+	 *
+	 * @param name	The item's name (e.g., "0x01")
+	 * @param value	The item's data, base64-encoded
+	 * @throws IllegalArgumentException	If the name isn't an item ID, or the data isn't base64
+	 */
+	private void addItem(String name, String value)
+	{
+		int id = Integer.decode(name);
+		if (id < 1 || id > 0x7F)
+			throw new IllegalArgumentException("Not a map item ID: " + name);
+
+		if (!MapExporter.isExported(id))
+			items.put(id, new DataItem(id, Base64.getDecoder().decode(value), null));
+	}
+
+	/**
+	 * Adds an event.
+	 *
+	 * @param id	The event's ID, or 0 to keep the one in its data
+	 * @param x		The event's X-position, or -1 to keep the one in its data
+	 * @param y		The event's Y-position, or -1 to keep the one in its data
+	 * @param data	The encoded event
+	 * @throws IllegalArgumentException	If the data isn't base64, or isn't a valid event, or the event's ID is taken
+	 */
+	private void addEvent(int id, int x, int y, String data)
+	{
+		RMEvent event = new RMEvent(new RMObject(Base64.getDecoder().decode(data), 0));
+
+		if (id > 0 && id != event.getID())
+			event.setID(id);
+		if (x >= 0 && x != event.getXPos())
+			event.setXPos(x);
+		if (y >= 0 && y != event.getYPos())
+			event.setYPos(y);
+
+		if (events.putIfAbsent(event.getID(), event) != null)
+			throw new IllegalArgumentException("More than one event has ID " + event.getID());
+	}
+
+	/**
+	 * Assembles the map from everything read.
+	 *
+	 * @param path	Path to give the map
+	 * @return	The map
+	 * @throws IllegalArgumentException	If the map's dimensions are missing, the layers don't match them, an event is
+	 * 									outside them, or the map fails validation
+	 */
+	private RMMap build(String path)
+	{
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("Map dimensions missing or invalid");
+
+		for (Layer layer : new Layer[] { lower, upper })
+			if (layer.size != 2 * width * height)
+				throw new IllegalArgumentException("Tile layer holds " + layer.size / 2 + " tiles rather than " + width + "x" + height);
+
+		// Positions can only be checked once the dimensions are known, which in JSON may be after the events
+		for (RMEvent event : events.values())
+			if (event.getXPos() < 0 || event.getXPos() >= width || event.getYPos() < 0 || event.getYPos() >= height)
+				throw new IllegalArgumentException("Event " + event.getID() + " is outside the map at (" + event.getXPos()
+													+ ", " + event.getYPos() + ")");
+
+		// Dimensions at their default values are only stored if they were to begin with
+		if (items.containsKey(0x02) || width != ItemSchema.MAP.getField(0x02).getDefaultValue())
+			items.put(0x02, new DataItem(0x02, width, null));
+		if (items.containsKey(0x03) || height != ItemSchema.MAP.getField(0x03).getDefaultValue())
+			items.put(0x03, new DataItem(0x03, height, null));
+
+		items.put(0x47, new DataItem(0x47, trim(lower), null));
+		items.put(0x48, new DataItem(0x48, trim(upper), null));
+		items.put(0x51, new DataItem(0x51, events.values().toArray(new RMObject[0]), null));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(MAP_HEADER.length + lower.size + upper.size + 1024);
+		out.write(MAP_HEADER, 0, MAP_HEADER.length);
+		for (DataItem item : items.values())
+			out.write(item.byteArray(), 0, item.itemSize());
+		out.write(0);
+
+		RMMap map = new RMMap(path, out.toByteArray());
+		if (map.getEvents() == null)
+			throw new IllegalArgumentException("Imported map failed validation");
+
+		return map;
+	}
+
+	/**
+	 * Reads a layer given as an array of rows.
+	 *
+	 * @param json	The reader, positioned before the array
+	 * @param layer	The layer to add the tiles to
+	 * @param width	Width of the map, or -1 if not yet known
+	 * @throws IOException	If the document can't be read
+	 * @throws IllegalArgumentException	If a row's length doesn't match the width
+	 */
+	private static void readJsonLayer(JsonReader json, Layer layer, int width) throws IOException
+	{
+		json.beginArray();
+		while (json.hasNext())
+		{
+			int start = layer.size;
+			json.beginArray();
+			while (json.hasNext())
+				layer.add(json.nextInt());
+			json.endArray();
+
+			if (width >= 0 && layer.size - start != 2 * width)
+				throw new IllegalArgumentException("Tile row holds " + (layer.size - start) / 2 + " tiles rather than " + width);
+		}
+		json.endArray();
+	}
+
+	/**
+	 * Reads an event object.
+	 *
+	 * @param json		The reader, positioned before the object
+	 * @param importer	The importer to add the event to
+	 * @throws IOException	If the document can't be read
+	 * @throws IllegalArgumentException	If the event has no data, or its data isn't valid
+	 */
+	private static void readJsonEvent(JsonReader json, MapImporter importer) throws IOException
+	{
+		int id = 0, x = -1, y = -1;
+		String data = null;
+
+		json.beginObject();
+		while (json.hasNext())
+		{
+			switch (json.nextName())
+			{
+				case "id":		id = json.nextInt(); break;
+				case "x":		x = json.nextInt(); break;
+				case "y":		y = json.nextInt(); break;
+				case "data":	data = json.nextString(); break;
+
+				default:
+					json.skipValue();
+			}
+		}
+		json.endObject();
+
+		if (data == null)
+			throw new IllegalArgumentException("Event " + id + " has no data");
+
+		importer.addEvent(id, x, y, data);
+	}
+
+	/**
+	 * Reads the comma-separated gids of a layer's data element, a chunk of text at a time, up to and including the
+	 * end of the element.
+	 *
+	 * @param xml	The reader, positioned at the start of the data element
+	 * @param layer	The layer to add the tiles to
+	 * @param blank	Tile value to import for empty tiles
+	 * @throws XMLStreamException	If the document is malformed
+	 * @throws IllegalArgumentException	If the data holds anything but numbers, commas and whitespace
+	 */
+	private static void readCsv(XMLStreamReader xml, Layer layer, int blank) throws XMLStreamException
+	{
+		long gid = 0;
+		boolean digits = false;
+
+		while (true)
+		{
+			int type = xml.next();
+			if (type == XMLStreamConstants.END_ELEMENT)
+				break;
+			if (type != XMLStreamConstants.CHARACTERS && type != XMLStreamConstants.SPACE)
+				throw new IllegalArgumentException("Unexpected content in layer data");
+
+			char[] text = xml.getTextCharacters();
+			int end = xml.getTextStart() + xml.getTextLength();
+			for (int i = xml.getTextStart(); i < end; i++)
+			{
+				char c = text[i];
+				if (c >= '0' && c <= '9')
+				{
+					gid = Math.min(10 * gid + (c - '0'), 1L << 40);
+					digits = true;
+				}
+				else if (c == ',' || Character.isWhitespace(c))
+				{
+					if (digits)
+						addGid(layer, gid, blank);
+					gid = 0;
+					digits = false;
+				}
+				else
+					throw new IllegalArgumentException("Unexpected character in layer data: '" + c + "'");
+			}
+		}
+
+		if (digits)
+			addGid(layer, gid, blank);
+	}
+
+	/**
+	 * @param layer	The layer to add a tile to
+	 * @param gid	The tile's TMX gid
+	 * @param blank	Tile value to import for empty tiles
+	 */
+	private static void addGid(Layer layer, long gid, int blank)
+	{
+		gid &= GID_MASK;
+		layer.add(gid == 0 ? blank : (int) Math.min(gid - 1, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * @param xml	A reader positioned at the start of an element
+	 * @param name	Name of an attribute of the element
+	 * @return	The attribute's value
+	 * @throws IllegalArgumentException	If the element has no such attribute
+	 */
+	private static String attribute(XMLStreamReader xml, String name)
+	{
+		String value = xml.getAttributeValue(null, name);
+		if (value == null)
+			throw new IllegalArgumentException("<" + xml.getLocalName() + "> has no " + name + " attribute");
+
+		return value;
+	}
+
+	/**
+	 * @param layer	A layer
+	 * @return	The layer's bytes, without the unused space at the end
+	 */
+	private static byte[] trim(Layer layer)
+	{
+		byte[] data = new byte[layer.size];
+		System.arraycopy(layer.data, 0, data, 0, layer.size);
+		return data;
+	}
+}
@@ -0,0 +1,207 @@
+package maprotator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * MapLoader.java
+ * 
+ * Loads many maps concurrently on a pool of worker threads. Each file is read into a pooled buffer, parsed into an
+ * RMMap (which copies out everything it keeps), and the buffer is then returned to the pool for the next file.
+ * Maps are loaded quietly, without printing their contents.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapLoader implements AutoCloseable
+{
+	private ExecutorService workers;	// Threads that read and parse maps
+	private BufferPool buffers;			// Reusable input buffers
+	private RotationRuleSet rules;		// Tile rotation rules given to every loaded map, shared across the batch
+	private ItemInterner interner;		// Shares identical event items between loaded maps, or null for none
+	
+	/**
+	 * Creates a loader with one worker thread per available processor.
+	 */
+	public MapLoader()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a loader with the given number of worker threads.
+	 * 
+	 * @param threads	Number of worker threads
+	 */
+	public MapLoader(int threads)
+	{
+		ThreadFactory daemons = runnable ->
+		{
+			Thread thread = new Thread(runnable, "map-loader");
+			thread.setDaemon(true);
+			return thread;
+		};
+		
+		workers = Executors.newFixedThreadPool(threads, daemons);
+		buffers = new BufferPool(threads);
+		rules = RotationRuleSet.BUILT_IN;
+	}
+	
+	/**
+	 * Sets the tile rotation rules given to each map loaded from now on. Since every map shares the same rule set,
+	 * each chipset's rules are compiled only once for the whole batch.
+	 * 
+	 * @param rules	The tile rotation rules to use
+	 */
+	public void setRotationRules(RotationRuleSet rules)
+	{
+		this.rules = rules;
+	}
+	
+	/**
+	 * Sets the interner that maps loaded from now on share their identical event and page items through. Worth
+	 * setting when the loaded maps are kept around together (for packing or diffing a whole project, say).
+	 * 
+	 * @param interner	The interner to use, or null to stop interning
+	 */
+	public void setInterner(ItemInterner interner)
+	{
+		this.interner = interner;
+	}
+	
+	/**
+	 * Schedules a map to be loaded.
+	 * 
+	 * @param path	Path to the .lmu file to load
+	 * @return	A future completed with the loaded map, or exceptionally if the file can't be read or parsed
+	 */
+	public CompletableFuture<RMMap> load(Path path)
+	{
+		return CompletableFuture.supplyAsync(() -> loadNow(path), workers);
+	}
+	
+	/**
+	 * Schedules every .lmu file in the given folder to be loaded.
+	 * 
+	 * @param folder	The folder to search for maps
+	 * @return	A future for each map found, in file name order
+	 * @throws IOException	If the folder can't be listed
+	 */
+	public List<CompletableFuture<RMMap>> loadFolder(Path folder) throws IOException
+	{
+		List<CompletableFuture<RMMap>> result = new ArrayList<CompletableFuture<RMMap>>();
+		for (Path path : listMaps(folder))
+			result.add(load(path));
+		
+		return result;
+	}
+	
+	/**
+	 * Loads every .lmu file in the given folder, waiting for all of them to finish.
+	 * 
+	 * @param folder	The folder to search for maps
+	 * @return	A future completed with the list of loaded maps, in file name order
+	 * @throws IOException	If the folder can't be listed
+	 */
+	public CompletableFuture<List<RMMap>> loadAll(Path folder) throws IOException
+	{
+		List<CompletableFuture<RMMap>> futures = loadFolder(folder);
+		
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored ->
+		{
+			List<RMMap> maps = new ArrayList<RMMap>(futures.size());
+			for (CompletableFuture<RMMap> future : futures)
+				maps.add(future.join());
+			
+			return maps;
+		});
+	}
+	
+	/**
+	 * Lists the .lmu files in the given folder.
+	 * 
+	 * @param folder	The folder to search for maps
+	 * @return	The paths of the maps found, in file name order
+	 * @throws IOException	If the folder can't be listed
+	 */
+	public static List<Path> listMaps(Path folder) throws IOException
+	{
+		List<Path> result = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*.{lmu,LMU}"))
+		{
+			for (Path path : stream)
+				result.add(path);
+		}
+		
+		result.sort(null);
+		return result;
+	}
+	
+	/**
+	 * Reads and parses a map on the calling thread.
+	 * 
+	 * @param path	Path to the .lmu file to load
+	 * @return	The loaded map
+	 */
+	private RMMap loadNow(Path path)
+	{
+		byte[] buffer = null;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size >= Integer.MAX_VALUE)
+				throw new IOException("Map file too large: " + path);
+			
+			PhaseTimer timer = PhaseTimer.start(MapPhase.READ);
+			buffer = buffers.acquire((int) size);
+			ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) size);
+			while (target.hasRemaining())
+				if (channel.read(target) < 0)
+					throw new EOFException("Unexpected end of file: " + path);
+			
+			timer.end(path.getFileName().toString(), size);
+			
+			// The buffer may be longer than the file, and past its end hold a previous file's data, which mustn't be read
+			RMMap map = new RMMap(path.toString(), buffer, (int) size);
+			if (map.getEvents() == null)
+				throw new IllegalStateException("Map failed validation: " + path);
+			
+			map.setRotationRules(rules);
+			if (interner != null)
+				interner.intern(map);
+			
+			return map;
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		finally
+		{
+			if (buffer != null)
+				buffers.release(buffer);
+		}
+	}
+	
+	/**
+	 * Stops the worker threads once all scheduled loads are finished.
+	 */
+	@Override
+	public void close()
+	{
+		workers.shutdown();
+	}
+}
@@ -0,0 +1,200 @@
+package maprotator;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MapMetrics.java
+ * 
+ * An optional in-process registry of counters and duration histograms for each MapPhase, for batch drivers that want
+ * a summary of where the time went without attaching Flight Recorder. Disabled by default; once enabled, every
+ * PhaseTimer records into it, and drivers can keep named counters of their own (RotationBatch counts the maps,
+ * items and bytes it writes). All methods are safe to call from many threads at once.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapMetrics
+{
+	private static final int BUCKETS = 64;	// Number of power-of-two histogram buckets (by nanoseconds)
+	
+	private static volatile boolean enabled;									// Whether phases are being recorded
+	private static volatile Map<MapPhase, PhaseStats> phases = createPhaseStats();	// Statistics for each phase
+	private static ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();	// Named counters
+	
+	/**
+	 * Running totals and a duration histogram for a single phase.
+	 */
+	private static class PhaseStats
+	{
+		LongAdder count = new LongAdder();					// Number of times the phase was recorded
+		LongAdder totalNanos = new LongAdder();				// Total time spent in the phase
+		LongAdder totalBytes = new LongAdder();				// Total bytes processed during the phase
+		AtomicLongArray histogram = new AtomicLongArray(BUCKETS);	// Counts of durations by power of two
+	}
+	
+	/**
+	 * @return	A map holding empty statistics for every phase
+	 */
+	private static Map<MapPhase, PhaseStats> createPhaseStats()
+	{
+		Map<MapPhase, PhaseStats> result = new EnumMap<MapPhase, PhaseStats>(MapPhase.class);
+		for (MapPhase phase : MapPhase.values())
+			result.put(phase, new PhaseStats());
+		
+		return result;
+	}
+	
+	/**
+	 * Starts recording phases.
+	 */
+	public static void enable()
+	{
+		enabled = true;
+	}
+	
+	/**
+	 * Stops recording phases. Statistics recorded so far are kept.
+	 */
+	public static void disable()
+	{
+		enabled = false;
+	}
+	
+	/**
+	 * @return	true if phases are being recorded
+	 */
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+	
+	/**
+	 * Discards all recorded statistics and counters.
+	 */
+	public static synchronized void reset()
+	{
+		phases = createPhaseStats();
+		counters.clear();
+	}
+	
+	/**
+	 * Records one occurrence of a phase.
+	 * 
+	 * @param phase		The phase that occurred
+	 * @param nanos		Time spent in the phase
+	 * @param bytes		Number of bytes processed during the phase
+	 */
+	static void record(MapPhase phase, long nanos, long bytes)
+	{
+		PhaseStats stats = phases.get(phase);
+		stats.count.increment();
+		stats.totalNanos.add(nanos);
+		stats.totalBytes.add(bytes);
+		stats.histogram.incrementAndGet(bucket(nanos));
+	}
+	
+	/**
+	 * Adds to a named counter, creating it if necessary. Does nothing unless metrics are enabled.
+	 * 
+	 * @param name		Name of the counter
+	 * @param amount	Amount to add
+	 */
+	public static void increment(String name, long amount)
+	{
+		if (enabled)
+			counters.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+	}
+	
+	/**
+	 * @param name	Name of a counter
+	 * @return	The counter's current value, or 0 if it was never incremented
+	 */
+	public static long getCounter(String name)
+	{
+		LongAdder counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+	
+	/**
+	 * @param phase	A phase
+	 * @return	The number of times the phase was recorded
+	 */
+	public static long getCount(MapPhase phase)
+	{
+		return phases.get(phase).count.sum();
+	}
+	
+	/**
+	 * @param phase	A phase
+	 * @return	Total time spent in the phase, in nanoseconds
+	 */
+	public static long getTotalNanos(MapPhase phase)
+	{
+		return phases.get(phase).totalNanos.sum();
+	}
+	
+	/**
+	 * Prints a table summarizing every recorded phase, followed by every counter.
+	 * 
+	 * @param out	The stream to print to
+	 */
+	public static void printSummary(PrintStream out)
+	{
+		out.println(String.format("%-18s %8s %12s %10s %10s %10s %14s", "Phase", "Count", "Total (ms)", "Mean (us)", "p50 (us)", "p99 (us)", "Bytes"));
+		
+		for (MapPhase phase : MapPhase.values())
+		{
+			PhaseStats stats = phases.get(phase);
+			long count = stats.count.sum();
+			if (count == 0)
+				continue;
+			
+			long total = stats.totalNanos.sum();
+			out.println(String.format("%-18s %8d %12.2f %10.1f %10.1f %10.1f %14d", phase.getLabel(), count, total / 1e6, total / 1e3 / count,
+										percentile(stats, 0.50) / 1e3, percentile(stats, 0.99) / 1e3, stats.totalBytes.sum()));
+		}
+		
+		for (Map.Entry<String, LongAdder> counter : new TreeMap<String, LongAdder>(counters).entrySet())
+			out.println(String.format("%-18s %8d", counter.getKey(), counter.getValue().sum()));
+	}
+	
+	/**
+	 * @param nanos	A duration
+	 * @return	Index of the histogram bucket holding the duration
+	 */
+	private static int bucket(long nanos)
+	{
+		return nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos) - 1;
+	}
+	
+	/**
+	 * Estimates a percentile of a phase's durations from its histogram, as the upper bound of the bucket holding it.
+	 * 
+	 * @param stats			Statistics of the phase
+	 * @param percentile	The percentile to estimate, between 0 and 1
+	 * @return	The estimated duration, in nanoseconds
+	 */
+	private static double percentile(PhaseStats stats, double percentile)
+	{
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			total += stats.histogram.get(i);
+		
+		long target = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += stats.histogram.get(i);
+			if (seen >= target && seen > 0)
+				return Math.pow(2, i + 1);
+		}
+		
+		return 0;
+	}
+}
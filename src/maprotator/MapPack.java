@@ -0,0 +1,353 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/**
+ * MapPack.java
+ *
+ * Read access to a pack file written by MapPackWriter, which holds every orientation of a set of maps precomputed.
+ * The file is memory-mapped when opened, and every lookup is a fixed offset calculation, so any map, orientation,
+ * tile, chunk or event can be read without scanning or decoding anything else.
+ *
+ * All values are little-endian. The file is laid out as follows:
+ *
+ * Header (HEADER_SIZE bytes): magic number, format version, map count, chunk size, and reserved space.
+ *
+ * Map index (ENTRY_SIZE bytes per map): map ID, unrotated width and height, event count, total page count, offset of
+ * the map's event directory, and offset of the map's section for each rotation.
+ *
+ * Event directory (8 bytes per event): event ID, index of the event's first page, and number of pages.
+ *
+ * Rotation section: the rotated lower layer and upper layer as 2-byte tile values in row-major order, the same as in
+ * the 0x47 and 0x48 items of a .lmu file; each event's rotated X- and Y-position as 2-byte values; and each page's
+ * rotated facing as a single byte, in event directory order. Sections are padded to a multiple of 8 bytes.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapPack
+{
+	public static final int MAGIC = 0x4B504D52;			// "RMPK" read as a little-endian integer
+	public static final int VERSION = 1;				// Format version written by MapPackWriter
+	public static final int HEADER_SIZE = 32;			// Size (in bytes) of the file header
+	public static final int ENTRY_SIZE = 56;			// Size (in bytes) of each map index entry
+	public static final int DIRECTORY_ENTRY_SIZE = 8;	// Size (in bytes) of each event directory entry
+
+	private ByteBuffer data;					// The memory-mapped pack file
+	private int mapCount;						// Number of maps in the pack
+	private int chunkSize;						// Width and height (in tiles) of a chunk
+	private HashMap<Integer, Integer> entries;	// Index entry of each map, keyed by map ID
+
+	/**
+	 * Opens and memory-maps a pack file.
+	 *
+	 * @param path	Path of the pack file
+	 * @throws IOException	If the file can't be read
+	 * @throws IllegalArgumentException	If the file isn't a pack file of a supported version
+	 */
+	public MapPack(Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if (channel.size() < HEADER_SIZE)
+				throw new IllegalArgumentException(path + " is too short to be a map pack");
+
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		if (data.getInt(0) != MAGIC)
+			throw new IllegalArgumentException(path + " is not a map pack");
+		if (data.getInt(4) != VERSION)
+			throw new IllegalArgumentException(path + " has unsupported pack version " + data.getInt(4));
+
+		mapCount = data.getInt(8);
+		chunkSize = data.getInt(12);
+
+		if (mapCount < 0 || chunkSize < 1 || HEADER_SIZE + (long) mapCount * ENTRY_SIZE > data.capacity())
+			throw new IllegalArgumentException(path + " has a corrupt header");
+
+		entries = new HashMap<Integer, Integer>();
+		for (int entry = 0; entry < mapCount; entry++)
+			entries.put(getMapID(entry), entry);
+	}
+
+	/**
+	 * @return	Number of maps in the pack
+	 */
+	public int getMapCount()
+	{
+		return mapCount;
+	}
+
+	/**
+	 * @return	Width and height (in tiles) of the chunks returned by getChunk
+	 */
+	public int getChunkSize()
+	{
+		return chunkSize;
+	}
+
+	/**
+	 * @param mapID	ID of a map (e.g., 3 for Map0003.lmu)
+	 * @return	The map's index entry, or -1 if the pack doesn't contain it
+	 */
+	public int findMap(int mapID)
+	{
+		Integer entry = entries.get(mapID);
+		return entry == null ? -1 : entry;
+	}
+
+	/**
+	 * @param entry	Index entry of a map
+	 * @return	The map's ID
+	 */
+	public int getMapID(int entry)
+	{
+		return data.getInt(entryOffset(entry));
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @return	Width of the rotated map
+	 */
+	public int getWidth(int entry, Rotation rotation)
+	{
+		int offset = entryOffset(entry) + (swapsAxes(rotation) ? 6 : 4);
+		return Short.toUnsignedInt(data.getShort(offset));
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @return	Height of the rotated map
+	 */
+	public int getHeight(int entry, Rotation rotation)
+	{
+		int offset = entryOffset(entry) + (swapsAxes(rotation) ? 4 : 6);
+		return Short.toUnsignedInt(data.getShort(offset));
+	}
+
+	/**
+	 * @param entry	Index entry of a map
+	 * @return	Number of events on the map
+	 */
+	public int getEventCount(int entry)
+	{
+		return data.getInt(entryOffset(entry) + 8);
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @param x			X-position in the rotated map
+	 * @param y			Y-position in the rotated map
+	 * @return	The rotated lower layer tile value at the given position
+	 */
+	public int getLowerTile(int entry, Rotation rotation, int x, int y)
+	{
+		return Short.toUnsignedInt(data.getShort(tileOffset(entry, rotation, x, y)));
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @param x			X-position in the rotated map
+	 * @param y			Y-position in the rotated map
+	 * @return	The upper layer tile value at the given position
+	 */
+	public int getUpperTile(int entry, Rotation rotation, int x, int y)
+	{
+		int area = getWidth(entry, rotation) * getHeight(entry, rotation);
+		return Short.toUnsignedInt(data.getShort(tileOffset(entry, rotation, x, y) + 2 * area));
+	}
+
+	/**
+	 * Copies one chunk of a rotated map out of the pack. Chunks are numbered in the same way as by ChunkExporter.
+	 *
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @param chunkX	Column of the chunk in the grid of chunks
+	 * @param chunkY	Row of the chunk in the grid of chunks
+	 * @return	The chunk's tiles
+	 */
+	public TileChunk getChunk(int entry, Rotation rotation, int chunkX, int chunkY)
+	{
+		int width = getWidth(entry, rotation);
+		int height = getHeight(entry, rotation);
+		int x = chunkX * chunkSize;
+		int y = chunkY * chunkSize;
+
+		if (chunkX < 0 || chunkY < 0 || x >= width || y >= height)
+			throw new IndexOutOfBoundsException("Chunk (" + chunkX + ", " + chunkY + ") is outside a " + width + "x" + height + " map");
+
+		TileChunk chunk = new TileChunk(rotation, chunkX, chunkY, x, y, Math.min(chunkSize, width - x), Math.min(chunkSize, height - y));
+
+		ByteBuffer section = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		for (int row = 0; row < chunk.getHeight(); row++)
+		{
+			int offset = tileOffset(entry, rotation, x, y + row);
+
+			section.position(offset);
+			section.asShortBuffer().get(chunk.getLowerTiles(), row * chunk.getWidth(), chunk.getWidth());
+			section.position(offset + 2 * width * height);
+			section.asShortBuffer().get(chunk.getUpperTiles(), row * chunk.getWidth(), chunk.getWidth());
+		}
+
+		return chunk;
+	}
+
+	/**
+	 * @param entry	Index entry of a map
+	 * @param event	Index of the event in the map's event directory
+	 * @return	The event's ID
+	 */
+	public int getEventID(int entry, int event)
+	{
+		return data.getInt(directoryOffset(entry, event));
+	}
+
+	/**
+	 * @param entry	Index entry of a map
+	 * @param event	Index of the event in the map's event directory
+	 * @return	Number of pages the event has
+	 */
+	public int getPageCount(int entry, int event)
+	{
+		return Short.toUnsignedInt(data.getShort(directoryOffset(entry, event) + 6));
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @param event		Index of the event in the map's event directory
+	 * @return	The event's X-position in the rotated map
+	 */
+	public int getEventX(int entry, Rotation rotation, int event)
+	{
+		return Short.toUnsignedInt(data.getShort(positionOffset(entry, rotation, event)));
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @param event		Index of the event in the map's event directory
+	 * @return	The event's Y-position in the rotated map
+	 */
+	public int getEventY(int entry, Rotation rotation, int event)
+	{
+		return Short.toUnsignedInt(data.getShort(positionOffset(entry, rotation, event) + 2));
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @param event		Index of the event in the map's event directory
+	 * @param page		Index of the page within the event
+	 * @return	The page's facing in the rotated map (up = 0, right = 1, down = 2, left = 3)
+	 */
+	public int getFacing(int entry, Rotation rotation, int event, int page)
+	{
+		if (page < 0 || page >= getPageCount(entry, event))
+			throw new IndexOutOfBoundsException("Event " + getEventID(entry, event) + " has no page " + page);
+
+		int firstPage = Short.toUnsignedInt(data.getShort(directoryOffset(entry, event) + 4));
+		int facings = eventOffset(entry, rotation, getEventCount(entry));
+
+		return data.get(facings + firstPage + page);
+	}
+
+	/**
+	 * @param entry	Index entry of a map
+	 * @return	Offset of the entry in the pack
+	 */
+	private int entryOffset(int entry)
+	{
+		if (entry < 0 || entry >= mapCount)
+			throw new IndexOutOfBoundsException("No map entry " + entry + " in a pack of " + mapCount);
+
+		return HEADER_SIZE + entry * ENTRY_SIZE;
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @return	Offset of the map's section for the given rotation
+	 */
+	private int sectionOffset(int entry, Rotation rotation)
+	{
+		return (int) data.getLong(entryOffset(entry) + 24 + 8 * rotation.ordinal());
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @param x			X-position in the rotated map
+	 * @param y			Y-position in the rotated map
+	 * @return	Offset of the tile's lower layer value
+	 */
+	private int tileOffset(int entry, Rotation rotation, int x, int y)
+	{
+		int width = getWidth(entry, rotation);
+		int height = getHeight(entry, rotation);
+
+		if (x < 0 || y < 0 || x >= width || y >= height)
+			throw new IndexOutOfBoundsException("Tile (" + x + ", " + y + ") is outside a " + width + "x" + height + " map");
+
+		return sectionOffset(entry, rotation) + 2 * (y * width + x);
+	}
+
+	/**
+	 * @param entry	Index entry of a map
+	 * @param event	Index of the event in the map's event directory
+	 * @return	Offset of the event's directory entry
+	 */
+	private int directoryOffset(int entry, int event)
+	{
+		if (event < 0 || event >= getEventCount(entry))
+			throw new IndexOutOfBoundsException("No event " + event + " on a map with " + getEventCount(entry) + " events");
+
+		return (int) data.getLong(entryOffset(entry) + 16) + event * DIRECTORY_ENTRY_SIZE;
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @param event		Index of the event in the map's event directory
+	 * @return	Offset of the event's position in the given rotation's section
+	 */
+	private int positionOffset(int entry, Rotation rotation, int event)
+	{
+		if (event < 0 || event >= getEventCount(entry))
+			throw new IndexOutOfBoundsException("No event " + event + " on a map with " + getEventCount(entry) + " events");
+
+		return eventOffset(entry, rotation, event);
+	}
+
+	/**
+	 * @param entry		Index entry of a map
+	 * @param rotation	The rotation of the map
+	 * @param event		Index of the event in the map's event directory, or the event count for the end of the table
+	 * @return	Offset of the event's position in the given rotation's section
+	 */
+	private int eventOffset(int entry, Rotation rotation, int event)
+	{
+		int area = getWidth(entry, rotation) * getHeight(entry, rotation);
+		return sectionOffset(entry, rotation) + 4 * area + 4 * event;
+	}
+
+	/**
+	 * @param rotation	A rotation
+	 * @return	Whether the rotation exchanges a map's width and height
+	 */
+	private static boolean swapsAxes(Rotation rotation)
+	{
+		return rotation == Rotation.ROT_90 || rotation == Rotation.ROT_270;
+	}
+}
@@ -0,0 +1,259 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MapPackWriter.java
+ *
+ * Builds a pack file (see MapPack) holding all four orientations of a set of maps, so a game runtime can load any
+ * map in any orientation from a single memory-mapped file instead of reading and rotating .lmu files one at a time.
+ * Tiles are read through RotatedLayerViews, so the maps themselves are never rotated; event positions and facings
+ * are computed the same way RMMap.rotateEvents and RMEventPage.rotate would.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapPackWriter
+{
+	private int chunkSize;			// Chunk size recorded in the pack's header
+	private List<RMMap> maps;		// Maps to be packed, in index order
+	private List<Integer> mapIDs;	// ID of each map to be packed
+
+	/**
+	 * Packs every map in the folder given as the first argument into the file given as the second.
+	 *
+	 * @param args	Path of the map folder, path of the pack file, and optionally a chunk size
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: MapPackWriter <map folder> <pack file> [chunk size]");
+			System.exit(2);
+		}
+
+		MapPackWriter writer = new MapPackWriter(args.length > 2 ? Integer.parseInt(args[2]) : ChunkExporter.DEFAULT_CHUNK_SIZE);
+
+		try (MapLoader loader = new MapLoader())
+		{
+			// Every map is held until the pack is written, so share their identical event items
+			loader.setInterner(new ItemInterner());
+			for (RMMap map : loader.loadAll(Paths.get(args[0])).join())
+				writer.add(map);
+		}
+
+		writer.write(Paths.get(args[1]));
+		System.out.println("Packed " + writer.maps.size() + " maps into " + args[1]);
+	}
+
+	/**
+	 * Creates an empty pack.
+	 *
+	 * @param chunkSize	Width and height (in tiles) of the chunks the runtime will read from the pack
+	 */
+	public MapPackWriter(int chunkSize)
+	{
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+
+		this.chunkSize = chunkSize;
+		maps = new ArrayList<RMMap>();
+		mapIDs = new ArrayList<Integer>();
+	}
+
+	/**
+	 * Adds a map to the pack, taking its ID from its file name (e.g., 3 for Map0003.lmu).
+	 *
+	 * @param map	The map to add
+	 * @throws IllegalArgumentException	If no ID can be found in the map's file name
+	 */
+	public void add(RMMap map)
+	{
+		add(map, parseMapID(map.getName()));
+	}
+
+	/**
+	 * Adds a map to the pack under the given ID. The map must not be changed until the pack has been written.
+	 *
+	 * @param map	The map to add
+	 * @param mapID	The ID to file the map under
+	 * @throws IllegalArgumentException	If the ID is already in use, or the map is too large for the pack format
+	 */
+	public void add(RMMap map, int mapID)
+	{
+		if (mapIDs.contains(mapID))
+			throw new IllegalArgumentException("Pack already contains map " + mapID);
+		if (map.getMapWidth() > 0xFFFF || map.getMapHeight() > 0xFFFF)
+			throw new IllegalArgumentException(map.getName() + " is too large to pack");
+
+		map.checkTileLayers(map.getMapWidth(), map.getMapHeight());
+		maps.add(map);
+		mapIDs.add(mapID);
+	}
+
+	/**
+	 * Writes the pack to a file, replacing it atomically if it already exists.
+	 *
+	 * @param destination	Path of the pack file
+	 * @throws IOException	If the file can't be written
+	 */
+	public void write(Path destination) throws IOException
+	{
+		List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		ByteBuffer index = allocate(MapPack.HEADER_SIZE + maps.size() * MapPack.ENTRY_SIZE);
+		buffers.add(index);
+
+		index.putInt(MapPack.MAGIC);
+		index.putInt(MapPack.VERSION);
+		index.putInt(maps.size());
+		index.putInt(chunkSize);
+		index.position(MapPack.HEADER_SIZE);
+
+		long offset = index.capacity();
+		for (int i = 0; i < maps.size(); i++)
+		{
+			RMMap map = maps.get(i);
+			List<RMEvent> events = map.getEvents();
+
+			ByteBuffer directory = eventDirectory(events);
+			buffers.add(directory);
+
+			index.putInt(mapIDs.get(i));
+			index.putShort((short) map.getMapWidth());
+			index.putShort((short) map.getMapHeight());
+			index.putInt(events.size());
+			index.putInt(pageCount(events));
+			index.putLong(offset);
+			offset += directory.capacity();
+
+			for (Rotation rotation : Rotation.values())
+			{
+				ByteBuffer section = rotationSection(map, rotation);
+				buffers.add(section);
+
+				index.putLong(offset);
+				offset += section.capacity();
+			}
+		}
+
+		for (ByteBuffer buffer : buffers)
+			buffer.rewind();
+
+		AsyncMapWriter.writeAtomically(destination, buffers.toArray(new ByteBuffer[0]));
+	}
+
+	/**
+	 * Builds a map's event directory, listing each event's ID and the range of its pages in the page facing table.
+	 *
+	 * @param events	The map's events
+	 * @return	The event directory
+	 */
+	private static ByteBuffer eventDirectory(List<RMEvent> events)
+	{
+		ByteBuffer directory = allocate(events.size() * MapPack.DIRECTORY_ENTRY_SIZE);
+
+		int firstPage = 0;
+		for (RMEvent event : events)
+		{
+			int pages = event.getPages().length;
+			if (firstPage + pages > 0xFFFF)
+				throw new IllegalArgumentException("Too many event pages to pack");
+
+			directory.putInt(VLQ.arrayToInt(event.header));
+			directory.putShort((short) firstPage);
+			directory.putShort((short) pages);
+			firstPage += pages;
+		}
+
+		return directory;
+	}
+
+	/**
+	 * Builds the section holding a map's tiles, event positions and page facings after the given rotation.
+	 *
+	 * @param map		The map to pack
+	 * @param rotation	The rotation to apply (clockwise)
+	 * @return	The rotation's section
+	 */
+	private static ByteBuffer rotationSection(RMMap map, Rotation rotation)
+	{
+		RotatedLayerView lowerLayer = new RotatedLayerView(map, 0x47, rotation);
+		RotatedLayerView upperLayer = new RotatedLayerView(map, 0x48, rotation);
+		int rotatedWidth = lowerLayer.getWidth();
+		int rotatedHeight = lowerLayer.getHeight();
+		int area = rotatedWidth * rotatedHeight;
+		List<RMEvent> events = map.getEvents();
+
+		int size = 4 * area + 4 * events.size() + pageCount(events);
+		ByteBuffer section = allocate((size + 7) & ~7);
+
+		// Tile layers
+		short[] row = new short[rotatedWidth];
+		for (RotatedLayerView layer : new RotatedLayerView[] { lowerLayer, upperLayer })
+			for (int y = 0; y < rotatedHeight; y++)
+			{
+				layer.copyRow(0, y, rotatedWidth, row, 0);
+				for (short tile : row)
+					section.putShort(tile);
+			}
+
+		// Event positions
+		int width = map.getMapWidth();
+		int height = map.getMapHeight();
+		for (RMEvent event : events)
+		{
+			int destination = RMMap.destinationIndex(event.getYPos() * width + event.getXPos(), width, height, rotation);
+			section.putShort((short) (destination % rotatedWidth));
+			section.putShort((short) (destination / rotatedWidth));
+		}
+
+		// Page facings
+		for (RMEvent event : events)
+			for (RMEventPage page : event.getPages())
+				section.put((byte) ((page.getFacing() + rotation.ordinal()) % 4));
+
+		return section;
+	}
+
+	/**
+	 * @param events	A map's events
+	 * @return	The total number of pages across all the events
+	 */
+	private static int pageCount(List<RMEvent> events)
+	{
+		int total = 0;
+		for (RMEvent event : events)
+			total += event.getPages().length;
+
+		return total;
+	}
+
+	/**
+	 * @param size	Size of the buffer (in bytes)
+	 * @return	A zeroed little-endian buffer
+	 */
+	private static ByteBuffer allocate(int size)
+	{
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @param mapName	File name of a map, such as Map0003.lmu
+	 * @return	The number in the file name
+	 * @throws IllegalArgumentException	If the file name contains no number
+	 */
+	public static int parseMapID(String mapName)
+	{
+		String digits = mapName.replaceAll("\\D", "");
+		if (digits.isEmpty() || digits.length() > 9)
+			throw new IllegalArgumentException("No map ID in file name " + mapName);
+
+		return Integer.parseInt(digits);
+	}
+}
@@ -0,0 +1,348 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * MapPatch.java
+ *
+ * A compact, binary description of the changes between two versions of a map, produced by MapDiff. A patch starts with
+ * a magic number, a version byte, and the content hashes (see contentHash) of the original and edited maps, and is
+ * followed by a list of operations, each an operation byte followed by VLQ-encoded fields:
+ *
+ *     OP_HEADER		length, bytes				Replace the map's header
+ *     OP_PUT_ITEM		ID, length, data			Add or replace a top-level item
+ *     OP_REMOVE_ITEM	ID							Remove a top-level item
+ *     OP_TILES			layer ID, x, y, w, h, tiles	Overwrite a rectangle of a tile layer (2 bytes per tile)
+ *     OP_PUT_EVENT		event ID, length, event		Add or replace an event (serialized as in the event layer)
+ *     OP_REMOVE_EVENT	event ID					Remove an event
+ *     OP_EVENT_ORDER	count, event IDs			Set the order of the events in the event layer
+ *     OP_END										End of the patch
+ *
+ * Applying a patch checks the map's content hash first, so a patch can't be applied to the wrong map. Every operation
+ * is then applied to a staged copy of the map's header and items, whose hash is checked against the edited map's
+ * before any of it replaces the map's own; a patch that fails either check leaves the map as it was.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapPatch
+{
+	public static final byte[] MAGIC = { 'R', 'M', 'D', 'F' };	// Identifies a patch file
+	public static final int VERSION = 2;						// Format version written by MapDiff
+
+	public static final int OP_END = 0x00;			// End of the patch
+	public static final int OP_HEADER = 0x01;		// Replace the map's header
+	public static final int OP_PUT_ITEM = 0x02;		// Add or replace a top-level item
+	public static final int OP_REMOVE_ITEM = 0x03;	// Remove a top-level item
+	public static final int OP_TILES = 0x04;		// Overwrite a rectangle of a tile layer
+	public static final int OP_PUT_EVENT = 0x05;	// Add or replace an event
+	public static final int OP_REMOVE_EVENT = 0x06;	// Remove an event
+	public static final int OP_EVENT_ORDER = 0x07;	// Set the order of the events
+
+	private byte[] data;	// The encoded patch
+	private int position;	// Read position while applying the patch
+
+	/**
+	 * Applies the patch given as the second argument to the map given as the first, and writes the result.
+	 *
+	 * @param args	Path of the original map, path of the patch file, and path of the map to write
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 3)
+		{
+			System.err.println("Usage: MapPatch <original map> <patch file> <output map>");
+			System.exit(2);
+		}
+
+		RMMap map = new RMMap(args[0], Files.readAllBytes(Paths.get(args[0])));
+		new MapPatch(Files.readAllBytes(Paths.get(args[1]))).apply(map);
+		AsyncMapWriter.writeAtomically(Paths.get(args[2]), map.toByteBuffers());
+		System.out.println("Saved file to " + args[2]);
+	}
+
+	/**
+	 * Wraps an encoded patch.
+	 *
+	 * @param data	The encoded patch
+	 * @throws IllegalArgumentException	If the data isn't a patch of a supported version
+	 */
+	public MapPatch(byte[] data)
+	{
+		if (data.length < MAGIC.length + 17 || !Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length))
+			throw new IllegalArgumentException("Not a map patch");
+		if (data[MAGIC.length] != VERSION)
+			throw new IllegalArgumentException("Unsupported map patch version " + data[MAGIC.length]);
+
+		this.data = data;
+	}
+
+	/**
+	 * @return	The encoded patch
+	 */
+	public byte[] toByteArray()
+	{
+		return data;
+	}
+
+	/**
+	 * @return	Size of the encoded patch in bytes
+	 */
+	public int size()
+	{
+		return data.length;
+	}
+
+	/**
+	 * @return	Whether the patch makes no changes
+	 */
+	public boolean isEmpty()
+	{
+		return data[MAGIC.length + 17] == OP_END;
+	}
+
+	/**
+	 * Applies the patch to a map, replacing the items it changes. The map's event layer is brought up to date first.
+	 * Nothing else about the map changes unless the whole patch applies.
+	 *
+	 * @param map	The original map, which becomes the edited map
+	 * @throws IllegalArgumentException	If the patch wasn't made from this map, is malformed, or doesn't produce the
+	 * 									edited map
+	 */
+	public synchronized void apply(RMMap map)
+	{
+		position = MAGIC.length + 1;
+		long sourceHash = readLong();
+		long targetHash = readLong();
+
+		map.updateEvents();
+		if (contentHash(map.header, map.dataItems.values()) != sourceHash)
+			throw new IllegalArgumentException("Patch wasn't made from " + map.getName());
+
+		// Items being edited; the tile layers and event layer are staged here once they're rebuilt
+		TreeMap<Integer, DataItem> items = new TreeMap<Integer, DataItem>(map.dataItems);
+		byte[] header = map.header;											// Header being edited
+		TreeMap<Integer, byte[]> layers = new TreeMap<Integer, byte[]>();	// Tile layers being edited
+		LinkedHashMap<Integer, RMEvent> events = null;						// Events by ID, once any event changes
+		List<Integer> order = null;											// New event order, if given
+
+		try
+		{
+			for (int op = readByte(); op != OP_END; op = readByte())
+			{
+				if (events == null && (op == OP_PUT_EVENT || op == OP_REMOVE_EVENT || op == OP_EVENT_ORDER))
+				{
+					events = new LinkedHashMap<Integer, RMEvent>();
+					for (RMEvent event : map.getEvents())
+						events.put(VLQ.arrayToInt(event.header), event);
+				}
+
+				switch (op)
+				{
+					case OP_HEADER:
+						header = readBytes();
+						break;
+
+					case OP_PUT_ITEM:
+					{
+						int id = readInt();
+						items.put(id, new DataItem(id, readBytes(), map));
+						break;
+					}
+
+					case OP_REMOVE_ITEM:
+						items.remove(readInt());
+						break;
+
+					case OP_TILES:
+						applyTiles(items, layers);
+						break;
+
+					case OP_PUT_EVENT:
+					{
+						int id = readInt();
+						RMEvent event = new RMEvent(new RMObject(readBytes(), 0));
+						events.put(id, event);
+						break;
+					}
+
+					case OP_REMOVE_EVENT:
+						events.remove(readInt());
+						break;
+
+					case OP_EVENT_ORDER:
+					{
+						int count = readInt();
+						order = new ArrayList<Integer>(count);
+						for (int i = 0; i < count; i++)
+							order.add(readInt());
+						break;
+					}
+
+					default:
+						throw new IllegalArgumentException(String.format("Unknown patch operation 0x%02X", op));
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("Map patch ended unexpectedly", e);
+		}
+
+		// Stage edited tile layers
+		for (Integer id : layers.keySet())
+			items.put(id, new DataItem(id, layers.get(id), map));
+
+		// Stage the rebuilt event list
+		RMEvent[] newEvents = null;
+		if (events != null)
+		{
+			List<RMEvent> result = new ArrayList<RMEvent>();
+			if (order != null)
+			{
+				for (int id : order)
+					if (events.containsKey(id))
+						result.add(events.remove(id));
+			}
+
+			result.addAll(events.values());
+			newEvents = result.toArray(new RMEvent[0]);
+			items.put(0x51, new DataItem(0x51, newEvents, map));
+		}
+
+		if (contentHash(header, items.values()) != targetHash)
+			throw new IllegalArgumentException("Patched " + map.getName() + " doesn't match the edited map");
+
+		// Commit the staged changes
+		map.header = header;
+		map.dataItems = items;
+		if (newEvents != null)
+			map.setEvents(newEvents);
+		else
+			map.invalidateEventIndex();
+	}
+
+	/**
+	 * Hashes a map as it would be written to a file: the header, then each item in order of ID. Unlike the layer hash,
+	 * this covers every item, including the event layer.
+	 *
+	 * @param header	The map's header
+	 * @param items		The map's items, in ascending order of ID
+	 * @return	A 64-bit FNV-1a hash of the map's serialized form
+	 */
+	static long contentHash(byte[] header, Collection<DataItem> items)
+	{
+		long hash = hash(0xCBF29CE484222325L, header, 0, header.length);
+		for (DataItem item : items)
+			hash = hash(hash, item.byteArray(), 0, item.itemSize());
+
+		return hash;
+	}
+
+	/**
+	 * Continues an FNV-1a hash over a range of bytes.
+	 *
+	 * @param hash		The hash so far
+	 * @param bytes		Array holding the bytes
+	 * @param offset	Index of the first byte
+	 * @param length	Number of bytes
+	 * @return	The hash including the bytes
+	 */
+	private static long hash(long hash, byte[] bytes, int offset, int length)
+	{
+		for (int i = offset; i < offset + length; i++)
+			hash = (hash ^ (bytes[i] & 0xFF)) * 0x100000001B3L;
+
+		return hash;
+	}
+
+	/**
+	 * Reads an OP_TILES operation and writes its tiles into a copy of the affected layer.
+	 *
+	 * @param items		The staged items of the map being patched
+	 * @param layers	Copies of the tile layers edited so far, keyed by ID
+	 */
+	private void applyTiles(TreeMap<Integer, DataItem> items, TreeMap<Integer, byte[]> layers)
+	{
+		int id = readInt();
+		int x = readInt();
+		int y = readInt();
+		int w = readInt();
+		int h = readInt();
+
+		// The dimensions may have been changed by an earlier operation
+		int width = items.containsKey(0x02) ? items.get(0x02).getDataAsInteger() : 20;
+		int height = items.containsKey(0x03) ? items.get(0x03).getDataAsInteger() : 15;
+		if ((id != 0x47 && id != 0x48) || x + w > width || y + h > height)
+			throw new IllegalArgumentException(String.format("Tile rectangle doesn't fit layer 0x%02X", id));
+
+		byte[] layer = layers.get(id);
+		if (layer == null)
+		{
+			DataItem item = items.get(id);
+			if (item == null || item.getDataSize() != 2L * width * height)
+				throw new IllegalArgumentException(String.format("Tile layer 0x%02X doesn't match map dimensions %dx%d", id, width, height));
+
+			layer = item.getData();
+			layers.put(id, layer);
+		}
+
+		for (int row = y; row < y + h; row++)
+		{
+			System.arraycopy(data, position, layer, 2 * (row * width + x), 2 * w);
+			position += 2 * w;
+		}
+	}
+
+	/**
+	 * @return	The next byte of the patch
+	 */
+	private int readByte()
+	{
+		return data[position++] & 0xFF;
+	}
+
+	/**
+	 * @return	The next VLQ of the patch
+	 */
+	private int readInt()
+	{
+		int value = VLQ.readInt(data, position);
+		position += VLQ.length(data, position);
+		return value;
+	}
+
+	/**
+	 * @return	The next 8 bytes of the patch, most significant first
+	 */
+	private long readLong()
+	{
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 8) | readByte();
+
+		return value;
+	}
+
+	/**
+	 * @return	The next length-prefixed array of the patch
+	 */
+	private byte[] readBytes()
+	{
+		int length = readInt();
+		if (length < 0 || length > data.length - position)
+			throw new IllegalArgumentException("Map patch declares " + length + " bytes, but only " + (data.length - position) + " remain");
+
+		byte[] result = Arrays.copyOfRange(data, position, position + length);
+		position += length;
+		return result;
+	}
+}
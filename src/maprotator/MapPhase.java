@@ -0,0 +1,37 @@
+package maprotator;
+
+/**
+ * MapPhase.java
+ * Enumerated list of the phases of loading, rotating and saving a map that are timed by PhaseTimer.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+
+enum MapPhase
+{
+	READ("Read file"),
+	PARSE("Parse items"),
+	PARSE_EVENTS("Parse event layer"),
+	ROTATE("Rotate map"),
+	UPDATE_EVENTS("Update events"),
+	WRITE("Write file");
+	
+	private String label;	// Human-readable name of the phase
+	
+	/**
+	 * @param label	Human-readable name of the phase
+	 */
+	private MapPhase(String label)
+	{
+		this.label = label;
+	}
+	
+	/**
+	 * @return	Human-readable name of the phase
+	 */
+	public String getLabel()
+	{
+		return label;
+	}
+};
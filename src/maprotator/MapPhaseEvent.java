@@ -0,0 +1,43 @@
+package maprotator;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * MapPhaseEvent.java
+ * 
+ * JDK Flight Recorder event emitted once for each timed phase of work on a map (see MapPhase). The event's duration
+ * is the time spent in the phase; its fields identify the map and the amount of data the phase handled.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+@Name("maprotator.MapPhase")
+@Label("Map Phase")
+@Category("Map Rotator")
+@Description("A phase of loading, rotating or saving an RPG Maker 2000 map")
+public class MapPhaseEvent extends Event
+{
+	@Label("Phase")
+	String phase;		// Label of the timed phase
+	
+	@Label("Map Name")
+	String mapName;		// Name of the map being worked on
+	
+	@Label("Map Width")
+	int width;			// Width of the map (in tiles)
+	
+	@Label("Map Height")
+	int height;			// Height of the map (in tiles)
+	
+	@Label("Event Count")
+	int eventCount;		// Number of events on the map
+	
+	@Label("Bytes Processed")
+	@DataAmount
+	long bytes;			// Number of bytes read, parsed or written during the phase
+}
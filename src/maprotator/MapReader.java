@@ -1,16 +1,41 @@
 package maprotator;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 public class MapReader
 {
 	public static void main(String[] args)
 	{
 		RMMap map = new RMMap("C:\\Users\\claym\\OneDrive\\Documents\\projects\\RPG Maker 2000 workspace\\Rotating Map\\Map0003.lmu");
-		map.rotateClockwise();
-		map.saveMap("Map0011.lmu");
-		map.rotateClockwise();
-		map.saveMap("Map0012.lmu");
-		map.rotateClockwise();
-		map.saveMap("Map0013.lmu");
+		String[] names = { "Map0011.lmu", "Map0012.lmu", "Map0013.lmu" };
+		List<CompletableFuture<Path>> saves = new ArrayList<CompletableFuture<Path>>();
+		
+		// Each save is queued while the next rotation runs; closing the writer waits for all three files
+		try (AsyncMapWriter writer = new AsyncMapWriter(2))
+		{
+			for (String name : names)
+			{
+				map.rotateClockwise();
+				saves.add(map.saveMapAsync(name, writer));
+			}
+		}
+		
+		for (int i = 0; i < names.length; i++)
+		{
+			try
+			{
+				System.out.println("Saved file to " + saves.get(i).join());
+			}
+			catch (CompletionException e)
+			{
+				e.getCause().printStackTrace();
+				System.out.println("Failed to write file to " + map.getFolderPath() + names[i]);
+			}
+		}
 	}
 	
 	
@@ -0,0 +1,229 @@
+package maprotator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * MapRenderer.java
+ *
+ * Draws preview images of maps' tile layers (0x47 and 0x48) with the tiles of a ChipsetAtlas. Each orientation is
+ * drawn through RotatedLayerViews, so previewing a rotated map doesn't rotate a copy of it first. The image is split
+ * into bands of tile rows which worker threads draw at the same time, each writing straight into its own rows of the
+ * image's pixel array; encoding PNGs runs on a separate pool, so the next map can be drawn while the last is written.
+ *
+ * The lower layer is drawn over black, and the upper layer over it, skipping transparent pixels. Animated tiles and
+ * water are drawn in their first frame. Events aren't drawn.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapRenderer implements AutoCloseable
+{
+	private static final int BACKGROUND = 0xFF000000;	// Color drawn where the lower layer is transparent
+	private static final float PNG_QUALITY = 0.75f;		// PNG compression quality (1.0 for the fastest, least compressed)
+
+	private ChipsetAtlas atlas;			// Tiles to draw maps with
+	private int bands;					// Number of bands each image is split into
+	private ExecutorService workers;	// Threads that draw bands
+	private ExecutorService encoders;	// Threads that encode and write PNGs
+
+	/**
+	 * Renders every map in a folder in all four orientations, saving each as a PNG named after the map and rotation.
+	 *
+	 * @param args	Path of the map folder, path of the chipset image to draw every map with, path of the output
+	 * 				folder, and optionally a thread count
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		RotationRuleSet rules = MapRotator.readRules(args);
+		args = MapRotator.withoutRules(args);
+
+		if (args.length < 3)
+		{
+			System.err.println("Usage: MapRenderer [--rules <file>] <map folder> <chipset image> <output folder> [threads]");
+			System.exit(2);
+		}
+
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		Path output = Paths.get(args[2]);
+		Files.createDirectories(output);
+
+		long start = System.nanoTime();
+		ChipsetAtlas atlas = ChipsetAtlas.load(Paths.get(args[1]));
+		List<CompletableFuture<Path>> written = new ArrayList<CompletableFuture<Path>>();
+
+		try (MapLoader loader = new MapLoader(threads); MapRenderer renderer = new MapRenderer(atlas, threads))
+		{
+			loader.setRotationRules(rules);
+			for (CompletableFuture<RMMap> future : loader.loadFolder(Paths.get(args[0])))
+			{
+				RMMap map = future.join();
+				String name = map.getName().replaceFirst("(?i)\\.lmu$", "");
+				for (Rotation rotation : Rotation.values())
+				{
+					String suffix = rotation == Rotation.ROT_0 ? "" : "_" + (90 * rotation.ordinal());
+					written.add(renderer.renderToFile(map, rotation, output.resolve(name + suffix + ".png")));
+				}
+			}
+
+			CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])).join();
+		}
+
+		System.out.println("Rendered " + written.size() + " previews in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/**
+	 * Creates a renderer that draws with the given tiles.
+	 *
+	 * @param atlas		Tiles to draw maps with
+	 * @param threads	Number of threads to draw with (and, separately, to encode PNGs with)
+	 */
+	public MapRenderer(ChipsetAtlas atlas, int threads)
+	{
+		this.atlas = atlas;
+		bands = 4 * threads;
+		workers = Executors.newFixedThreadPool(threads);
+		encoders = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Draws a map's tile layers as they'd appear after a rotation. Must not be called from one of the renderer's own
+	 * threads.
+	 *
+	 * @param map		The map to draw
+	 * @param rotation	The rotation to draw it with (clockwise)
+	 * @return	An image 16 pixels to a tile
+	 * @throws IllegalArgumentException	If the map's tile layers don't match its dimensions
+	 */
+	public BufferedImage render(RMMap map, Rotation rotation)
+	{
+		RotatedLayerView lower = new RotatedLayerView(map, 0x47, rotation);
+		RotatedLayerView upper = new RotatedLayerView(map, 0x48, rotation);
+		int width = lower.getWidth();
+		int height = lower.getHeight();
+
+		BufferedImage image = new BufferedImage(Math.max(1, width) * ChipsetAtlas.TILE_SIZE,
+												Math.max(1, height) * ChipsetAtlas.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		int rowsPerBand = Math.max(1, (height + bands - 1) / bands);
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		for (int first = 0; first < height; first += rowsPerBand)
+		{
+			int from = first;
+			int to = Math.min(height, first + rowsPerBand);
+			futures.add(CompletableFuture.runAsync(() -> drawRows(lower, upper, from, to, pixels), workers));
+		}
+
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+		return image;
+	}
+
+	/**
+	 * Draws a map's tile layers as they'd appear after a rotation, and writes the image to a PNG file in the
+	 * background. Must not be called from one of the renderer's own threads.
+	 *
+	 * @param map			The map to draw
+	 * @param rotation		The rotation to draw it with (clockwise)
+	 * @param destination	Path of the PNG file to write
+	 * @return	A future completed with the destination once the file has been written
+	 * @throws IllegalArgumentException	If the map's tile layers don't match its dimensions
+	 */
+	public CompletableFuture<Path> renderToFile(RMMap map, Rotation rotation, Path destination)
+	{
+		BufferedImage image = render(map, rotation);
+		return CompletableFuture.supplyAsync(() ->
+		{
+			ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+			try (OutputStream file = Files.newOutputStream(destination);
+					ImageOutputStream stream = ImageIO.createImageOutputStream(file))
+			{
+				// Previews trade some compression for encoding speed
+				ImageWriteParam parameters = writer.getDefaultWriteParam();
+				parameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				parameters.setCompressionQuality(PNG_QUALITY);
+
+				writer.setOutput(stream);
+				writer.write(null, new IIOImage(image, null, null), parameters);
+				return destination;
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+			finally
+			{
+				writer.dispose();
+			}
+		}, encoders);
+	}
+
+	/**
+	 * Draws a band of tile rows into an image's pixels.
+	 *
+	 * @param lower		View of the lower layer
+	 * @param upper		View of the upper layer
+	 * @param from		First tile row of the band
+	 * @param to		Tile row after the last of the band
+	 * @param pixels	The image's pixels, as ARGB in row-major order
+	 */
+	private void drawRows(RotatedLayerView lower, RotatedLayerView upper, int from, int to, int[] pixels)
+	{
+		int width = lower.getWidth();
+		int stride = width * ChipsetAtlas.TILE_SIZE;
+		short[] lowerRow = new short[width];
+		short[] upperRow = new short[width];
+
+		for (int y = from; y < to; y++)
+		{
+			lower.copyRow(0, y, width, lowerRow, 0);
+			upper.copyRow(0, y, width, upperRow, 0);
+
+			for (int x = 0; x < width; x++)
+			{
+				int corner = y * ChipsetAtlas.TILE_SIZE * stride + x * ChipsetAtlas.TILE_SIZE;
+				int[] lowerTile = atlas.getTile(lowerRow[x] & 0xFFFF);
+				int[] upperTile = atlas.getTile(upperRow[x] & 0xFFFF);
+
+				for (int row = 0; row < ChipsetAtlas.TILE_SIZE; row++)
+				{
+					int out = corner + row * stride;
+					int in = row * ChipsetAtlas.TILE_SIZE;
+					for (int column = 0; column < ChipsetAtlas.TILE_SIZE; column++, out++, in++)
+					{
+						int color = lowerTile == null || lowerTile[in] >>> 24 == 0 ? BACKGROUND : lowerTile[in];
+						if (upperTile != null && upperTile[in] >>> 24 != 0)
+							color = upperTile[in];
+
+						pixels[out] = color;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the renderer's threads once the images already submitted have been written.
+	 */
+	public void close()
+	{
+		workers.shutdown();
+		encoders.shutdown();
+	}
+}
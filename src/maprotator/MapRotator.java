@@ -0,0 +1,159 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MapRotator.java
+ *
+ * The command line entry point of the packaged tool: the Main-Class of maprotator.jar, and the main class of the
+ * native image. The first argument names a command, and the rest are passed on to it:
+ *
+ *     rotate [--rules <file>] <90|180|270> <output folder> <map>...	Rotates each map, saving it to the output folder under its own name
+ *
+ * Every other command runs the main method of one of the tool classes with the same arguments (see the switch in
+ * main). The rotate command is the one scripts call once per map, so it reads and writes each map directly on the
+ * calling thread instead of starting the worker pools the batch tools use, and nothing is loaded for the commands
+ * that aren't run.
+ *
+ * The commands that rotate maps (rotate, batch, world, watch and render) also take a "--rules <file>" option, anywhere
+ * among their arguments, naming a file of tile rotation rules for custom chipsets (see RotationRuleSet).
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapRotator
+{
+	private static final String[] COMMANDS = { "rotate", "batch", "world", "watch", "render", "analyze", "skim", "verify",
+												"decode", "intern", "diff", "patch", "pack", "export", "import" };	// Names of the commands
+	private static final String RULES_OPTION = "--rules";	// Option naming a tile rotation rules file
+
+	/**
+	 * Runs the command named by the first argument.
+	 *
+	 * @param args	Name of the command, followed by its arguments
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		String[] rest = Arrays.copyOfRange(args, Math.min(1, args.length), args.length);
+		switch (args.length > 0 ? args[0] : "")
+		{
+			case "rotate":		rotate(rest); break;
+			case "batch":		RotationBatch.main(rest); break;
+			case "world":		WorldMap.main(rest); break;
+			case "watch":		MapWatcher.main(rest); break;
+			case "render":		MapRenderer.main(rest); break;
+			case "analyze":		MapAnalyzer.main(rest); break;
+			case "skim":		MapSkimmer.main(rest); break;
+			case "verify":		RoundTripVerifier.main(rest); break;
+			case "decode":		ItemDecoder.main(rest); break;
+			case "intern":		ItemInterner.main(rest); break;
+			case "diff":		MapDiff.main(rest); break;
+			case "patch":		MapPatch.main(rest); break;
+			case "pack":		MapPackWriter.main(rest); break;
+			case "export":		MapExporter.main(rest); break;
+			case "import":		MapImporter.main(rest); break;
+
+			default:
+				System.err.println("Usage: maprotator <command> [arguments]");
+				System.err.println("Commands: " + String.join(", ", COMMANDS));
+				System.exit(2);
+		}
+	}
+
+	/**
+	 * Rotates maps and saves them to a folder under their own names.
+	 *
+	 * @param args	The rotation in degrees, path of the output folder, and the path of each map to rotate
+	 */
+	private static void rotate(String[] args) throws Exception
+	{
+		RotationRuleSet rules = readRules(args);
+		args = withoutRules(args);
+
+		if (args.length < 3)
+		{
+			System.err.println("Usage: maprotator rotate [--rules <file>] <90|180|270> <output folder> <map>...");
+			System.exit(2);
+		}
+
+		Rotation rotation = parseRotation(args[0]);
+		Path outputFolder = Paths.get(args[1]);
+		Files.createDirectories(outputFolder);
+
+		for (int i = 2; i < args.length; i++)
+		{
+			Path path = Paths.get(args[i]);
+			RMMap map = new RMMap(path.toString(), Files.readAllBytes(path));
+			if (map.getEvents() == null)
+				throw new IllegalArgumentException(path.getFileName() + " failed validation");
+			map.setRotationRules(rules);
+
+			// The rotated map keeps its file name, so it replaces the original's ID in the project
+			int mapID = ScriptRewriter.mapIDOf(path.getFileName().toString());
+			AsyncMapWriter.writeAtomically(outputFolder.resolve(path.getFileName()), map.rotated(rotation, mapID).toBuffers());
+		}
+	}
+
+	/**
+	 * Reads the rules file named by a "--rules <file>" option among a tool's arguments.
+	 *
+	 * @param args	The tool's arguments
+	 * @return	The rules in the file, or the built-in rules if there's no such option
+	 * @throws IOException	If the rules file can't be read
+	 * @throws IllegalArgumentException	If the option has no file, or the file isn't a well-formed rules file
+	 */
+	static RotationRuleSet readRules(String[] args) throws IOException
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			if (!args[i].equals(RULES_OPTION))
+				continue;
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException(RULES_OPTION + " needs the path of a rules file");
+
+			return RotationRuleSet.load(Paths.get(args[i + 1]));
+		}
+
+		return RotationRuleSet.BUILT_IN;
+	}
+
+	/**
+	 * @param args	A tool's arguments
+	 * @return	The arguments without their "--rules <file>" option, if they have one
+	 */
+	static String[] withoutRules(String[] args)
+	{
+		List<String> result = new ArrayList<String>(Arrays.asList(args));
+		int index = result.indexOf(RULES_OPTION);
+		if (index >= 0)
+			result.subList(index, Math.min(index + 2, result.size())).clear();
+
+		return result.toArray(new String[0]);
+	}
+
+	/**
+	 * @param degrees	An angle given on the command line
+	 * @return	The corresponding rotation
+	 * @throws IllegalArgumentException	If the angle isn't 90, 180 or 270
+	 */
+	static Rotation parseRotation(String degrees)
+	{
+		switch (degrees)
+		{
+			case "90":
+				return Rotation.ROT_90;
+			case "180":
+				return Rotation.ROT_180;
+			case "270":
+				return Rotation.ROT_270;
+			default:
+				throw new IllegalArgumentException("Rotation must be 90, 180 or 270 degrees, not " + degrees);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package maprotator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * MapSkimmer.java
+ * 
+ * Gathers a MapSummary for each map in a project without building RMMap objects. The skimmer walks the top-level
+ * data items of a .lmu file, reading only each item's ID and size, decodes the few small items it cares about
+ * (chipset, width and height) and the object count at the start of the event layer, and seeks past everything else.
+ * The tile layers and event data are never read from disk.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapSkimmer
+{
+	private static final int PEEK_SIZE = 1 + 2 * VLQ.MAX_LENGTH;	// Enough bytes to hold an item ID, size, and integer value
+	
+	/**
+	 * Skims every map in the folder given as the first argument and prints a table of their summaries.
+	 * 
+	 * @param args	Path of the folder to index, optionally followed by a thread count
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: MapSkimmer <map folder> [threads]");
+			System.exit(2);
+		}
+		
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		
+		System.out.println("Map\tBytes\tChipset\tSize\tEvents");
+		for (MapSummary summary : index(Paths.get(args[0]), threads))
+			System.out.println(summary);
+	}
+	
+	/**
+	 * Skims every .lmu file in a folder in parallel.
+	 * 
+	 * @param folder	The folder to index
+	 * @param threads	Number of maps to skim at once
+	 * @return	The summary of each map, in file name order
+	 * @throws IOException	If the folder can't be listed or a map can't be read
+	 */
+	public static List<MapSummary> index(Path folder, int threads) throws IOException
+	{
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<CompletableFuture<MapSummary>> futures = new ArrayList<CompletableFuture<MapSummary>>();
+			for (Path path : MapLoader.listMaps(folder))
+				futures.add(CompletableFuture.supplyAsync(() ->
+				{
+					try
+					{
+						return skim(path);
+					}
+					catch (IOException e)
+					{
+						throw new UncheckedIOException(e);
+					}
+				}, workers));
+			
+			List<MapSummary> result = new ArrayList<MapSummary>(futures.size());
+			for (CompletableFuture<MapSummary> future : futures)
+				result.add(future.join());
+			
+			return result;
+		}
+		finally
+		{
+			workers.shutdown();
+		}
+	}
+	
+	/**
+	 * Skims a single map.
+	 * 
+	 * @param path	Path of the map's file
+	 * @return	A summary of the map
+	 * @throws IOException	If the file can't be read or isn't a well-formed map
+	 */
+	public static MapSummary skim(Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long fileSize = channel.size();
+			ByteBuffer peek = ByteBuffer.allocate(PEEK_SIZE);
+			
+			int chipset = 1;
+			int width = 20;
+			int height = 15;
+			int eventCount = 0;
+			
+			// Skip header
+			peek(channel, 0, peek);
+			long position = VLQ.length(peek.array(), 0) + VLQ.readInt(peek.array(), 0);
+			
+			// Walk the top-level items
+			while (true)
+			{
+				if (peek(channel, position, peek) == 0)
+					throw new EOFException("Map ended without an end-of-object byte: " + path);
+				
+				byte[] bytes = peek.array();
+				int id = bytes[0] & 0xFF;
+				if (id == 0)
+					break;
+				
+				int sizeLength = VLQ.length(bytes, 1);
+				int dataSize = VLQ.readInt(bytes, 1);
+				int dataIndex = 1 + sizeLength;
+				
+				switch (id)
+				{
+					case 0x01:
+						chipset = peekInt(channel, position + dataIndex, peek);
+						break;
+					case 0x02:
+						width = peekInt(channel, position + dataIndex, peek);
+						break;
+					case 0x03:
+						height = peekInt(channel, position + dataIndex, peek);
+						break;
+					case 0x51:
+						eventCount = peekInt(channel, position + dataIndex, peek);
+						break;
+				}
+				
+				position += dataIndex + (long) dataSize;
+				if (dataSize < 0 || position > fileSize)
+					throw new IOException(String.format("Item 0x%02X runs past the end of the file: %s", id, path));
+			}
+			
+			return new MapSummary(path, fileSize, chipset, width, height, eventCount);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException("Malformed map " + path + ": " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Reads up to PEEK_SIZE bytes from the channel at the given position into the start of the peek buffer.
+	 * Any bytes past the end of the file are left as zero.
+	 * 
+	 * @param channel	The channel to read from
+	 * @param position	The position in the file to read from
+	 * @param peek		The buffer to read into
+	 * @return	The number of bytes read
+	 * @throws IOException	If the file can't be read
+	 */
+	private static int peek(FileChannel channel, long position, ByteBuffer peek) throws IOException
+	{
+		peek.clear();
+		Arrays.fill(peek.array(), (byte) 0);
+		
+		int total = 0;
+		while (peek.hasRemaining())
+		{
+			int read = channel.read(peek, position + total);
+			if (read < 0)
+				break;
+			
+			total += read;
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * Reads the VLQ at the given position of the file.
+	 * 
+	 * @param channel	The channel to read from
+	 * @param position	The position in the file at which the VLQ begins
+	 * @param peek		A buffer to read into
+	 * @return	The integer value of the VLQ
+	 * @throws IOException	If the file can't be read
+	 */
+	private static int peekInt(FileChannel channel, long position, ByteBuffer peek) throws IOException
+	{
+		peek(channel, position, peek);
+		return VLQ.readInt(peek.array(), 0);
+	}
+}
@@ -0,0 +1,96 @@
+package maprotator;
+
+import java.nio.file.Path;
+
+/**
+ * MapSummary.java
+ * 
+ * The handful of facts about a map needed to plan batch work on it, as gathered by MapSkimmer without parsing the
+ * map in full. Values the map file doesn't store take on RPG Maker's defaults.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapSummary
+{
+	private Path path;			// Path of the map's file
+	private long fileSize;		// Size of the map's file in bytes
+	private int chipset;		// Chipset ID (0x01)
+	private int width;			// Width of the map in tiles (0x02)
+	private int height;			// Height of the map in tiles (0x03)
+	private int eventCount;		// Number of events in the event layer (0x51)
+	
+	/**
+	 * @param path			Path of the map's file
+	 * @param fileSize		Size of the map's file in bytes
+	 * @param chipset		Chipset ID
+	 * @param width			Width of the map in tiles
+	 * @param height		Height of the map in tiles
+	 * @param eventCount	Number of events in the event layer
+	 */
+	public MapSummary(Path path, long fileSize, int chipset, int width, int height, int eventCount)
+	{
+		this.path = path;
+		this.fileSize = fileSize;
+		this.chipset = chipset;
+		this.width = width;
+		this.height = height;
+		this.eventCount = eventCount;
+	}
+	
+	/**
+	 * @return	Path of the map's file
+	 */
+	public Path getPath()
+	{
+		return path;
+	}
+	
+	/**
+	 * @return	Size of the map's file in bytes
+	 */
+	public long getFileSize()
+	{
+		return fileSize;
+	}
+	
+	/**
+	 * @return	Chipset ID
+	 */
+	public int getChipset()
+	{
+		return chipset;
+	}
+	
+	/**
+	 * @return	Width of the map in tiles
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+	
+	/**
+	 * @return	Height of the map in tiles
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+	
+	/**
+	 * @return	Number of events in the event layer
+	 */
+	public int getEventCount()
+	{
+		return eventCount;
+	}
+	
+	/**
+	 * @return	A one-line, tab-separated description of the map
+	 */
+	public String toString()
+	{
+		return path.getFileName() + "\t" + fileSize + "\t" + chipset + "\t" + width + "x" + height + "\t" + eventCount;
+	}
+}
@@ -0,0 +1,316 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * MapWatcher.java
+ *
+ * Keeps the rotated versions of a project's maps up to date while the project is being edited. The watcher listens
+ * for changes to .lmu files in the project folder through a WatchService and, once a map has gone DEBOUNCE_MILLIS
+ * without further changes, rotates it on a worker pool through a RotationBatch. A burst of events for the same map
+ * (an editor typically truncates, writes and touches the file in separate steps) is coalesced into a single update,
+ * and a map whose contents hash the same as when it was last rotated is skipped. A map that's gone once its burst
+ * is over (deleted, or renamed away) has its rotated versions and aliases removed.
+ *
+ * Updates to the same map never overlap, so a map's outputs and aliases always come from a single version of it.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapWatcher implements AutoCloseable
+{
+	public static final long DEBOUNCE_MILLIS = 25;	// Quiet period after a change before a map is rotated
+
+	private Path folder;								// The project folder being watched
+	private RotationBatch batch;						// Batch that writes the rotated maps
+	private WatchService watchService;					// Source of file change events
+	private ScheduledExecutorService timer;				// Runs debounce timers
+	private ExecutorService workers;					// Threads that rotate maps
+	private ConcurrentHashMap<Path, Pending> pending;	// Maps waiting out their debounce period
+	private ConcurrentHashMap<Path, Long> hashes;		// Content hash of each map when it was last rotated
+	private ConcurrentHashMap<Path, Object> locks;		// Lock held while each map is being updated
+	private volatile RotationRuleSet rules;				// Tile rotation rules given to each map rotated
+
+	/**
+	 * A map whose debounce timer is running.
+	 */
+	private static class Pending
+	{
+		long firstChange;				// Time (in nanoseconds) of the first change in the current burst
+		ScheduledFuture<?> deadline;	// Timer that hands the map to the workers
+	}
+
+	/**
+	 * Watches the folder given as the first argument, writing rotated maps to the folder given as the second.
+	 *
+	 * @param args	Path of the project folder, path of the output folder, and optionally a thread count
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		RotationRuleSet rules = MapRotator.readRules(args);
+		args = MapRotator.withoutRules(args);
+
+		if (args.length < 2)
+		{
+			System.err.println("Usage: MapWatcher [--rules <file>] <project folder> <output folder> [threads]");
+			System.exit(2);
+		}
+
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		Path outputFolder = Paths.get(args[1]);
+		Files.createDirectories(outputFolder);
+
+		try (MapWatcher watcher = new MapWatcher(Paths.get(args[0]), outputFolder, threads))
+		{
+			watcher.setRotationRules(rules);
+			watcher.run();
+		}
+	}
+
+	/**
+	 * Starts watching a project folder.
+	 *
+	 * @param folder		The project folder to watch
+	 * @param outputFolder	Folder to write rotated maps to, which must not be the project folder
+	 * @param threads		Number of maps to rotate at once
+	 * @throws IOException	If the folder can't be watched
+	 */
+	public MapWatcher(Path folder, Path outputFolder, int threads) throws IOException
+	{
+		if (Files.isSameFile(folder, outputFolder))
+			throw new IllegalArgumentException("Output folder must differ from the project folder");
+
+		this.folder = folder;
+		batch = new RotationBatch(outputFolder);
+		watchService = folder.getFileSystem().newWatchService();
+		folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+
+		timer = Executors.newSingleThreadScheduledExecutor();
+		workers = Executors.newFixedThreadPool(threads);
+		pending = new ConcurrentHashMap<Path, Pending>();
+		hashes = new ConcurrentHashMap<Path, Long>();
+		locks = new ConcurrentHashMap<Path, Object>();
+		rules = RotationRuleSet.BUILT_IN;
+	}
+
+	/**
+	 * Sets the tile rotation rules given to each map rotated from now on.
+	 *
+	 * @param rules	The tile rotation rules to use
+	 */
+	public void setRotationRules(RotationRuleSet rules)
+	{
+		this.rules = rules;
+	}
+
+	/**
+	 * Brings every map's rotated versions up to date, then handles change events until the watcher is closed.
+	 *
+	 * @throws IOException	If the project folder can't be listed
+	 * @throws InterruptedException	If the thread is interrupted while waiting for events
+	 */
+	public void run() throws IOException, InterruptedException
+	{
+		for (Path path : MapLoader.listMaps(folder))
+			changed(path);
+
+		try
+		{
+			while (true)
+			{
+				WatchKey key = watchService.take();
+				for (WatchEvent<?> event : key.pollEvents())
+				{
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+					{
+						// Events were lost, so check every map (unchanged ones are skipped by their hashes)
+						for (Path path : MapLoader.listMaps(folder))
+							changed(path);
+						continue;
+					}
+
+					Path name = (Path) event.context();
+					if (name.toString().toLowerCase().endsWith(".lmu"))
+						changed(folder.resolve(name));
+				}
+
+				if (!key.reset())
+					break;
+			}
+		}
+		catch (ClosedWatchServiceException e)
+		{
+			// Closed from another thread
+		}
+	}
+
+	/**
+	 * Records a change to a map (including its deletion), restarting its debounce timer.
+	 *
+	 * @param path	Path of the changed map
+	 */
+	public void changed(Path path)
+	{
+		long now = System.nanoTime();
+		pending.compute(path, (key, previous) ->
+		{
+			Pending next = new Pending();
+			next.firstChange = now;
+
+			if (previous != null)
+			{
+				next.firstChange = previous.firstChange;
+				previous.deadline.cancel(false);
+			}
+
+			next.deadline = timer.schedule(() ->
+			{
+				if (pending.remove(key, next))
+					workers.execute(() -> update(key, next.firstChange));
+			}, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+
+			return next;
+		});
+	}
+
+	/**
+	 * Rotates a map if its contents have changed since it was last rotated, or removes its rotated versions if it no
+	 * longer exists.
+	 *
+	 * @param path			Path of the map
+	 * @param firstChange	Time (in nanoseconds) of the first change that led to this update
+	 */
+	private void update(Path path, long firstChange)
+	{
+		while (true)
+		{
+			Object lock = locks.computeIfAbsent(path, key -> new Object());
+			synchronized (lock)
+			{
+				// A removed map's lock is dropped, so anyone who was waiting on it starts over with a fresh one
+				if (locks.get(path) == lock)
+				{
+					updateLocked(path, firstChange);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rotates a map if its contents have changed since it was last rotated, or removes its rotated versions if it no
+	 * longer exists. The caller must hold the map's lock.
+	 *
+	 * @param path			Path of the map
+	 * @param firstChange	Time (in nanoseconds) of the first change that led to this update
+	 */
+	private void updateLocked(Path path, long firstChange)
+	{
+		try
+		{
+			byte[] data = Files.readAllBytes(path);
+
+			CRC32C checksum = new CRC32C();
+			checksum.update(data);
+			long hash = ((long) data.length << 32) | checksum.getValue();
+
+			Long previous = hashes.get(path);
+			if (previous != null && previous == hash)
+				return;
+
+			RMMap map = new RMMap(path.toString(), data);
+			if (map.getEvents() == null)
+			{
+				System.err.println("Skipped " + path.getFileName() + ": failed validation");
+				return;
+			}
+			map.setRotationRules(rules);
+
+			// Only remember the contents once every rotation is written, so a failed write is retried on the next change
+			batch.rotate(map).join();
+			batch.writeAliases();
+			hashes.put(path, hash);
+
+			System.out.println("Updated " + path.getFileName() + " in " + (System.nanoTime() - firstChange) / 1000000 + " ms");
+		}
+		catch (NoSuchFileException e)
+		{
+			// Deleted or renamed away
+			removed(path);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// Most likely caught partway through a save; the rest of the save will trigger another update
+			System.err.println("Failed to update " + path.getFileName() + ": " + e);
+		}
+	}
+
+	/**
+	 * Removes the rotated versions and aliases of a map that no longer exists, and forgets its hash and lock. The
+	 * caller must hold the map's lock.
+	 *
+	 * @param path	Path of the map
+	 */
+	private void removed(Path path)
+	{
+		try
+		{
+			batch.remove(path.getFileName().toString());
+			batch.writeAliases();
+			System.out.println("Removed the rotated versions of " + path.getFileName());
+		}
+		catch (IOException e)
+		{
+			System.err.println("Failed to remove the rotated versions of " + path.getFileName() + ": " + e);
+		}
+
+		hashes.remove(path);
+		locks.remove(path);
+	}
+
+	/**
+	 * Stops watching, waits for updates already under way, and writes the alias list.
+	 */
+	@Override
+	public void close()
+	{
+		try
+		{
+			watchService.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+
+		timer.shutdownNow();
+		workers.shutdown();
+		try
+		{
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		batch.close();
+	}
+}
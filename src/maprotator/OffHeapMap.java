@@ -0,0 +1,177 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * OffHeapMap.java
+ * 
+ * A map whose tile layers have been moved out of the Java heap into a TileArena. Creating an OffHeapMap takes the
+ * 0x47 and 0x48 DataItems away from the given RMMap, so the heap only holds the map's small items and events.
+ * Rotation runs directly on the off-heap layers, and saving writes them straight from off-heap memory to the file
+ * with a gathering write (see AsyncMapWriter.writeAtomically). The tile layers can be returned to the RMMap with restore().
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class OffHeapMap
+{
+	private RMMap map;					// The map whose tile layers are held off-heap
+	private TileArena arena;			// The arena holding the tile layers
+	private OffHeapTileLayer lower;		// Lower layer tile data
+	private OffHeapTileLayer upper;		// Upper layer tile data
+	
+	/**
+	 * Moves the given map's tile layers into the given arena. The map should only be used through this object until
+	 * restore() is called.
+	 * 
+	 * @param map	The map whose tile layers are to be moved
+	 * @param arena	The arena to move them into
+	 * @throws IllegalArgumentException	If the map's tile layers don't match its dimensions
+	 */
+	public OffHeapMap(RMMap map, TileArena arena)
+	{
+		int width = map.getMapWidth();
+		int height = map.getMapHeight();
+		map.checkTileLayers(width, height);
+		
+		this.map = map;
+		this.arena = arena;
+		lower = arena.copyOf(map.dataItems.remove(0x47), width, height);
+		upper = arena.copyOf(map.dataItems.remove(0x48), width, height);
+	}
+	
+	/**
+	 * @return	The map's lower tile layer
+	 */
+	public OffHeapTileLayer getLowerLayer()
+	{
+		return lower;
+	}
+	
+	/**
+	 * @return	The map's upper tile layer
+	 */
+	public OffHeapTileLayer getUpperLayer()
+	{
+		return upper;
+	}
+	
+	/**
+	 * Rotates all the tiles and events in this map according to the given rotation angle.
+	 * 
+	 * @param rotation	The amount to rotate the map (clockwise)
+	 */
+	public void rotate(Rotation rotation)
+	{
+		PhaseTimer timer = PhaseTimer.start(MapPhase.ROTATE);
+		
+		int width = map.getMapWidth();
+		int height = map.getMapHeight();
+		boolean swapped = rotation == Rotation.ROT_90 || rotation == Rotation.ROT_270;
+		int newWidth = swapped ? height : width;
+		int newHeight = swapped ? width : height;
+		
+		// Rotate tile layers into fresh buffers, then recycle the old ones
+		OffHeapTileLayer newLower = arena.allocate(newWidth, newHeight);
+		OffHeapTileLayer newUpper = arena.allocate(newWidth, newHeight);
+		TileRotationRules rules = map.getTileRotationRules();
+		lower.rotateInto(newLower, rotation, rules, true);
+		upper.rotateInto(newUpper, rotation, rules, false);
+		arena.release(lower);
+		arena.release(upper);
+		lower = newLower;
+		upper = newUpper;
+		
+		// Set new dimensions and rotate event layer
+		map.setMapHeight(newHeight);
+		map.setMapWidth(newWidth);
+		map.rotateEvents(rotation, width, height);
+		timer.end(map, 4L * newWidth * newHeight);
+		
+		// Timed as a phase of its own
+		map.updateEvents();
+	}
+	
+	/**
+	 * Writes the map to a file. Items held on the heap and the off-heap tile layers are gathered into a single write,
+	 * without first being copied into one output array.
+	 * 
+	 * @param destination	Path of the file to write
+	 * @throws IOException	If the file can't be written
+	 */
+	public void save(Path destination) throws IOException
+	{
+		map.updateEvents();
+		AsyncMapWriter.writeAtomically(destination, toBuffers());
+	}
+	
+	/**
+	 * @return	The buffers that together make up the map's file, in order
+	 */
+	public ByteBuffer[] toBuffers()
+	{
+		List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		buffers.add(ByteBuffer.wrap(map.header));
+		
+		boolean layersWritten = false;
+		Iterator<Entry<Integer, DataItem>> itr = map.iterator();
+		while (itr.hasNext())
+		{
+			DataItem item = itr.next().getValue();
+			
+			// Items are written in ascending order of ID, so the tile layers go before the first item that follows them
+			if (!layersWritten && item.getID() > 0x48)
+			{
+				addLayers(buffers);
+				layersWritten = true;
+			}
+			
+			buffers.add(ByteBuffer.wrap(item.byteArray()));
+		}
+		
+		if (!layersWritten)
+			addLayers(buffers);
+		
+		// End-of-object byte
+		buffers.add(ByteBuffer.wrap(new byte[1]));
+		
+		return buffers.toArray(new ByteBuffer[0]);
+	}
+	
+	/**
+	 * Adds the buffers making up both tile layer items to the given list.
+	 * 
+	 * @param buffers	The list to add to
+	 */
+	private void addLayers(List<ByteBuffer> buffers)
+	{
+		for (ByteBuffer buffer : lower.itemBuffers(0x47))
+			buffers.add(buffer);
+		for (ByteBuffer buffer : upper.itemBuffers(0x48))
+			buffers.add(buffer);
+	}
+	
+	/**
+	 * Copies the tile layers back into the map as DataItems and releases their off-heap memory. This object must
+	 * not be used afterward.
+	 * 
+	 * @return	The map, with its tile layers restored
+	 */
+	public RMMap restore()
+	{
+		map.dataItems.put(0x47, lower.toDataItem(0x47, map));
+		map.dataItems.put(0x48, upper.toDataItem(0x48, map));
+		arena.release(lower);
+		arena.release(upper);
+		lower = null;
+		upper = null;
+		
+		return map;
+	}
+}
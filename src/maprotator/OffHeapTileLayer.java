@@ -0,0 +1,279 @@
+package maprotator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * OffHeapTileLayer.java
+ * 
+ * A tile layer (lower or upper) stored outside the Java heap, as a direct buffer of little-endian shorts in the same
+ * layout as the content of a 0x47 or 0x48 DataItem. Layers are allocated by a TileArena, which owns their memory.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class OffHeapTileLayer
+{
+	private TileArena arena;	// The arena that owns this layer's memory
+	private ByteBuffer tiles;	// Tile data, two bytes per tile in row-major order
+	private int width;			// Width of the layer (in tiles)
+	private int height;			// Height of the layer (in tiles)
+	
+	/**
+	 * Wraps a buffer handed out by an arena. Called only by TileArena.
+	 * 
+	 * @param arena		The arena that owns the buffer
+	 * @param tiles		The buffer to hold the tile data
+	 * @param width		Width of the layer (in tiles)
+	 * @param height	Height of the layer (in tiles)
+	 */
+	OffHeapTileLayer(TileArena arena, ByteBuffer tiles, int width, int height)
+	{
+		this.arena = arena;
+		this.tiles = tiles.order(ByteOrder.LITTLE_ENDIAN);
+		this.width = width;
+		this.height = height;
+	}
+	
+	/**
+	 * @return	Width of the layer (in tiles)
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+	
+	/**
+	 * @return	Height of the layer (in tiles)
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+	
+	/**
+	 * @param x	X-position of a tile
+	 * @param y	Y-position of a tile
+	 * @return	The value of the tile
+	 */
+	public int getTile(int x, int y)
+	{
+		return buffer().getShort(2 * (y * width + x)) & 0xFFFF;
+	}
+	
+	/**
+	 * @param x		X-position of a tile
+	 * @param y		Y-position of a tile
+	 * @param value	The new value of the tile
+	 */
+	public void setTile(int x, int y, int value)
+	{
+		buffer().putShort(2 * (y * width + x), (short) value);
+	}
+	
+	/**
+	 * Copies tile data into this layer from the data portion of a tile layer DataItem.
+	 * 
+	 * @param layer	The DataItem to copy from
+	 * @throws IllegalArgumentException	If the item's size doesn't match this layer's dimensions
+	 */
+	public void load(DataItem layer)
+	{
+		if (layer.getDataSize() != 2 * width * height)
+			throw new IllegalArgumentException("Tile layer doesn't match dimensions " + width + "x" + height);
+		
+		ByteBuffer target = buffer().duplicate();
+		target.clear();
+		target.put(layer.byteArray(), layer.getDataIndex(), layer.getDataSize());
+	}
+	
+	/**
+	 * Copies a tile layer DataItem into a rectangle of this layer, a row at a time.
+	 * 
+	 * @param layer		The DataItem to copy from
+	 * @param x			X-position of the rectangle's top left corner
+	 * @param y			Y-position of the rectangle's top left corner
+	 * @param width		Width of the rectangle (and of the item's layer)
+	 * @param height	Height of the rectangle (and of the item's layer)
+	 * @throws IllegalArgumentException	If the item's size doesn't match the rectangle, or the rectangle doesn't fit
+	 */
+	public void load(DataItem layer, int x, int y, int width, int height)
+	{
+		checkRegion(x, y, width, height);
+		if (layer.getDataSize() != 2 * width * height)
+			throw new IllegalArgumentException("Tile layer doesn't match dimensions " + width + "x" + height);
+		
+		ByteBuffer target = buffer().duplicate();
+		for (int row = 0; row < height; row++)
+		{
+			target.clear().position(2 * ((y + row) * this.width + x));
+			target.put(layer.byteArray(), layer.getDataIndex() + 2 * row * width, 2 * width);
+		}
+	}
+	
+	/**
+	 * Sets every tile in a rectangle of this layer to the same value.
+	 * 
+	 * @param x			X-position of the rectangle's top left corner
+	 * @param y			Y-position of the rectangle's top left corner
+	 * @param width		Width of the rectangle
+	 * @param height	Height of the rectangle
+	 * @param value		The value to give each tile
+	 */
+	public void fill(int x, int y, int width, int height, int value)
+	{
+		checkRegion(x, y, width, height);
+		
+		ByteBuffer target = buffer();
+		for (int row = y; row < y + height; row++)
+			for (int column = x; column < x + width; column++)
+				target.putShort(2 * (row * this.width + column), (short) value);
+	}
+	
+	/**
+	 * Writes this layer's tiles, rotated, into another layer. The destination must already have the rotated
+	 * dimensions and must not be this layer.
+	 * 
+	 * @param destination	The layer to write to
+	 * @param rotation		The amount to rotate the tiles (clockwise)
+	 * @param rules		The rules used to remap tile values
+	 * @param lower			Whether this is a lower layer
+	 */
+	public void rotateInto(OffHeapTileLayer destination, Rotation rotation, TileRotationRules rules, boolean lower)
+	{
+		rotateInto(destination, 0, 0, width, height, rotation, rules, lower);
+	}
+	
+	/**
+	 * Writes the tiles in a rectangle of this layer, rotated, to where they land in another layer once the whole layer
+	 * is rotated. Several threads may rotate separate rectangles into the same destination at once, so the parts of a
+	 * layer can be rotated with different rules. The destination must already have the rotated dimensions and must not
+	 * be this layer.
+	 * 
+	 * @param destination	The layer to write to
+	 * @param x				X-position of the rectangle's top left corner
+	 * @param y				Y-position of the rectangle's top left corner
+	 * @param width			Width of the rectangle
+	 * @param height		Height of the rectangle
+	 * @param rotation		The amount to rotate the tiles (clockwise)
+	 * @param rules			The rules used to remap tile values
+	 * @param lower			Whether this is a lower layer
+	 */
+	public void rotateInto(OffHeapTileLayer destination, int x, int y, int width, int height, Rotation rotation,
+							TileRotationRules rules, boolean lower)
+	{
+		boolean swapped = rotation == Rotation.ROT_90 || rotation == Rotation.ROT_270;
+		if (destination == this || destination.width != (swapped ? this.height : this.width)
+				|| destination.height != (swapped ? this.width : this.height))
+			throw new IllegalArgumentException("Destination layer doesn't have the rotated dimensions");
+		checkRegion(x, y, width, height);
+		
+		ByteBuffer source = buffer();
+		ByteBuffer target = destination.buffer();
+		
+		for (int row = y; row < y + height; row++)
+			for (int column = x; column < x + width; column++)
+			{
+				int i = row * this.width + column;
+				int data = rules.rotate(source.getShort(2 * i) & 0xFFFF, rotation, lower);
+				
+				target.putShort(2 * RMMap.destinationIndex(i, this.width, this.height, rotation), (short) data);
+			}
+	}
+	
+	/**
+	 * Copies this layer's tile data back onto the heap as a DataItem.
+	 * 
+	 * @param id		The ID to give the item
+	 * @param parent	The object the item belongs to
+	 * @return	A new DataItem holding a copy of this layer's tile data
+	 */
+	public DataItem toDataItem(int id, RMObject parent)
+	{
+		byte[] data = new byte[2 * width * height];
+		ByteBuffer source = buffer().duplicate();
+		source.clear();
+		source.get(data);
+		
+		return new DataItem(id, data, parent);
+	}
+	
+	/**
+	 * Copies the tiles in a rectangle of this layer back onto the heap as a DataItem for a map of the rectangle's size.
+	 * 
+	 * @param id		The ID to give the item
+	 * @param x			X-position of the rectangle's top left corner
+	 * @param y			Y-position of the rectangle's top left corner
+	 * @param width		Width of the rectangle
+	 * @param height	Height of the rectangle
+	 * @param parent	The object the item belongs to
+	 * @return	A new DataItem holding a copy of the rectangle's tile data
+	 */
+	public DataItem toDataItem(int id, int x, int y, int width, int height, RMObject parent)
+	{
+		checkRegion(x, y, width, height);
+		
+		byte[] data = new byte[2 * width * height];
+		ByteBuffer source = buffer().duplicate();
+		for (int row = 0; row < height; row++)
+		{
+			source.clear().position(2 * ((y + row) * this.width + x));
+			source.get(data, 2 * row * width, 2 * width);
+		}
+		
+		return new DataItem(id, data, parent);
+	}
+	
+	/**
+	 * Returns the buffers that make up this layer as a complete DataItem (ID, size and data), for writing with a
+	 * gathering write. The tile data isn't copied.
+	 * 
+	 * @param id	The ID to give the item
+	 * @return	The item's metadata followed by its data
+	 */
+	public ByteBuffer[] itemBuffers(int id)
+	{
+		byte[] size = VLQ.parseInteger(2 * width * height);
+		ByteBuffer metadata = ByteBuffer.allocate(1 + size.length);
+		metadata.put((byte) id).put(size).flip();
+		
+		ByteBuffer data = buffer().duplicate();
+		data.clear();
+		
+		return new ByteBuffer[] { metadata, data };
+	}
+	
+	/**
+	 * @param x			X-position of a rectangle's top left corner
+	 * @param y			Y-position of a rectangle's top left corner
+	 * @param width		Width of the rectangle
+	 * @param height	Height of the rectangle
+	 * @throws IllegalArgumentException	If the rectangle doesn't lie within this layer
+	 */
+	private void checkRegion(int x, int y, int width, int height)
+	{
+		if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.width || y + height > this.height)
+			throw new IllegalArgumentException(String.format("Rectangle %dx%d at (%d, %d) doesn't fit in layer %dx%d",
+																width, height, x, y, this.width, this.height));
+	}
+	
+	/**
+	 * @return	The buffer holding this layer's tiles
+	 * @throws IllegalStateException	If the layer's arena has been reset or closed
+	 */
+	private ByteBuffer buffer()
+	{
+		if (tiles == null || !arena.owns(this))
+			throw new IllegalStateException("Tile layer used after its arena was released");
+		
+		return tiles;
+	}
+	
+	/**
+	 * Detaches this layer from its buffer when its arena releases it. Called only by TileArena.
+	 */
+	void release()
+	{
+		tiles = null;
+	}
+}
@@ -1,4 +1,5 @@
 package maprotator;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.TreeMap;
 import java.util.Map.Entry;
@@ -26,8 +27,9 @@ public abstract class RMBaseObject
 	 * 
 	 * @param source		Source array to extract header from 
 	 * @param startingIndex	Index of start of header
+	 * @param end			Index at which the source array's data ends
 	 */
-	protected abstract void parseHeader(byte[] source, int startingIndex);
+	protected abstract void parseHeader(byte[] source, int startingIndex, int end);
 	
 	/**
 	 * When defined, extracts data items from a given byte array, starting at the given index, according
@@ -35,8 +37,9 @@ public abstract class RMBaseObject
 	 * 
 	 * @param source		Source array to extract data items from
 	 * @param startingIndex	Index of start of data item list
+	 * @param end			Index at which the source array's data ends
 	 */
-	protected abstract void parseBody(byte[] source, int startingIndex);
+	protected abstract void parseBody(byte[] source, int startingIndex, int end);
 	
 	/**
 	 * When defined, initializes item labels in accordance with the child class's own definitions. 
@@ -92,10 +95,23 @@ public abstract class RMBaseObject
 	 * @param startingIndex	Index of start of header list
 	 */
 	protected void parse(byte[] source, int startingIndex)
+	{
+		parse(source, startingIndex, source.length);
+	}
+	
+	/**
+	 * Parse the header and body together from the part of a source array that ends at the given index, never reading
+	 * past it.
+	 * 
+	 * @param source		Source array to extract header from
+	 * @param startingIndex	Index of start of header list
+	 * @param end			Index at which the source array's data ends
+	 */
+	protected void parse(byte[] source, int startingIndex, int end)
 	{
 		// Parse input data into individual items
-		parseHeader(source, startingIndex);
-		parseBody(source, startingIndex + header.length);
+		parseHeader(source, startingIndex, end);
+		parseBody(source, startingIndex + header.length, end);
 	}
 	
 	/**
@@ -201,4 +217,24 @@ public abstract class RMBaseObject
 		
 		return result;
 	}
+	
+	/**
+	 * @return	Buffers wrapping the header, each data item, and the end-of-object byte of this object, in order.
+	 * 			Together they hold the same bytes as toArray(), but nothing is copied.
+	 */
+	public ByteBuffer[] toBuffers()
+	{
+		ByteBuffer[] result = new ByteBuffer[dataItems.size() + 2];
+		
+		int index = 0;
+		result[index++] = ByteBuffer.wrap(header);
+		
+		Iterator<Entry<Integer, DataItem>> itr = dataItems.entrySet().iterator();
+		while (itr.hasNext())
+			result[index++] = ByteBuffer.wrap(itr.next().getValue().byteArray());
+		
+		result[index] = ByteBuffer.wrap(new byte[1]);
+		
+		return result;
+	}
 }
@@ -1,7 +1,5 @@
 package maprotator;
 
-import java.util.TreeMap;
-
 /**
  * RMEvent.java
  * 
@@ -14,22 +12,41 @@ public class RMEvent extends RMObject
 {
 	private static int[] essentialIDs = new int[] { 0x05 };	// Only essential item for an RM event is the page data
 	private RMEventPage[] pages;							// List of constituent pages
+	private EventIndex index;								// Spatial index to notify when this event moves, if any
 	
 	/**
 	 * Reinterprets an existing RMObject as an RMEvent. The original should be discarded afterward.
 	 * 
 	 * @param original	The RMObject to be copied/reinterpreted.
+	 * @throws IllegalArgumentException	If the event has no page data
 	 */
 	public RMEvent(RMObject original)
 	{
 		super(original);
 		name = "Event " + VLQ.arrayToInt(header);
 		
-		validateData(essentialIDs);
+		if (!validateData(essentialIDs))
+			throw new IllegalArgumentException(name + " has no page data");
+		
 		parsePages();
 		
 	}
 	
+	/**
+	 * Copies an RMEvent and each of its pages, sharing their DataItems; moving or rotating either event afterward
+	 * doesn't affect the other. The copy isn't attached to any spatial index.
+	 * 
+	 * @param original	The event to copy
+	 */
+	public RMEvent(RMEvent original)
+	{
+		shareItems(original);
+		
+		pages = new RMEventPage[original.pages.length];
+		for (int i = 0; i < pages.length; i++)
+			pages[i] = new RMEventPage(original.pages[i]);
+	}
+	
 	/**
 	 * Parses the content of the page data DataItem (0x05) into separate RMEventPage items and stores them in an array.
 	 */
@@ -54,6 +71,17 @@ public class RMEvent extends RMObject
 		dataItems.remove(0x05);
 		dataItems.put(0x05, new DataItem(0x05, pages, this));
 	}
+	
+	/**
+	 * Returns a copy of this event whose page data is built from its pages as they are now, without modifying the
+	 * event, so that it can be serialized while other threads read the event.
+	 * 
+	 * @return	The copy, to be serialized and discarded
+	 */
+	public RMObject withCurrentPages()
+	{
+		return withItem(0x05, new DataItem(0x05, pages, this));
+	}
 
 	/**
 	 * Sets the names to be associated with each DataItem ID.
@@ -62,14 +90,37 @@ public class RMEvent extends RMObject
 	{
 		if (itemLabels == null)
 		{
-			itemLabels = new TreeMap<Integer, String>();
-			itemLabels.put(0x01, "Event name");
-			itemLabels.put(0x02, "X position");
-			itemLabels.put(0x03, "Y position");
-			itemLabels.put(0x05, "Page data");
+			itemLabels = ItemSchema.EVENT.getLabels();
 		}
 	}
 	
+	/**
+	 * @return	This event's pages, in order
+	 */
+	public RMEventPage[] getPages()
+	{
+		return pages;
+	}
+	
+	/**
+	 * @return	This event's ID on its map
+	 */
+	public int getID()
+	{
+		return VLQ.arrayToInt(header);
+	}
+	
+	/**
+	 * Gives this event a new ID, as when it's moved to another map.
+	 * 
+	 * @param id	The new ID
+	 */
+	protected void setID(int id)
+	{
+		header = VLQ.parseInteger(id);
+		name = "Event " + id;
+	}
+	
 	/**
 	 * @return	This event's starting X-position
 	 */
@@ -101,6 +152,9 @@ public class RMEvent extends RMObject
 		
 		if (width > 0)
 			dataItems.put(0x02, new DataItem(0x02, width, this));
+
+		if (index != null)
+			index.relocate(this);
 	}
 	
 	/**
@@ -112,6 +166,17 @@ public class RMEvent extends RMObject
 		
 		if (height > 0)
 			dataItems.put(0x03, new DataItem(0x03, height, this));
+
+		if (index != null)
+			index.relocate(this);
+	}
+
+	/**
+	 * @param index	The spatial index to notify whenever this event's position changes, or null for none
+	 */
+	protected void setIndex(EventIndex index)
+	{
+		this.index = index;
 	}
 	
 	/**
@@ -121,8 +186,19 @@ public class RMEvent extends RMObject
 	 * @param rotation	The amount by which to rotate the event (clockwise)
 	 */
 	public void rotate(Rotation rotation)
+	{
+		rotate(rotation, null);
+	}
+	
+	/**
+	 * Updates the facing of each of the event's pages according to the given rotation, and rotates their scripts.
+	 * 
+	 * @param rotation	The amount by which to rotate the event (clockwise)
+	 * @param scripts	Rewriter for the scripts of the map being rotated, or null to leave the scripts alone
+	 */
+	public void rotate(Rotation rotation, ScriptRewriter scripts)
 	{
 		for (RMEventPage page : pages)
-			page.rotate(rotation);
+			page.rotate(rotation, scripts);
 	}
 }
\ No newline at end of file
@@ -1,7 +1,5 @@
 package maprotator;
 
-import java.util.TreeMap;
-
 /**
  * RMEventPage.java
  * 
@@ -13,6 +11,8 @@ import java.util.TreeMap;
 public class RMEventPage extends RMObject
 {
 	private static int[] essentialIDs = new int[] { 0x02, 0x17, 0x33, 0x34 }; // List of IDs that must be defined for a map
+	public static final int DEFAULT_FACING = 2;	// Facing assumed when none is stored (down)
+	private boolean facingStored;					// Whether the facing was stored in the page's original data
 	
 	/**
 	 * Reinterprets an existing RMObject as an RMEventPage. The original should be discarded afterward.
@@ -23,6 +23,18 @@ public class RMEventPage extends RMObject
 	{
 		super(original);
 		validateData(essentialIDs);
+		facingStored = dataItems.containsKey(0x17);
+	}
+	
+	/**
+	 * Copies an RMEventPage, sharing its DataItems; rotating either page afterward doesn't affect the other.
+	 * 
+	 * @param original	The page to copy
+	 */
+	public RMEventPage(RMEventPage original)
+	{
+		shareItems(original);
+		facingStored = original.facingStored;
 	}
 	
 	/**
@@ -32,32 +44,57 @@ public class RMEventPage extends RMObject
 	{
 		if (itemLabels == null)
 		{
-			itemLabels = new TreeMap<Integer, String>();
-			itemLabels.put(0x02, "Conditions");
-			itemLabels.put(0x15, "Charset name");
-			itemLabels.put(0x16, "Charset selection index");
-			itemLabels.put(0x17, "Facing");
-			itemLabels.put(0x19, "Undetermined");
-			itemLabels.put(0x1F, "Undetermined");
-			itemLabels.put(0x20, "Undetermined");
-			itemLabels.put(0x21, "Undetermined");
-			itemLabels.put(0x23, "Undetermined");
-			itemLabels.put(0x24, "Undetermined");
-			itemLabels.put(0x29, "Undetermined");
-			itemLabels.put(0x33, "Undetermined");
-			itemLabels.put(0x34, "Script data");
+			itemLabels = ItemSchema.PAGE.getLabels();
 		}
 	}
 	
 	/**
-	 * Updates the event's facing according to the given rotation.
+	 * @return	The page's facing (up = 0, right = 1, down = 2, left = 3)
+	 */
+	public int getFacing()
+	{
+		DataItem facing = dataItems.get(0x17);
+		return facing == null ? DEFAULT_FACING : facing.getDataAsInteger();
+	}
+	
+	/**
+	 * Updates the event's facing according to the given rotation. A page that didn't store its facing is treated as
+	 * facing the default direction, and goes back to not storing it when rotated back to that direction.
 	 * 
 	 * @param rotation	The amount by which to rotate the event (clockwise)
 	 */
 	public void rotate(Rotation rotation)
 	{
-		DataItem currentRotation = dataItems.get(0x17);
-		int newRotation = ((currentRotation.getDataAsInteger() + rotation.ordinal()) % 4);
-		dataItems.put(0x17, new DataItem(0x17, newRotation, this));
+		rotate(rotation, null);
+	}
+	
+	/**
+	 * Updates the event's facing according to the given rotation, and rotates the directions and positions in its
+	 * script. The script's item is only replaced if something in the script changed, and its length item (0x33) only
+	 * if its length did.
+	 * 
+	 * @param rotation	The amount by which to rotate the event (clockwise)
+	 * @param scripts	Rewriter for the scripts of the map being rotated, or null to leave the script alone
+	 */
+	public void rotate(Rotation rotation, ScriptRewriter scripts)
+	{
+		DataItem script = dataItems.get(0x34);
+		if (scripts != null && script != null)
+		{
+			byte[] rewritten = scripts.rewrite(script.byteArray(), script.getDataIndex(), script.getDataSize());
+			if (rewritten != null)
+			{
+				dataItems.put(0x34, new DataItem(0x34, rewritten, this));
+				if (rewritten.length != script.getDataSize() && dataItems.containsKey(0x33))
+					dataItems.put(0x33, new DataItem(0x33, rewritten.length, this));
+			}
+		}
+		
+		int newRotation = ((getFacing() + rotation.ordinal()) % 4);
+		
+		if (newRotation == DEFAULT_FACING && !facingStored)
+			dataItems.remove(0x17);
+		else
+			dataItems.put(0x17, new DataItem(0x17, newRotation, this));
 	}
 }
@@ -1,88 +1,102 @@
 package maprotator;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * RMMap.java
  * 
  * Represents an RPGMaker 2000 map as an object (which constitutes the contents of a .lmu file).
  * 
+ * A map can be read from any number of threads at once, as long as none of them modifies it. The rotated methods
+ * only read the map they're called on: each returns a new map sharing every DataItem that rotation doesn't change,
+ * so batch workers can rotate one loaded map in parallel. Serializing or saving a map only reads it too, building
+ * the up-to-date event layer in a copy that's discarded afterward. The rotate methods, by contrast, modify the map in
+ * place.
+ * 
  * @author Sraëka-Lillian (Clayton Cooper)
  * @version 04-29-21
  */
 public class RMMap extends RMObject
 {
 	private String folderPath;		// Path of folder in which the loaded map is found
-	public RMEvent[] events;		// List of RMEvent objects parsed from the event layer DataItem
-	public static int rowLength;	// Number of hexes to display per row when printing data
-	public static int[] essentialIDs = { 0x0B, 0x47, 0x48, 0x51, 0x5B };	// List of IDs that must be defined for a map
-	public static int[][] tileRotationTable = { {0x00, 0x00, 0x00, 0x00},	// Used to define angular relationships between different tile rotation offsets
-											    {0x01, 0x02, 0x04, 0x08},
-											    {0x02, 0x04, 0x08, 0x01},
-											    {0x03, 0x06, 0x0C, 0x09},
-											    {0x04, 0x08, 0x01, 0x02},
-											    {0x05, 0x0A, 0x05, 0x0A},
-											    {0x06, 0x0C, 0x09, 0x03},
-											    {0x07, 0x0E, 0x0D, 0x0B},
-											    {0x08, 0x01, 0x02, 0x04},
-											    {0x09, 0x03, 0x06, 0x0C},
-											    {0x0A, 0x05, 0x0A, 0x05},
-											    {0x0B, 0x07, 0x0E, 0x0D},
-											    {0x0C, 0x09, 0x03, 0x06},
-											    {0x0D, 0x0B, 0x07, 0x0E},
-											    {0x0E, 0x0D, 0x0B, 0x07},
-											    {0x0F, 0x0F, 0x0F, 0x0F},
-											    {0x10, 0x14, 0x18, 0x1C},
-											    {0x11, 0x15, 0x19, 0x1D},
-											    {0x12, 0x16, 0x1A, 0x1E},
-											    {0x13, 0x17, 0x1B, 0x1F},
-											    {0x14, 0x18, 0x1C, 0x10},
-											    {0x15, 0x19, 0x1D, 0x11},
-											    {0x16, 0x1A, 0x1E, 0x12},
-											    {0x17, 0x1B, 0x1F, 0x13},
-											    {0x18, 0x1C, 0x10, 0x14},
-											    {0x19, 0x1D, 0x11, 0x16},
-											    {0x1A, 0x1E, 0x12, 0x15},
-											    {0x1B, 0x1F, 0x13, 0x17},
-											    {0x1C, 0x10, 0x14, 0x18},
-											    {0x1D, 0x11, 0x15, 0x1A},
-											    {0x1E, 0x12, 0x16, 0x19},
-											    {0x1F, 0x13, 0x17, 0x1B},
-											    {0x20, 0x21, 0x20, 0x21},
-											    {0x21, 0x20, 0x21, 0x20},
-											    {0x22, 0x24, 0x26, 0x28},
-											    {0x23, 0x25, 0x27, 0x29},
-											    {0x24, 0x26, 0x28, 0x22},
-											    {0x25, 0x27, 0x29, 0x23},
-											    {0x26, 0x28, 0x22, 0x24},
-											    {0x27, 0x29, 0x23, 0x25},
-											    {0x28, 0x22, 0x24, 0x26},
-											    {0x29, 0x23, 0x25, 0x27},
-											    {0x2A, 0x2D, 0x2C, 0x2B},
-											    {0x2B, 0x2A, 0x2D, 0x2C},
-											    {0x2C, 0x2B, 0x2A, 0x2D},
-											    {0x2D, 0x2C, 0x2B, 0x2A},
-											    {0x2E, 0x2E, 0x2E, 0x2E} };
-	
-	public static int[][] subtileRotationTable = {{0x0000, 0x0000, 0x0000, 0x0000},	// Defines angular relationships between different subtile offsets
-												  {0x0032, 0x0064, 0x0190, 0x00C8},
-												  {0x0064, 0x0190, 0x00C8, 0x0032},
-												  {0x0190, 0x00C8, 0x0032, 0x0064},
-												  {0x00C8, 0x0032, 0x0064, 0x0190},
-												  {0x0096, 0x01F4, 0x0258, 0x00FA},
-												  {0x01F4, 0x0258, 0x00FA, 0x0096},
-												  {0x0258, 0x00FA, 0x0096, 0x01F4},
-												  {0x00FA, 0x0096, 0x01F4, 0x0258},
-												  {0x02EE, 0x02EE, 0x02EE, 0x02EE}};
+	private RMEvent[] events;		// List of RMEvent objects parsed from the event layer DataItem
+	private EventIndex eventIndex;	// Spatial index over events, built on demand
+	private RotationRuleSet rotationRules = RotationRuleSet.BUILT_IN;	// Tile rotation rules for custom chipsets
+	private HashedLayers layerHash;		// Hash of the tile layers, valid while they are the items it was computed for
+	public static final int NON_TILING_OFFSET = 0x11C6;	// Tile ID offset of non-tiling chips (the last offset milestone)
+	private static final int[] essentialIDs = { 0x0B, 0x47, 0x48, 0x51, 0x5B };	// List of IDs that must be defined for a map
+	private static final int[][] tileRotationTable = { {0x00, 0x00, 0x00, 0x00},	// Used to define angular relationships between different tile rotation offsets
+											           {0x01, 0x02, 0x04, 0x08},
+											           {0x02, 0x04, 0x08, 0x01},
+											           {0x03, 0x06, 0x0C, 0x09},
+											           {0x04, 0x08, 0x01, 0x02},
+											           {0x05, 0x0A, 0x05, 0x0A},
+											           {0x06, 0x0C, 0x09, 0x03},
+											           {0x07, 0x0E, 0x0D, 0x0B},
+											           {0x08, 0x01, 0x02, 0x04},
+											           {0x09, 0x03, 0x06, 0x0C},
+											           {0x0A, 0x05, 0x0A, 0x05},
+											           {0x0B, 0x07, 0x0E, 0x0D},
+											           {0x0C, 0x09, 0x03, 0x06},
+											           {0x0D, 0x0B, 0x07, 0x0E},
+											           {0x0E, 0x0D, 0x0B, 0x07},
+											           {0x0F, 0x0F, 0x0F, 0x0F},
+											           {0x10, 0x14, 0x18, 0x1C},
+											           {0x11, 0x15, 0x19, 0x1D},
+											           {0x12, 0x16, 0x1A, 0x1E},
+											           {0x13, 0x17, 0x1B, 0x1F},
+											           {0x14, 0x18, 0x1C, 0x10},
+											           {0x15, 0x19, 0x1D, 0x11},
+											           {0x16, 0x1A, 0x1E, 0x12},
+											           {0x17, 0x1B, 0x1F, 0x13},
+											           {0x18, 0x1C, 0x10, 0x14},
+											           {0x19, 0x1D, 0x11, 0x16},
+											           {0x1A, 0x1E, 0x12, 0x15},
+											           {0x1B, 0x1F, 0x13, 0x17},
+											           {0x1C, 0x10, 0x14, 0x18},
+											           {0x1D, 0x11, 0x15, 0x1A},
+											           {0x1E, 0x12, 0x16, 0x19},
+											           {0x1F, 0x13, 0x17, 0x1B},
+											           {0x20, 0x21, 0x20, 0x21},
+											           {0x21, 0x20, 0x21, 0x20},
+											           {0x22, 0x24, 0x26, 0x28},
+											           {0x23, 0x25, 0x27, 0x29},
+											           {0x24, 0x26, 0x28, 0x22},
+											           {0x25, 0x27, 0x29, 0x23},
+											           {0x26, 0x28, 0x22, 0x24},
+											           {0x27, 0x29, 0x23, 0x25},
+											           {0x28, 0x22, 0x24, 0x26},
+											           {0x29, 0x23, 0x25, 0x27},
+											           {0x2A, 0x2D, 0x2C, 0x2B},
+											           {0x2B, 0x2A, 0x2D, 0x2C},
+											           {0x2C, 0x2B, 0x2A, 0x2D},
+											           {0x2D, 0x2C, 0x2B, 0x2A},
+											           {0x2E, 0x2E, 0x2E, 0x2E} };
+	
+	private static final int[][] subtileRotationTable = {{0x0000, 0x0000, 0x0000, 0x0000},	// Defines angular relationships between different subtile offsets
+												         {0x0032, 0x0064, 0x0190, 0x00C8},
+												         {0x0064, 0x0190, 0x00C8, 0x0032},
+												         {0x0190, 0x00C8, 0x0032, 0x0064},
+												         {0x00C8, 0x0032, 0x0064, 0x0190},
+												         {0x0096, 0x01F4, 0x0258, 0x00FA},
+												         {0x01F4, 0x0258, 0x00FA, 0x0096},
+												         {0x0258, 0x00FA, 0x0096, 0x01F4},
+												         {0x00FA, 0x0096, 0x01F4, 0x0258},
+												         {0x02EE, 0x02EE, 0x02EE, 0x02EE}};
 	
 	// Used for identifying the tile ID offsets of entries in the lower layer tile array
-	public static int[] offsetMilestones = {0x0000, 0x03E8, 0x07D0, 0x0BB8, 0x0BEA, 0x0C1C, 0x0FA0, 0x0FD2, 0x1004, 0x1036, 0x1068,
-											0x109A, 0x10CC, 0x10FE, 0x1130, 0x1162, 0x1194, 0x11C6};
+	private static final int[] offsetMilestones = {0x0000, 0x03E8, 0x07D0, 0x0BB8, 0x0BEA, 0x0C1C, 0x0FA0, 0x0FD2, 0x1004, 0x1036, 0x1068,
+											       0x109A, 0x10CC, 0x10FE, 0x1130, 0x1162, 0x1194, NON_TILING_OFFSET};
 	
 	// Used for identifying the subtile ID offsets of water tiles in the lower layer tile array
-	public static int[] subtileMilestones = { 0x0032, 0x0064, 0x0096, 0x00C8, 0x00FA, 0x0190, 0x01F4, 0x0258, 0x02EE };
+	private static final int[] subtileMilestones = { 0x0032, 0x0064, 0x0096, 0x00C8, 0x00FA, 0x0190, 0x01F4, 0x0258, 0x02EE };
 	
 	/**
 	 * Attempts to load the specified .lmu map file and parse its header and data items into a new RMMap object.
@@ -95,31 +109,23 @@ public class RMMap extends RMObject
 		
 		// Initialize item labels, if they are not already initialized
 		initializeItemLabels();
-		// Extract the folder path
 		
-		int nameStartIndex = path.substring(0, path.length() - 1).lastIndexOf("\\") + 1;
-		folderPath = path.substring(0, nameStartIndex);
-		name = path.substring(nameStartIndex);
+		// Extract the folder path
+		setPath(path);
 				
 		byte[] inputData;
 		try 
 		{
 			// Read input data
+			PhaseTimer timer = PhaseTimer.start(MapPhase.READ);
 			inputData = Files.readAllBytes(Paths.get(path));
+			timer.end(this, inputData.length);
 
-			// Parse object
-			parse(inputData, 0);
-
-			// Validate data items
-			boolean passedValidation = validateData();
-			
-			// Display data items
-			if (passedValidation)
+			// Parse and display data items
+			if (load(inputData, inputData.length))
 			{
-				// Parse event layer
-				parseEventLayer();
-				
 				// Print map contents
+				printParsedLists();
 				printAllData();
 			}
 		} 
@@ -129,9 +135,121 @@ public class RMMap extends RMObject
 		}
 	}
 	
-	protected void parseHeader(byte[] inputData, int startingIndex)
+	/**
+	 * Parses a map from data that has already been read from the specified .lmu map file. Unlike the other constructor,
+	 * this one doesn't print the map's contents, and the input array may be reused by the caller once it returns.
+	 * 
+	 * @param path		Absolute path to file the data was read from
+	 * @param inputData	The contents of the file
+	 */
+	public RMMap (String path, byte[] inputData)
+	{
+		this(path, inputData, inputData.length);
+	}
+	
+	/**
+	 * Parses a map from the start of an array that may be longer than the file it was read from (a pooled buffer, for
+	 * instance). Nothing past the given length is read, so a truncated file is rejected rather than parsed on into
+	 * whatever the rest of the array holds.
+	 * 
+	 * @param path		Absolute path to file the data was read from
+	 * @param inputData	Array holding the contents of the file
+	 * @param length	Length of the file
+	 */
+	public RMMap (String path, byte[] inputData, int length)
 	{
-		int headerSize = VLQ.extractVlq(inputData, startingIndex).toInteger();
+		super();
+		initializeItemLabels();
+		setPath(path);
+		load(inputData, length);
+	}
+	
+	/**
+	 * Copies a map, sharing its DataItems. Events are copied one by one (sharing their own DataItems), so that moving
+	 * or rotating the copy's events leaves the original's alone.
+	 * 
+	 * @param original	The map to copy
+	 */
+	private RMMap (RMMap original)
+	{
+		super();
+		initializeItemLabels();
+		shareItems(original);
+		folderPath = original.folderPath;
+		rotationRules = original.rotationRules;
+		layerHash = original.layerHash;
+		
+		if (original.events != null)
+		{
+			events = new RMEvent[original.events.length];
+			for (int i = 0; i < events.length; i++)
+				events[i] = new RMEvent(original.events[i]);
+		}
+	}
+	
+	/**
+	 * Splits the given path into the folder path and the map's name.
+	 * 
+	 * @param path	Absolute path to the map's file
+	 */
+	private void setPath(String path)
+	{
+		String trimmed = path.substring(0, path.length() - 1);
+		int nameStartIndex = Math.max(trimmed.lastIndexOf("\\"), trimmed.lastIndexOf("/")) + 1;
+		folderPath = path.substring(0, nameStartIndex);
+		name = path.substring(nameStartIndex);
+	}
+	
+	/**
+	 * Parses the map's header and data items from the given data, then parses its event layer if the data items
+	 * pass validation.
+	 * 
+	 * @param inputData	Array holding the contents of the map's file
+	 * @param length	Length of the file
+	 * @return	true if the map's data items passed validation
+	 */
+	private boolean load(byte[] inputData, int length)
+	{
+		// Parse object
+		PhaseTimer timer = PhaseTimer.start(MapPhase.PARSE);
+		parse(inputData, 0, length);
+		timer.end(this, size());
+
+		// Validate data items
+		boolean passedValidation = validateData();
+		
+		// Parse event layer
+		if (passedValidation)
+			parseEventLayer();
+		
+		return passedValidation;
+	}
+	
+	/**
+	 * Reports how many objects were parsed from the event layer and from each event's page data.
+	 */
+	private void printParsedLists()
+	{
+		System.out.println("Successfully parsed " + events.length + " objects from " + name + "/Item 0x51");
+		for (RMEvent event : events)
+			System.out.println("Successfully parsed " + event.getPages().length + " objects from " + event.getName() + "/Item 0x05");
+	}
+	
+	/**
+	 * @return	Path of the folder in which the loaded map is found
+	 */
+	public String getFolderPath()
+	{
+		return folderPath;
+	}
+	
+	protected void parseHeader(byte[] inputData, int startingIndex, int end)
+	{
+		int headerSize = VLQ.extractVlq(inputData, startingIndex, end).toInteger();
+		if (headerSize < 0 || headerSize >= end - startingIndex)
+			throw new IllegalArgumentException("Map header declares " + headerSize + " bytes, but only " 
+												+ (end - startingIndex - 1) + " remain");
+		
 		header = new byte[1 + headerSize];
 		RMTools.copyData(inputData, startingIndex, header, 0, header.length);
 	}
@@ -152,6 +270,7 @@ public class RMMap extends RMObject
 	 */
 	protected void parseEventLayer()
 	{
+		PhaseTimer timer = PhaseTimer.start(MapPhase.PARSE_EVENTS);
 		DataItem eventLayer = dataItems.get(0x51);
 		RMObject[] uncast = eventLayer.getDataAsArray();
 		events = new RMEvent[uncast.length];
@@ -161,6 +280,56 @@ public class RMMap extends RMObject
 			events[i] = new RMEvent(uncast[i]);
 //			events[i].printAllData();
 		}
+		
+		invalidateEventIndex();
+		timer.end(this, eventLayer.itemSize());
+	}
+
+	/**
+	 * @return	A read-only view of this map's events, in the order they're stored, or null if the map failed validation
+	 * 			and its event layer wasn't parsed
+	 */
+	public List<RMEvent> getEvents()
+	{
+		return events == null ? null : Collections.unmodifiableList(Arrays.asList(events));
+	}
+	
+	/**
+	 * Replaces this map's events and brings the event layer up to date.
+	 * 
+	 * @param events	The new events, in the order they're to be stored
+	 */
+	protected void setEvents(RMEvent[] events)
+	{
+		this.events = events;
+		invalidateEventIndex();
+		updateEvents();
+	}
+	
+	/**
+	 * Returns a spatial index over this map's events, building it first if the map has changed since it was last built.
+	 * The index stays current as individual events are moved, and is rebuilt after the map is rotated or resized.
+	 * 
+	 * @return	The spatial index over this map's events
+	 */
+	public synchronized EventIndex getEventIndex()
+	{
+		if (eventIndex == null)
+			eventIndex = new EventIndex(events, getMapWidth(), getMapHeight());
+		
+		return eventIndex;
+	}
+	
+	/**
+	 * Discards the spatial index over this map's events, if one has been built.
+	 */
+	protected synchronized void invalidateEventIndex()
+	{
+		if (eventIndex != null)
+		{
+			eventIndex.detach();
+			eventIndex = null;
+		}
 	}
 
 	/**
@@ -168,6 +337,8 @@ public class RMMap extends RMObject
 	 */
 	protected void updateEvents()
 	{
+		PhaseTimer timer = PhaseTimer.start(MapPhase.UPDATE_EVENTS);
+		
 		// Update pages for each event
 		for (RMEvent event : events)
 			event.updatePages();
@@ -175,6 +346,36 @@ public class RMMap extends RMObject
 		// Replace old pages item in data
 		dataItems.remove(0x51);
 		dataItems.put(0x051, new DataItem(0x051, events, this));
+		timer.end(this, dataItems.get(0x51).itemSize());
+	}
+	
+	/**
+	 * Returns copies of this map's events with their page data brought up to date, without modifying the events.
+	 * 
+	 * @return	The copies, in the order the events are stored
+	 */
+	protected RMObject[] currentEvents()
+	{
+		RMObject[] current = new RMObject[events.length];
+		for (int i = 0; i < current.length; i++)
+			current[i] = events[i].withCurrentPages();
+		
+		return current;
+	}
+	
+	/**
+	 * Returns a copy of this map with its event layer built from its events as they are now, without modifying the
+	 * map, so that it can be serialized while other threads read or rotate the map.
+	 * 
+	 * @return	The copy, to be serialized and discarded
+	 */
+	private RMObject withCurrentEvents()
+	{
+		PhaseTimer timer = PhaseTimer.start(MapPhase.UPDATE_EVENTS);
+		DataItem eventLayer = new DataItem(0x51, currentEvents(), this);
+		timer.end(this, eventLayer.itemSize());
+		
+		return withItem(0x51, eventLayer);
 	}
 
 	/**
@@ -184,27 +385,38 @@ public class RMMap extends RMObject
 	{
 		if (itemLabels == null)
 		{
-			itemLabels = new TreeMap<Integer, String>();
+			itemLabels = ItemSchema.MAP.getLabels();
 			itemLabels.put(0x00, "Header");
-			itemLabels.put(0x01, "Chipset");
-			itemLabels.put(0x02, "Map width");
-			itemLabels.put(0x03, "Map height");
-			itemLabels.put(0x0B, "Scroll type");
-			itemLabels.put(0x1F, "Parallax background enabled");
-			itemLabels.put(0x20, "Parallax background selection");
-			itemLabels.put(0x21, "Parallax background horizontal loop");
-			itemLabels.put(0x22, "Parallax background vertical loop");
-			itemLabels.put(0x23, "Parallax background horizontal scroll enabled");
-			itemLabels.put(0x24, "Parallax background horizontal scroll speed");
-			itemLabels.put(0x25, "Parallax background vertical scroll enabled");
-			itemLabels.put(0x26, "Parallax background vertical scroll speed");
-			itemLabels.put(0x47, "Lower layer data");
-			itemLabels.put(0x48, "Upper layer data");
-			itemLabels.put(0x51, "Event layer data");
-			itemLabels.put(0x5B, "Save count");
 		}
 	}
 
+	/**
+	 * @return	The ID of this map's chipset
+	 */
+	public int getChipset()
+	{
+		if (dataItems.containsKey(0x01))
+			return dataItems.get(0x01).getDataAsInteger();
+		else
+			return 1;
+	}
+	
+	/**
+	 * @param rules	The tile rotation rules to apply to this map's chipset when rotating
+	 */
+	public void setRotationRules(RotationRuleSet rules)
+	{
+		rotationRules = rules;
+	}
+	
+	/**
+	 * @return	The compiled tile rotation rules for this map's chipset
+	 */
+	public TileRotationRules getTileRotationRules()
+	{
+		return rotationRules.forChipset(getChipset());
+	}
+	
 	/**
 	 * @return	The width of this map (in tiles)
 	 */
@@ -232,9 +444,11 @@ public class RMMap extends RMObject
 	 */
 	protected void setMapWidth(int width)
 	{
+		invalidateEventIndex();
 		dataItems.remove(0x02);
 		
-		if (width > 20)
+		// Width is only stored when it differs from the default
+		if (width != 20)
 			dataItems.put(0x02, new DataItem(0x02, width, this));
 	}
 	
@@ -243,9 +457,11 @@ public class RMMap extends RMObject
 	 */
 	protected void setMapHeight(int height)
 	{
+		invalidateEventIndex();
 		dataItems.remove(0x03);
 		
-		if (height > 15)
+		// Height is only stored when it differs from the default
+		if (height != 15)
 			dataItems.put(0x03, new DataItem(0x03, height, this));
 	}
 	
@@ -276,13 +492,87 @@ public class RMMap extends RMObject
 	 */
 	public void rotateCounterclockwise() { rotateMap(Rotation.ROT_270); }
 	
+	/**
+	 * @return	A copy of this map, sharing its DataItems, that can be modified without affecting this one
+	 */
+	protected RMMap copy()
+	{
+		return new RMMap(this);
+	}
+	
+	/**
+	 * @return	A copy of this map rotated 90 degrees clockwise
+	 */
+	public RMMap rotatedClockwise() { return rotated(Rotation.ROT_90); }
+	
+	/**
+	 * @return	A copy of this map rotated 180 degrees
+	 */
+	public RMMap rotated180() { return rotated(Rotation.ROT_180); }
+	
+	/**
+	 * @return	A copy of this map rotated 270 degrees clockwise (90 degrees counterclockwise)
+	 */
+	public RMMap rotatedCounterclockwise() { return rotated(Rotation.ROT_270); }
+	
+	/**
+	 * Returns a rotated copy of this map without modifying it. The copy shares every DataItem that rotation leaves
+	 * unchanged, so only the tile layers, the dimensions and the event layer are new.
+	 * 
+	 * @param rotation	The amount to rotate the map (clockwise)
+	 * @return	The rotated map
+	 * @throws IllegalArgumentException	If the tile layers don't match the map's dimensions
+	 */
+	protected RMMap rotated(Rotation rotation)
+	{
+		return rotated(rotation, 0);
+	}
+	
+	/**
+	 * Returns a rotated copy of this map without modifying it, for saving under the given map ID. Teleports and
+	 * vehicles placed on that map by the map's own events are rotated along with it.
+	 * 
+	 * @param rotation	The amount to rotate the map (clockwise)
+	 * @param mapID		ID the rotated map replaces (e.g., 3 for Map0003.lmu), or 0 if it's saved as a new map
+	 * @return	The rotated map
+	 * @throws IllegalArgumentException	If the tile layers don't match the map's dimensions
+	 */
+	protected RMMap rotated(Rotation rotation, int mapID)
+	{
+		RMMap copy = new RMMap(this);
+		copy.rotateMap(rotation, mapID);
+		return copy;
+	}
+	
 	/**
 	 * Rotates all the tiles and events in this map according to the given rotation angle
 	 * 
 	 * @param rotation	The amount to rotate the map (clockwise)
+	 * @throws IllegalArgumentException	If the tile layers don't match the map's dimensions
 	 */
 	protected void rotateMap(Rotation rotation)
 	{
+		rotateMap(rotation, 0);
+	}
+	
+	/**
+	 * Rotates all the tiles and events in this map according to the given rotation angle, for saving under the given
+	 * map ID.
+	 * 
+	 * @param rotation	The amount to rotate the map (clockwise)
+	 * @param mapID		ID the rotated map replaces, or 0 if it's saved as a new map
+	 * @throws IllegalArgumentException	If the tile layers don't match the map's dimensions
+	 */
+	protected void rotateMap(Rotation rotation, int mapID)
+	{
+		PhaseTimer timer = PhaseTimer.start(MapPhase.ROTATE);
+		invalidateEventIndex();
+		
+		int width = getMapWidth();
+		int height = getMapHeight();
+		checkTileLayers(width, height);
+		TileRotationRules rules = getTileRotationRules();
+		
 		DataItem lowerLayer = dataItems.remove(0x47);
 		DataItem upperLayer = dataItems.remove(0x48);
 		byte[] baseLowerTiles = lowerLayer.getData();
@@ -290,9 +580,6 @@ public class RMMap extends RMObject
 		
 		byte[] newLowerTiles = new byte[baseLowerTiles.length];
 		byte[] newUpperTiles = new byte[baseUpperTiles.length];
-		
-		int width = getMapWidth();
-		int height = getMapHeight();
 
 		// Set new dimensions
 		if (rotation == Rotation.ROT_90 || rotation == Rotation.ROT_270)
@@ -304,101 +591,121 @@ public class RMMap extends RMObject
 		}
 		
 		int target = baseLowerTiles.length / 2;
-		int lastMilestone = offsetMilestones[offsetMilestones.length - 1];
+		long hashSum = 0;
 
 		// Rotate tile layers
 		for (int i = 0; i < target; i++)
 		{
 			// Obtain destination array
-			int dest;
-			switch (rotation)
-			{
-				case ROT_90:
-					dest = height * (i + 1) - (i / width) * (width * height + 1) - 1;
-					break;
-				case ROT_180:
-					dest = width * height - 1 - i;
-					break;
-				case ROT_270:
-					dest = height * (width - 1 - i) + (i / width) * (height * width + 1);
-					break;
-				default:
-					dest = i;
-					break;
-			}
+			int dest = destinationIndex(i, width, height, rotation);
 			
 			// Extract data
 			int data = (baseLowerTiles[2 * i] & 0xFF) + ((baseLowerTiles[2 * i + 1] & 0xFF) << 8);
 			
-			// Get tile's ID offset
-			int tileIDOffset = 0;
-			
-			for (int j = 1; j < offsetMilestones.length; j++)
-				if (offsetMilestones[j] <= data)
-					tileIDOffset = offsetMilestones[j];
-				else
-					j = offsetMilestones.length;
-			
-			// Rotate subtile, if applicable (i.e, for water tiles)
-			int oldSubtileOffset = data - tileIDOffset - (data % 50);
-			int newSubtileOffset = oldSubtileOffset;
-			
-			if (tileIDOffset < 3000)
-			{
-				boolean foundOffset = false;
-				
-				for (int j = 0; j < subtileRotationTable.length && foundOffset == false; j++)
-					if (oldSubtileOffset == subtileRotationTable[j][0])
-					{
-						newSubtileOffset = subtileRotationTable[j][rotation.ordinal()];
-						foundOffset = true;
-					}
-				
-				if (!foundOffset)
-				{
-					System.err.println("Unknown subtile offset found at tile " + i + ": " + tileIDOffset + " + " + oldSubtileOffset + 
-										String.format("(%02X %02X)", baseLowerTiles[2 * i], baseLowerTiles[2 * i + 1]));
-				}
-			}
-			else if (tileIDOffset == 2000)
-			{
-				oldSubtileOffset = 0;
-				newSubtileOffset = 0;
-			}
-
-			// Write new data
-			int newData;
-			if (tileIDOffset == lastMilestone)
-			{
-				// If offset equals the last milestone, this is a non-tiling chip, and we don't need to rotate it
-				newData = data;
-			}
-			else
-			{
-				// Otherwise, we must rotate the tile by changing its rotation offset, i.e., the remainder after the tile ID offset
-				int rotationOffset = data - tileIDOffset - oldSubtileOffset;
-				if (rotationOffset >= tileRotationTable.length)
-				{
-					System.err.println("Unknown rotation offset found at tile " + i + ": " + tileIDOffset + " + " + oldSubtileOffset + " + " 
-										+ rotationOffset + String.format("(%02X %02X)", baseLowerTiles[2 * i], baseLowerTiles[2 * i + 1]));
-					newData = tileIDOffset + newSubtileOffset;	
-				}
-				else
-				{
-					newData = tileIDOffset + newSubtileOffset + tileRotationTable[rotationOffset][rotation.ordinal()];
-				}
-				
-				
-			}
+			// Write new data (custom rules are precompiled, so only the built-in path reports unknown offsets)
+			int newData = rules == TileRotationRules.BUILT_IN ? rotateLowerTile(data, rotation, i) : rules.rotateLower(data, rotation);
 
 			newLowerTiles[2 * dest] = (byte) (0xFF & newData);
 			newLowerTiles[2 * dest + 1] = (byte) (0xFF & (newData >> 8));
 			
-			newUpperTiles[2 * dest] = baseUpperTiles[2 * i];
-			newUpperTiles[2 * dest + 1] = baseUpperTiles[2 * i + 1];
+			// Upper layer tiles only change if the chipset has rules for them
+			int upperData = rules.rotateUpper((baseUpperTiles[2 * i] & 0xFF) + ((baseUpperTiles[2 * i + 1] & 0xFF) << 8), rotation);
+			
+			newUpperTiles[2 * dest] = (byte) (0xFF & upperData);
+			newUpperTiles[2 * dest + 1] = (byte) (0xFF & (upperData >> 8));
+			
+			// Hash the rotated layers as they're written
+			hashSum += LayerHash.tile(dest, newData, upperData);
 		}
 		
 		// Rotate event layer
+		rotateEvents(rotation, width, height, mapID);
+		
+		// Add new tile layers back to dataItems and update events list
+		layerHash = new HashedLayers(new DataItem(0x47, newLowerTiles, this), new DataItem(0x48, newUpperTiles, this),
+										LayerHash.finish(hashSum, getMapWidth(), getMapHeight()));
+		dataItems.put(0x47, layerHash.lower);
+		dataItems.put(0x48, layerHash.upper);
+		timer.end(this, 2L * newLowerTiles.length);
+		
+		// Timed as a phase of its own
+		updateEvents();
+	}
+	
+	/**
+	 * The tile layer items a layer hash was computed for, together with the hash. Kept in a single immutable object so
+	 * that threads reading a shared map never see a hash paired with the wrong items.
+	 */
+	private static class HashedLayers
+	{
+		final DataItem lower;	// Lower layer item the hash was computed for
+		final DataItem upper;	// Upper layer item the hash was computed for
+		final long hash;		// Hash of the layers
+		
+		/**
+		 * @param lower	Lower layer item
+		 * @param upper	Upper layer item
+		 * @param hash	Hash of the layers
+		 */
+		HashedLayers(DataItem lower, DataItem upper, long hash)
+		{
+			this.lower = lower;
+			this.upper = upper;
+			this.hash = hash;
+		}
+	}
+	
+	/**
+	 * Returns a hash of this map's dimensions and tile layers. The hash is computed during rotation, so after
+	 * rotateMap it's available without another pass over the tiles; otherwise (or once the layers have been
+	 * replaced) it's computed from the layers.
+	 * 
+	 * @return	The hash of the tile layers
+	 * @throws IllegalArgumentException	If the tile layers don't match the map's dimensions
+	 */
+	public long getLayerHash()
+	{
+		DataItem lowerLayer = dataItems.get(0x47);
+		DataItem upperLayer = dataItems.get(0x48);
+		
+		// DataItems are replaced rather than modified, so the hash is still valid if the items are the same ones
+		HashedLayers hashed = layerHash;
+		if (hashed == null || lowerLayer != hashed.lower || upperLayer != hashed.upper)
+		{
+			checkTileLayers(getMapWidth(), getMapHeight());
+			hashed = new HashedLayers(lowerLayer, upperLayer, LayerHash.of(lowerLayer, upperLayer, getMapWidth(), getMapHeight()));
+			layerHash = hashed;
+		}
+		
+		return hashed.hash;
+	}
+	
+	/**
+	 * Moves every event to its position after rotating the map, and rotates each event's facing and scripts.
+	 * Teleports and vehicles aren't rotated, since the rotated map may be saved under another ID.
+	 * 
+	 * @param rotation	The amount to rotate the map (clockwise)
+	 * @param width		Width of the map before rotation
+	 * @param height	Height of the map before rotation
+	 */
+	protected void rotateEvents(Rotation rotation, int width, int height)
+	{
+		rotateEvents(rotation, width, height, 0);
+	}
+	
+	/**
+	 * Moves every event to its position after rotating the map, and rotates each event's facing and scripts.
+	 * 
+	 * @param rotation	The amount to rotate the map (clockwise)
+	 * @param width		Width of the map before rotation
+	 * @param height	Height of the map before rotation
+	 * @param mapID		ID the rotated map replaces, whose teleports and vehicles are rotated too, or 0 if it's saved
+	 * 					as a new map
+	 */
+	protected void rotateEvents(Rotation rotation, int width, int height, int mapID)
+	{
+		ScriptRewriter scripts = new ScriptRewriter(rotation, width, height, mapID);
+		
 		for (int i = 0; i < events.length; i++)
 		{
 			int eventX, eventY;
@@ -409,17 +716,17 @@ public class RMMap extends RMObject
 					eventX = height - 1 - events[i].getYPos();
 					eventY = events[i].getXPos();
 					break;
-				
+			
 				case ROT_180:
 					eventX = width - 1 - events[i].getXPos();
 					eventY = height - 1 - events[i].getYPos();
 					break;
-				
+			
 				case ROT_270:
 					eventX = events[i].getYPos();
 					eventY = width - 1 - events[i].getXPos();
 					break;
-				
+			
 				default:
 					eventX = events[i].getXPos();
 					eventY = events[i].getYPos();
@@ -429,14 +736,286 @@ public class RMMap extends RMObject
 			events[i].setXPos(eventX);
 			events[i].setYPos(eventY);
 			
-			// Rotate facing
-			events[i].rotate(rotation);
+			// Rotate facing and scripts
+			events[i].rotate(rotation, scripts);
+		}
+	}
+	
+	/**
+	 * Checks that both tile layers hold exactly one 2-byte value per tile of a map with the given dimensions.
+	 * 
+	 * @param width		Width of the map
+	 * @param height	Height of the map
+	 * @throws IllegalArgumentException	If either tile layer is missing or has the wrong size
+	 */
+	protected void checkTileLayers(int width, int height)
+	{
+		for (int id : new int[] { 0x47, 0x48 })
+		{
+			DataItem layer = dataItems.get(id);
+			if (layer == null || layer.getDataSize() != 2L * width * height)
+				throw new IllegalArgumentException(String.format("Tile layer 0x%02X doesn't match map dimensions %dx%d", id, width, height));
+		}
+	}
+	
+	/**
+	 * Returns the index that the tile at the given index of a map's tile layers moves to when the map is rotated.
+	 * 
+	 * @param i			Index of the tile in the unrotated map
+	 * @param width		Width of the unrotated map
+	 * @param height	Height of the unrotated map
+	 * @param rotation	The amount to rotate the map (clockwise)
+	 * @return	Index of the tile in the rotated map
+	 */
+	public static int destinationIndex(int i, int width, int height, Rotation rotation)
+	{
+		switch (rotation)
+		{
+			case ROT_90:
+				return height * (i + 1) - (i / width) * (width * height + 1) - 1;
+			case ROT_180:
+				return width * height - 1 - i;
+			case ROT_270:
+				return height * (width - 1 - i) + (i / width) * (height * width + 1);
+			default:
+				return i;
+		}
+	}
+	
+	/**
+	 * Returns the index of the tile in an unrotated map that lands at the given position once the map is rotated;
+	 * i.e., the inverse of destinationIndex, taking coordinates in the rotated map.
+	 * 
+	 * @param x			X-position in the rotated map
+	 * @param y			Y-position in the rotated map
+	 * @param width		Width of the unrotated map
+	 * @param height	Height of the unrotated map
+	 * @param rotation	The amount the map is rotated (clockwise)
+	 * @return	Index of the corresponding tile in the unrotated map
+	 */
+	public static int sourceIndex(int x, int y, int width, int height, Rotation rotation)
+	{
+		switch (rotation)
+		{
+			case ROT_90:
+				return (height - 1 - x) * width + y;
+			case ROT_180:
+				return (height - 1 - y) * width + (width - 1 - x);
+			case ROT_270:
+				return x * width + (width - 1 - y);
+			default:
+				return y * width + x;
+		}
+	}
+	
+	/**
+	 * Computes the value a lower layer tile takes on after rotation, by rotating its subtile offset (for water tiles)
+	 * and its connections offset (for autotiles). Non-tiling chips are returned unchanged.
+	 * 
+	 * @param data		The lower layer tile value to rotate
+	 * @param rotation	The amount to rotate the tile (clockwise)
+	 * @param i			Index of the tile in its layer, used to identify it when reporting unknown offsets
+	 * @return	The rotated tile value
+	 */
+	public static int rotateLowerTile(int data, Rotation rotation, int i)
+	{
+		return rotateLowerTile(data, rotation, i, true);
+	}
+	
+	/**
+	 * Looks up the value a lower layer tile takes on after rotation in a precomputed table. Gives the same result as
+	 * rotateLowerTile, but without reporting unknown offsets.
+	 * 
+	 * @param data		The lower layer tile value to rotate
+	 * @param rotation	The amount to rotate the tile (clockwise)
+	 * @return	The rotated tile value
+	 */
+	public static int lookupLowerTile(int data, Rotation rotation)
+	{
+		int[] table = LowerTileTables.TABLES[rotation.ordinal()];
+		return (data >= 0 && data < table.length) ? table[data] : data;
+	}
+	
+	/**
+	 * Holds the rotated value of every lower layer tile value below the last tile ID offset milestone (values from
+	 * there on up are non-tiling and never change), for each rotation. Built the first time it's needed.
+	 */
+	private static class LowerTileTables
+	{
+		static final int[][] TABLES = buildTables();
+		static final boolean[] UNKNOWN = buildUnknownTable();
+		
+		/**
+		 * @return	A lookup table for each rotation, indexed by ordinal
+		 */
+		private static int[][] buildTables()
+		{
+			int size = offsetMilestones[offsetMilestones.length - 1];
+			int[][] tables = new int[Rotation.values().length][size];
+			
+			for (Rotation rotation : Rotation.values())
+				for (int data = 0; data < size; data++)
+					tables[rotation.ordinal()][data] = rotateLowerTile(data, rotation, -1, false);
+			
+			return tables;
 		}
 		
-		// Add new tile layers back to dataItems and update events list
-		dataItems.put(0x47, new DataItem(0x47, newLowerTiles, this));
-		dataItems.put(0x48, new DataItem(0x48, newUpperTiles, this));
-		updateEvents();
+		/**
+		 * @return	Whether each lower layer tile value below the last milestone has an unknown offset
+		 */
+		private static boolean[] buildUnknownTable()
+		{
+			boolean[] table = new boolean[offsetMilestones[offsetMilestones.length - 1]];
+			
+			for (int data = 0; data < table.length; data++)
+			{
+				int tileIDOffset = tileIDOffset(data);
+				int subtileOffset = data - tileIDOffset - (data % 50);
+				
+				boolean knownSubtile = tileIDOffset >= 3000;
+				for (int j = 0; j < subtileRotationTable.length && !knownSubtile; j++)
+					knownSubtile = subtileOffset == subtileRotationTable[j][0];
+				
+				table[data] = !knownSubtile || data - tileIDOffset - subtileOffset >= tileRotationTable.length;
+			}
+			
+			return table;
+		}
+	}
+	
+	/**
+	 * Checks whether a lower layer tile has a subtile or rotation offset that rotateLowerTile doesn't recognize, in
+	 * which case rotating the map will print a message and the tile may come out wrong.
+	 * 
+	 * @param data	The lower layer tile value to check
+	 * @return	Whether the tile has an unknown offset
+	 */
+	public static boolean hasUnknownOffset(int data)
+	{
+		return data >= 0 && data < LowerTileTables.UNKNOWN.length && LowerTileTables.UNKNOWN[data];
+	}
+	
+	/**
+	 * @param data	A lower layer tile value
+	 * @return	The tile ID offset milestone the value falls under
+	 */
+	public static int tileIDOffset(int data)
+	{
+		int tileIDOffset = 0;
+		
+		for (int j = 1; j < offsetMilestones.length; j++)
+			if (offsetMilestones[j] <= data)
+				tileIDOffset = offsetMilestones[j];
+			else
+				j = offsetMilestones.length;
+		
+		return tileIDOffset;
+	}
+	
+	/**
+	 * Computes the value a lower layer tile takes on after rotation.
+	 * 
+	 * @param data		The lower layer tile value to rotate
+	 * @param rotation	The amount to rotate the tile (clockwise)
+	 * @param i			Index of the tile in its layer, used to identify it when reporting unknown offsets
+	 * @param report	Whether to print a message when the tile has an unknown subtile or rotation offset
+	 * @return	The rotated tile value
+	 */
+	private static int rotateLowerTile(int data, Rotation rotation, int i, boolean report)
+	{
+		int lastMilestone = offsetMilestones[offsetMilestones.length - 1];
+
+		// Get tile's ID offset
+		int tileIDOffset = tileIDOffset(data);
+		
+		// Rotate subtile, if applicable (i.e, for water tiles)
+		int oldSubtileOffset = data - tileIDOffset - (data % 50);
+		int newSubtileOffset = oldSubtileOffset;
+		
+		if (tileIDOffset < 3000)
+		{
+			boolean foundOffset = false;
+			
+			for (int j = 0; j < subtileRotationTable.length && foundOffset == false; j++)
+				if (oldSubtileOffset == subtileRotationTable[j][0])
+				{
+					newSubtileOffset = subtileRotationTable[j][rotation.ordinal()];
+					foundOffset = true;
+				}
+			
+			if (!foundOffset && report)
+			{
+				System.err.println("Unknown subtile offset found at tile " + i + ": " + tileIDOffset + " + " + oldSubtileOffset + 
+									String.format("(%02X %02X)", data & 0xFF, data >> 8));
+			}
+		}
+		else if (tileIDOffset == 2000)
+		{
+			oldSubtileOffset = 0;
+			newSubtileOffset = 0;
+		}
+
+		// Compute new data
+		int newData;
+		if (tileIDOffset == lastMilestone)
+		{
+			// If offset equals the last milestone, this is a non-tiling chip, and we don't need to rotate it
+			newData = data;
+		}
+		else
+		{
+			// Otherwise, we must rotate the tile by changing its rotation offset, i.e., the remainder after the tile ID offset
+			int rotationOffset = data - tileIDOffset - oldSubtileOffset;
+			if (rotationOffset >= tileRotationTable.length)
+			{
+				if (report)
+					System.err.println("Unknown rotation offset found at tile " + i + ": " + tileIDOffset + " + " + oldSubtileOffset + " + " 
+										+ rotationOffset + String.format("(%02X %02X)", data & 0xFF, data >> 8));
+				newData = tileIDOffset + newSubtileOffset;	
+			}
+			else
+			{
+				newData = tileIDOffset + newSubtileOffset + tileRotationTable[rotationOffset][rotation.ordinal()];
+			}
+		}
+
+		return newData;
+	}
+	
+	/**
+	 * Serializes the whole map, with its event layer up to date, as it would be written to a .lmu file. The map
+	 * itself isn't modified.
+	 * 
+	 * @return	A byte array representation of this map
+	 */
+	public byte[] toByteArray()
+	{
+		return withCurrentEvents().toArray();
+	}
+	
+	/**
+	 * Returns buffers that together make up the map, with its event layer up to date, as it would be written to a
+	 * .lmu file, without copying the map's data into a single array. The map itself isn't modified.
+	 * 
+	 * @return	The buffers making up this map, in order
+	 */
+	public ByteBuffer[] toByteBuffers()
+	{
+		return withCurrentEvents().toBuffers();
+	}
+	
+	/**
+	 * Queues the current map to be written to a file in the current folder by the given writer, and returns without
+	 * waiting for the write. The map may be rotated or changed while the write is pending, because rotation replaces
+	 * DataItems rather than modifying them.
+	 * 
+	 * @param mapName	The file name for the newly saved map
+	 * @param writer	The writer to hand the map to
+	 * @return	A future completed once the file is in place
+	 */
+	public CompletableFuture<Path> saveMapAsync(String mapName, AsyncMapWriter writer)
+	{
+		return writer.submit(Paths.get(folderPath + mapName), toByteBuffers());
 	}
 	
 	/**
@@ -446,18 +1025,15 @@ public class RMMap extends RMObject
 	 */
 	public void saveMap(String mapName)
 	{
-		// Update events
-		updateEvents();
-		
-		// Create empty array of size equal to all the data
-		byte[] output = super.toArray();
+		// Serialize map
+		ByteBuffer[] output = toByteBuffers();
 		
 		// Save map
 		String destination = folderPath + mapName;
 		
 		try
 		{
-			Files.write(Paths.get(destination), output);
+			AsyncMapWriter.writeAtomically(Paths.get(destination), output);
 			System.out.println("Saved file to " + destination);
 		} catch (IOException e)
 		{
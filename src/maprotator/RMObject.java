@@ -48,6 +48,37 @@ public class RMObject extends RMBaseObject
 			itr.next().getValue().setParent(this);
 	}
 	
+	/**
+	 * Copies the header and name of another object, along with a new map holding references to its DataItems, so that
+	 * items can be replaced in either object without affecting the other. The DataItems themselves are shared, since
+	 * they're never modified once created; they keep the other object as their parent.
+	 * 
+	 * @param original	The object to copy
+	 */
+	protected void shareItems(RMObject original)
+	{
+		this.header = original.header;
+		this.dataItems = new TreeMap<Integer, DataItem>(original.dataItems);
+		this.name = original.name;
+	}
+	
+	/**
+	 * Returns a copy of this object with one of its DataItems replaced, leaving this object as it is. The copy shares
+	 * the rest of the DataItems, and isn't their parent; it's meant to be serialized and discarded.
+	 * 
+	 * @param id	ID of the item to replace
+	 * @param item	The item to put in its place
+	 * @return	The copy
+	 */
+	protected RMObject withItem(int id, DataItem item)
+	{
+		RMObject copy = new RMObject();
+		copy.shareItems(this);
+		copy.dataItems.put(id, item);
+		
+		return copy;
+	}
+	
 	/**
 	 *	Instantiates the object without defining any of its fields. Called by RMMap as it needs a superconstructor
 	 *  to invoke, but doesn't actually need that superconstructor to do anything. 
@@ -63,22 +94,24 @@ public class RMObject extends RMBaseObject
 	 *	If this isn't true for a subclass, that subclass can define its own parseHeader method (which RMMap does).
 	 */
 	@Override
-	protected void parseHeader(byte[] source, int startingIndex)
+	protected void parseHeader(byte[] source, int startingIndex, int end)
 	{
-		header = VLQ.extractVlq(source, startingIndex).getData();
+		header = VLQ.extractVlq(source, startingIndex, end).getData();
 	}
 		
 	/**
-	 * Extracts DataItems from source array starting at the given index.
+	 * Extracts DataItems from source array, from the given index up to the end of its data.
+	 * 
+	 * @throws IllegalArgumentException	If the data ends before the end-of-object byte
 	 */
 	@Override
-	protected void parseBody(byte[] source, int startingIndex)
+	protected void parseBody(byte[] source, int startingIndex, int end)
 	{
 		dataItems = new TreeMap<Integer, DataItem>();
 		
-		while (source[startingIndex] != 0)
+		while (checkIndex(source, startingIndex, end) != 0)
 		{
-			DataItem result = new DataItem(source, startingIndex, this);
+			DataItem result = new DataItem(source, startingIndex, end, this);
 			startingIndex += result.itemSize();
 			dataItems.put(result.getID(), result);
 			
@@ -86,6 +119,23 @@ public class RMObject extends RMBaseObject
 		}
 	}
 
+	/**
+	 * Reads a byte from the source array, checking first that its data hasn't ended.
+	 * 
+	 * @param source	The array to read from
+	 * @param index		Index of the byte to read
+	 * @param end		Index at which the array's data ends
+	 * @return	The byte at the given index
+	 * @throws IllegalArgumentException	If the index is past the end of the data
+	 */
+	protected static byte checkIndex(byte[] source, int index, int end)
+	{
+		if (index >= end)
+			throw new IllegalArgumentException("Object data ended without an end-of-object byte");
+		
+		return source[index];
+	}
+	
 	/**
 	 * Initializes item labels for this object. Since RMObject represents a generic object agnostic of its intended
 	 * use, item labels cannot be generated, and so this method doesn't need to do anything. 
@@ -21,10 +21,7 @@ public class RMTools
 	 */
 	public static void copyData(byte[] sourceArray, int sourceIndex, byte[] destinationArray, int destinationIndex, int length)
 	{
-		for (int i = 0; i < length; i++)
-		{
-			destinationArray[destinationIndex + i] = sourceArray[sourceIndex + i];
-		}
+		System.arraycopy(sourceArray, sourceIndex, destinationArray, destinationIndex, length);
 	}
 
 	/**
@@ -0,0 +1,123 @@
+package maprotator;
+
+/**
+ * RotatedLayerView.java
+ * 
+ * A read-only view of one of a map's tile layers (0x47 or 0x48) as it would appear after a given rotation. The view
+ * reads tiles straight out of the layer's DataItem, translating coordinates with RMMap.sourceIndex and remapping
+ * tiles through the map's compiled TileRotationRules, so any number of orientations can be read without allocating
+ * rotated copies of the layer.
+ * 
+ * A view captures the layer as it is when the view is created; rotating or editing the map afterward replaces the
+ * map's DataItem and leaves the view unchanged.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class RotatedLayerView
+{
+	private byte[] content;		// Content array of the layer's DataItem
+	private int start;			// Index in the content array at which tile data begins
+	private int sourceWidth;	// Width of the unrotated map
+	private int sourceHeight;	// Height of the unrotated map
+	private Rotation rotation;	// Rotation applied by this view
+	private boolean lower;		// Whether this is a view of the lower layer
+	private TileRotationRules rules;	// Rules used to remap tiles
+	
+	/**
+	 * Creates a view of one of the given map's tile layers.
+	 * 
+	 * @param map		The map whose layer is to be viewed
+	 * @param layerID	ID of the layer to view (0x47 for the lower layer, 0x48 for the upper layer)
+	 * @param rotation	The rotation to apply (clockwise)
+	 * @throws IllegalArgumentException	If the ID isn't a tile layer, or the map's tile layers don't match its dimensions
+	 */
+	public RotatedLayerView(RMMap map, int layerID, Rotation rotation)
+	{
+		if (layerID != 0x47 && layerID != 0x48)
+			throw new IllegalArgumentException(String.format("0x%02X is not a tile layer", layerID));
+		
+		sourceWidth = map.getMapWidth();
+		sourceHeight = map.getMapHeight();
+		map.checkTileLayers(sourceWidth, sourceHeight);
+		
+		DataItem layer = map.dataItems.get(layerID);
+		content = layer.byteArray();
+		start = layer.getDataIndex();
+		
+		this.rotation = rotation;
+		lower = layerID == 0x47;
+		rules = map.getTileRotationRules();
+	}
+	
+	/**
+	 * Creates a view of one of the given map's tile layers for every rotation.
+	 * 
+	 * @param map		The map whose layer is to be viewed
+	 * @param layerID	ID of the layer to view (0x47 for the lower layer, 0x48 for the upper layer)
+	 * @return	A view for each rotation, indexed by ordinal
+	 */
+	public static RotatedLayerView[] allRotations(RMMap map, int layerID)
+	{
+		RotatedLayerView[] views = new RotatedLayerView[Rotation.values().length];
+		for (Rotation rotation : Rotation.values())
+			views[rotation.ordinal()] = new RotatedLayerView(map, layerID, rotation);
+		
+		return views;
+	}
+	
+	/**
+	 * @return	The rotation applied by this view
+	 */
+	public Rotation getRotation()
+	{
+		return rotation;
+	}
+	
+	/**
+	 * @return	Width of the layer after rotation
+	 */
+	public int getWidth()
+	{
+		return (rotation == Rotation.ROT_90 || rotation == Rotation.ROT_270) ? sourceHeight : sourceWidth;
+	}
+	
+	/**
+	 * @return	Height of the layer after rotation
+	 */
+	public int getHeight()
+	{
+		return (rotation == Rotation.ROT_90 || rotation == Rotation.ROT_270) ? sourceWidth : sourceHeight;
+	}
+	
+	/**
+	 * @param x	X-position in the rotated layer
+	 * @param y	Y-position in the rotated layer
+	 * @return	The value of the tile at the given position of the rotated layer
+	 */
+	public int getTile(int x, int y)
+	{
+		if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight())
+			throw new IndexOutOfBoundsException("Tile (" + x + ", " + y + ") is outside a " + getWidth() + "x" + getHeight() + " layer");
+		
+		int source = start + 2 * RMMap.sourceIndex(x, y, sourceWidth, sourceHeight, rotation);
+		int data = (content[source] & 0xFF) + ((content[source + 1] & 0xFF) << 8);
+		
+		return rules.rotate(data, rotation, lower);
+	}
+	
+	/**
+	 * Copies a horizontal run of tiles of the rotated layer into an array.
+	 * 
+	 * @param x				X-position in the rotated layer at which the run begins
+	 * @param y				Y-position in the rotated layer of the run
+	 * @param length		Number of tiles to copy
+	 * @param destination	The array to copy to
+	 * @param offset		Index in the destination array at which to start writing
+	 */
+	public void copyRow(int x, int y, int length, short[] destination, int offset)
+	{
+		for (int i = 0; i < length; i++)
+			destination[offset + i] = (short) getTile(x + i, y);
+	}
+}
@@ -0,0 +1,348 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RotationBatch.java
+ *
+ * Writes the 90, 180 and 270 degree rotations of every map in a folder to an output folder, as MapName_90.lmu and so
+ * on. Symmetric maps (square rooms, for instance) often come out tile-for-tile identical in more than one orientation;
+ * rather than writing the same file again, the batch records an alias to the earlier orientation (or to the original
+ * map) in an aliases.txt file in the output folder. Each line holds an alias and its target, separated by a tab; the
+ * target is another file of the output folder, or the original map's path relative to the output folder.
+ *
+ * Orientations are compared by the hash of their tile layers, which rotateMap computes while rotating, together with
+ * a hash of the event layer. Orientations whose hashes match are then compared item by item before being aliased, so
+ * a hash collision can never drop a file.
+ *
+ * Given the --metrics option, the batch prints a summary of the time spent in each phase of loading, rotating and
+ * writing maps once it's done, along with counts of the maps rotated and the items and bytes written.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class RotationBatch implements AutoCloseable
+{
+	public static final String ALIAS_FILE = "aliases.txt";	// Name of the alias list written to the output folder
+	private static final String METRICS_OPTION = "--metrics";	// Option that prints a summary of phases and counters
+
+	private Path outputFolder;				// Folder to write rotated maps to
+	private AsyncMapWriter writer;			// Writer for rotated maps
+	private TreeMap<String, String> aliases;	// Target of each alias recorded so far, keyed by alias
+	private AtomicLong filesWritten;		// Number of rotated maps written
+	private AtomicLong bytesSaved;			// Bytes not written thanks to aliases
+
+	/**
+	 * An orientation of a map that has already been written (or is the original map).
+	 */
+	private static class Orientation
+	{
+		String fileName;	// Name of the file holding this orientation (for the original, its path relative to the output folder)
+		long hash;			// Hash of the layers and events
+		int width;			// Width of the map in this orientation
+		int height;			// Height of the map in this orientation
+		DataItem lower;		// Lower layer in this orientation
+		DataItem upper;		// Upper layer in this orientation
+		DataItem events;	// Event layer in this orientation
+	}
+
+	/**
+	 * Rotates every map in the folder given as the first argument into the folder given as the second.
+	 *
+	 * @param args	Path of the map folder, path of the output folder, and optionally a thread count
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		RotationRuleSet rules = MapRotator.readRules(args);
+		List<String> arguments = new ArrayList<String>(Arrays.asList(MapRotator.withoutRules(args)));
+		boolean metrics = arguments.remove(METRICS_OPTION);
+		args = arguments.toArray(new String[0]);
+
+		if (args.length < 2)
+		{
+			System.err.println("Usage: RotationBatch [--rules <file>] [--metrics] <map folder> <output folder> [threads]");
+			System.exit(2);
+		}
+
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		Path outputFolder = Paths.get(args[1]);
+		Files.createDirectories(outputFolder);
+		if (metrics)
+			MapMetrics.enable();
+
+		try (RotationBatch batch = new RotationBatch(outputFolder); MapLoader loader = new MapLoader(threads))
+		{
+			loader.setRotationRules(rules);
+			List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+			for (CompletableFuture<RMMap> future : loader.loadFolder(Paths.get(args[0])))
+				futures.add(future.thenCompose(batch::rotate).exceptionally(e ->
+				{
+					System.err.println("Failed to rotate map: " + e.getCause());
+					return null;
+				}));
+
+			for (CompletableFuture<Void> future : futures)
+				future.join();
+
+			System.out.println("Wrote " + batch.getFilesWritten() + " maps and " + batch.getAliasCount() + " aliases ("
+								+ batch.getBytesSaved() + " bytes saved)");
+		}
+
+		if (metrics)
+			MapMetrics.printSummary(System.out);
+	}
+
+	/**
+	 * Creates a batch writing to the given folder.
+	 *
+	 * @param outputFolder	Folder to write rotated maps to
+	 */
+	public RotationBatch(Path outputFolder)
+	{
+		this.outputFolder = outputFolder;
+		writer = new AsyncMapWriter(16);
+		aliases = new TreeMap<String, String>();
+		filesWritten = new AtomicLong();
+		bytesSaved = new AtomicLong();
+	}
+
+	/**
+	 * Writes each rotation of a map that isn't identical to an earlier one, and records aliases for the rest. The map
+	 * itself isn't modified, so other threads may go on reading it. May be called from several threads at once, but
+	 * not for two maps with the same name; rotating a map again replaces its earlier outputs and aliases.
+	 *
+	 * @param map	The map to rotate
+	 * @return	A future completed once every file written for the map is in place, or exceptionally once every write
+	 * 			has finished if any of them failed
+	 */
+	public CompletableFuture<Void> rotate(RMMap map)
+	{
+		List<CompletableFuture<Path>> writes = new ArrayList<CompletableFuture<Path>>();
+		String baseName = map.getName().replaceFirst("(?i)\\.lmu$", "");
+		List<Orientation> orientations = new ArrayList<Orientation>();
+		orientations.add(capture(map, originalPath(map)));
+		MapMetrics.increment("Maps rotated", 1);
+
+		for (Rotation rotation : new Rotation[] { Rotation.ROT_90, Rotation.ROT_180, Rotation.ROT_270 })
+		{
+			RMMap rotated = map.rotated(rotation);
+			String fileName = baseName + "_" + (90 * rotation.ordinal()) + ".lmu";
+			Orientation current = capture(rotated, fileName);
+
+			Orientation match = null;
+			for (Orientation earlier : orientations)
+				if (matches(current, earlier))
+				{
+					match = earlier;
+					break;
+				}
+
+			if (match != null)
+			{
+				bytesSaved.addAndGet(size(rotated.toBuffers()));
+				synchronized (aliases)
+				{
+					aliases.put(fileName, match.fileName);
+				}
+
+				// Remove the file an earlier version of the map may have written for this orientation
+				try
+				{
+					Files.deleteIfExists(outputFolder.resolve(fileName));
+				}
+				catch (IOException e)
+				{
+					System.err.println("Failed to remove " + fileName + ": " + e);
+				}
+			}
+			else
+			{
+				synchronized (aliases)
+				{
+					aliases.remove(fileName);
+				}
+
+				// Rotation leaves the copy's event layer up to date
+				ByteBuffer[] buffers = rotated.toBuffers();
+				long bytes = size(buffers);
+				int items = rotated.itemCount();
+				writes.add(writer.submit(outputFolder.resolve(fileName), buffers).whenComplete((path, e) ->
+				{
+					if (e == null)
+					{
+						filesWritten.incrementAndGet();
+						MapMetrics.increment("Items written", items);
+						MapMetrics.increment("Bytes written", bytes);
+					}
+					else
+						System.err.println("Failed to write " + fileName + ": " + e);
+				}));
+				orientations.add(current);
+			}
+		}
+
+		return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * @param buffers	The buffers making up a file
+	 * @return	Total number of bytes remaining in the buffers
+	 */
+	private static long size(ByteBuffer[] buffers)
+	{
+		long size = 0;
+		for (ByteBuffer buffer : buffers)
+			size += buffer.remaining();
+
+		return size;
+	}
+
+	/**
+	 * @param map	A map loaded from a file
+	 * @return	Path of the map's file relative to the output folder, or its absolute path if it has none (as when the
+	 * 			two are on different drives)
+	 */
+	private String originalPath(RMMap map)
+	{
+		Path original = Paths.get(map.getFolderPath() + map.getName()).toAbsolutePath().normalize();
+		try
+		{
+			return outputFolder.toAbsolutePath().normalize().relativize(original).toString();
+		}
+		catch (IllegalArgumentException e)
+		{
+			return original.toString();
+		}
+	}
+
+	/**
+	 * Removes the rotated maps and aliases written for a map, as when the map has been deleted.
+	 *
+	 * @param mapName	File name of the map
+	 * @throws IOException	If a rotated map can't be removed
+	 */
+	public void remove(String mapName) throws IOException
+	{
+		String baseName = mapName.replaceFirst("(?i)\\.lmu$", "");
+		for (Rotation rotation : new Rotation[] { Rotation.ROT_90, Rotation.ROT_180, Rotation.ROT_270 })
+		{
+			String fileName = baseName + "_" + (90 * rotation.ordinal()) + ".lmu";
+			synchronized (aliases)
+			{
+				aliases.remove(fileName);
+			}
+
+			Files.deleteIfExists(outputFolder.resolve(fileName));
+		}
+	}
+
+	/**
+	 * Records the current orientation of a map, whose event layer must be up to date. Only references to the map's
+	 * items are kept, since DataItems are never modified once created.
+	 *
+	 * @param map		The map
+	 * @param fileName	Name of the file holding this orientation, relative to the output folder
+	 * @return	The orientation
+	 */
+	private static Orientation capture(RMMap map, String fileName)
+	{
+		Orientation orientation = new Orientation();
+		orientation.fileName = fileName;
+		orientation.width = map.getMapWidth();
+		orientation.height = map.getMapHeight();
+		orientation.lower = map.dataItems.get(0x47);
+		orientation.upper = map.dataItems.get(0x48);
+		orientation.events = map.dataItems.get(0x51);
+		orientation.hash = map.getLayerHash() * 31 + Arrays.hashCode(orientation.events.byteArray());
+
+		return orientation;
+	}
+
+	/**
+	 * @param a	An orientation
+	 * @param b	Another orientation
+	 * @return	Whether the two orientations would be written as identical files
+	 */
+	private static boolean matches(Orientation a, Orientation b)
+	{
+		return a.hash == b.hash && a.width == b.width && a.height == b.height
+				&& Arrays.equals(a.lower.byteArray(), b.lower.byteArray())
+				&& Arrays.equals(a.upper.byteArray(), b.upper.byteArray())
+				&& Arrays.equals(a.events.byteArray(), b.events.byteArray());
+	}
+
+	/**
+	 * @return	Number of rotated maps written
+	 */
+	public long getFilesWritten()
+	{
+		return filesWritten.get();
+	}
+
+	/**
+	 * @return	Number of aliases recorded
+	 */
+	public int getAliasCount()
+	{
+		synchronized (aliases)
+		{
+			return aliases.size();
+		}
+	}
+
+	/**
+	 * @return	Number of bytes that would have been written for the aliased orientations
+	 */
+	public long getBytesSaved()
+	{
+		return bytesSaved.get();
+	}
+
+	/**
+	 * Writes the list of aliases recorded so far to the output folder.
+	 *
+	 * @throws IOException	If the list can't be written
+	 */
+	public void writeAliases() throws IOException
+	{
+		synchronized (aliases)
+		{
+			StringBuilder text = new StringBuilder();
+			for (Entry<String, String> alias : aliases.entrySet())
+				text.append(alias.getKey()).append('\t').append(alias.getValue()).append(System.lineSeparator());
+
+			AsyncMapWriter.writeAtomically(outputFolder.resolve(ALIAS_FILE), ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)));
+		}
+	}
+
+	/**
+	 * Waits for every rotated map to be written, then writes the alias list.
+	 */
+	@Override
+	public void close()
+	{
+		writer.close();
+
+		try
+		{
+			writeAliases();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.out.println("Failed to write alias list to " + outputFolder.resolve(ALIAS_FILE));
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RotationRuleSet.java
+ *
+ * Tile rotation rules for custom chipsets, read from a rules file and compiled into TileRotationRules on demand. The
+ * compiled rules for each chipset are cached, so a rule set shared by every map in a batch compiles each chipset's
+ * tables only once.
+ *
+ * A rules file is a list of sections, each starting with a line naming the chipsets (by the ID stored in a map's
+ * 0x01 item) that its rules apply to, or "all" for rules that apply to every chipset. Each rule lists the tiles of one
+ * layer that turn into one another when rotated clockwise, in order, e.g.:
+ *
+ *     # Arrows and fences in chipset 3
+ *     [chipset 3]
+ *     upper 10020 10021 10022 10023
+ *     upper 10030 10031
+ *
+ *     [all]
+ *     lower 5010 5011 5012 5013
+ *
+ * A rule of four tiles describes a quarter turn per step, and a rule of two tiles a tile that alternates between two
+ * orientations (horizontal and vertical, say). Rules for a specific chipset take precedence over "all" rules for the
+ * same tile. Blank lines and anything following a '#' are ignored.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class RotationRuleSet
+{
+	public static final RotationRuleSet BUILT_IN = new RotationRuleSet();	// Rule set using only the built-in rules
+
+	private static final int ALL_CHIPSETS = -1;	// Key for rules that apply to every chipset
+
+	private HashMap<Integer, Section> sections;							// Uncompiled rules, keyed by chipset ID
+	private ConcurrentHashMap<Integer, TileRotationRules> compiled;		// Compiled rules, keyed by chipset ID
+
+	/**
+	 * The uncompiled rules for one chipset (or for every chipset).
+	 */
+	private static class Section
+	{
+		HashMap<Integer, int[]> lower = new HashMap<Integer, int[]>();	// Cycle of each lower layer tile with a rule
+		HashMap<Integer, int[]> upper = new HashMap<Integer, int[]>();	// Cycle of each upper layer tile with a rule
+	}
+
+	/**
+	 * Creates a rule set without any custom rules.
+	 */
+	public RotationRuleSet()
+	{
+		sections = new HashMap<Integer, Section>();
+		compiled = new ConcurrentHashMap<Integer, TileRotationRules>();
+	}
+
+	/**
+	 * Reads a rules file.
+	 *
+	 * @param path	Path of the rules file
+	 * @return	The rules in the file
+	 * @throws IOException	If the file can't be read
+	 * @throws IllegalArgumentException	If the file isn't a well-formed rules file
+	 */
+	public static RotationRuleSet load(Path path) throws IOException
+	{
+		return parse(Files.readAllLines(path, StandardCharsets.UTF_8), path.getFileName().toString());
+	}
+
+	/**
+	 * Parses the lines of a rules file.
+	 *
+	 * @param lines		The lines of the rules file
+	 * @param source	Name of the rules file, for error messages
+	 * @return	The rules
+	 * @throws IllegalArgumentException	If the lines aren't a well-formed rules file
+	 */
+	public static RotationRuleSet parse(List<String> lines, String source)
+	{
+		RotationRuleSet result = new RotationRuleSet();
+		List<Section> current = null;
+
+		for (int lineNumber = 1; lineNumber <= lines.size(); lineNumber++)
+		{
+			String line = lines.get(lineNumber - 1);
+			int comment = line.indexOf('#');
+			if (comment >= 0)
+				line = line.substring(0, comment);
+
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+
+			String location = source + ":" + lineNumber + ": ";
+			try
+			{
+				if (line.startsWith("["))
+				{
+					if (!line.endsWith("]"))
+						throw new IllegalArgumentException("Unterminated section header");
+
+					current = new ArrayList<Section>();
+					for (int chipset : parseChipsets(line.substring(1, line.length() - 1).trim()))
+						current.add(result.sections.computeIfAbsent(chipset, key -> new Section()));
+					continue;
+				}
+
+				String[] fields = line.split("\\s+");
+				if (current == null)
+					throw new IllegalArgumentException("Rule outside of a section");
+				if (!fields[0].equals("lower") && !fields[0].equals("upper"))
+					throw new IllegalArgumentException("Unknown layer \"" + fields[0] + "\"");
+				if (fields.length != 3 && fields.length != 5)
+					throw new IllegalArgumentException("A rule needs 2 or 4 tiles");
+
+				int[] tiles = new int[fields.length - 1];
+				for (int i = 0; i < tiles.length; i++)
+				{
+					tiles[i] = Integer.parseInt(fields[i + 1]);
+					if (tiles[i] < 0 || tiles[i] > 0xFFFF)
+						throw new IllegalArgumentException("Tile " + tiles[i] + " is out of range");
+				}
+
+				for (Section section : current)
+					addRule(fields[0].equals("lower") ? section.lower : section.upper, tiles);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IllegalArgumentException(location + e.getMessage(), e);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param header	The contents of a section header, e.g. "chipset 3, 4" or "all"
+	 * @return	The chipset IDs the section applies to
+	 */
+	private static List<Integer> parseChipsets(String header)
+	{
+		List<Integer> result = new ArrayList<Integer>();
+
+		if (header.equals("all"))
+			result.add(ALL_CHIPSETS);
+		else if (header.startsWith("chipset "))
+			for (String id : header.substring("chipset ".length()).split("[,\\s]+"))
+				result.add(Integer.parseInt(id));
+		else
+			throw new IllegalArgumentException("Unknown section \"" + header + "\"");
+
+		return result;
+	}
+
+	/**
+	 * Records the cycle of each tile in a rule.
+	 *
+	 * @param rules	The rules of the layer the rule applies to
+	 * @param tiles	The tiles of the rule, in clockwise order
+	 */
+	private static void addRule(Map<Integer, int[]> rules, int[] tiles)
+	{
+		for (int i = 0; i < tiles.length; i++)
+		{
+			int[] cycle = new int[tiles.length];
+			for (int j = 0; j < tiles.length; j++)
+				cycle[j] = tiles[(i + j) % tiles.length];
+
+			if (rules.put(tiles[i], cycle) != null)
+				throw new IllegalArgumentException("Tile " + tiles[i] + " already has a rule");
+		}
+	}
+
+	/**
+	 * Returns the compiled rules for a chipset, compiling them the first time they're asked for.
+	 *
+	 * @param chipset	ID of the chipset
+	 * @return	The compiled rules for the chipset
+	 */
+	public TileRotationRules forChipset(int chipset)
+	{
+		return compiled.computeIfAbsent(chipset, this::compile);
+	}
+
+	/**
+	 * @param chipset	ID of the chipset
+	 * @return	Compiled rules merging the rules for every chipset with the rules for the given one
+	 */
+	private TileRotationRules compile(int chipset)
+	{
+		Section all = sections.get(ALL_CHIPSETS);
+		Section specific = sections.get(chipset);
+
+		if (all == null && specific == null)
+			return TileRotationRules.BUILT_IN;
+
+		HashMap<Integer, int[]> lower = new HashMap<Integer, int[]>();
+		HashMap<Integer, int[]> upper = new HashMap<Integer, int[]>();
+		for (Section section : new Section[] { all, specific })
+			if (section != null)
+			{
+				lower.putAll(section.lower);
+				upper.putAll(section.upper);
+			}
+
+		return new TileRotationRules(lower, upper);
+	}
+}
@@ -0,0 +1,302 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * RoundTripVerifier.java
+ * 
+ * Checks that the map model reproduces .lmu files exactly. For every map in a folder, the map is loaded and saved
+ * without changes, then rotated clockwise four times and saved again; both results must be byte-for-byte identical
+ * to the original file. When they aren't, the first mismatching byte is reported along with the path of the
+ * DataItem containing it (e.g. "0x51 / Event 3 / 0x05 / Page 1 / 0x34"). Maps are verified in parallel.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class RoundTripVerifier
+{
+	/**
+	 * The outcome of verifying a single map.
+	 */
+	public static class Result
+	{
+		private Path path;			// Path of the verified map
+		private String stage;		// Name of the stage that failed, or null if the map passed
+		private int offset;			// Offset of the first mismatching byte, or -1
+		private String itemPath;	// Path of the DataItem containing the first mismatch
+		
+		/**
+		 * @param path		Path of the verified map
+		 * @param stage		Name of the stage that failed, or null if the map passed
+		 * @param offset	Offset of the first mismatching byte, or -1
+		 * @param itemPath	Path of the DataItem containing the first mismatch
+		 */
+		Result(Path path, String stage, int offset, String itemPath)
+		{
+			this.path = path;
+			this.stage = stage;
+			this.offset = offset;
+			this.itemPath = itemPath;
+		}
+		
+		/**
+		 * @return	true if every stage reproduced the original file
+		 */
+		public boolean passed()
+		{
+			return stage == null;
+		}
+		
+		/**
+		 * @return	Path of the verified map
+		 */
+		public Path getPath()
+		{
+			return path;
+		}
+		
+		/**
+		 * @return	A one-line description of the outcome
+		 */
+		public String toString()
+		{
+			if (passed())
+				return "PASS " + path.getFileName();
+			else if (offset < 0)
+				return "FAIL " + path.getFileName() + " [" + stage + "] " + itemPath;
+			else
+				return "FAIL " + path.getFileName() + " [" + stage + "] first mismatch at byte " + offset + " in " + itemPath;
+		}
+	}
+	
+	/**
+	 * Verifies every map in the folder given as the first argument and prints the outcome for each. Exits with
+	 * status 1 if any map fails.
+	 * 
+	 * @param args	Path of the folder to verify, optionally followed by a thread count
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		MapMetrics.enable();
+		
+		if (args.length < 1)
+		{
+			System.err.println("Usage: RoundTripVerifier <map folder> [threads]");
+			System.exit(2);
+		}
+		
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		List<Result> results = verifyFolder(Paths.get(args[0]), threads);
+		
+		int failures = 0;
+		for (Result result : results)
+		{
+			System.out.println(result);
+			if (!result.passed())
+				failures++;
+		}
+		
+		System.out.println((results.size() - failures) + " of " + results.size() + " maps passed");
+		MapMetrics.printSummary(System.out);
+		if (failures > 0)
+			System.exit(1);
+	}
+	
+	/**
+	 * Verifies every .lmu file in a folder in parallel.
+	 * 
+	 * @param folder	The folder to verify
+	 * @param threads	Number of maps to verify at once
+	 * @return	The outcome for each map, in file name order
+	 * @throws IOException	If the folder can't be listed
+	 */
+	public static List<Result> verifyFolder(Path folder, int threads) throws IOException
+	{
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<CompletableFuture<Result>> futures = new ArrayList<CompletableFuture<Result>>();
+			for (Path path : MapLoader.listMaps(folder))
+				futures.add(CompletableFuture.supplyAsync(() -> verify(path), workers));
+			
+			List<Result> results = new ArrayList<Result>(futures.size());
+			for (CompletableFuture<Result> future : futures)
+				results.add(future.join());
+			
+			return results;
+		}
+		finally
+		{
+			workers.shutdown();
+		}
+	}
+	
+	/**
+	 * Verifies a single map.
+	 * 
+	 * @param path	Path of the map to verify
+	 * @return	The outcome of the verification
+	 */
+	public static Result verify(Path path)
+	{
+		byte[] original;
+		RMMap map;
+		
+		try
+		{
+			original = Files.readAllBytes(path);
+			map = new RMMap(path.toString(), original);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			return new Result(path, "load", -1, e.toString());
+		}
+		
+		if (map.getEvents() == null)
+			return new Result(path, "load", -1, "map failed validation");
+		
+		try
+		{
+			// Load and save
+			Result result = compare(path, "load/save", original, map.toByteArray());
+			if (!result.passed())
+				return result;
+			
+			// Rotate four times and save
+			for (int i = 0; i < 4; i++)
+				map.rotateClockwise();
+			
+			return compare(path, "rotate x4/save", original, map.toByteArray());
+		}
+		catch (RuntimeException e)
+		{
+			return new Result(path, "rotate x4/save", -1, e.toString());
+		}
+	}
+	
+	/**
+	 * Compares a reproduced map against the original file.
+	 * 
+	 * @param path		Path of the map
+	 * @param stage		Name of the stage that produced the copy
+	 * @param original	The original file's contents
+	 * @param copy		The reproduced file's contents
+	 * @return	The outcome of the comparison
+	 */
+	private static Result compare(Path path, String stage, byte[] original, byte[] copy)
+	{
+		int mismatch = Arrays.mismatch(original, copy);
+		if (mismatch < 0)
+			return new Result(path, null, -1, null);
+		
+		return new Result(path, stage, mismatch, describeOffset(original, mismatch));
+	}
+	
+	/**
+	 * Names the DataItem of a map file that contains the given offset, descending into the event layer and the page
+	 * lists of events.
+	 * 
+	 * @param data		The map file's contents
+	 * @param offset	The offset to locate
+	 * @return	The path of the DataItem containing the offset
+	 */
+	public static String describeOffset(byte[] data, int offset)
+	{
+		try
+		{
+			int headerEnd = VLQ.length(data, 0) + VLQ.readInt(data, 0);
+			if (offset < headerEnd)
+				return "Header";
+			
+			return describeItems(data, headerEnd, offset, "", "Event");
+		}
+		catch (RuntimeException e)
+		{
+			return "unparseable data";
+		}
+	}
+	
+	/**
+	 * Walks the DataItems of an object until finding the one containing the given offset.
+	 * 
+	 * @param data		The map file's contents
+	 * @param index		Index at which the object's first DataItem begins
+	 * @param offset	The offset to locate
+	 * @param prefix	Path of the object
+	 * @param children	Name for the objects in this object's object list, if it has one
+	 * @return	The path of the DataItem containing the offset
+	 */
+	private static String describeItems(byte[] data, int index, int offset, String prefix, String children)
+	{
+		while (index < data.length && data[index] != 0)
+		{
+			int id = data[index] & 0xFF;
+			int dataIndex = index + 1 + VLQ.length(data, index + 1);
+			int end = dataIndex + VLQ.readInt(data, index + 1);
+			String path = prefix + String.format("0x%02X", id);
+			
+			if (offset < end)
+			{
+				boolean objectList = (children.equals("Event") && id == 0x51) || (children.equals("Page") && id == 0x05);
+				if (objectList && offset >= dataIndex + VLQ.length(data, dataIndex))
+					return describeObjects(data, dataIndex, offset, path + " / ", children);
+				
+				if (offset < dataIndex)
+					return path + " (ID/length)";
+				
+				return path + " (+" + (offset - dataIndex) + ")";
+			}
+			
+			index = end;
+		}
+		
+		return prefix + "end of object";
+	}
+	
+	/**
+	 * Walks the objects of an object list until finding the one containing the given offset.
+	 * 
+	 * @param data		The map file's contents
+	 * @param index		Index at which the object list begins
+	 * @param offset	The offset to locate
+	 * @param prefix	Path of the object list
+	 * @param name		Name for the objects in the list
+	 * @return	The path of the DataItem containing the offset
+	 */
+	private static String describeObjects(byte[] data, int index, int offset, String prefix, String name)
+	{
+		int count = VLQ.readInt(data, index);
+		index += VLQ.length(data, index);
+		
+		for (int i = 0; i < count; i++)
+		{
+			int objectID = VLQ.readInt(data, index);
+			String path = prefix + name + " " + objectID + " / ";
+			int itemIndex = index + VLQ.length(data, index);
+			
+			// Find the end of the object
+			int end = itemIndex;
+			while (data[end] != 0)
+			{
+				int dataIndex = end + 1 + VLQ.length(data, end + 1);
+				end = dataIndex + VLQ.readInt(data, end + 1);
+			}
+			
+			if (offset <= end)
+				return describeItems(data, itemIndex, offset, path, name.equals("Event") ? "Page" : "");
+			
+			index = end + 1;
+		}
+		
+		return prefix + "end of list";
+	}
+}
@@ -0,0 +1,355 @@
+package maprotator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/**
+ * ScriptRewriter.java
+ *
+ * Rotates the direction and map coordinate parameters of the commands in an event page's script (item 0x34), so that
+ * events on a rotated map move, face and teleport the way they did before it was rotated. The script is a series of
+ * commands, each a VLQ command code, a VLQ indent, a length-prefixed string and a VLQ count followed by that many VLQ
+ * parameters. The rewriter walks the commands in place without building them into objects; the parameters it changes
+ * are written as new VLQs, and everything between them is copied across in bulk. Scripts with nothing to rotate are
+ * left as they are, so their DataItems stay shared.
+ *
+ * The commands rewritten are those whose parameters give a direction or a position on the map as constants:
+ *
+ *     TELEPORT				map ID, x, y, [direction]					Only to a map being rotated
+ *     SET_VEHICLE_LOCATION	vehicle, source, map ID, x, y				Only for constants on a map being rotated
+ *     SET_EVENT_LOCATION	event, source, x, y, [direction]			Only for constants
+ *     GET_TERRAIN_ID		source, x, y, variable						Only for constants
+ *     GET_EVENT_ID			source, x, y, variable						Only for constants
+ *     PAN_SCREEN			type, direction, ...						Only when panning
+ *     CONDITIONAL_BRANCH	type, character, direction, ...				Only when testing a character's facing
+ *     MOVE_ROUTE			target, frequency, repeat, skip, moves...	Every move and face command
+ *
+ * Positions held in variables can't be known until the game runs, and are left alone. Teleports and vehicles are only
+ * rewritten when they target a map registered with the constructor or addMap: one that's saved under its own ID after
+ * being rotated, or rotated along with it (as the maps of a WorldMap are).
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class ScriptRewriter
+{
+	public static final int TELEPORT = 10810;				// Teleport the hero
+	public static final int SET_VEHICLE_LOCATION = 10850;	// Place a vehicle
+	public static final int SET_EVENT_LOCATION = 10860;		// Place an event
+	public static final int GET_TERRAIN_ID = 10910;			// Store the terrain ID of a tile
+	public static final int GET_EVENT_ID = 10920;			// Store the ID of the event on a tile
+	public static final int PAN_SCREEN = 11060;				// Lock, unlock, pan or reset the screen
+	public static final int MOVE_ROUTE = 11330;				// Set an event's move route
+	public static final int CONDITIONAL_BRANCH = 12010;		// Run commands if a condition holds
+
+	private Rotation rotation;				// The amount by which the map is rotated (clockwise)
+	private int width;						// Width of the map before rotation
+	private int height;						// Height of the map before rotation
+	private HashMap<Integer, int[]> maps;	// Width and height before rotation of each map being rotated, by ID
+
+	private byte[] source;					// The script being rewritten
+	private int end;						// Index at which the script ends
+	private int position;					// Read position in the script
+	private int copied;						// Index up to which the script has been copied to the output
+	private ByteArrayOutputStream out;		// The rewritten script, or null while nothing has changed
+	private int[] params;					// Parameters of the current command
+	private int[] paramIndices;				// Index of each parameter of the current command, and the index after the last
+
+	/**
+	 * Creates a rewriter for the scripts of a map being rotated. A rewriter may be reused for any number of scripts,
+	 * but only by one thread at a time.
+	 *
+	 * @param rotation	The amount by which the map is rotated (clockwise)
+	 * @param width		Width of the map before rotation
+	 * @param height	Height of the map before rotation
+	 * @param mapID		ID the rotated map is saved under (e.g., 3 for Map0003.lmu), or 0 if it's saved as a new map;
+	 * 					teleports within the map are only rotated if it's given
+	 */
+	public ScriptRewriter(Rotation rotation, int width, int height, int mapID)
+	{
+		this.rotation = rotation;
+		this.width = width;
+		this.height = height;
+
+		maps = new HashMap<Integer, int[]>();
+		if (mapID != 0)
+			addMap(mapID, width, height);
+
+		params = new int[16];
+		paramIndices = new int[17];
+	}
+
+	/**
+	 * @param mapName	File name of a map
+	 * @return	The map's ID, if the name has the form MapNNNN.lmu; otherwise 0
+	 */
+	public static int mapIDOf(String mapName)
+	{
+		if (mapName == null || !mapName.matches("(?i)Map\\d{4}\\.lmu"))
+			return 0;
+
+		return Integer.parseInt(mapName.substring(3, 7));
+	}
+
+	/**
+	 * Adds another map that's being rotated by the same amount, so teleports and vehicles placed on it are rewritten
+	 * too.
+	 *
+	 * @param id		ID of the map
+	 * @param width		Width of the map before rotation
+	 * @param height	Height of the map before rotation
+	 */
+	public void addMap(int id, int width, int height)
+	{
+		maps.put(id, new int[] { width, height });
+	}
+
+	/**
+	 * Rewrites a script for the rotated map.
+	 *
+	 * @param script	Array holding the script
+	 * @param offset	Index at which the script begins
+	 * @param length	Length of the script in bytes
+	 * @return	The rewritten script, or null if nothing in it needed rotating (or it couldn't be parsed)
+	 */
+	public byte[] rewrite(byte[] script, int offset, int length)
+	{
+		if (rotation == Rotation.ROT_0)
+			return null;
+
+		source = script;
+		end = offset + length;
+		position = offset;
+		copied = offset;
+		out = null;
+
+		try
+		{
+			while (position < end)
+				rewriteCommand();
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Leave scripts that can't be walked as they are, rather than risk corrupting them
+			out = null;
+		}
+
+		byte[] result = null;
+		if (out != null && position == end)
+		{
+			out.write(source, copied, end - copied);
+			result = out.toByteArray();
+		}
+
+		source = null;
+		out = null;
+		return result;
+	}
+
+	/**
+	 * Reads the next command of the script, and rotates its parameters if need be.
+	 */
+	private void rewriteCommand()
+	{
+		int code = readInt();
+		readInt();							// Indent
+		int textLength = readInt();
+		if (textLength < 0 || textLength > end - position)
+			throw new IllegalArgumentException("Command text runs past end of script");
+		position += textLength;
+
+		int count = readInt();
+		if (count < 0 || count > end - position)
+			throw new IllegalArgumentException("Command parameters run past end of script");
+
+		if (count > params.length)
+		{
+			params = new int[Math.max(count, 2 * params.length)];
+			paramIndices = new int[params.length + 1];
+		}
+
+		for (int i = 0; i < count; i++)
+		{
+			paramIndices[i] = position;
+			params[i] = readInt();
+		}
+		paramIndices[count] = position;
+
+		switch (code)
+		{
+			case TELEPORT:
+				if (count >= 3 && maps.containsKey(params[0]))
+				{
+					int[] size = maps.get(params[0]);
+					rotatePoint(1, 2, size[0], size[1]);
+					if (count >= 4)
+						rotateOptionalDirection(3);
+				}
+				break;
+
+			case SET_VEHICLE_LOCATION:
+				if (count >= 5 && params[1] == 0 && maps.containsKey(params[2]))
+				{
+					int[] size = maps.get(params[2]);
+					rotatePoint(3, 4, size[0], size[1]);
+				}
+				break;
+
+			case SET_EVENT_LOCATION:
+				if (count >= 4 && params[1] == 0)
+				{
+					rotatePoint(2, 3, width, height);
+					if (count >= 5)
+						rotateOptionalDirection(4);
+				}
+				break;
+
+			case GET_TERRAIN_ID:
+			case GET_EVENT_ID:
+				if (count >= 3 && params[0] == 0)
+					rotatePoint(1, 2, width, height);
+				break;
+
+			case PAN_SCREEN:
+				if (count >= 2 && params[0] == 2)
+					rotateDirection(1);
+				break;
+
+			case CONDITIONAL_BRANCH:
+				if (count >= 3 && params[0] == 6)
+					rotateDirection(2);
+				break;
+
+			case MOVE_ROUTE:
+				rotateMoveRoute(count);
+				break;
+		}
+	}
+
+	/**
+	 * Rotates the move and face commands of a move route. Each move command takes up one parameter, aside from those
+	 * listed below, which are followed by operands that are skipped over.
+	 *
+	 * @param count	Number of parameters of the MOVE_ROUTE command
+	 */
+	private void rotateMoveRoute(int count)
+	{
+		int i = 4;
+		while (i < count)
+		{
+			int move = params[i];
+
+			if (move >= 0 && move <= 3)				// Move up, right, down, left
+				replace(i, (move + rotation.ordinal()) % 4);
+			else if (move >= 4 && move <= 7)		// Move up-right, down-right, down-left, up-left
+				replace(i, 4 + (move - 4 + rotation.ordinal()) % 4);
+			else if (move >= 12 && move <= 15)		// Face up, right, down, left
+				replace(i, 12 + (move - 12 + rotation.ordinal()) % 4);
+			else if (move == 32 || move == 33)		// Switch on, switch off: switch ID
+				i += 1;
+			else if (move == 34 && i + 1 < count)	// Change graphic: name (length, then characters), index
+				i += 1 + Math.max(0, params[i + 1]) + 1;
+			else if (move == 35 && i + 1 < count)	// Play sound: name (length, then characters), volume, tempo, balance
+				i += 1 + Math.max(0, params[i + 1]) + 3;
+
+			i++;
+		}
+	}
+
+	/**
+	 * Moves a constant position on a map to where it lands after rotation. Positions outside the map are left alone.
+	 *
+	 * @param xParam	Index of the parameter holding the X-position
+	 * @param yParam	Index of the parameter holding the Y-position (after xParam)
+	 * @param width		Width of the map before rotation
+	 * @param height	Height of the map before rotation
+	 */
+	private void rotatePoint(int xParam, int yParam, int width, int height)
+	{
+		int x = params[xParam];
+		int y = params[yParam];
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return;
+
+		switch (rotation)
+		{
+			case ROT_90:
+				replace(xParam, height - 1 - y);
+				replace(yParam, x);
+				break;
+
+			case ROT_180:
+				replace(xParam, width - 1 - x);
+				replace(yParam, height - 1 - y);
+				break;
+
+			case ROT_270:
+				replace(xParam, y);
+				replace(yParam, width - 1 - x);
+				break;
+
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Rotates a direction parameter (up = 0, right = 1, down = 2, left = 3).
+	 *
+	 * @param param	Index of the parameter
+	 */
+	private void rotateDirection(int param)
+	{
+		int direction = params[param];
+		if (direction >= 0 && direction <= 3)
+			replace(param, (direction + rotation.ordinal()) % 4);
+	}
+
+	/**
+	 * Rotates a direction parameter that may also leave the direction as it is (unchanged = 0, up = 1, right = 2,
+	 * down = 3, left = 4).
+	 *
+	 * @param param	Index of the parameter
+	 */
+	private void rotateOptionalDirection(int param)
+	{
+		int direction = params[param];
+		if (direction >= 1 && direction <= 4)
+			replace(param, 1 + (direction - 1 + rotation.ordinal()) % 4);
+	}
+
+	/**
+	 * Gives a parameter of the current command a new value. The script up to the parameter is copied to the output,
+	 * and the new value written in place of the old. Parameters must be replaced in order.
+	 *
+	 * @param param	Index of the parameter
+	 * @param value	The parameter's new value
+	 */
+	private void replace(int param, int value)
+	{
+		if (value == params[param])
+			return;
+
+		if (out == null)
+			out = new ByteArrayOutputStream(end - copied + 16);
+
+		out.write(source, copied, paramIndices[param] - copied);
+		byte[] vlq = VLQ.parseInteger(value);
+		out.write(vlq, 0, vlq.length);
+		copied = paramIndices[param + 1];
+		params[param] = value;
+	}
+
+	/**
+	 * @return	The next VLQ of the script
+	 */
+	private int readInt()
+	{
+		if (position >= end)
+			throw new IllegalArgumentException("Command runs past end of script");
+
+		int value = VLQ.readInt(source, position);
+		position += VLQ.length(source, position);
+		return value;
+	}
+}
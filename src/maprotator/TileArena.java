@@ -0,0 +1,142 @@
+package maprotator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * TileArena.java
+ * 
+ * Owns the off-heap memory of a batch of OffHeapTileLayers. Layers are carved out of direct buffers that the arena
+ * keeps for as long as it lives: resetting the arena at the end of a batch invalidates every layer allocated so far
+ * and recycles their buffers for the next batch, so a long run over many maps settles at a fixed amount of off-heap
+ * memory instead of waiting on the garbage collector. Closing the arena drops all of its buffers.
+ * 
+ * An arena is meant to be used by one thread at a time.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class TileArena implements AutoCloseable
+{
+	private IdentityHashMap<OffHeapTileLayer, ByteBuffer> live;	// Layers allocated since the last reset, with their buffers
+	private ArrayList<ByteBuffer> free;							// Buffers available for reuse, smallest first
+	private boolean closed;										// Whether the arena has been closed
+	
+	/**
+	 * Creates an empty arena.
+	 */
+	public TileArena()
+	{
+		live = new IdentityHashMap<OffHeapTileLayer, ByteBuffer>();
+		free = new ArrayList<ByteBuffer>();
+	}
+	
+	/**
+	 * Allocates a layer of the given dimensions. Its contents are undefined until written.
+	 * 
+	 * @param width		Width of the layer (in tiles)
+	 * @param height	Height of the layer (in tiles)
+	 * @return	The new layer
+	 */
+	public OffHeapTileLayer allocate(int width, int height)
+	{
+		if (closed)
+			throw new IllegalStateException("Arena is closed");
+		
+		int size = 2 * width * height;
+		ByteBuffer buffer = null;
+		
+		// Take the smallest free buffer that's large enough
+		for (int i = 0; i < free.size() && buffer == null; i++)
+			if (free.get(i).capacity() >= size)
+				buffer = free.remove(i);
+		
+		if (buffer == null)
+			buffer = ByteBuffer.allocateDirect(size);
+		
+		buffer.clear().limit(size);
+		OffHeapTileLayer layer = new OffHeapTileLayer(this, buffer.slice(), width, height);
+		
+		// Keep the whole buffer, not the slice, so it can be recycled at full capacity
+		live.put(layer, buffer);
+		return layer;
+	}
+	
+	/**
+	 * Allocates a layer holding a copy of a tile layer DataItem.
+	 * 
+	 * @param layer		The DataItem to copy
+	 * @param width		Width of the layer (in tiles)
+	 * @param height	Height of the layer (in tiles)
+	 * @return	The new layer
+	 */
+	public OffHeapTileLayer copyOf(DataItem layer, int width, int height)
+	{
+		OffHeapTileLayer result = allocate(width, height);
+		result.load(layer);
+		return result;
+	}
+	
+	/**
+	 * Releases a single layer before the end of the batch, recycling its buffer.
+	 * 
+	 * @param layer	The layer to release
+	 */
+	public void release(OffHeapTileLayer layer)
+	{
+		ByteBuffer buffer = live.remove(layer);
+		if (buffer != null)
+			recycle(layer, buffer);
+	}
+	
+	/**
+	 * Releases every layer allocated since the last reset, recycling their buffers for later allocations.
+	 * Any further use of those layers throws IllegalStateException.
+	 */
+	public void reset()
+	{
+		for (Map.Entry<OffHeapTileLayer, ByteBuffer> entry : live.entrySet())
+			recycle(entry.getKey(), entry.getValue());
+		
+		live.clear();
+	}
+	
+	/**
+	 * Releases every layer and drops all of the arena's buffers.
+	 */
+	@Override
+	public void close()
+	{
+		reset();
+		free.clear();
+		closed = true;
+	}
+	
+	/**
+	 * @param layer	A layer
+	 * @return	true if the layer was allocated by this arena and hasn't been released
+	 */
+	boolean owns(OffHeapTileLayer layer)
+	{
+		return live.containsKey(layer);
+	}
+	
+	/**
+	 * Detaches a layer from its buffer and returns the buffer to the free list.
+	 * 
+	 * @param layer	The layer being released
+	 * @param buffer	The full buffer behind the layer
+	 */
+	private void recycle(OffHeapTileLayer layer, ByteBuffer buffer)
+	{
+		layer.release();
+		
+		int index = 0;
+		while (index < free.size() && free.get(index).capacity() < buffer.capacity())
+			index++;
+		
+		free.add(index, buffer);
+	}
+}
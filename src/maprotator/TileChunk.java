@@ -0,0 +1,121 @@
+package maprotator;
+
+/**
+ * TileChunk.java
+ * 
+ * A rectangular block of tiles cut from a (possibly rotated) map, holding the lower and upper layer tile values of
+ * each tile in the block in row-major order. Chunks along the right and bottom edges of a map may be smaller than
+ * the nominal chunk size.
+ * 
+ * @author agent
+ * @version 10-19-26
+ */
+public class TileChunk
+{
+	private Rotation rotation;	// Rotation of the map this chunk was cut from
+	private int chunkX;			// Column of this chunk in the grid of chunks
+	private int chunkY;			// Row of this chunk in the grid of chunks
+	private int x;				// X-position (in tiles) of this chunk's upper left corner
+	private int y;				// Y-position (in tiles) of this chunk's upper left corner
+	private int width;			// Width of this chunk (in tiles)
+	private int height;			// Height of this chunk (in tiles)
+	private short[] lowerTiles;	// Lower layer tile values
+	private short[] upperTiles;	// Upper layer tile values
+	
+	/**
+	 * Creates an empty chunk of the given dimensions.
+	 * 
+	 * @param rotation	Rotation of the map this chunk is cut from
+	 * @param chunkX	Column of this chunk in the grid of chunks
+	 * @param chunkY	Row of this chunk in the grid of chunks
+	 * @param x			X-position (in tiles) of this chunk's upper left corner
+	 * @param y			Y-position (in tiles) of this chunk's upper left corner
+	 * @param width		Width of this chunk (in tiles)
+	 * @param height	Height of this chunk (in tiles)
+	 */
+	public TileChunk(Rotation rotation, int chunkX, int chunkY, int x, int y, int width, int height)
+	{
+		this.rotation = rotation;
+		this.chunkX = chunkX;
+		this.chunkY = chunkY;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+		
+		lowerTiles = new short[width * height];
+		upperTiles = new short[width * height];
+	}
+	
+	/**
+	 * @return	Rotation of the map this chunk was cut from
+	 */
+	public Rotation getRotation()
+	{
+		return rotation;
+	}
+	
+	/**
+	 * @return	Column of this chunk in the grid of chunks
+	 */
+	public int getChunkX()
+	{
+		return chunkX;
+	}
+	
+	/**
+	 * @return	Row of this chunk in the grid of chunks
+	 */
+	public int getChunkY()
+	{
+		return chunkY;
+	}
+	
+	/**
+	 * @return	X-position (in tiles) of this chunk's upper left corner
+	 */
+	public int getX()
+	{
+		return x;
+	}
+	
+	/**
+	 * @return	Y-position (in tiles) of this chunk's upper left corner
+	 */
+	public int getY()
+	{
+		return y;
+	}
+	
+	/**
+	 * @return	Width of this chunk (in tiles)
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+	
+	/**
+	 * @return	Height of this chunk (in tiles)
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+	
+	/**
+	 * @return	The lower layer tile values of this chunk, in row-major order
+	 */
+	public short[] getLowerTiles()
+	{
+		return lowerTiles;
+	}
+	
+	/**
+	 * @return	The upper layer tile values of this chunk, in row-major order
+	 */
+	public short[] getUpperTiles()
+	{
+		return upperTiles;
+	}
+}
@@ -0,0 +1,120 @@
+package maprotator;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * TileRotationRules.java
+ *
+ * The compiled tile rotation rules for one chipset: flat lookup tables giving the value each lower and upper layer
+ * tile takes on after each rotation. The lower layer table starts from the built-in autotile and water tile rules
+ * (see RMMap.rotateLowerTile), and the rules from a RotationRuleSet are written over it; the upper layer table only
+ * covers the range of tiles that have rules, and every other upper layer tile is left unchanged.
+ *
+ * Once compiled, rotating a tile is a single array lookup no matter how many rules there are.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class TileRotationRules
+{
+	private static final int ROTATIONS = Rotation.values().length;	// Number of rotations in each table
+
+	public static final TileRotationRules BUILT_IN = new TileRotationRules(null, null);	// Rules for chipsets with no custom rules
+
+	private int[] lowerTable;	// Rotated lower layer tiles, indexed by rotation ordinal * lowerSize + tile value
+	private int lowerSize;		// Number of lower layer tile values covered per rotation
+	private int[] upperTable;	// Rotated upper layer tiles, indexed by rotation ordinal * upperSize + tile value - upperBase
+	private int upperBase;		// Lowest upper layer tile value covered
+	private int upperSize;		// Number of upper layer tile values covered per rotation
+
+	/**
+	 * Compiles a set of rules into lookup tables. Each rule gives a tile's cycle, the list of tiles it turns into when
+	 * rotated clockwise one step at a time, which has a length of 1, 2 or 4 and starts with the tile itself.
+	 *
+	 * @param lowerRules	The cycle of each lower layer tile with a rule, keyed by tile value, or null for none
+	 * @param upperRules	The cycle of each upper layer tile with a rule, keyed by tile value, or null for none
+	 */
+	protected TileRotationRules(Map<Integer, int[]> lowerRules, Map<Integer, int[]> upperRules)
+	{
+		// Lower layer: built-in rules, with custom rules written over them
+		lowerSize = RMMap.NON_TILING_OFFSET;
+		if (lowerRules != null)
+			for (int tile : lowerRules.keySet())
+				lowerSize = Math.max(lowerSize, tile + 1);
+
+		lowerTable = new int[ROTATIONS * lowerSize];
+		for (Rotation rotation : Rotation.values())
+			for (int tile = 0; tile < lowerSize; tile++)
+				lowerTable[rotation.ordinal() * lowerSize + tile] = RMMap.lookupLowerTile(tile, rotation);
+
+		if (lowerRules != null)
+			for (Entry<Integer, int[]> rule : lowerRules.entrySet())
+				for (Rotation rotation : Rotation.values())
+					lowerTable[rotation.ordinal() * lowerSize + rule.getKey()] = step(rule.getValue(), rotation);
+
+		// Upper layer: unchanged, apart from tiles with custom rules
+		if (upperRules == null || upperRules.isEmpty())
+			return;
+
+		upperBase = Integer.MAX_VALUE;
+		int upperEnd = 0;
+		for (int tile : upperRules.keySet())
+		{
+			upperBase = Math.min(upperBase, tile);
+			upperEnd = Math.max(upperEnd, tile + 1);
+		}
+
+		upperSize = upperEnd - upperBase;
+		upperTable = new int[ROTATIONS * upperSize];
+		for (int rotation = 0; rotation < ROTATIONS; rotation++)
+			for (int tile = 0; tile < upperSize; tile++)
+				upperTable[rotation * upperSize + tile] = upperBase + tile;
+
+		for (Entry<Integer, int[]> rule : upperRules.entrySet())
+			for (Rotation rotation : Rotation.values())
+				upperTable[rotation.ordinal() * upperSize + rule.getKey() - upperBase] = step(rule.getValue(), rotation);
+	}
+
+	/**
+	 * @param cycle		A tile's cycle, starting with the tile itself
+	 * @param rotation	The amount to rotate the tile (clockwise)
+	 * @return	The tile the rotation turns it into
+	 */
+	private static int step(int[] cycle, Rotation rotation)
+	{
+		return cycle[rotation.ordinal() % cycle.length];
+	}
+
+	/**
+	 * @param data		The lower layer tile value to rotate
+	 * @param rotation	The amount to rotate the tile (clockwise)
+	 * @return	The rotated tile value
+	 */
+	public int rotateLower(int data, Rotation rotation)
+	{
+		return (data >= 0 && data < lowerSize) ? lowerTable[rotation.ordinal() * lowerSize + data] : data;
+	}
+
+	/**
+	 * @param data		The upper layer tile value to rotate
+	 * @param rotation	The amount to rotate the tile (clockwise)
+	 * @return	The rotated tile value
+	 */
+	public int rotateUpper(int data, Rotation rotation)
+	{
+		int tile = data - upperBase;
+		return (tile >= 0 && tile < upperSize) ? upperTable[rotation.ordinal() * upperSize + tile] : data;
+	}
+
+	/**
+	 * @param data		The tile value to rotate
+	 * @param rotation	The amount to rotate the tile (clockwise)
+	 * @param lower		Whether the tile is from the lower layer
+	 * @return	The rotated tile value
+	 */
+	public int rotate(int data, Rotation rotation, boolean lower)
+	{
+		return lower ? rotateLower(data, rotation) : rotateUpper(data, rotation);
+	}
+}
@@ -0,0 +1,313 @@
+package maprotator;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * TileStatistics.java
+ *
+ * Counters gathered over a set of maps by MapAnalyzer: how often each tile value appears in each layer, per chipset;
+ * how many lower layer tiles have offsets that rotation doesn't recognize; and how densely events are packed into
+ * the regions of each map. All counts are kept in plain int arrays, so each worker thread can fill its own instance
+ * without synchronization, and the instances are merged once every map has been counted.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class TileStatistics
+{
+	public static final int TILE_VALUES = 0x10000;		// Number of distinct 2-byte tile values
+	public static final int REGION_SIZE = EventIndex.DEFAULT_CELL_SIZE;	// Width and height (in tiles) of an event density region
+	public static final int MAX_DENSITY = 32;			// Event counts from here up share the last density bucket
+
+	private TreeMap<Integer, ChipsetCounts> chipsets;	// Counters for each chipset, keyed by chipset ID
+	private int[] regionDensity;						// Number of regions holding each number of events
+	private List<MapResult> maps;						// Per-map findings
+	private List<String> failures;						// Maps that couldn't be analyzed, with the reason
+
+	/**
+	 * Tile counters for a single chipset.
+	 */
+	private static class ChipsetCounts
+	{
+		int mapCount;								// Number of maps using the chipset
+		int[] lowerTiles = new int[TILE_VALUES];	// Number of lower layer tiles with each value
+		int[] upperTiles = new int[TILE_VALUES];	// Number of upper layer tiles with each value
+	}
+
+	/**
+	 * Findings for a single map.
+	 */
+	private static class MapResult
+	{
+		String name;		// Name of the map
+		int chipset;		// Chipset ID
+		int unknownTiles;	// Number of lower layer tiles with an unknown offset
+		int eventCount;		// Number of events
+		int maxDensity;		// Largest number of events in a single region
+	}
+
+	/**
+	 * Creates an empty set of counters.
+	 */
+	public TileStatistics()
+	{
+		chipsets = new TreeMap<Integer, ChipsetCounts>();
+		regionDensity = new int[MAX_DENSITY + 1];
+		maps = new ArrayList<MapResult>();
+		failures = new ArrayList<String>();
+	}
+
+	/**
+	 * Counts the tiles and events of a map.
+	 *
+	 * @param map	The map to count
+	 * @throws IllegalArgumentException	If the map's tile layers don't match its dimensions
+	 */
+	public void addMap(RMMap map)
+	{
+		int width = map.getMapWidth();
+		int height = map.getMapHeight();
+		map.checkTileLayers(width, height);
+
+		MapResult result = new MapResult();
+		result.name = map.getName();
+		result.chipset = map.getChipset();
+		result.eventCount = map.getEvents().size();
+
+		ChipsetCounts counts = chipsets.computeIfAbsent(result.chipset, id -> new ChipsetCounts());
+		counts.mapCount++;
+
+		// Tile layers
+		DataItem lowerLayer = map.dataItems.get(0x47);
+		DataItem upperLayer = map.dataItems.get(0x48);
+		byte[] lower = lowerLayer.byteArray();
+		byte[] upper = upperLayer.byteArray();
+		int lowerStart = lowerLayer.getDataIndex();
+		int upperStart = upperLayer.getDataIndex();
+
+		for (int i = 0; i < width * height; i++)
+		{
+			int lowerData = (lower[lowerStart + 2 * i] & 0xFF) + ((lower[lowerStart + 2 * i + 1] & 0xFF) << 8);
+			int upperData = (upper[upperStart + 2 * i] & 0xFF) + ((upper[upperStart + 2 * i + 1] & 0xFF) << 8);
+
+			counts.lowerTiles[lowerData]++;
+			counts.upperTiles[upperData]++;
+
+			if (RMMap.hasUnknownOffset(lowerData))
+				result.unknownTiles++;
+		}
+
+		// Event density
+		int columns = (width + REGION_SIZE - 1) / REGION_SIZE;
+		int rows = (height + REGION_SIZE - 1) / REGION_SIZE;
+		int[] regions = new int[columns * rows];
+
+		for (RMEvent event : map.getEvents())
+		{
+			int column = Math.max(0, Math.min(columns - 1, event.getXPos() / REGION_SIZE));
+			int row = Math.max(0, Math.min(rows - 1, event.getYPos() / REGION_SIZE));
+			regions[row * columns + column]++;
+		}
+
+		for (int region : regions)
+		{
+			regionDensity[Math.min(region, MAX_DENSITY)]++;
+			result.maxDensity = Math.max(result.maxDensity, region);
+		}
+
+		maps.add(result);
+	}
+
+	/**
+	 * Records a map that couldn't be analyzed.
+	 *
+	 * @param name		Name of the map
+	 * @param reason	Why the map couldn't be analyzed
+	 */
+	public void addFailure(String name, String reason)
+	{
+		failures.add(name + ": " + reason);
+	}
+
+	/**
+	 * Adds another set of counters to this one.
+	 *
+	 * @param other	The counters to add
+	 */
+	public void merge(TileStatistics other)
+	{
+		for (Entry<Integer, ChipsetCounts> entry : other.chipsets.entrySet())
+		{
+			ChipsetCounts counts = chipsets.get(entry.getKey());
+			if (counts == null)
+			{
+				chipsets.put(entry.getKey(), entry.getValue());
+				continue;
+			}
+
+			ChipsetCounts added = entry.getValue();
+			counts.mapCount += added.mapCount;
+			for (int tile = 0; tile < TILE_VALUES; tile++)
+			{
+				counts.lowerTiles[tile] += added.lowerTiles[tile];
+				counts.upperTiles[tile] += added.upperTiles[tile];
+			}
+		}
+
+		for (int i = 0; i <= MAX_DENSITY; i++)
+			regionDensity[i] += other.regionDensity[i];
+
+		maps.addAll(other.maps);
+		failures.addAll(other.failures);
+	}
+
+	/**
+	 * @param chipset	ID of a chipset
+	 * @param lower		Whether to count the lower layer rather than the upper layer
+	 * @param tile		A tile value
+	 * @return	Number of times the tile appears in the given layer of maps using the chipset
+	 */
+	public int getTileCount(int chipset, boolean lower, int tile)
+	{
+		ChipsetCounts counts = chipsets.get(chipset);
+		if (counts == null)
+			return 0;
+
+		return lower ? counts.lowerTiles[tile] : counts.upperTiles[tile];
+	}
+
+	/**
+	 * @return	Number of maps counted
+	 */
+	public int getMapCount()
+	{
+		return maps.size();
+	}
+
+	/**
+	 * @return	Number of maps that couldn't be analyzed
+	 */
+	public int getFailureCount()
+	{
+		return failures.size();
+	}
+
+	/**
+	 * @return	Names of the maps with lower layer tiles that rotation doesn't recognize
+	 */
+	public List<String> getMapsWithUnknownTiles()
+	{
+		List<String> result = new ArrayList<String>();
+		for (MapResult map : maps)
+			if (map.unknownTiles > 0)
+				result.add(map.name);
+
+		return result;
+	}
+
+	/**
+	 * Prints a report of the counters.
+	 *
+	 * @param out	The stream to print to
+	 * @param top	Number of entries to list in each ranking
+	 */
+	public void printReport(PrintStream out, int top)
+	{
+		out.println("Maps analyzed: " + maps.size() + ", failed: " + failures.size());
+
+		for (Entry<Integer, ChipsetCounts> entry : chipsets.entrySet())
+		{
+			ChipsetCounts counts = entry.getValue();
+			out.println();
+			out.println("Chipset " + entry.getKey() + " (" + counts.mapCount + " maps)");
+
+			// Lower layer tiles by kind, following the tile ID offset milestones
+			long water = 0, animated = 0, autotiles = 0, other = 0, unknown = 0;
+			int distinctLower = 0;
+			for (int tile = 0; tile < TILE_VALUES; tile++)
+			{
+				int count = counts.lowerTiles[tile];
+				if (count == 0)
+					continue;
+
+				distinctLower++;
+				int tileIDOffset = RMMap.tileIDOffset(tile);
+				if (tileIDOffset < 3000)
+					water += count;
+				else if (tileIDOffset < 4000)
+					animated += count;
+				else if (tileIDOffset < RMMap.NON_TILING_OFFSET)
+					autotiles += count;
+				else
+					other += count;
+
+				if (RMMap.hasUnknownOffset(tile))
+					unknown += count;
+			}
+
+			out.printf("  Lower layer: %d water, %d animated, %d autotile, %d other (%d distinct values)%n",
+						water, animated, autotiles, other, distinctLower);
+			out.println("  Tiles with unknown offsets: " + unknown);
+			printTopTiles(out, "lower", counts.lowerTiles, top);
+			printTopTiles(out, "upper", counts.upperTiles, top);
+		}
+
+		// Event density
+		out.println();
+		out.println("Regions (" + REGION_SIZE + "x" + REGION_SIZE + " tiles) by number of events:");
+		for (int i = 0; i <= MAX_DENSITY; i++)
+			if (regionDensity[i] > 0)
+				out.println("  " + (i == MAX_DENSITY ? i + "+" : String.valueOf(i)) + "\t" + regionDensity[i]);
+
+		List<MapResult> ranked = new ArrayList<MapResult>(maps);
+		ranked.sort(Comparator.comparingInt((MapResult map) -> map.maxDensity).reversed());
+		out.println("Densest maps:");
+		for (int i = 0; i < Math.min(top, ranked.size()); i++)
+			out.println("  " + ranked.get(i).name + "\t" + ranked.get(i).maxDensity + " events in one region, " + ranked.get(i).eventCount + " total");
+
+		// Maps likely to break under rotation
+		out.println();
+		out.println("Maps with unknown tile offsets:");
+		ranked.sort(Comparator.comparingInt((MapResult map) -> map.unknownTiles).reversed());
+		for (MapResult map : ranked)
+			if (map.unknownTiles > 0)
+				out.println("  " + map.name + "\t" + map.unknownTiles + " tiles (chipset " + map.chipset + ")");
+
+		if (!failures.isEmpty())
+		{
+			out.println();
+			out.println("Maps that couldn't be analyzed:");
+			for (String failure : failures)
+				out.println("  " + failure);
+		}
+	}
+
+	/**
+	 * Prints the most used tile values of a layer.
+	 *
+	 * @param out		The stream to print to
+	 * @param layer		Name of the layer
+	 * @param counts	Number of tiles with each value
+	 * @param top		Number of values to list
+	 */
+	private static void printTopTiles(PrintStream out, String layer, int[] counts, int top)
+	{
+		List<Integer> tiles = new ArrayList<Integer>();
+		for (int tile = 0; tile < TILE_VALUES; tile++)
+			if (counts[tile] > 0)
+				tiles.add(tile);
+
+		tiles.sort(Comparator.comparingInt((Integer tile) -> counts[tile]).reversed());
+
+		StringBuilder line = new StringBuilder("  Most used " + layer + " tiles:");
+		for (int i = 0; i < Math.min(top, tiles.size()); i++)
+			line.append(" ").append(tiles.get(i)).append(" (").append(counts[tiles.get(i)]).append(")");
+
+		out.println(line);
+	}
+}
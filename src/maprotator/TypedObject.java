@@ -0,0 +1,171 @@
+package maprotator;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * TypedObject.java
+ *
+ * An RPG Maker object decoded by ItemDecoder according to an ItemSchema. Integer and boolean items are held as plain
+ * ints, strings as Strings, tile layers as short arrays and object lists as lists of TypedObjects, so reading them
+ * doesn't parse anything. Items the schema doesn't know, and items whose content didn't match their declared type,
+ * are kept as the exact bytes they were read from, so encoding the object again reproduces them unchanged.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class TypedObject
+{
+	private ItemSchema schema;					// Schema the object was decoded with
+	byte[] header;								// Header of the object, as read
+	boolean[] present;							// Whether each declared item was present
+	int[] values;								// Value of each INTEGER and BOOLEAN item, by slot
+	Object[] objects;							// String, short[] or List<TypedObject> value of other items, by slot
+	byte[][] raw;								// Content of each RAW item or item that didn't match its type, by slot
+	TreeMap<Integer, byte[]> unknownItems;		// Content of each item the schema doesn't declare, by ID
+
+	/**
+	 * Creates an object with no items present.
+	 *
+	 * @param schema	Schema of the object
+	 * @param header	Header of the object
+	 */
+	TypedObject(ItemSchema schema, byte[] header)
+	{
+		this.schema = schema;
+		this.header = header;
+
+		int count = schema.getFieldCount();
+		present = new boolean[count];
+		values = new int[count];
+		objects = new Object[count];
+		raw = new byte[count][];
+		unknownItems = new TreeMap<Integer, byte[]>();
+	}
+
+	/**
+	 * @return	Schema the object was decoded with
+	 */
+	public ItemSchema getSchema()
+	{
+		return schema;
+	}
+
+	/**
+	 * @return	The object's ID (its header read as a VLQ), for objects in a list
+	 */
+	public int getID()
+	{
+		return VLQ.arrayToInt(header);
+	}
+
+	/**
+	 * @param id	ID of a declared item
+	 * @return	Whether the item was present
+	 */
+	public boolean has(int id)
+	{
+		return present[field(id).getSlot()];
+	}
+
+	/**
+	 * @param id	ID of an INTEGER or BOOLEAN item
+	 * @return	The item's value, or its default if it was left out
+	 */
+	public int getInt(int id)
+	{
+		ItemSchema.Field field = field(id);
+		int slot = field.getSlot();
+
+		if (!present[slot])
+			return field.getDefaultValue();
+		if (raw[slot] != null)
+			return VLQ.readInt(raw[slot], 0);
+
+		return values[slot];
+	}
+
+	/**
+	 * @param id	ID of a BOOLEAN item
+	 * @return	The item's value, or false if it was left out
+	 */
+	public boolean getBoolean(int id)
+	{
+		return getInt(id) != 0;
+	}
+
+	/**
+	 * @param id	ID of a STRING item
+	 * @return	The item's text, or null if it was left out
+	 */
+	public String getString(int id)
+	{
+		int slot = field(id).getSlot();
+
+		if (!present[slot])
+			return null;
+		if (raw[slot] != null)
+			return new String(raw[slot], ItemSchema.CHARSET);
+
+		return (String) objects[slot];
+	}
+
+	/**
+	 * @param id	ID of a TILES item
+	 * @return	The item's values (not a copy), or null if it was left out or malformed
+	 */
+	public short[] getTiles(int id)
+	{
+		return (short[]) objects[field(id).getSlot()];
+	}
+
+	/**
+	 * @param id	ID of an OBJECT_LIST item
+	 * @return	The item's objects, or an empty list if it was left out
+	 * @throws IllegalArgumentException	If the item was present, but couldn't be decoded as a list of objects
+	 */
+	@SuppressWarnings("unchecked")
+	public List<TypedObject> getObjects(int id)
+	{
+		int slot = field(id).getSlot();
+
+		if (!present[slot])
+			return Collections.emptyList();
+		if (raw[slot] != null)
+			throw new IllegalArgumentException(String.format("Item 0x%02X of %s isn't a valid object list", id, schema.getName()));
+
+		return Collections.unmodifiableList((List<TypedObject>) objects[slot]);
+	}
+
+	/**
+	 * @param id	ID of a declared item
+	 * @return	The item's content, if it's a RAW item or didn't match its declared type; otherwise null
+	 */
+	public byte[] getRaw(int id)
+	{
+		return raw[field(id).getSlot()];
+	}
+
+	/**
+	 * @return	Content of each item the schema doesn't declare, by ID
+	 */
+	public TreeMap<Integer, byte[]> getUnknownItems()
+	{
+		return unknownItems;
+	}
+
+	/**
+	 * @param id	An item ID
+	 * @return	The declared item with that ID
+	 * @throws IllegalArgumentException	If the schema doesn't declare the ID
+	 */
+	private ItemSchema.Field field(int id)
+	{
+		ItemSchema.Field field = schema.getField(id);
+		if (field == null)
+			throw new IllegalArgumentException(String.format("%s has no item 0x%02X", schema.getName(), id));
+
+		return field;
+	}
+}
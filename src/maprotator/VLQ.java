@@ -9,6 +9,8 @@ package maprotator;
  */
 public class VLQ
 {
+	public static final int MAX_LENGTH = 5;	// Maximum number of bytes in a VLQ representing a 32-bit integer
+	
 	private byte[] data;	// The series of bytes comprising this VLQ.
 	
 	/**
@@ -97,23 +99,11 @@ public class VLQ
 	 * 
 	 * @param input	The byte array to convert
 	 * @return	The integer value of the given array
+	 * @throws IllegalArgumentException	If the array doesn't end in a VLQ's final byte
 	 */
 	public static int arrayToInt(byte[] input)
 	{
-		int result = 0;
-		int index = 0;
-		
-		while (index <= input.length && (input[index] & 0xFF) >> 7 == 1)
-		{
-			result = result << 7;
-			result |= input[index] & 0x7F;
-			index++;
-		}
-		
-		if (index <= input.length)
-			result = (result << 7) | input[index];
-		
-		return result;
+		return readInt(input, 0);
 	}
 	
 	/**
@@ -122,12 +112,25 @@ public class VLQ
 	 * @param source		The array from which to extract a VLQ
 	 * @param startingIndex	The index in the source array at which to start reading the VLQ 
 	 * @return	A VLQ object representing the extracted value
+	 * @throws IllegalArgumentException	If the source array doesn't hold a complete VLQ at the given index
 	 */
 	public static VLQ extractVlq(byte[] source, int startingIndex)
 	{
-		int length = 1;
-		while ((source[startingIndex + length - 1] & 0xFF) >> 7 == 1)
-			length++;
+		return extractVlq(source, startingIndex, source.length);
+	}
+	
+	/**
+	 * Extracts a VLQ byte array from the part of a larger byte array that ends at the given index.
+	 * 
+	 * @param source		The array from which to extract a VLQ
+	 * @param startingIndex	The index in the source array at which to start reading the VLQ 
+	 * @param end			The index in the source array at which its data ends
+	 * @return	A VLQ object representing the extracted value
+	 * @throws IllegalArgumentException	If the data doesn't hold a complete VLQ at the given index
+	 */
+	public static VLQ extractVlq(byte[] source, int startingIndex, int end)
+	{
+		int length = length(source, startingIndex, end);
 		
 		byte[] result = new byte[length];
 		for (int i = 0; i < length; i++)
@@ -136,6 +139,94 @@ public class VLQ
 		return new VLQ(result);
 	}
 
+	/**
+	 * Reads the integer value of the VLQ starting at the given index of a larger byte array, without copying
+	 * the VLQ's bytes out of the array.
+	 * 
+	 * @param source		The array from which to read a VLQ
+	 * @param startingIndex	The index in the source array at which the VLQ begins
+	 * @return	The integer value of the VLQ
+	 * @throws IllegalArgumentException	If the source array doesn't hold a complete VLQ at the given index
+	 */
+	public static int readInt(byte[] source, int startingIndex)
+	{
+		return readInt(source, startingIndex, source.length);
+	}
+	
+	/**
+	 * Reads the integer value of the VLQ starting at the given index of the part of a larger byte array that ends at
+	 * another index.
+	 * 
+	 * @param source		The array from which to read a VLQ
+	 * @param startingIndex	The index in the source array at which the VLQ begins
+	 * @param end			The index in the source array at which its data ends
+	 * @return	The integer value of the VLQ
+	 * @throws IllegalArgumentException	If the data doesn't hold a complete VLQ at the given index
+	 */
+	public static int readInt(byte[] source, int startingIndex, int end)
+	{
+		int last = startingIndex + length(source, startingIndex, end) - 1;
+		int result = 0;
+		
+		for (int index = startingIndex; index < last; index++)
+			result = (result << 7) | (source[index] & 0x7F);
+		
+		return (result << 7) | source[last];
+	}
+	
+	/**
+	 * Returns the number of bytes taken up by the VLQ starting at the given index of a larger byte array.
+	 * 
+	 * @param source		The array containing the VLQ
+	 * @param startingIndex	The index in the source array at which the VLQ begins
+	 * @return	The length of the VLQ in bytes
+	 * @throws IllegalArgumentException	If the source array doesn't hold a complete VLQ at the given index
+	 */
+	public static int length(byte[] source, int startingIndex)
+	{
+		return length(source, startingIndex, source.length);
+	}
+	
+	/**
+	 * Returns the number of bytes taken up by the VLQ starting at the given index of the part of a larger byte array
+	 * that ends at another index.
+	 * 
+	 * @param source		The array containing the VLQ
+	 * @param startingIndex	The index in the source array at which the VLQ begins
+	 * @param end			The index in the source array at which its data ends (at most its length)
+	 * @return	The length of the VLQ in bytes
+	 * @throws IllegalArgumentException	If the data doesn't hold a complete VLQ at the given index
+	 */
+	public static int length(byte[] source, int startingIndex, int end)
+	{
+		if (startingIndex < 0 || startingIndex >= end)
+			throw new IllegalArgumentException("VLQ index " + startingIndex + " out of bounds for length " + end);
+		
+		int length = 1;
+		while ((source[startingIndex + length - 1] & 0x80) != 0)
+		{
+			length++;
+			
+			if (length > MAX_LENGTH)
+				throw new IllegalArgumentException("VLQ at index " + startingIndex + " is longer than " + MAX_LENGTH + " bytes");
+			if (startingIndex + length > end)
+				throw new IllegalArgumentException("VLQ at index " + startingIndex + " runs past end of data");
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * Returns the number of bytes needed to represent the given integer as a VLQ.
+	 * 
+	 * @param input	The integer to be measured
+	 * @return	The length of the integer's VLQ representation in bytes
+	 */
+	public static int sizeOf(int input)
+	{
+		return (countSignificantBits(input) + 6) / 7;
+	}
+	
 	/**
 	 * Returns the number of significant bits in the binary representation of a given integer
 	 * 
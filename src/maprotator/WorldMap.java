@@ -0,0 +1,644 @@
+package maprotator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * WorldMap.java
+ *
+ * A world made of adjacent maps, stitched into a single pair of tile layers and a single set of events so it can be
+ * rotated as a whole and then split back into maps. The maps are laid out in a grid; every map in a column must have
+ * the same width, and every map in a row the same height. Cells of the grid may be left empty.
+ *
+ * Rotating the world rotates each map's rectangle with the map's own tile rotation rules, moves and rotates its events
+ * (scripts included), and rearranges the grid to match. Every map keeps its ID, so teleports between the maps of the
+ * world are rewritten along with everything else. Splitting cuts the world back into maps along the grid, each taking
+ * its other items (chipset, parallax background and so on) from the map first stitched in its place. An event moved
+ * into another map's rectangle goes to that map, keeping its ID unless the ID is already taken there; its script
+ * isn't adjusted for the move.
+ *
+ * Each map is stitched, rotated and split on a worker thread of its own. The world's layers are held off-heap by its
+ * TileArena rather than in Java arrays, so worlds can be far larger than any one map; close the world to release them.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class WorldMap implements AutoCloseable
+{
+	public static final String LAYOUT_FILE = "layout.txt";	// Name of the layout written alongside split maps
+
+	private TileArena arena;			// Owns the world's tile layers
+	private ExecutorService workers;	// Threads stitching, rotating and splitting maps
+	private OffHeapTileLayer lower;		// The world's lower layer
+	private OffHeapTileLayer upper;		// The world's upper layer
+	private int[] columnWidths;			// Width of each column of the grid
+	private int[] rowHeights;			// Height of each row of the grid
+	private Cell[][] cells;				// The map in each cell of the grid, by row and column (null where empty)
+
+	/**
+	 * One map of the world.
+	 */
+	private static class Cell
+	{
+		int mapID;					// ID of the map
+		RMMap template;				// The map as stitched, from which its other items are taken when split
+		TileRotationRules rules;	// Rules for rotating the map's tiles
+		int x;						// X-position in the world of the map's top left corner
+		int y;						// Y-position in the world of the map's top left corner
+		int width;					// Width of the map
+		int height;					// Height of the map
+		List<RMEvent> events;		// The map's events, at their positions in the world
+	}
+
+	/**
+	 * Stitches the maps listed in a layout file, rotates the world, and writes the maps it splits into to an output
+	 * folder, along with the rotated layout. Each line of a layout file is a row of the grid, listing the ID of the map
+	 * in each column (0 for an empty cell).
+	 *
+	 * @param args	Path of the map folder, path of the layout file, the rotation in degrees (90, 180 or 270), path of
+	 * 				the output folder, and optionally a thread count
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		RotationRuleSet rules = MapRotator.readRules(args);
+		args = MapRotator.withoutRules(args);
+
+		if (args.length < 4)
+		{
+			System.err.println("Usage: WorldMap [--rules <file>] <map folder> <layout file> <90|180|270> <output folder> [threads]");
+			System.exit(2);
+		}
+
+		Path folder = Paths.get(args[0]);
+		Rotation rotation = MapRotator.parseRotation(args[2]);
+		Path outputFolder = Paths.get(args[3]);
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		int[][] layout = readLayout(Paths.get(args[1]));
+		Files.createDirectories(outputFolder);
+
+		// Load the maps in the layout
+		RMMap[][] maps = new RMMap[layout.length][];
+		try (MapLoader loader = new MapLoader(threads))
+		{
+			loader.setRotationRules(rules);
+			List<CompletableFuture<RMMap>> futures = new ArrayList<CompletableFuture<RMMap>>();
+			for (int[] row : layout)
+				for (int id : row)
+					futures.add(id == 0 ? CompletableFuture.completedFuture(null) : loader.load(folder.resolve(String.format("Map%04d.lmu", id))));
+
+			int next = 0;
+			for (int row = 0; row < layout.length; row++)
+			{
+				maps[row] = new RMMap[layout[row].length];
+				for (int column = 0; column < maps[row].length; column++)
+					maps[row][column] = futures.get(next++).join();
+			}
+		}
+
+		try (WorldMap world = new WorldMap(maps, threads))
+		{
+			world.rotate(rotation);
+			List<RMMap> split = world.split();
+
+			for (RMMap map : split)
+				AsyncMapWriter.writeAtomically(outputFolder.resolve(map.getName()), map.toBuffers());
+			writeLayout(outputFolder.resolve(LAYOUT_FILE), world.getLayout());
+
+			System.out.println("Rotated " + world.getWidth() + "x" + world.getHeight() + " world and wrote " + split.size()
+								+ " maps to " + outputFolder);
+		}
+	}
+
+	/**
+	 * Stitches a grid of maps into a world. Each map's ID is taken from its file name (e.g., 3 for Map0003.lmu).
+	 *
+	 * @param maps		The maps, by row and column; null for empty cells
+	 * @param threads	Number of worker threads
+	 * @throws IllegalArgumentException	If the grid isn't rectangular, a row or column is empty, a map's dimensions don't
+	 * 									match its row and column, or a map has no ID or failed validation
+	 */
+	public WorldMap(RMMap[][] maps, int threads)
+	{
+		if (maps.length == 0 || maps[0].length == 0)
+			throw new IllegalArgumentException("World has no maps");
+
+		int rows = maps.length;
+		int columns = maps[0].length;
+		columnWidths = new int[columns];
+		rowHeights = new int[rows];
+		cells = new Cell[rows][columns];
+		HashSet<Integer> ids = new HashSet<Integer>();
+
+		for (int row = 0; row < rows; row++)
+		{
+			if (maps[row].length != columns)
+				throw new IllegalArgumentException("Row " + row + " of the world has " + maps[row].length + " maps instead of " + columns);
+
+			for (int column = 0; column < columns; column++)
+			{
+				RMMap map = maps[row][column];
+				if (map == null)
+					continue;
+
+				Cell cell = new Cell();
+				cell.mapID = ScriptRewriter.mapIDOf(map.getName());
+				if (cell.mapID == 0)
+					throw new IllegalArgumentException("No map ID in file name " + map.getName());
+				if (!ids.add(cell.mapID))
+					throw new IllegalArgumentException("Map " + cell.mapID + " appears more than once in the world");
+				if (map.getEvents() == null)
+					throw new IllegalArgumentException(map.getName() + " failed validation");
+
+				cell.template = map;
+				cell.rules = map.getTileRotationRules();
+				cell.events = new ArrayList<RMEvent>();
+				cells[row][column] = cell;
+
+				columnWidths[column] = matchSize(columnWidths[column], map.getMapWidth(), map.getName() + " width");
+				rowHeights[row] = matchSize(rowHeights[row], map.getMapHeight(), map.getName() + " height");
+			}
+		}
+
+		for (int column = 0; column < columns; column++)
+			if (columnWidths[column] == 0)
+				throw new IllegalArgumentException("Column " + column + " of the world has no maps");
+		for (int row = 0; row < rows; row++)
+			if (rowHeights[row] == 0)
+				throw new IllegalArgumentException("Row " + row + " of the world has no maps");
+
+		layoutCells();
+
+		arena = new TileArena();
+		lower = arena.allocate(getWidth(), getHeight());
+		upper = arena.allocate(getWidth(), getHeight());
+		workers = Executors.newFixedThreadPool(threads);
+
+		// Copy each map's layers and events into the world
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (Cell cell : cellList())
+			tasks.add(() ->
+			{
+				cell.template.checkTileLayers(cell.width, cell.height);
+				lower.load(cell.template.dataItems.get(0x47), cell.x, cell.y, cell.width, cell.height);
+				upper.load(cell.template.dataItems.get(0x48), cell.x, cell.y, cell.width, cell.height);
+
+				for (RMEvent event : cell.template.getEvents())
+				{
+					RMEvent copy = new RMEvent(event);
+					copy.setXPos(cell.x + event.getXPos());
+					copy.setYPos(cell.y + event.getYPos());
+					cell.events.add(copy);
+				}
+			});
+
+		inParallel(tasks);
+		clearEmptyCells();
+	}
+
+	/**
+	 * @return	Width of the world (in tiles)
+	 */
+	public int getWidth()
+	{
+		return lower == null ? sum(columnWidths) : lower.getWidth();
+	}
+
+	/**
+	 * @return	Height of the world (in tiles)
+	 */
+	public int getHeight()
+	{
+		return lower == null ? sum(rowHeights) : lower.getHeight();
+	}
+
+	/**
+	 * @return	ID of the map in each cell of the grid, by row and column (0 where empty)
+	 */
+	public int[][] getLayout()
+	{
+		int[][] layout = new int[cells.length][cells[0].length];
+		for (int row = 0; row < cells.length; row++)
+			for (int column = 0; column < cells[row].length; column++)
+				layout[row][column] = cells[row][column] == null ? 0 : cells[row][column].mapID;
+
+		return layout;
+	}
+
+	/**
+	 * @return	The world's lower layer
+	 */
+	public OffHeapTileLayer getLowerLayer()
+	{
+		return lower;
+	}
+
+	/**
+	 * @return	The world's upper layer
+	 */
+	public OffHeapTileLayer getUpperLayer()
+	{
+		return upper;
+	}
+
+	/**
+	 * @return	A read-only list of every event in the world, at its position in the world, map by map in row order
+	 */
+	public List<RMEvent> getEvents()
+	{
+		List<RMEvent> events = new ArrayList<RMEvent>();
+		for (Cell cell : cellList())
+			events.addAll(cell.events);
+
+		return Collections.unmodifiableList(events);
+	}
+
+	/**
+	 * Rotates the world 90 degrees clockwise.
+	 */
+	public void rotateClockwise() { rotate(Rotation.ROT_90); }
+
+	/**
+	 * Rotates the world 180 degrees.
+	 */
+	public void rotate180() { rotate(Rotation.ROT_180); }
+
+	/**
+	 * Rotates the world 90 degrees counterclockwise.
+	 */
+	public void rotateCounterclockwise() { rotate(Rotation.ROT_270); }
+
+	/**
+	 * Rotates the tiles and events of every map in the world, and rearranges the grid to match.
+	 *
+	 * @param rotation	The amount to rotate the world (clockwise)
+	 */
+	protected void rotate(Rotation rotation)
+	{
+		if (rotation == Rotation.ROT_0)
+			return;
+
+		int width = getWidth();
+		int height = getHeight();
+		boolean swapped = rotation == Rotation.ROT_90 || rotation == Rotation.ROT_270;
+		OffHeapTileLayer newLower = arena.allocate(swapped ? height : width, swapped ? width : height);
+		OffHeapTileLayer newUpper = arena.allocate(swapped ? height : width, swapped ? width : height);
+		List<Cell> maps = cellList();
+
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (Cell cell : maps)
+			tasks.add(() ->
+			{
+				lower.rotateInto(newLower, cell.x, cell.y, cell.width, cell.height, rotation, cell.rules, true);
+				upper.rotateInto(newUpper, cell.x, cell.y, cell.width, cell.height, rotation, cell.rules, false);
+
+				// Scripts use positions on their own map, and may teleport to any map of the world
+				ScriptRewriter scripts = new ScriptRewriter(rotation, cell.width, cell.height, cell.mapID);
+				for (Cell other : maps)
+					scripts.addMap(other.mapID, other.width, other.height);
+
+				for (RMEvent event : cell.events)
+				{
+					int destination = RMMap.destinationIndex(event.getYPos() * width + event.getXPos(), width, height, rotation);
+					event.setXPos(destination % newLower.getWidth());
+					event.setYPos(destination / newLower.getWidth());
+					event.rotate(rotation, scripts);
+				}
+			});
+
+		inParallel(tasks);
+
+		arena.release(lower);
+		arena.release(upper);
+		lower = newLower;
+		upper = newUpper;
+
+		// Rearrange the grid
+		int rows = cells.length;
+		int columns = cells[0].length;
+		Cell[][] newCells = swapped ? new Cell[columns][rows] : new Cell[rows][columns];
+		for (int row = 0; row < rows; row++)
+			for (int column = 0; column < columns; column++)
+			{
+				switch (rotation)
+				{
+					case ROT_90:
+						newCells[column][rows - 1 - row] = cells[row][column];
+						break;
+					case ROT_180:
+						newCells[rows - 1 - row][columns - 1 - column] = cells[row][column];
+						break;
+					default:
+						newCells[columns - 1 - column][row] = cells[row][column];
+						break;
+				}
+			}
+
+		int[] newColumnWidths = swapped ? reversed(rowHeights, rotation == Rotation.ROT_90) : reversed(columnWidths, true);
+		int[] newRowHeights = swapped ? reversed(columnWidths, rotation == Rotation.ROT_270) : reversed(rowHeights, true);
+		cells = newCells;
+		columnWidths = newColumnWidths;
+		rowHeights = newRowHeights;
+
+		layoutCells();
+		clearEmptyCells();
+	}
+
+	/**
+	 * Cuts the world back into maps along the grid. The world itself is left as it is.
+	 *
+	 * @return	A new map for each non-empty cell of the grid, in row order, named after the map it was stitched from
+	 */
+	public List<RMMap> split()
+	{
+		List<Cell> maps = cellList();
+
+		// Work out which map each event ends up on: the one whose rectangle it's in, or else the one it came from
+		IdentityHashMap<Cell, List<RMEvent>> staying = new IdentityHashMap<Cell, List<RMEvent>>();
+		IdentityHashMap<Cell, List<RMEvent>> arriving = new IdentityHashMap<Cell, List<RMEvent>>();
+		for (Cell cell : maps)
+		{
+			staying.put(cell, new ArrayList<RMEvent>());
+			arriving.put(cell, new ArrayList<RMEvent>());
+		}
+
+		for (Cell cell : maps)
+			for (RMEvent event : cell.events)
+			{
+				Cell destination = cellAt(event.getXPos(), event.getYPos());
+				if (destination == null || destination == cell)
+					staying.get(cell).add(event);
+				else
+					arriving.get(destination).add(event);
+			}
+
+		List<RMMap> result = new ArrayList<RMMap>(Collections.nCopies(maps.size(), (RMMap) null));
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int i = 0; i < maps.size(); i++)
+		{
+			int index = i;
+			Cell cell = maps.get(i);
+			tasks.add(() ->
+			{
+				RMMap map = cell.template.copy();
+				map.setMapWidth(cell.width);
+				map.setMapHeight(cell.height);
+				map.dataItems.put(0x47, lower.toDataItem(0x47, cell.x, cell.y, cell.width, cell.height, map));
+				map.dataItems.put(0x48, upper.toDataItem(0x48, cell.x, cell.y, cell.width, cell.height, map));
+
+				// Events that were already on the map keep their IDs; others do unless they're taken
+				TreeMap<Integer, RMEvent> events = new TreeMap<Integer, RMEvent>();
+				for (RMEvent event : staying.get(cell))
+					events.put(event.getID(), localCopy(event, cell));
+				for (RMEvent event : arriving.get(cell))
+				{
+					RMEvent copy = localCopy(event, cell);
+					if (events.containsKey(copy.getID()))
+						copy.setID(events.lastKey() + 1);
+
+					events.put(copy.getID(), copy);
+				}
+
+				map.setEvents(events.values().toArray(new RMEvent[events.size()]));
+				result.set(index, map);
+			});
+		}
+
+		inParallel(tasks);
+		return result;
+	}
+
+	/**
+	 * Releases the world's layers and stops its worker threads.
+	 */
+	@Override
+	public void close()
+	{
+		workers.shutdown();
+		arena.close();
+	}
+
+	/**
+	 * @param event	An event, at its position in the world
+	 * @param cell	The map it's going to
+	 * @return	A copy of the event at its position on the map
+	 */
+	private static RMEvent localCopy(RMEvent event, Cell cell)
+	{
+		RMEvent copy = new RMEvent(event);
+		copy.setXPos(event.getXPos() - cell.x);
+		copy.setYPos(event.getYPos() - cell.y);
+		return copy;
+	}
+
+	/**
+	 * Sets the position and dimensions of each cell from the widths of the columns and heights of the rows.
+	 */
+	private void layoutCells()
+	{
+		int y = 0;
+		for (int row = 0; row < cells.length; row++)
+		{
+			int x = 0;
+			for (int column = 0; column < cells[row].length; column++)
+			{
+				Cell cell = cells[row][column];
+				if (cell != null)
+				{
+					cell.x = x;
+					cell.y = y;
+					cell.width = columnWidths[column];
+					cell.height = rowHeights[row];
+				}
+
+				x += columnWidths[column];
+			}
+
+			y += rowHeights[row];
+		}
+	}
+
+	/**
+	 * Sets every tile of the empty cells to 0.
+	 */
+	private void clearEmptyCells()
+	{
+		int y = 0;
+		for (int row = 0; row < cells.length; row++)
+		{
+			int x = 0;
+			for (int column = 0; column < cells[row].length; column++)
+			{
+				if (cells[row][column] == null)
+				{
+					lower.fill(x, y, columnWidths[column], rowHeights[row], 0);
+					upper.fill(x, y, columnWidths[column], rowHeights[row], 0);
+				}
+
+				x += columnWidths[column];
+			}
+
+			y += rowHeights[row];
+		}
+	}
+
+	/**
+	 * @param x	X-position in the world
+	 * @param y	Y-position in the world
+	 * @return	The map whose rectangle holds the position, or null if it's outside the world or in an empty cell
+	 */
+	private Cell cellAt(int x, int y)
+	{
+		if (x < 0 || y < 0)
+			return null;
+
+		int column = 0;
+		while (column < columnWidths.length && x >= columnWidths[column])
+			x -= columnWidths[column++];
+
+		int row = 0;
+		while (row < rowHeights.length && y >= rowHeights[row])
+			y -= rowHeights[row++];
+
+		return row < rowHeights.length && column < columnWidths.length ? cells[row][column] : null;
+	}
+
+	/**
+	 * @return	Every map of the world, in row order
+	 */
+	private List<Cell> cellList()
+	{
+		List<Cell> list = new ArrayList<Cell>();
+		for (Cell[] row : cells)
+			for (Cell cell : row)
+				if (cell != null)
+					list.add(cell);
+
+		return list;
+	}
+
+	/**
+	 * Runs tasks on the worker threads and waits for all of them to finish.
+	 *
+	 * @param tasks	The tasks
+	 * @throws RuntimeException	The first exception thrown by a task, if any
+	 */
+	private void inParallel(List<Runnable> tasks)
+	{
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		for (Runnable task : tasks)
+			futures.add(CompletableFuture.runAsync(task, workers));
+
+		try
+		{
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+		}
+		catch (CompletionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+
+			throw e;
+		}
+	}
+
+	/**
+	 * @param expected	Size already found for a row or column, or 0 if none
+	 * @param size		Size of another map in the row or column
+	 * @param what		Description of the size, for the exception message
+	 * @return	The size of the row or column
+	 * @throws IllegalArgumentException	If the sizes differ
+	 */
+	private static int matchSize(int expected, int size, String what)
+	{
+		if (expected != 0 && expected != size)
+			throw new IllegalArgumentException("Map " + what + " is " + size + ", but others in line with it are " + expected);
+
+		return size;
+	}
+
+	/**
+	 * @param values	Some integers
+	 * @param reverse	Whether to reverse them
+	 * @return	A copy of the integers, in reverse order if requested
+	 */
+	private static int[] reversed(int[] values, boolean reverse)
+	{
+		int[] result = new int[values.length];
+		for (int i = 0; i < values.length; i++)
+			result[i] = values[reverse ? values.length - 1 - i : i];
+
+		return result;
+	}
+
+	/**
+	 * @param values	Some integers
+	 * @return	Their sum
+	 */
+	private static int sum(int[] values)
+	{
+		int total = 0;
+		for (int value : values)
+			total += value;
+
+		return total;
+	}
+
+	/**
+	 * Reads a layout file: one line per row of the grid, each listing the ID of the map in each column, 0 for none.
+	 *
+	 * @param path	Path of the layout file
+	 * @return	The map IDs, by row and column
+	 */
+	private static int[][] readLayout(Path path) throws IOException
+	{
+		List<int[]> rows = new ArrayList<int[]>();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8))
+		{
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#"))
+				continue;
+
+			String[] fields = trimmed.split("\\s+");
+			int[] row = new int[fields.length];
+			for (int i = 0; i < fields.length; i++)
+				row[i] = Integer.parseInt(fields[i]);
+
+			rows.add(row);
+		}
+
+		return rows.toArray(new int[rows.size()][]);
+	}
+
+	/**
+	 * Writes a layout file in the format read by readLayout.
+	 *
+	 * @param path		Path of the layout file
+	 * @param layout	The map IDs, by row and column
+	 */
+	private static void writeLayout(Path path, int[][] layout) throws IOException
+	{
+		StringBuilder text = new StringBuilder();
+		for (int[] row : layout)
+		{
+			for (int i = 0; i < row.length; i++)
+				text.append(i == 0 ? "" : " ").append(row[i]);
+
+			text.append(System.lineSeparator());
+		}
+
+		Files.write(path, text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,361 @@
+package maprotator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * MapFuzzTest.java
+ *
+ * Fuzzes map loading with corrupted and truncated copies of a well-formed map. Each copy has a few random bytes
+ * changed, and some are cut short as well; loading it must either succeed or throw IllegalArgumentException. Copies
+ * that load are also rotated every way and written back out, which must succeed or throw IllegalArgumentException too.
+ * Any other exception (an out-of-bounds read, a null pointer, running out of memory on a huge declared size) fails the
+ * test, as does a copy that takes longer than a deadline to load and rotate, such as one that never finishes loading.
+ *
+ * Each copy is also loaded from a file by a MapLoader, whose pooled buffer has held the whole map, so past the end of a
+ * truncated copy it holds a longer file's data. Loading must give the same result as parsing the copy on its own.
+ *
+ * The map fuzzed is generated from the seed, with events whose scripts hold the commands ScriptRewriter rotates, unless
+ * a map file is given.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class MapFuzzTest
+{
+	private static final long DEADLINE_MS = 10000;	// Longest a copy may take to load, rotate and write
+
+	private Random random;					// Source of the corruptions
+	private byte[] original;				// The well-formed map
+	private Map<String, Integer> outcomes;	// Number of copies loaded, rotated or rejected, by outcome
+	private MapLoader loader;				// Loads copies through a single pooled buffer
+	private Path copyFile;					// File each copy is written to for the loader
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args	Optionally a random seed, a number of iterations, and the path of a map to fuzz
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+		MapFuzzTest test = new MapFuzzTest(seed, args.length > 2 ? Files.readAllBytes(Paths.get(args[2])) : null);
+		test.checkOriginal();
+		test.startLoader();
+
+		// Loading reports lists that don't match their size on System.err before throwing
+		PrintStream err = System.err;
+		System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+		// Each copy is checked on a daemon thread, so one that never finishes can be abandoned
+		ExecutorService worker = Executors.newSingleThreadExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "map-fuzz");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try
+		{
+			for (int i = 0; i < iterations; i++)
+				runWithDeadline(worker, test::checkCorrupted, "Copy " + (i + 1) + " (seed " + seed + ")");
+		}
+		finally
+		{
+			System.setErr(err);
+			worker.shutdownNow();
+			test.loader.close();
+			Files.deleteIfExists(test.copyFile);
+		}
+
+		System.out.println("MapFuzzTest passed " + iterations + " iterations (seed " + seed + "): " + test.outcomes);
+	}
+
+	/**
+	 * Runs a check on a worker thread, failing if it throws or doesn't finish within the deadline.
+	 *
+	 * @param worker		Thread to run the check on
+	 * @param check			The check
+	 * @param description	Description of what's checked, for the failure message
+	 * @throws AssertionError	If the check fails or runs past the deadline
+	 */
+	private static void runWithDeadline(ExecutorService worker, Runnable check, String description)
+	{
+		Future<?> future = worker.submit(check);
+		try
+		{
+			future.get(DEADLINE_MS, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e)
+		{
+			throw new AssertionError(description + " didn't finish within " + DEADLINE_MS + " ms");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new AssertionError(description + " threw " + e.getCause(), e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new AssertionError(description + " was interrupted", e);
+		}
+	}
+
+	/**
+	 * @param seed		Seed of the corruptions, and of the map fuzzed if none is given
+	 * @param original	The map to fuzz, or null to generate one
+	 */
+	public MapFuzzTest(long seed, byte[] original)
+	{
+		random = new Random(seed);
+		this.original = original != null ? original : generateMap();
+		outcomes = new TreeMap<String, Integer>();
+	}
+
+	/**
+	 * Checks that the well-formed map loads and is written back to the same bytes, and that rotating it a full turn
+	 * in any steps (including its scripts, as the map it replaces) gives back the same bytes too.
+	 */
+	private void checkOriginal()
+	{
+		RMMap map = new RMMap("fuzz/Map0001.lmu", original);
+		VLQTest.check(map.getEvents() != null, "The map to fuzz failed validation");
+		VLQTest.check(Arrays.equals(map.toArray(), original), "The map to fuzz isn't written back to the same bytes");
+
+		for (Rotation rotation : Rotation.values())
+		{
+			RMMap turned = map.rotated(rotation, 1);
+			for (int quarters = rotation.ordinal(); quarters != 0 && quarters < 4; quarters++)
+				turned = turned.rotated(Rotation.ROT_90, 1);
+
+			VLQTest.check(Arrays.equals(turned.toArray(), original), "Rotating " + (90 * rotation.ordinal())
+							+ " degrees, then on to a full turn, changed the map");
+		}
+	}
+
+	/**
+	 * Starts a loader with a single thread, and so a single pooled buffer, and loads the well-formed map with it so that
+	 * the buffer holds the whole map.
+	 */
+	private void startLoader() throws IOException
+	{
+		loader = new MapLoader(1);
+		copyFile = Files.createTempFile("MapFuzzTest", ".lmu");
+		Files.write(copyFile, original);
+		loader.load(copyFile).join();
+	}
+
+	/**
+	 * Loads, rotates and writes a corrupted copy of the map, which must succeed or throw IllegalArgumentException,
+	 * then checks that the loader gives the same result.
+	 */
+	private void checkCorrupted()
+	{
+		byte[] data = original.clone();
+		for (int changes = 1 + random.nextInt(8); changes > 0; changes--)
+			data[random.nextInt(data.length)] = (byte) random.nextInt();
+		if (random.nextInt(4) == 0)
+			data = Arrays.copyOf(data, random.nextInt(data.length));
+
+		String outcome;
+		byte[] parsed = null;
+		try
+		{
+			RMMap map = new RMMap("fuzz/Map0001.lmu", data);
+			if (map.getEvents() == null)
+				outcome = "failed validation";
+			else
+			{
+				outcome = "loaded";
+				parsed = map.toArray();
+				for (Rotation rotation : Rotation.values())
+					map.rotated(rotation).toArray();
+				outcome = "rotated";
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			outcome = "rejected";
+		}
+
+		outcomes.merge(outcome, 1, Integer::sum);
+		checkLoaded(data, parsed);
+	}
+
+	/**
+	 * Checks that loading a copy from a file through the loader gives the same map as parsing it on its own.
+	 *
+	 * @param data		The copy
+	 * @param parsed	The copy parsed on its own and written back out, or null if it was rejected or failed validation
+	 */
+	private void checkLoaded(byte[] data, byte[] parsed)
+	{
+		byte[] loaded;
+		try
+		{
+			Files.write(copyFile, data);
+			loaded = loader.load(copyFile).join().toArray();
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		catch (CompletionException e)
+		{
+			// The loader reports a map that fails validation with IllegalStateException
+			if (!(e.getCause() instanceof IllegalArgumentException || e.getCause() instanceof IllegalStateException))
+				throw e;
+			loaded = null;
+		}
+		catch (IllegalArgumentException e)
+		{
+			loaded = null;
+		}
+
+		VLQTest.check(parsed == null ? loaded == null : Arrays.equals(loaded, parsed), "Loading a copy of " + data.length
+						+ " bytes through a reused buffer " + (loaded == null ? "rejected it" : parsed == null ? "accepted it"
+						: "gave a different map") + ", unlike parsing it on its own");
+	}
+
+	/**
+	 * @return	A map of random size, with random tiles and events, as RPG Maker writes them
+	 */
+	private byte[] generateMap()
+	{
+		int width = 1 + random.nextInt(40);
+		int height = 1 + random.nextInt(40);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] header = "LcfMapUnit".getBytes();
+		ObjectListTest.writeVlq(out, header.length);
+		out.write(header, 0, header.length);
+
+		writeItem(out, 0x01, vlq(1));
+		writeItem(out, 0x02, vlq(width));
+		writeItem(out, 0x03, vlq(height));
+		writeItem(out, 0x0B, vlq(0));
+
+		// Lower tiles from every range rotateLowerTile treats differently, then upper tiles
+		int[] lower = { 0, 50, 1000, 2000, 3000, 3050, 4003, 4092, 4131, 5000, 5001, 5143 };
+		for (int layer = 0x47; layer <= 0x48; layer++)
+		{
+			byte[] tiles = new byte[2 * width * height];
+			for (int i = 0; i < tiles.length; i += 2)
+			{
+				int tile = layer == 0x47 ? lower[random.nextInt(lower.length)] : 10000 + random.nextInt(144);
+				tiles[i] = (byte) tile;
+				tiles[i + 1] = (byte) (tile >> 8);
+			}
+			writeItem(out, layer, tiles);
+		}
+
+		ByteArrayOutputStream events = new ByteArrayOutputStream();
+		int count = 1 + random.nextInt(8);
+		ObjectListTest.writeVlq(events, count);
+		for (int id = 1; id <= count; id++)
+		{
+			ObjectListTest.writeVlq(events, id);
+			writeItem(events, 0x01, ("EV" + id).getBytes());
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			if (x > 0)
+				writeItem(events, 0x02, vlq(x));
+			if (y > 0)
+				writeItem(events, 0x03, vlq(y));
+			writeItem(events, 0x05, generatePages(width, height));
+			events.write(0);
+		}
+		writeItem(out, 0x51, events.toByteArray());
+		writeItem(out, 0x5B, vlq(2));
+		out.write(0);
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param width		Width of the map
+	 * @param height	Height of the map
+	 * @return	An event's page list (item 0x05), holding one page
+	 */
+	private byte[] generatePages(int width, int height)
+	{
+		ByteArrayOutputStream script = new ByteArrayOutputStream();
+		int[][] commands = { { ScriptRewriter.TELEPORT, 1, random.nextInt(width), random.nextInt(height), random.nextInt(5) },
+								{ ScriptRewriter.SET_EVENT_LOCATION, 10005, 0, random.nextInt(width), random.nextInt(height),
+									random.nextInt(5) },
+								{ ScriptRewriter.GET_EVENT_ID, 0, random.nextInt(width), random.nextInt(height), 1 },
+								{ ScriptRewriter.PAN_SCREEN, 2, random.nextInt(4), 1, 0, 0 },
+								{ ScriptRewriter.CONDITIONAL_BRANCH, 6, 10005, random.nextInt(4), 0, 0, 0 },
+								{ ScriptRewriter.MOVE_ROUTE, 10005, 2, 0, 0, random.nextInt(16), random.nextInt(16),
+									random.nextInt(16), 32, 1, random.nextInt(16) } };
+		for (int[] command : commands)
+		{
+			ObjectListTest.writeVlq(script, command[0]);
+			ObjectListTest.writeVlq(script, 0);
+			ObjectListTest.writeVlq(script, 0);
+			ObjectListTest.writeVlq(script, command.length - 1);
+			for (int i = 1; i < command.length; i++)
+				ObjectListTest.writeVlq(script, command[i]);
+		}
+		script.write(new byte[4], 0, 4);
+		byte[] commandData = script.toByteArray();
+
+		ByteArrayOutputStream pages = new ByteArrayOutputStream();
+		ObjectListTest.writeVlq(pages, 1);
+		ObjectListTest.writeVlq(pages, 1);
+		writeItem(pages, 0x02, new byte[] { 0x01, 0x00 });
+		writeItem(pages, 0x15, "Chara1".getBytes());
+		writeItem(pages, 0x17, vlq(random.nextInt(4)));
+		writeItem(pages, 0x33, vlq(commandData.length));
+		writeItem(pages, 0x34, commandData);
+		pages.write(0);
+
+		return pages.toByteArray();
+	}
+
+	/**
+	 * Writes an item: its ID, the size of its data, then the data.
+	 *
+	 * @param out	The stream to write to
+	 * @param id	ID of the item
+	 * @param data	Data of the item
+	 */
+	private static void writeItem(ByteArrayOutputStream out, int id, byte[] data)
+	{
+		out.write(id);
+		ObjectListTest.writeVlq(out, data.length);
+		out.write(data, 0, data.length);
+	}
+
+	/**
+	 * @param value	A non-negative integer
+	 * @return	The integer as a VLQ
+	 */
+	private static byte[] vlq(int value)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectListTest.writeVlq(out, value);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,245 @@
+package maprotator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * ObjectListTest.java
+ *
+ * Property checks for object lists, the format of items such as a map's events (0x51) and an event's pages (0x05).
+ * Random lists of objects, whose items are random bytes or further lists, are written independently of DataItem and
+ * must decode through getDataAsArray to the objects they were written from, at every level, and be written back to
+ * the same bytes by DataItem. Corrupted and truncated lists must either decode or throw IllegalArgumentException.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class ObjectListTest
+{
+	private static final int MAX_DEPTH = 4;		// Most levels of lists nested inside each other
+	private static final int MAX_OBJECTS = 6;	// Most objects in a list
+	private static final int MAX_ITEMS = 5;		// Most items in an object
+
+	private Random random;		// Source of the lists tested
+	private RMObject parent;	// Object the lists' items belong to
+
+	/**
+	 * Runs the checks.
+	 *
+	 * @param args	Optionally a random seed, and a number of iterations
+	 */
+	public static void main(String[] args)
+	{
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+		// getDataAsArray reports lists that don't match their size on System.err before throwing
+		PrintStream err = System.err;
+		System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+		try
+		{
+			ObjectListTest test = new ObjectListTest(seed);
+			for (int i = 0; i < iterations; i++)
+			{
+				List<TreeMap<Integer, Object>> list = test.randomList(0);
+				byte[] data = writeList(list);
+				test.checkRoundTrip(list, data);
+				test.checkMalformed(data);
+			}
+		}
+		finally
+		{
+			System.setErr(err);
+		}
+
+		System.out.println("ObjectListTest passed " + iterations + " iterations (seed " + seed + ")");
+	}
+
+	/**
+	 * @param seed	Seed of the lists tested
+	 */
+	public ObjectListTest(long seed)
+	{
+		random = new Random(seed);
+		parent = new RMObject(new byte[] { 0x01, 0x00 }, 0);
+		parent.setName("ObjectListTest");
+	}
+
+	/**
+	 * Checks that a list decodes to the objects it was written from, and is written back to the same bytes.
+	 *
+	 * @param list	The objects written
+	 * @param data	The list as written by writeList
+	 */
+	private void checkRoundTrip(List<TreeMap<Integer, Object>> list, byte[] data)
+	{
+		DataItem item = new DataItem(0x51, data, parent);
+		RMObject[] objects = checkList(item, list);
+
+		DataItem rewritten = new DataItem(0x51, objects, parent);
+		byte[] expected = Arrays.copyOfRange(item.byteArray(), 0, item.itemSize());
+		byte[] actual = Arrays.copyOfRange(rewritten.byteArray(), 0, rewritten.itemSize());
+		VLQTest.check(Arrays.equals(expected, actual), "DataItem wrote a list of " + objects.length
+						+ " objects back differently");
+	}
+
+	/**
+	 * Decodes a list item and compares it with the objects it was written from, descending into nested lists.
+	 *
+	 * @param item		The item holding the list
+	 * @param expected	The objects written
+	 * @return	The decoded objects
+	 */
+	private static RMObject[] checkList(DataItem item, List<TreeMap<Integer, Object>> expected)
+	{
+		RMObject[] objects = item.getDataAsArray();
+		VLQTest.check(objects.length == expected.size(), "Decoded " + objects.length + " objects, but "
+						+ expected.size() + " were written");
+
+		for (int i = 0; i < objects.length; i++)
+		{
+			VLQTest.check(VLQ.arrayToInt(objects[i].header) == i + 1, "Object " + (i + 1) + " decoded with ID "
+							+ VLQ.arrayToInt(objects[i].header));
+			VLQTest.check(objects[i].dataItems.keySet().equals(expected.get(i).keySet()), "Object " + (i + 1)
+							+ " decoded with items " + objects[i].dataItems.keySet() + " instead of " + expected.get(i).keySet());
+
+			for (Entry<Integer, Object> entry : expected.get(i).entrySet())
+			{
+				DataItem decoded = objects[i].dataItems.get(entry.getKey());
+				if (entry.getValue() instanceof byte[])
+				{
+					byte[] data = Arrays.copyOfRange(decoded.byteArray(), decoded.getDataIndex(),
+														decoded.getDataIndex() + decoded.getDataSize());
+					VLQTest.check(Arrays.equals(data, (byte[]) entry.getValue()), "Item " + entry.getKey() + " of object "
+									+ (i + 1) + " decoded with different data");
+				}
+				else
+				{
+					@SuppressWarnings("unchecked")
+					List<TreeMap<Integer, Object>> nested = (List<TreeMap<Integer, Object>>) entry.getValue();
+					checkList(decoded, nested);
+				}
+			}
+		}
+
+		return objects;
+	}
+
+	/**
+	 * Checks that a list with some bytes changed, or cut short, either decodes or throws IllegalArgumentException,
+	 * treating every item of every decoded object as a possible nested list.
+	 *
+	 * @param data	A well-formed list, as written by writeList
+	 */
+	private void checkMalformed(byte[] data)
+	{
+		byte[] corrupted = Arrays.copyOf(data, random.nextInt(4) == 0 ? random.nextInt(data.length + 1) : data.length);
+		for (int changes = 1 + random.nextInt(4); changes > 0 && corrupted.length > 0; changes--)
+			corrupted[random.nextInt(corrupted.length)] = (byte) random.nextInt();
+
+		decodeAll(new DataItem(0x51, corrupted, parent));
+	}
+
+	/**
+	 * Decodes an item as a list, then each item of the objects in it, ignoring items that aren't lists.
+	 *
+	 * @param item	The item to decode
+	 */
+	private static void decodeAll(DataItem item)
+	{
+		RMObject[] objects;
+		try
+		{
+			objects = item.getDataAsArray();
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Rejected, as malformed input should be
+			return;
+		}
+
+		for (RMObject object : objects)
+			for (DataItem nested : object.dataItems.values())
+				decodeAll(nested);
+	}
+
+	/**
+	 * @param depth	Number of lists this one is nested inside
+	 * @return	A list of objects, each a map from item IDs to either random bytes or a nested list
+	 */
+	private List<TreeMap<Integer, Object>> randomList(int depth)
+	{
+		List<TreeMap<Integer, Object>> list = new ArrayList<TreeMap<Integer, Object>>();
+		for (int count = random.nextInt(MAX_OBJECTS + 1); count > 0; count--)
+		{
+			TreeMap<Integer, Object> object = new TreeMap<Integer, Object>();
+			for (int items = random.nextInt(MAX_ITEMS + 1); items > 0; items--)
+			{
+				int id = 1 + random.nextInt(0x7F);
+				if (depth < MAX_DEPTH && random.nextInt(4) == 0)
+					object.put(id, randomList(depth + 1));
+				else
+				{
+					byte[] data = new byte[random.nextInt(random.nextInt(8) == 0 ? 300 : 8)];
+					random.nextBytes(data);
+					object.put(id, data);
+				}
+			}
+			list.add(object);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Writes a list as RPG Maker does: its length, then each object's ID, items in ascending order of ID, and
+	 * end-of-object byte. Objects are numbered from 1.
+	 *
+	 * @param list	The objects to write
+	 * @return	The list's data
+	 */
+	private static byte[] writeList(List<TreeMap<Integer, Object>> list)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeVlq(out, list.size());
+
+		for (int i = 0; i < list.size(); i++)
+		{
+			writeVlq(out, i + 1);
+			for (Entry<Integer, Object> entry : list.get(i).entrySet())
+			{
+				@SuppressWarnings("unchecked")
+				byte[] data = entry.getValue() instanceof byte[] ? (byte[]) entry.getValue()
+								: writeList((List<TreeMap<Integer, Object>>) entry.getValue());
+				out.write(entry.getKey());
+				writeVlq(out, data.length);
+				out.write(data, 0, data.length);
+			}
+			out.write(0);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes a non-negative integer as a VLQ, seven bits to a byte, most significant first.
+	 *
+	 * @param out	The stream to write to
+	 * @param value	The integer to write
+	 */
+	static void writeVlq(ByteArrayOutputStream out, int value)
+	{
+		for (int shift = 28; shift > 0; shift -= 7)
+			if (value >>> shift != 0)
+				out.write(0x80 | (value >>> shift) & 0x7F);
+		out.write(value & 0x7F);
+	}
+}
@@ -0,0 +1,135 @@
+package maprotator;
+
+import java.util.Random;
+
+/**
+ * VLQTest.java
+ *
+ * Property checks for VLQ encoding and decoding. Random integers must survive a round trip through parseInteger and
+ * every decoder (arrayToInt, readInt and extractVlq, at any offset of a larger array), and the decoders must agree
+ * with sizeOf and length on how many bytes each VLQ takes. Random byte strings, which are mostly malformed VLQs, must
+ * either decode or throw IllegalArgumentException, never reading outside the array.
+ *
+ * @author agent
+ * @version 10-19-26
+ */
+public class VLQTest
+{
+	private Random random;	// Source of the values tested
+
+	/**
+	 * Runs the checks.
+	 *
+	 * @param args	Optionally a random seed, and a number of iterations
+	 */
+	public static void main(String[] args)
+	{
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+		VLQTest test = new VLQTest(seed);
+		test.checkBoundaries();
+		for (int i = 0; i < iterations; i++)
+		{
+			test.checkRoundTrip(test.randomValue());
+			test.checkMalformed();
+		}
+
+		System.out.println("VLQTest passed " + iterations + " iterations (seed " + seed + ")");
+	}
+
+	/**
+	 * @param seed	Seed of the values tested
+	 */
+	public VLQTest(long seed)
+	{
+		random = new Random(seed);
+	}
+
+	/**
+	 * Checks the values where a VLQ gains a byte.
+	 */
+	private void checkBoundaries()
+	{
+		for (int bits = 1; bits < 31; bits++)
+		{
+			checkRoundTrip((1 << bits) - 1);
+			checkRoundTrip(1 << bits);
+		}
+		checkRoundTrip(0);
+		checkRoundTrip(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Checks that a non-negative integer decodes to itself, whether read on its own or from the middle of other data.
+	 *
+	 * @param value	The integer to check
+	 */
+	private void checkRoundTrip(int value)
+	{
+		byte[] vlq = VLQ.parseInteger(value);
+		check(vlq.length == VLQ.sizeOf(value), "sizeOf(" + value + ") is " + VLQ.sizeOf(value) + ", but its VLQ has "
+				+ vlq.length + " bytes");
+		check(vlq.length <= VLQ.MAX_LENGTH, value + " takes " + vlq.length + " bytes");
+		check(VLQ.arrayToInt(vlq) == value, "arrayToInt read " + VLQ.arrayToInt(vlq) + " back from " + value);
+		check(new VLQ(value).toInteger() == value, "VLQ(" + value + ") reads back as " + new VLQ(value).toInteger());
+
+		// Surround the VLQ with random bytes, which the decoders must leave alone
+		int offset = random.nextInt(8);
+		byte[] data = new byte[offset + vlq.length + random.nextInt(8)];
+		random.nextBytes(data);
+		System.arraycopy(vlq, 0, data, offset, vlq.length);
+
+		check(VLQ.length(data, offset) == vlq.length, "length read " + VLQ.length(data, offset) + " bytes of " + value);
+		check(VLQ.readInt(data, offset) == value, "readInt read " + VLQ.readInt(data, offset) + " back from " + value);
+		check(VLQ.extractVlq(data, offset).toInteger() == value, "extractVlq read "
+				+ VLQ.extractVlq(data, offset).toInteger() + " back from " + value);
+	}
+
+	/**
+	 * Checks that decoding random bytes at a random index either succeeds consistently or throws
+	 * IllegalArgumentException.
+	 */
+	private void checkMalformed()
+	{
+		byte[] data = new byte[random.nextInt(8)];
+		random.nextBytes(data);
+
+		// Mostly continuation bytes, so that VLQs run long or off the end of the array
+		for (int i = 0; i < data.length; i++)
+			if (random.nextInt(4) != 0)
+				data[i] |= 0x80;
+
+		int index = random.nextInt(data.length + 2) - 1;
+		try
+		{
+			int length = VLQ.length(data, index);
+			check(index >= 0 && index + length <= data.length, "length accepted a VLQ outside the array");
+			check(VLQ.readInt(data, index) == VLQ.extractVlq(data, index).toInteger(), "readInt and extractVlq disagree");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Rejected, as malformed input should be
+		}
+	}
+
+	/**
+	 * @return	A non-negative integer, with sizes spread evenly over VLQ lengths
+	 */
+	private int randomValue()
+	{
+		int bits = 1 + random.nextInt(31);
+		return random.nextInt() >>> (32 - bits);
+	}
+
+	/**
+	 * @param condition	A property that should hold
+	 * @param message	Description of the failure if it doesn't
+	 * @throws AssertionError	If the property doesn't hold
+	 */
+	static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}